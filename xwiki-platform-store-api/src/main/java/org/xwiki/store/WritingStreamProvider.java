@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.io.OutputStream;
+
+/**
+ * A StreamProvider which is also able to write its content directly to an OutputStream.
+ * Consumers which have somewhere to put the data, such as a file, should prefer
+ * {@link #writeTo(OutputStream)} because it does not require the content to be buffered.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public interface WritingStreamProvider extends StreamProvider
+{
+    /**
+     * Write the content which would be provided by {@link #getStream()} to the given stream.
+     * The stream is not closed.
+     *
+     * @param out the stream to write the content to.
+     * @throws Exception if something goes wrong while writing the content.
+     */
+    void writeTo(OutputStream out) throws Exception;
+}
@@ -20,10 +20,17 @@
 package org.xwiki.store.attachments.adapter.internal;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import com.xpn.xwiki.doc.DeletedAttachment;
 import com.xpn.xwiki.doc.XWikiAttachment;
@@ -38,12 +45,15 @@ import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
 import org.xwiki.model.EntityType;
 import org.xwiki.store.attachments.legacy.doc.internal.ExternalContentDeletedAttachment;
 import org.xwiki.store.attachments.legacy.doc.internal.ListAttachmentArchive;
 import org.xwiki.store.attachments.newstore.internal.DeletedAttachmentContentStore;
 import org.xwiki.store.attachments.newstore.internal.DeletedAttachmentStore;
 import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.TransactionException;
+import org.xwiki.store.UnexpectedException;
 
 /**
  * Realization of {@link AttachmentRecycleBinStore} for filesystem storage.
@@ -60,6 +70,40 @@ public abstract class AbstractAttachmentRecycleBinStoreAdapter<T>
     private static final Logger LOGGER =
         LoggerFactory.getLogger(AbstractAttachmentRecycleBinStoreAdapter.class);
 
+    /**
+     * The name of the system property for the number of days which deleted attachments are
+     * kept in the recycle bin before they are purged automatically.
+     */
+    protected static final String RETENTION_DAYS_PROPERTY =
+        "xwiki.store.attachments.recycleBin.retentionDays";
+
+    /** The greatest number of deleted attachments to purge in one transaction. */
+    protected static final int DEFAULT_PURGE_BATCH_SIZE = 1000;
+
+    /** The number of milliseconds in a day. */
+    protected static final long ONE_DAY = 24L * 60 * 60 * 1000;
+
+    /** The greatest number of resolved deleted attachment ids to remember. */
+    private static final int MAX_RESOLVED_IDS = 10000;
+
+    /**
+     * References for deleted attachment ids which have already been resolved, keyed by
+     * wiki and id. An id always refers to the same deleted attachment so these never become stale.
+     * Guarded by itself.
+     */
+    private final Map<String, AttachmentReference> resolvedIds =
+        new LinkedHashMap<String, AttachmentReference>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, AttachmentReference> eldest)
+            {
+                return this.size() > MAX_RESOLVED_IDS;
+            }
+        };
+
+    /** The thread which runs retention sweeps, null until they are started. */
+    private ScheduledExecutorService sweeper;
+
     /**
      * @return the transaction which deleted attachments will be stored or loaded in.
      */
@@ -93,8 +137,297 @@ public abstract class AbstractAttachmentRecycleBinStoreAdapter<T>
      *
      * @param id the opaque deleted attachment id number.
      * @return a reference to the attachment which was deleted or null if it cannot be found.
+     * @see #getAttachmentReferencesForIds(Collection)
+     */
+    protected AttachmentReference getAttachmentReferenceForId(final long id)
+    {
+        return this.getAttachmentReferencesForIds(Collections.singletonList(Long.valueOf(id)))
+            .get(Long.valueOf(id));
+    }
+
+    /**
+     * Map many deleted attachment ids to attachment references at once.
+     * Ids which were resolved before or which belong to deleted attachments which have been
+     * loaded are answered from memory, the rest are resolved together by
+     * {@link #resolveAttachmentReferences(Collection)}.
+     *
+     * @param ids the opaque deleted attachment id numbers.
+     * @return a map of id to reference to the attachment which was deleted,
+     *         ids which cannot be found are not in the map.
+     * @since TODO
+     */
+    public Map<Long, AttachmentReference> getAttachmentReferencesForIds(final Collection<Long> ids)
+    {
+        final String wiki = this.getCurrentWikiName();
+        final Map<Long, AttachmentReference> out = new HashMap<Long, AttachmentReference>();
+        final List<Long> unresolved = new ArrayList<Long>();
+        synchronized (this.resolvedIds) {
+            for (final Long id : ids) {
+                final AttachmentReference ref = this.resolvedIds.get(idKey(wiki, id));
+                if (ref != null) {
+                    out.put(id, ref);
+                } else {
+                    unresolved.add(id);
+                }
+            }
+        }
+
+        if (unresolved.size() > 0) {
+            final Map<Long, AttachmentReference> resolved = this.resolveAttachmentReferences(unresolved);
+            synchronized (this.resolvedIds) {
+                for (final Map.Entry<Long, AttachmentReference> e : resolved.entrySet()) {
+                    this.resolvedIds.put(idKey(wiki, e.getKey()), e.getValue());
+                }
+            }
+            out.putAll(resolved);
+        }
+        return out;
+    }
+
+    /**
+     * Look up the attachment references for a number of deleted attachment ids in storage.
+     * Implementations should do this with as few round trips as possible.
+     * This implementation loads the deleted attachments with
+     * {@link DeletedAttachmentStore#getDeletedAttachmentsByIdLoadRunnable(Collection, List)} in one
+     * transaction and resolves the names of their documents in the current wiki.
+     *
+     * @param ids the opaque deleted attachment id numbers, none of these have been resolved before.
+     * @return a map of id to reference to the attachment which was deleted,
+     *         ids which cannot be found should be left out.
+     * @since TODO
+     */
+    protected Map<Long, AttachmentReference> resolveAttachmentReferences(final Collection<Long> ids)
+    {
+        final List<ExternalContentDeletedAttachment> loaded =
+            new ArrayList<ExternalContentDeletedAttachment>(ids.size());
+        final StartableTransactionRunnable<T> transaction = this.getTransaction();
+        this.getMetaStore().getDeletedAttachmentsByIdLoadRunnable(ids, loaded).runIn(transaction);
+        try {
+            transaction.start();
+        } catch (TransactionException e) {
+            throw new UnexpectedException("Failed to get the names of the deleted attachments "
+                                          + "with ids " + ids, e);
+        }
+
+        final String wiki = this.getCurrentWikiName();
+        final Map<Long, AttachmentReference> out = new HashMap<Long, AttachmentReference>();
+        for (final ExternalContentDeletedAttachment attach : loaded) {
+            DocumentReference docRef = new DocumentReference(
+                this.getDeleterNameResolver().resolve(attach.getDocName(), EntityType.DOCUMENT));
+            if (!StringUtils.isEmpty(wiki)) {
+                docRef = docRef.replaceParent(docRef.getWikiReference(), new WikiReference(wiki));
+            }
+            out.put(Long.valueOf(attach.getId()), new AttachmentReference(attach.getFilename(), docRef));
+        }
+        return out;
+    }
+
+    /**
+     * Deleted attachment ids are only unique within a wiki so the resolved ids are remembered by wiki.
+     * This implementation returns the empty string which is fine if ids are globally unique.
+     *
+     * @return the name of the wiki which deleted attachment ids currently refer to.
+     * @since TODO
+     */
+    protected String getCurrentWikiName()
+    {
+        return "";
+    }
+
+    /**
+     * Deleted attachments which are older than this are purged from the recycle bin in the
+     * background. This implementation returns 0 which means deleted attachments are kept forever.
+     *
+     * @return the number of milliseconds to keep deleted attachments or 0 to keep them forever.
+     * @since TODO
+     */
+    protected long getRetentionPeriod()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the number of milliseconds to wait between the end of one retention sweep and the
+     *         start of the next.
+     * @since TODO
+     */
+    protected long getRetentionSweepInterval()
+    {
+        return ONE_DAY / 24;
+    }
+
+    /**
+     * @return the greatest number of deleted attachments to purge in one transaction.
+     * @since TODO
+     */
+    protected int getPurgeBatchSize()
+    {
+        return DEFAULT_PURGE_BATCH_SIZE;
+    }
+
+    /**
+     * @return the names of the wikis whose recycle bins are swept for expired deleted attachments.
+     *         This implementation returns no wikis.
+     * @throws XWikiException if the wikis cannot be listed.
+     * @since TODO
+     */
+    protected Collection<String> getWikisToSweep() throws XWikiException
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Prepare a task to be run against a given wiki in the background thread which runs retention
+     * sweeps. There is no request in that thread so implementations which need an XWikiContext
+     * should set up a new one for the wiki. This implementation returns the task as it is.
+     *
+     * @param wiki the name of the wiki which the task will work on.
+     * @param task the task to run.
+     * @return a task which will set up the environment and then run the given task.
+     * @since TODO
+     */
+    protected Runnable inWiki(final String wiki, final Runnable task)
+    {
+        return task;
+    }
+
+    /**
+     * Start sweeping the recycle bin of each wiki given by {@link #getWikisToSweep()} for deleted
+     * attachments which are older than the retention period, once every
+     * {@link #getRetentionSweepInterval()} milliseconds in a background thread.
+     * Nothing is started if there is no retention period or the sweeps are already started.
+     *
+     * @since TODO
+     */
+    protected synchronized void startRetentionSweeps()
+    {
+        final long interval = this.getRetentionSweepInterval();
+        if (this.getRetentionPeriod() <= 0 || this.sweeper != null) {
+            return;
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r)
+            {
+                final Thread t = new Thread(r, "AttachmentRecycleBinRetention");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        this.sweeper.scheduleWithFixedDelay(new Runnable() {
+            public void run()
+            {
+                sweep();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Purge every deleted attachment which was deleted before a given date.
+     * The deleted attachments are purged in batches, each batch in one transaction with the
+     * content of each deleted attachment removed by the content store as a whole.
+     * Deleted attachments whose attachment reference cannot be resolved are skipped.
+     *
+     * @param deletedBefore deleted attachments which were deleted before this will be purged.
+     * @param batchSize the greatest number of deleted attachments to purge in one transaction.
+     * @return the number of deleted attachments which were purged.
+     * @throws XWikiException if there is an unexpected exception while running a transaction.
+     * @since TODO
+     */
+    public int purgeDeletedAttachments(final Date deletedBefore, final int batchSize)
+        throws XWikiException
+    {
+        int purged = 0;
+        DeletedAttachment after = null;
+        for (;;) {
+            final List<ExternalContentDeletedAttachment> batch =
+                new ArrayList<ExternalContentDeletedAttachment>();
+            final StartableTransactionRunnable<T> loadTransaction = this.getTransaction();
+            this.getMetaStore()
+                .getExpiredDeletedAttachmentLoadRunnable(deletedBefore, after, batchSize, batch)
+                    .runIn(loadTransaction);
+            try {
+                loadTransaction.start();
+            } catch (Exception e) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                                         XWikiException.MODULE_XWIKI,
+                                         "Failed to load deleted attachments which were "
+                                         + "deleted before " + deletedBefore, e);
+            }
+            if (batch.size() == 0) {
+                return purged;
+            }
+
+            final List<Long> ids = new ArrayList<Long>(batch.size());
+            for (final ExternalContentDeletedAttachment attach : batch) {
+                ids.add(Long.valueOf(attach.getId()));
+            }
+            final Map<Long, AttachmentReference> refs = this.getAttachmentReferencesForIds(ids);
+            ids.retainAll(refs.keySet());
+            if (ids.size() < batch.size()) {
+                LOGGER.warn("Could not resolve [{}] expired deleted attachments, they will not be "
+                            + "purged.", batch.size() - ids.size());
+            }
+
+            if (ids.size() > 0) {
+                final StartableTransactionRunnable<T> transaction = this.getTransaction();
+                this.getMetaStore().getDeletedAttachmentsPurgeRunnable(ids).runIn(transaction);
+                for (final ExternalContentDeletedAttachment attach : batch) {
+                    final AttachmentReference ref = refs.get(Long.valueOf(attach.getId()));
+                    if (ref != null) {
+                        this.getContentStore()
+                            .getDeletedAttachmentContentPurgeRunnable(ref, attach.getDate())
+                                .runIn(transaction);
+                    }
+                }
+                try {
+                    transaction.start();
+                } catch (Exception e) {
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                                             XWikiException.MODULE_XWIKI,
+                                             "Failed to purge [" + ids.size()
+                                             + "] expired deleted attachments", e);
+                }
+                purged += ids.size();
+            }
+
+            if (batch.size() < batchSize) {
+                return purged;
+            }
+            after = batch.get(batch.size() - 1);
+        }
+    }
+
+    /**
+     * Purge the deleted attachments which are older than the retention period from the recycle bin
+     * of each wiki. A failure to sweep one wiki does not stop the others from being swept.
      */
-    protected abstract AttachmentReference getAttachmentReferenceForId(final long id);
+    private void sweep()
+    {
+        final Collection<String> wikis;
+        try {
+            wikis = this.getWikisToSweep();
+        } catch (Exception e) {
+            LOGGER.warn("Failed to list the wikis to purge expired deleted attachments from", e);
+            return;
+        }
+        final Date deletedBefore = new Date(System.currentTimeMillis() - this.getRetentionPeriod());
+        final int batchSize = this.getPurgeBatchSize();
+        for (final String wiki : wikis) {
+            this.inWiki(wiki, new Runnable() {
+                public void run()
+                {
+                    try {
+                        final int purged = purgeDeletedAttachments(deletedBefore, batchSize);
+                        LOGGER.debug("Purged [{}] deleted attachments from the recycle bin of [{}]",
+                                     purged, wiki);
+                    } catch (Exception e) {
+                        LOGGER.warn("Failed to purge expired deleted attachments of [{}]", wiki, e);
+                    }
+                }
+            }).run();
+        }
+    }
 
     @Override
     public void saveToRecycleBin(final XWikiAttachment attachment,
@@ -142,6 +475,9 @@ public abstract class AbstractAttachmentRecycleBinStoreAdapter<T>
                                                   final boolean bTransaction) throws XWikiException
     {
         final AttachmentReference attachRef = this.getAttachmentReferenceForId(index);
+        if (attachRef == null) {
+            return null;
+        }
         final ExternalContentDeletedAttachment out = this.getDeletedAttachment(attachRef, index);
         if (out != null) {
             this.loadAttachmentContent(
@@ -187,10 +523,8 @@ public abstract class AbstractAttachmentRecycleBinStoreAdapter<T>
                                      + attachRef,
                                      e);
         }
-
-        if (out.size() > 0) {
-            this.loadAttachmentContent(attachRef.getDocumentReference(), out);
-        }
+        this.rememberIds(attachRef.getDocumentReference(), out);
+        this.loadContentOnDemand(attachRef.getDocumentReference(), out);
 
         return new ArrayList<DeletedAttachment>(out.size()) { { addAll(out); } };
     }
@@ -216,12 +550,51 @@ public abstract class AbstractAttachmentRecycleBinStoreAdapter<T>
                                      + "for all attachments for document: " + doc,
                                      e);
         }
+        this.rememberIds(doc.getDocumentReference(), out);
+        this.loadContentOnDemand(doc.getDocumentReference(), out);
 
-        if (out.size() > 0) {
-            this.loadAttachmentContent(doc.getDocumentReference(), out);
+        return new ArrayList<DeletedAttachment>(out.size()) { { addAll(out); } };
+    }
+
+    /**
+     * Get one page of the deleted attachments for a document, newest first.
+     * To get the next page, pass the last deleted attachment of this page as the after parameter.
+     * The content of the deleted attachments is not loaded until one is viewed or restored.
+     *
+     * @param doc the document to get deleted attachments for.
+     * @param after the last deleted attachment of the previous page or null to get the first page.
+     * @param limit the greatest number of deleted attachments to return.
+     * @param context the legacy XWikiContext, unused.
+     * @return a list of at most limit deleted attachments, if it is shorter than limit then there
+     *         are no more pages.
+     * @throws XWikiException if there is an unexpected exception while running the transaction.
+     * @since TODO
+     */
+    public List<DeletedAttachment> getDeletedAttachments(final XWikiDocument doc,
+                                                         final DeletedAttachment after,
+                                                         final int limit,
+                                                         final XWikiContext context)
+        throws XWikiException
+    {
+        final List<ExternalContentDeletedAttachment> out =
+            new ArrayList<ExternalContentDeletedAttachment>();
+        final StartableTransactionRunnable<T> transaction = this.getTransaction();
+        this.getMetaStore()
+            .getDeletedAttachmentPageLoadRunnable(doc.getDocumentReference(), after, limit, out)
+                .runIn(transaction);
+        try {
+            transaction.start();
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                                     XWikiException.MODULE_XWIKI,
+                                     "Failed to load a page of deleted attachment metadata "
+                                     + "for document: " + doc,
+                                     e);
         }
+        this.rememberIds(doc.getDocumentReference(), out);
+        this.loadContentOnDemand(doc.getDocumentReference(), out);
 
-        return new ArrayList<DeletedAttachment>(out.size()) { { addAll(out); } };
+        return new ArrayList<DeletedAttachment>(out);
     }
 
     @Override
@@ -231,7 +604,7 @@ public abstract class AbstractAttachmentRecycleBinStoreAdapter<T>
         throws XWikiException
     {
         final AttachmentReference ar = this.getAttachmentReferenceForId(index);
-        final DeletedAttachment toPurge = this.getDeletedAttachment(ar, index);
+        final DeletedAttachment toPurge = (ar != null) ? this.getDeletedAttachment(ar, index) : null;
         if (toPurge == null) {
             LOGGER.debug("attachment [{0}] to purge at index [{1}] doesn't exist.", ar, index);
         } else {
@@ -254,6 +627,61 @@ public abstract class AbstractAttachmentRecycleBinStoreAdapter<T>
         }
     }
 
+    /**
+     * Remember the references for the ids of a list of deleted attachments which were just loaded
+     * so that the UI can address them by id without another look up.
+     *
+     * @param docRef the document which the attachments were attached to.
+     * @param loaded the deleted attachments.
+     */
+    private void rememberIds(final DocumentReference docRef,
+                             final List<ExternalContentDeletedAttachment> loaded)
+    {
+        final String wiki = this.getCurrentWikiName();
+        synchronized (this.resolvedIds) {
+            for (final ExternalContentDeletedAttachment attach : loaded) {
+                this.resolvedIds.put(idKey(wiki, Long.valueOf(attach.getId())),
+                                     new AttachmentReference(attach.getFilename(), docRef));
+            }
+        }
+    }
+
+    /**
+     * @param wiki the name of the wiki which the id belongs to.
+     * @param id a deleted attachment id.
+     * @return a key for the resolved id cache.
+     */
+    private static String idKey(final String wiki, final Long id)
+    {
+        return wiki + ':' + id;
+    }
+
+    /**
+     * Arrange for the content of each of a list of deleted attachments to be loaded
+     * only when that deleted attachment is viewed or restored.
+     *
+     * @param docRef the reference to the document to which the attachments were attached.
+     * @param deleted the deleted attachments, just loaded and without content.
+     */
+    private void loadContentOnDemand(final DocumentReference docRef,
+                                     final List<ExternalContentDeletedAttachment> deleted)
+    {
+        final ExternalContentDeletedAttachment.AttachmentLoader loader =
+            new ExternalContentDeletedAttachment.AttachmentLoader()
+            {
+                @Override
+                public XWikiAttachment loadAttachment(final ExternalContentDeletedAttachment toLoad)
+                    throws XWikiException
+                {
+                    loadAttachmentContent(docRef, Collections.singletonList(toLoad));
+                    return toLoad.getAttachment();
+                }
+            };
+        for (final ExternalContentDeletedAttachment attach : deleted) {
+            attach.setAttachmentLoader(loader);
+        }
+    }
+
     /**
      * Load the content for one or more deleted attachments.
      *
@@ -318,6 +746,7 @@ public abstract class AbstractAttachmentRecycleBinStoreAdapter<T>
                                      + attachRef,
                                      e);
         }
+        this.rememberIds(attachRef.getDocumentReference(), list);
 
         for (final ExternalContentDeletedAttachment attach : list) {
             if (attach.getId() == index) {
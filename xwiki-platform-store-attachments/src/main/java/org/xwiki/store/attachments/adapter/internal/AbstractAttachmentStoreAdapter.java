@@ -21,6 +21,9 @@ package org.xwiki.store.attachments.adapter.internal;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
@@ -32,10 +35,13 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.store.attachments.newstore.internal.AttachmentArchiveStore;
 import org.xwiki.store.attachments.newstore.internal.AttachmentContentStore;
 import org.xwiki.store.attachments.newstore.internal.AttachmentStore;
+import org.xwiki.store.attachments.newstore.internal.CachingAttachmentContentStore;
+import org.xwiki.store.ConcurrentTransactionRunnable;
 import org.xwiki.store.StartableTransactionRunnable;
 import org.xwiki.store.TransactionException;
 import org.xwiki.store.TransactionRunnable;
@@ -50,12 +56,38 @@ import org.xwiki.store.TransactionRunnable;
  * @since 3.3M2
  */
 public abstract class AbstractAttachmentStoreAdapter<T>
-    implements XWikiAttachmentStoreInterface
+    implements XWikiAttachmentStoreInterface, Disposable
 {
     /** Garbage spewer. */
     private static final Logger LOGGER =
         LoggerFactory.getLogger(AbstractAttachmentStoreAdapter.class);
 
+    /**
+     * The system property which sets how many attachments may be written at the same time
+     * by adapters whose underlying stores are safe to use from more than one thread.
+     */
+    protected static final String MAX_CONCURRENT_WRITES_PROPERTY =
+        "xwiki.store.attachments.maxConcurrentWrites";
+
+    /** The number of attachments which may be written at the same time if the property is not set. */
+    protected static final int DEFAULT_MAX_CONCURRENT_WRITES = 4;
+
+    /**
+     * The system property which sets the total number of bytes of attachment content
+     * which adapters with a content cache keep in memory.
+     */
+    protected static final String CONTENT_CACHE_SIZE_PROPERTY = "xwiki.store.attachments.contentCache.size";
+
+    /** The system property which sets the size in bytes of the largest attachment to cache. */
+    protected static final String CONTENT_CACHE_MAX_ENTRY_SIZE_PROPERTY =
+        "xwiki.store.attachments.contentCache.maxEntrySize";
+
+    /** The size of the content cache if the property is not set, 0 so the cache is off by default. */
+    protected static final long DEFAULT_CONTENT_CACHE_SIZE = 0;
+
+    /** The size of the largest attachment to cache if the property is not set, 64KB. */
+    protected static final int DEFAULT_CONTENT_CACHE_MAX_ENTRY_SIZE = 64 << 10;
+
     /** The type of transaction so that compatibility can be checked. */
     private final Class<T> transactionType;
 
@@ -68,6 +100,15 @@ public abstract class AbstractAttachmentStoreAdapter<T>
     /** If false then archiveStore is assumed to be incompatible and not used. */
     private boolean shouldUseArchiveStore = true;
 
+    /**
+     * The executor which writes attachments concurrently, shared by every save so the number of
+     * writer threads is bounded. Created on first use if concurrent writes are enabled.
+     */
+    private ExecutorService writeExecutor;
+
+    /** The content store wrapped in a cache, created on first use if the cache is enabled. */
+    private AttachmentContentStore<? super T> cachedContentStore;
+
     /**
      * The Constructor.
      *
@@ -94,6 +135,82 @@ public abstract class AbstractAttachmentStoreAdapter<T>
      */
     protected abstract AttachmentStore<? super T> getMetaStore();
 
+    /**
+     * Get the greatest number of attachments whose content and archive may be written at the same time
+     * when saving more than one attachment.
+     * This implementation returns 1 because the underlying stores might share a context such as a
+     * database session which cannot be used from more than one thread, adapters over stores which are
+     * safe to use concurrently should override it.
+     *
+     * @return the number of attachments to write at once, 1 to write them one after another.
+     * @since TODO
+     */
+    protected int getMaxConcurrentWrites()
+    {
+        return 1;
+    }
+
+    /**
+     * Get the total number of bytes of attachment content to cache in memory.
+     * This implementation returns 0 which disables the cache.
+     *
+     * @return the size of the content cache in bytes, 0 for no cache.
+     * @since TODO
+     */
+    protected long getContentCacheSize()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the size in bytes of the largest attachment whose content will be cached.
+     * @since TODO
+     */
+    protected int getContentCacheMaxEntrySize()
+    {
+        return Integer.getInteger(CONTENT_CACHE_MAX_ENTRY_SIZE_PROPERTY, DEFAULT_CONTENT_CACHE_MAX_ENTRY_SIZE);
+    }
+
+    /**
+     * Get the executor which is shared by every save to write attachments concurrently.
+     * It has {@link #getMaxConcurrentWrites()} daemon threads and is created on first use.
+     *
+     * @return the executor, or null if attachments are to be written one after another.
+     */
+    private synchronized ExecutorService writeExecutor()
+    {
+        if (this.writeExecutor == null) {
+            final int threads = this.getMaxConcurrentWrites();
+            if (threads < 2) {
+                return null;
+            }
+            this.writeExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread t = new Thread(r, "XWiki attachment writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return this.writeExecutor;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Stops the threads which write attachments concurrently.
+     *
+     * @see Disposable#dispose()
+     */
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.writeExecutor != null) {
+            this.writeExecutor.shutdown();
+            this.writeExecutor = null;
+        }
+    }
+
     /**
      * {@inheritDoc}
      * This implementation cannot operate in a larger transaction
@@ -156,6 +273,12 @@ public abstract class AbstractAttachmentStoreAdapter<T>
         try {
             final StartableTransactionRunnable<T> transaction = this.getTransaction();
 
+            // The content and archive of each attachment are independent of the others so they are
+            // written in their own branch, the branches are committed along with the rest of the transaction.
+            final ConcurrentTransactionRunnable<T> writes =
+                new ConcurrentTransactionRunnable<T>(this.writeExecutor());
+            writes.runIn(transaction);
+
             for (final XWikiAttachment attachment : attachments) {
 
                 final XWikiAttachmentContent content = attachment.getAttachment_content();
@@ -163,11 +286,12 @@ public abstract class AbstractAttachmentStoreAdapter<T>
                     // If content does not exist we should not blank the stored attachment.
                     continue;
                 }
+                final TransactionRunnable<T> branch = writes.newBranch();
 
                 // Save the attachment content
-                this.getContentStore()
+                this.contentStore()
                     .getAttachmentContentSaveRunnable(content)
-                        .runIn(transaction);
+                        .runIn(branch);
 
                 // Save the archive because this interface demands it
                 final XWikiAttachmentArchive archive = attachment.getAttachment_archive();
@@ -178,17 +302,18 @@ public abstract class AbstractAttachmentStoreAdapter<T>
                         // If first save then create a new archive.
                         this.archiveStore.getAttachmentArchiveSaveRunnable(
                             new ArrayList<XWikiAttachment>(1) { { add(attachment); } }
-                        ).runIn(transaction);
+                        ).runIn(branch);
                     } else {
                         final List<XWikiAttachment> versions =
                             AttachmentTools.getVersionsForArchive(archive, context);
 
                         this.archiveStore
                             .getAttachmentArchiveSaveRunnable(versions)
-                                .runIn(transaction);
+                                .runIn(branch);
                     }
                 } else {
                     // This is bad because there is no guarantee of transaction safety.
+                    // It is run in the main transaction because the legacy store may not be thread safe.
                     final AttachmentVersioningStore avs =
                         context.getWiki().getAttachmentVersioningStore();
                     (new TransactionRunnable() {
@@ -231,7 +356,7 @@ public abstract class AbstractAttachmentStoreAdapter<T>
         throws XWikiException
     {
         final StartableTransactionRunnable<T> transaction = this.getTransaction();
-        this.getContentStore().getAttachmentContentLoadRunnable(attachment).runIn(transaction);
+        this.contentStore().getAttachmentContentLoadRunnable(attachment).runIn(transaction);
         try {
             transaction.start();
         } catch (TransactionException e) {
@@ -242,6 +367,39 @@ public abstract class AbstractAttachmentStoreAdapter<T>
         }
     }
 
+    /**
+     * Load the content of a number of attachments in a single transaction.
+     * This is the loading counterpart to
+     * {@link #saveAttachmentsContent(List, XWikiDocument, boolean, XWikiContext, boolean)}.
+     * This implementation cannot operate in a larger transaction so it starts a
+     * new transaction no matter whether bTransaction is true or false.
+     *
+     * @param attachments the attachments to load the content for.
+     * @param context the XWikiContext for the request.
+     * @param bTransaction ignored.
+     * @throws XWikiException if the content of any of the attachments cannot be loaded.
+     */
+    public void loadAttachmentsContent(final List<XWikiAttachment> attachments,
+                                       final XWikiContext context,
+                                       final boolean bTransaction)
+        throws XWikiException
+    {
+        if (attachments == null || attachments.size() == 0) {
+            return;
+        }
+
+        final StartableTransactionRunnable<T> transaction = this.getTransaction();
+        this.contentStore().getAttachmentsContentLoadRunnable(attachments).runIn(transaction);
+        try {
+            transaction.start();
+        } catch (TransactionException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                                     XWikiException.ERROR_XWIKI_STORE_FILENOTFOUND,
+                                     "Unable to load content for attachments " + attachments,
+                                     e);
+        }
+    }
+
     @Override
     public void deleteXWikiAttachment(final XWikiAttachment attachment,
                                       final XWikiContext context,
@@ -260,7 +418,7 @@ public abstract class AbstractAttachmentStoreAdapter<T>
     {
         final StartableTransactionRunnable<T> transaction = this.getTransaction();
         final AttachmentReference ref = AttachmentTools.referenceForAttachment(attachment);
-        this.getContentStore().getAttachmentContentDeleteRunnable(attachment).runIn(transaction);
+        this.contentStore().getAttachmentContentDeleteRunnable(attachment).runIn(transaction);
 
         // If the store supports deleting in the same transaction then do it.
         if (this.useArchiveStore(context)) {
@@ -315,6 +473,38 @@ public abstract class AbstractAttachmentStoreAdapter<T>
         // Do nothing.
     }
 
+    /**
+     * @return the content store, wrapped in a cache if {@link #getContentCacheSize()} is not 0.
+     */
+    private synchronized AttachmentContentStore<? super T> contentStore()
+    {
+        if (this.cachedContentStore == null) {
+            final long cacheSize = this.getContentCacheSize();
+            if (cacheSize <= 0) {
+                return this.getContentStore();
+            }
+            this.cachedContentStore =
+                withCache(this.getContentStore(), cacheSize, this.getContentCacheMaxEntrySize());
+        }
+        return this.cachedContentStore;
+    }
+
+    /**
+     * Wrap a content store in a cache.
+     *
+     * @param <X> the transaction type of the store.
+     * @param store the store to wrap.
+     * @param cacheSize the total number of bytes to cache.
+     * @param maxEntrySize the largest attachment to cache.
+     * @return the store wrapped in a cache.
+     */
+    private static <X> AttachmentContentStore<X> withCache(final AttachmentContentStore<X> store,
+                                                           final long cacheSize,
+                                                           final int maxEntrySize)
+    {
+        return new CachingAttachmentContentStore<X>(store, cacheSize, maxEntrySize);
+    }
+
     /**
      * Get the archive store to use.
      *
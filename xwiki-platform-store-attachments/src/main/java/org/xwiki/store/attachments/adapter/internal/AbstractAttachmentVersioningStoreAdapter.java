@@ -29,7 +29,7 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.store.attachments.newstore.internal.AttachmentArchiveStore;
-import org.xwiki.store.attachments.legacy.doc.internal.ListAttachmentArchive;
+import org.xwiki.store.attachments.legacy.doc.internal.LazyAttachmentArchive;
 import org.xwiki.store.StartableTransactionRunnable;
 import org.xwiki.store.TransactionRunnable;
 
@@ -93,7 +93,7 @@ public abstract class AbstractAttachmentVersioningStoreAdapter<T>
             attach.setDoc(attachment.getDoc());
         }
 
-        attachment.setAttachment_archive(new ListAttachmentArchive(versionList));
+        attachment.setAttachment_archive(new LazyAttachmentArchive(versionList));
         attachment.getAttachment_archive().setAttachment(attachment);
         return attachment.getAttachment_archive();
     }
@@ -28,6 +28,8 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import org.suigeneris.jrcs.rcs.Version;
 import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.store.attachments.legacy.doc.internal.AbstractAttachmentArchive;
+import org.xwiki.store.attachments.legacy.doc.internal.LazyAttachmentArchive;
 
 /**
  * Utilities for manipulating XWikiAttachments.
@@ -56,6 +58,12 @@ public final class AttachmentTools
                                                               final XWikiContext context)
         throws XWikiException
     {
+        // The revisions in a lazy archive are not modified by saving so there is no need to copy them,
+        // their content is read from the store only when it is used.
+        if (archive instanceof LazyAttachmentArchive) {
+            return new ArrayList<XWikiAttachment>(((LazyAttachmentArchive) archive).getRevisions());
+        }
+
         // If the archive happens to be a VoidAttachmentArchive the single attachment version
         // will be the attachment itself, this function should return versions which have content
         // already loaded.
@@ -72,6 +80,25 @@ public final class AttachmentTools
         return out;
     }
 
+    /**
+     * Remove revisions which have been removed from storage from the archives they belong to
+     * so that the archives in memory agree with what is stored.
+     * Each revision's archive is found with {@link XWikiAttachment#getAttachment_archive()},
+     * archives which are not an {@link AbstractAttachmentArchive} are left as they are.
+     *
+     * @param removed the revisions which were removed.
+     * @since TODO
+     */
+    public static void removeRevisionsFromArchives(final List<XWikiAttachment> removed)
+    {
+        for (final XWikiAttachment rev : removed) {
+            final XWikiAttachmentArchive archive = rev.getAttachment_archive();
+            if (archive instanceof AbstractAttachmentArchive) {
+                ((AbstractAttachmentArchive) archive).removeRevision(rev.getVersion());
+            }
+        }
+    }
+
     /**
      * Throw an XWikiException based on information which can be gleaned from an archive.
      *
@@ -0,0 +1,249 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.attachments.legacy.doc.internal;
+
+import java.util.Collection;
+import java.util.Date;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import org.suigeneris.jrcs.rcs.Archive;
+import org.suigeneris.jrcs.rcs.Version;
+import org.suigeneris.jrcs.util.ToString;
+
+/**
+ * The revision handling which is shared by the attachment archives which keep each revision as an
+ * XWikiAttachment. Subclasses decide how the revisions are kept and looked up, this class copies
+ * them in and out of the archive and converts them to the RCS format.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public abstract class AbstractAttachmentArchive extends XWikiAttachmentArchive
+{
+    /**
+     * Generic message to put in any exception which occurs in this class.
+     */
+    protected static final String GENERIC_EXCEPTION_MESSAGE =
+        "Exception while manipulating the archive for attachment {0}";
+
+    /**
+     * Message to place in exceptions which are thrown because functions
+     * are not available in this implementation.
+     */
+    protected static final String NOT_IMPLEMENTED_MESSAGE =
+        "This function is not available in this implementation.";
+
+    /**
+     * The attachment which this is an archive of.
+     */
+    private XWikiAttachment attachment;
+
+    /**
+     * @return every revision in the archive in the order which they are kept.
+     */
+    protected abstract Collection<XWikiAttachment> getRevisionCollection();
+
+    /**
+     * @param version the version of a revision.
+     * @return the revision in this archive with that version, not a copy, or null if there is none.
+     */
+    protected abstract XWikiAttachment findRevision(final String version);
+
+    /**
+     * Add a revision to this archive.
+     *
+     * @param revision the revision to add, it is owned by this archive from now on.
+     */
+    protected abstract void addRevision(final XWikiAttachment revision);
+
+    /**
+     * Remove a revision from this archive.
+     * This is used when a revision has been removed from storage by a retention policy.
+     *
+     * @param version the version of the revision to remove.
+     * @return true if there was such a revision.
+     */
+    public abstract boolean removeRevision(final String version);
+
+    /**
+     * Clone an attachment but not it's archive.
+     * {@link XWikiAttachment#clone()} clones the archive which the attachment is associated with
+     * and cloning the archive clones the attachments in it, this prevents an infinite loop.
+     *
+     * @param original an attachment to clone, may be null.
+     * @return a clone of original which has no XWikiAttachmentArchive attached.
+     */
+    protected static XWikiAttachment cloneAttachment(final XWikiAttachment original)
+    {
+        if (original == null) {
+            return null;
+        }
+        final XWikiAttachmentArchive arch = original.getAttachment_archive();
+        try {
+            original.setAttachment_archive(null);
+            return (XWikiAttachment) original.clone();
+        } finally {
+            original.setAttachment_archive(arch);
+        }
+    }
+
+    /**
+     * Convert this attachment archive into JRCS format.
+     *
+     * @param context the XWikiContext for the request.
+     * @return this archive in JRCS format, null if there are no revisions.
+     * @throws Exception if something goes wrong while serializing the attachment to XML or inserting it
+     * into the RCS archive.
+     */
+    protected Archive toRCS(final XWikiContext context) throws Exception
+    {
+        Archive rcsArch = null;
+        for (final XWikiAttachment rev : this.getRevisionCollection()) {
+            final Object[] lines = ToString.stringToArray(rev.toStringXML(true, false, context));
+            if (rcsArch == null) {
+                // First cycle.
+                rcsArch = new Archive(lines, rev.getFilename(), rev.getVersion());
+            } else {
+                rcsArch.addRevision(lines, "");
+            }
+        }
+        return rcsArch;
+    }
+
+    /**
+     * Wrap an exception which occurred while converting the archive to or from RCS format.
+     *
+     * @param e the exception.
+     * @return e if it is an XWikiException, otherwise an XWikiException wrapping it.
+     */
+    protected XWikiException toArchiveFormatException(final Exception e)
+    {
+        if (e instanceof XWikiException) {
+            return (XWikiException) e;
+        }
+        Object[] args = {getAttachment().getFilename()};
+        return new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+            XWikiException.ERROR_XWIKI_STORE_ATTACHMENT_ARCHIVEFORMAT,
+            GENERIC_EXCEPTION_MESSAGE, e, args);
+    }
+
+    @Override
+    @Deprecated
+    public Archive getRCSArchive()
+    {
+        throw new RuntimeException(NOT_IMPLEMENTED_MESSAGE);
+    }
+
+    @Override
+    @Deprecated
+    public void setRCSArchive(final Archive rcsArchive)
+    {
+        throw new RuntimeException(NOT_IMPLEMENTED_MESSAGE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Not implemented, always returns an empty array.
+     *
+     * @see com.xpn.xwiki.doc.XWikiAttachmentArchive#getArchive()
+     */
+    public byte[] getArchive()
+    {
+        return new byte[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     * Increment the attachment version, set the date on the attachment and add a copy of it to
+     * the archive.
+     *
+     * @see com.xpn.xwiki.doc.XWikiAttachmentArchive#updateArchive(byte[], XWikiContext)
+     */
+    @Override
+    public void updateArchive(final byte[] data, final XWikiContext context)
+    {
+        final XWikiAttachment attach = this.getAttachment();
+        attach.incrementVersion();
+        attach.setDate(new Date());
+        // Clone the attachment but don't clone this archive.
+        final XWikiAttachment clone = cloneAttachment(attach);
+        clone.setAttachment_archive(this);
+        this.addRevision(clone);
+    }
+
+    @Override
+    public XWikiAttachment getAttachment()
+    {
+        return this.attachment;
+    }
+
+    @Override
+    public void setAttachment(final XWikiAttachment attachment)
+    {
+        this.attachment = attachment;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The revisions are expected to be kept in ascending order, the versions are returned newest
+     * first like in the other attachment archives.
+     *
+     * @see com.xpn.xwiki.doc.XWikiAttachmentArchive#getVersions()
+     */
+    @Override
+    public Version[] getVersions()
+    {
+        final Collection<XWikiAttachment> revisions = this.getRevisionCollection();
+        final Version[] versions = new Version[revisions.size()];
+        int i = versions.length;
+        for (final XWikiAttachment attach : revisions) {
+            versions[--i] = attach.getRCSVersion();
+        }
+        return versions;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The revision is copied so that changing it does not change the archive.
+     *
+     * @see com.xpn.xwiki.doc.XWikiAttachmentArchive#getRevision(XWikiAttachment, String, XWikiContext)
+     */
+    @Override
+    public XWikiAttachment getRevision(final XWikiAttachment attachment,
+                                       final String rev,
+                                       final XWikiContext context)
+    {
+        if (rev == null) {
+            return null;
+        }
+
+        final XWikiAttachment attach = this.findRevision(rev);
+        if (attach == null) {
+            return null;
+        }
+        final XWikiAttachment out = cloneAttachment(attach);
+        out.setAttachment_archive(this);
+        out.setDoc(attachment.getDoc());
+        return out;
+    }
+}
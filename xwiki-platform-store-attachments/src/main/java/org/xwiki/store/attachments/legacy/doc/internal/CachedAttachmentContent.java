@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.attachments.legacy.doc.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+
+/**
+ * The content of an attachment which is held in a cache.
+ * The content is a read only buffer which is shared with the cache and every other attachment
+ * which was loaded from it, each reader gets it's own view of the buffer.
+ * Like {@link FilesystemAttachmentContent}, this implementation is immutable.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class CachedAttachmentContent extends XWikiAttachmentContent
+{
+    /** The cached content, never read directly, only duplicated. */
+    private final ByteBuffer content;
+
+    /**
+     * The Constructor.
+     *
+     * @param content the cached content, this will not be modified.
+     * @param attachment the attachment to associate this content with.
+     */
+    public CachedAttachmentContent(final ByteBuffer content, final XWikiAttachment attachment)
+    {
+        super(attachment);
+        this.content = content.asReadOnlyBuffer();
+    }
+
+    @Override
+    public CachedAttachmentContent clone()
+    {
+        return new CachedAttachmentContent(this.content, this.getAttachment());
+    }
+
+    @Override
+    @Deprecated
+    public byte[] getContent()
+    {
+        final ByteBuffer view = this.content.duplicate();
+        view.clear();
+        final byte[] out = new byte[view.remaining()];
+        view.get(out);
+        return out;
+    }
+
+    @Override
+    public InputStream getContentInputStream()
+    {
+        final ByteBuffer view = this.content.duplicate();
+        view.clear();
+        return new ByteBufferInputStream(view);
+    }
+
+    @Override
+    public void setContent(final InputStream is) throws IOException
+    {
+        // Same as FilesystemAttachmentContent, this content might be shared so rather than changing it,
+        // disconnect it from the attachment and let the attachment make new content.
+        this.getAttachment().setAttachment_content(null);
+        this.getAttachment().setContent(is);
+    }
+
+    @Override
+    public int getSize()
+    {
+        return this.content.capacity();
+    }
+
+    /**
+     * An InputStream which reads from a ByteBuffer.
+     */
+    private static class ByteBufferInputStream extends InputStream
+    {
+        /** The buffer to read from, the position is the position in the stream. */
+        private final ByteBuffer buffer;
+
+        /**
+         * The Constructor.
+         *
+         * @param buffer the buffer to read from, it must not be shared.
+         */
+        ByteBufferInputStream(final ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            return this.buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length)
+        {
+            if (length == 0) {
+                return 0;
+            }
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, this.buffer.remaining());
+            this.buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long count)
+        {
+            final int skipped = (int) Math.max(0, Math.min(count, this.buffer.remaining()));
+            this.buffer.position(this.buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available()
+        {
+            return this.buffer.remaining();
+        }
+    }
+}
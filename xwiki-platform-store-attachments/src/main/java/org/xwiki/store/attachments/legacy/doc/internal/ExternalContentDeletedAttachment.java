@@ -28,6 +28,7 @@ import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
 import com.xpn.xwiki.doc.XWikiAttachmentContent;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.store.UnexpectedException;
 
 /**
  * Deleted attachment with content stored externally.
@@ -47,6 +48,11 @@ public class ExternalContentDeletedAttachment extends DeletedAttachment
      */
     private XWikiAttachment attachment;
 
+    /**
+     * Loads the attachment when it is first needed, null if the attachment is already set.
+     */
+    private AttachmentLoader loader;
+
     /**
      * A constructor with all the information about the deleted attachment.
      *
@@ -93,17 +99,60 @@ public class ExternalContentDeletedAttachment extends DeletedAttachment
     public void setAttachment(final XWikiAttachment attachment, final XWikiContext context)
     {
         this.attachment = attachment;
+        this.loader = null;
+    }
+
+    /**
+     * Set something which will load the attachment the first time it is needed.
+     * This allows a listing of deleted attachments to be made without loading the content of
+     * every one of them, the content is loaded only for those which are viewed or restored.
+     *
+     * @param loader the means of loading the attachment which was deleted.
+     * @since TODO
+     */
+    public void setAttachmentLoader(final AttachmentLoader loader)
+    {
+        this.attachment = null;
+        this.loader = loader;
+    }
+
+    /**
+     * @return true if the attachment has been set or loaded, false if it will be loaded on demand.
+     * @since TODO
+     */
+    public boolean isAttachmentLoaded()
+    {
+        return this.loader == null;
     }
 
     /**
      * Get the attachment.
      * This does not clone the attachment.
      * To get a clone, use {@link #restoreAttachment(XWikiAttachment XWikiContext)}
+     * If the attachment is loaded on demand, it will be loaded now.
      *
      * @return the attachment which was deleted.
      */
     public XWikiAttachment getAttachment()
     {
+        try {
+            return this.getLoadedAttachment();
+        } catch (XWikiException e) {
+            throw new UnexpectedException("Failed to load deleted attachment ["
+                                          + this.getFilename() + "]", e);
+        }
+    }
+
+    /**
+     * @return the attachment which was deleted, loading it if it has not been loaded yet.
+     * @throws XWikiException if loading the attachment fails.
+     */
+    private XWikiAttachment getLoadedAttachment() throws XWikiException
+    {
+        if (this.loader != null) {
+            final AttachmentLoader toRun = this.loader;
+            this.setAttachment(toRun.loadAttachment(this), null);
+        }
         return this.attachment;
     }
 
@@ -130,26 +179,46 @@ public class ExternalContentDeletedAttachment extends DeletedAttachment
                                              final XWikiContext context)
         throws XWikiException
     {
+        final XWikiAttachment deleted = this.getLoadedAttachment();
         XWikiAttachment result = attachment;
         if (result != null) {
             // TODO Add XWikiAttachment#clone(XWikiAttachment)
             // this toXML does not copy content.
-            result.fromXML(this.attachment.toXML(context));
-            if (this.attachment.getAttachment_content() != null) {
+            result.fromXML(deleted.toXML(context));
+            if (deleted.getAttachment_content() != null) {
                 attachment.setAttachment_content(
-                    (XWikiAttachmentContent) this.attachment.getAttachment_content().clone());
+                    (XWikiAttachmentContent) deleted.getAttachment_content().clone());
                 attachment.getAttachment_content().setAttachment(attachment);
             }
-            if (this.attachment.getAttachment_archive() != null) {
+            if (deleted.getAttachment_archive() != null) {
                 result.setAttachment_archive(
-                    (XWikiAttachmentArchive) this.attachment.getAttachment_archive().clone());
+                    (XWikiAttachmentArchive) deleted.getAttachment_archive().clone());
                 result.getAttachment_archive().setAttachment(result);
             }
         } else {
-            result = (XWikiAttachment) this.attachment.clone();
+            result = (XWikiAttachment) deleted.clone();
         }
 
         result.setDoc(context.getWiki().getDocument(this.getDocumentReference(), context));
         return result;
     }
+
+    /**
+     * A means of loading a deleted attachment when it is first needed.
+     *
+     * @version $Id$
+     * @since TODO
+     */
+    public interface AttachmentLoader
+    {
+        /**
+         * Load the attachment which was deleted, including content and archive.
+         *
+         * @param deleted the deleted attachment which the attachment should be loaded for.
+         * @return the attachment which was deleted.
+         * @throws XWikiException if loading the attachment fails.
+         */
+        XWikiAttachment loadAttachment(ExternalContentDeletedAttachment deleted)
+            throws XWikiException;
+    }
 }
@@ -0,0 +1,212 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.attachments.legacy.doc.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import org.suigeneris.jrcs.rcs.Archive;
+import org.suigeneris.jrcs.rcs.Version;
+
+/**
+ * Implementation of an archive for XWikiAttachment which does as little work as possible.
+ * Revisions are indexed by version so getting one does not walk the archive and only that
+ * revision is copied. The revisions are expected to carry lazily loaded content, such as content
+ * which is backed by a file, so listing the versions never reads any content.
+ * The RCS form of the archive, which requires the content of every revision,
+ * is only built when asked for and is then kept until the archive changes.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class LazyAttachmentArchive extends AbstractAttachmentArchive
+{
+    /**
+     * All of the revisions of the attachment by version, ordered by version number ascending.
+     */
+    private final Map<String, XWikiAttachment> revisions = new LinkedHashMap<String, XWikiAttachment>();
+
+    /**
+     * The versions in descending order, null until asked for and after the archive changes.
+     */
+    private Version[] versions;
+
+    /**
+     * The archive in RCS format, null until asked for and after the archive changes.
+     */
+    private byte[] rcsArchive;
+
+    /**
+     * Constructor from List.
+     * Create a new instance of LazyAttachmentArchive from a list of attachments.
+     *
+     * @param revisions a List of XWikiAttachment revisions to put in this archive.
+     * All revisions are the same attachment and thus must have the same ID.
+     */
+    public LazyAttachmentArchive(final List<XWikiAttachment> revisions)
+    {
+        if (revisions.size() == 0) {
+            return;
+        }
+
+        final List<XWikiAttachment> sorted = new ArrayList<XWikiAttachment>(revisions);
+        Collections.sort(sorted, new Comparator<XWikiAttachment>()
+        {
+            @Override
+            public int compare(final XWikiAttachment a, final XWikiAttachment b)
+            {
+                return a.getRCSVersion().compareTo(b.getRCSVersion());
+            }
+        });
+
+        // Sanity check, all revisions should have the same ID.
+        final long id = sorted.get(0).getId();
+        final String firstAttachName = sorted.get(0).getFilename();
+
+        for (final XWikiAttachment attach : sorted) {
+            if (attach.getId() != id) {
+                throw new IllegalArgumentException("Attachment " + attach.getFilename() + " has a "
+                    + "different ID than the first attachment ( "
+                    + firstAttachName + " ) so they cannot all be "
+                    + "revisions of the same attachment.");
+            }
+            attach.setAttachment_archive(this);
+            this.revisions.put(attach.getVersion(), attach);
+        }
+
+        // Set the attachment for this archive to the latest version.
+        this.setAttachment(sorted.get(sorted.size() - 1));
+    }
+
+    /**
+     * Get the revisions in this archive without copying them.
+     * The revisions are owned by this archive and must not be modified.
+     *
+     * @return every revision in the archive ordered by version number ascending.
+     */
+    public Collection<XWikiAttachment> getRevisions()
+    {
+        return Collections.unmodifiableCollection(this.revisions.values());
+    }
+
+    @Override
+    public Object clone()
+    {
+        final LazyAttachmentArchive out =
+            new LazyAttachmentArchive(Collections.<XWikiAttachment>emptyList());
+        out.setAttachment(cloneAttachment(this.getAttachment()));
+        if (out.getAttachment() != null) {
+            out.getAttachment().setAttachment_archive(out);
+        }
+        for (final XWikiAttachment revision : this.revisions.values()) {
+            final XWikiAttachment revClone = cloneAttachment(revision);
+            revClone.setAttachment_archive(out);
+            out.revisions.put(revClone.getVersion(), revClone);
+        }
+        return out;
+    }
+
+    @Override
+    public byte[] getArchive(final XWikiContext context) throws XWikiException
+    {
+        if (this.rcsArchive == null) {
+            try {
+                final Archive rcsArch = this.toRCS(context);
+                this.rcsArchive = (rcsArch == null) ? new byte[0] : rcsArch.toByteArray();
+            } catch (Exception e) {
+                throw this.toArchiveFormatException(e);
+            }
+        }
+        return this.rcsArchive;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Like {@link ListAttachmentArchive}, importing an RCS archive is not supported,
+     * this only empties the archive.
+     *
+     * @see com.xpn.xwiki.doc.XWikiAttachmentArchive#setArchive(byte[])
+     */
+    @Override
+    public void setArchive(final byte[] data) throws XWikiException
+    {
+        this.revisions.clear();
+        this.changed();
+    }
+
+    @Override
+    protected Collection<XWikiAttachment> getRevisionCollection()
+    {
+        return this.revisions.values();
+    }
+
+    @Override
+    protected XWikiAttachment findRevision(final String version)
+    {
+        return this.revisions.get(version);
+    }
+
+    @Override
+    protected void addRevision(final XWikiAttachment revision)
+    {
+        this.revisions.put(revision.getVersion(), revision);
+        this.changed();
+    }
+
+    @Override
+    public boolean removeRevision(final String version)
+    {
+        if (this.revisions.remove(version) == null) {
+            return false;
+        }
+        this.changed();
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The versions are kept until the archive changes.
+     *
+     * @see AbstractAttachmentArchive#getVersions()
+     */
+    @Override
+    public Version[] getVersions()
+    {
+        if (this.versions == null) {
+            this.versions = super.getVersions();
+        }
+        return this.versions.clone();
+    }
+
+    /** Drop everything which was derived from the revisions because they have changed. */
+    private void changed()
+    {
+        this.versions = null;
+        this.rcsArchive = null;
+    }
+}
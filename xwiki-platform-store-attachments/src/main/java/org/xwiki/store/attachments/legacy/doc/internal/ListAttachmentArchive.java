@@ -21,19 +21,16 @@ package org.xwiki.store.attachments.legacy.doc.internal;
 
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
-import com.xpn.xwiki.doc.XWikiAttachmentArchive;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import org.suigeneris.jrcs.rcs.Archive;
-import org.suigeneris.jrcs.rcs.Version;
 import org.suigeneris.jrcs.rcs.impl.Node;
-import org.suigeneris.jrcs.util.ToString;
 
 /**
  * Implementation of an archive for XWikiAttachment based on a simple list of XWikiAttachments.
@@ -41,26 +38,8 @@ import org.suigeneris.jrcs.util.ToString;
  * @version $Id$
  * @since 3.0M2
  */
-public class ListAttachmentArchive extends XWikiAttachmentArchive
+public class ListAttachmentArchive extends AbstractAttachmentArchive
 {
-    /**
-     * Generic message to put in any exception which occurs in this class.
-     */
-    private static final String GENERIC_EXCEPTION_MESSAGE =
-        "Exception while manipulating the archive for attachment {0}";
-
-    /**
-     * Message to place in exceptions which are thrown because functions
-     * are not available in this implementation.
-     */
-    private static final String NOT_IMPLEMENTED_MESSAGE =
-        "This function is not available in this implementation.";
-
-    /**
-     * The attachment which this is an archive of.
-     */
-    private XWikiAttachment attachment;
-
     /**
      * A list of all the revisions of the attachment in this archive
      * ordered by version number ascending.
@@ -74,7 +53,7 @@ public class ListAttachmentArchive extends XWikiAttachmentArchive
      */
     public ListAttachmentArchive(final XWikiAttachment attachment)
     {
-        this.attachment = attachment;
+        this.setAttachment(attachment);
     }
 
     /**
@@ -109,14 +88,14 @@ public class ListAttachmentArchive extends XWikiAttachmentArchive
         }
 
         // Set the attachment for this archive to the latest version.
-        this.attachment = this.revisions.get(revisions.size() - 1);
+        this.setAttachment(this.revisions.get(revisions.size() - 1));
     }
 
     @Override
     public Object clone()
     {
-        final ListAttachmentArchive out = new ListAttachmentArchive(cloneAttachment(this.attachment));
-        out.attachment.setAttachment_archive(out);
+        final ListAttachmentArchive out = new ListAttachmentArchive(cloneAttachment(this.getAttachment()));
+        out.getAttachment().setAttachment_archive(out);
         for (XWikiAttachment revision : this.revisions) {
             final XWikiAttachment revClone = cloneAttachment(revision);
             revClone.setAttachment_archive(out);
@@ -125,65 +104,6 @@ public class ListAttachmentArchive extends XWikiAttachmentArchive
         return out;
     }
 
-    /**
-     * Clone an attachment but not it's archive.
-     * {@link ListAttachmentArchive#clone()} calls {@link XWikiAttachment#clone()}
-     * and if the attachment is associated with an archive it call clone the archive.
-     * This function prevents an infinite loop.
-     *
-     * @param original an attachment to clone.
-     * @return a clone of original which has no XWikiAttachmentArchive attached.
-     */
-    private static XWikiAttachment cloneAttachment(final XWikiAttachment original)
-    {
-        final XWikiAttachmentArchive arch = original.getAttachment_archive();
-        try {
-            original.setAttachment_archive(null);
-            return (XWikiAttachment) original.clone();
-        } finally {
-            original.setAttachment_archive(arch);
-        }
-    }
-
-    @Override
-    @Deprecated
-    public Archive getRCSArchive()
-    {
-        throw new RuntimeException(NOT_IMPLEMENTED_MESSAGE);
-    }
-
-    @Override
-    @Deprecated
-    public void setRCSArchive(final Archive rcsArchive)
-    {
-        throw new RuntimeException(NOT_IMPLEMENTED_MESSAGE);
-    }
-
-    /**
-     * Convert this attachment archive into JRCS format.
-     *
-     * @param context the XWikiContext for the request.
-     * @return this archive in JRCS format.
-     * @throws Exception if something goes wrong while serializing the attachment to XML or inserting it
-     * into the RCS archive.
-     */
-    private Archive toRCS(final XWikiContext context) throws Exception
-    {
-        final Version[] versions = this.getVersions();
-        Archive rcsArch = null;
-        for (XWikiAttachment rev : this.revisions) {
-            final String sdata = rev.toStringXML(true, false, context);
-            final Object[] lines = ToString.stringToArray(sdata);
-            if (rcsArch == null) {
-                // First cycle.
-                rcsArch = new Archive(lines, rev.getFilename(), rev.getVersion());
-            } else {
-                rcsArch.addRevision(lines, "");
-            }
-        }
-        return rcsArch;
-    }
-
     /**
      * @param rcsArchive the RCS archive to import.
      * @throws Exception if getting a revision from the RCS archive
@@ -218,30 +138,13 @@ public class ListAttachmentArchive extends XWikiAttachmentArchive
         }
     }
 
-    /**
-     * {@inheritDoc}
-     * Not implemented, always returns an empty array.
-     *
-     * @see com.xpn.xwiki.doc.XWikiAttachmentArchive#getArchive()
-     */
-    public byte[] getArchive()
-    {
-        return new byte[0];
-    }
-
     @Override
     public byte[] getArchive(final XWikiContext context) throws XWikiException
     {
         try {
             return this.toRCS(context).toByteArray();
         } catch (Exception e) {
-            if (e instanceof XWikiException) {
-                throw (XWikiException) e;
-            }
-            Object[] args = {getAttachment().getFilename()};
-            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                XWikiException.ERROR_XWIKI_STORE_ATTACHMENT_ARCHIVEFORMAT,
-                GENERIC_EXCEPTION_MESSAGE, e, args);
+            throw this.toArchiveFormatException(e);
         }
     }
 
@@ -256,82 +159,44 @@ public class ListAttachmentArchive extends XWikiAttachmentArchive
                 final Archive rcsArchive = new Archive(getAttachment().getFilename(), is);
                 this.setRCSArchive(rcsArchive);
             } catch (Exception e) {
-                if (e instanceof XWikiException) {
-                    throw (XWikiException) e;
-                }
-                Object[] args = {getAttachment().getFilename()};
-                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                    XWikiException.ERROR_XWIKI_STORE_ATTACHMENT_ARCHIVEFORMAT,
-                    GENERIC_EXCEPTION_MESSAGE, e, args);
+                throw this.toArchiveFormatException(e);
             }
         }
     }
 
     @Override
-    public void updateArchive(final byte[] data, final XWikiContext context)
+    protected Collection<XWikiAttachment> getRevisionCollection()
     {
-        this.update();
-    }
-
-    /**
-     * Update the archive, increment the attachment version, set the date on the attachment and
-     * add the attachment to the list.
-     */
-    private void update()
-    {
-        final XWikiAttachment attach = this.getAttachment();
-        attach.incrementVersion();
-        attach.setDate(new Date());
-        // Clone the attachment but don't clone this archive.
-        final XWikiAttachment clone = cloneAttachment(attach);
-        clone.setAttachment_archive(this);
-        this.revisions.add(clone);
+        return this.revisions;
     }
 
     @Override
-    public XWikiAttachment getAttachment()
+    protected XWikiAttachment findRevision(final String version)
     {
-        return this.attachment;
-    }
-
-    @Override
-    public void setAttachment(final XWikiAttachment attachment)
-    {
-        this.attachment = attachment;
+        for (final XWikiAttachment attach : this.revisions) {
+            if (version.equals(attach.getVersion())) {
+                return attach;
+            }
+        }
+        return null;
     }
 
     @Override
-    public Version[] getVersions()
+    protected void addRevision(final XWikiAttachment revision)
     {
-        final Version[] versions = new Version[this.revisions.size()];
-        int i = this.revisions.size();
-        for (XWikiAttachment attach : this.revisions) {
-            i--;
-            versions[i] = attach.getRCSVersion();
-        }
-
-        return versions;
+        this.revisions.add(revision);
     }
 
     @Override
-    public XWikiAttachment getRevision(final XWikiAttachment attachment,
-        final String rev,
-        final XWikiContext context)
+    public boolean removeRevision(final String version)
     {
-        if (rev == null) {
-            return null;
-        }
-
-        for (XWikiAttachment attach : this.revisions) {
-            if (rev.equals(attach.getVersion())) {
-                final XWikiAttachment out = cloneAttachment(attach);
-                out.setAttachment_archive(this);
-                out.setDoc(attachment.getDoc());
-                return out;
+        for (int i = 0; i < this.revisions.size(); i++) {
+            if (this.revisions.get(i).getVersion().equals(version)) {
+                this.revisions.remove(i);
+                return true;
             }
         }
-
-        return null;
+        return false;
     }
 
     /**
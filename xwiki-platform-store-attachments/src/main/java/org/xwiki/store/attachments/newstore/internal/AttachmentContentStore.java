@@ -19,6 +19,8 @@
  */
 package org.xwiki.store.attachments.newstore.internal;
 
+import java.util.List;
+
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentContent;
 import org.xwiki.component.annotation.ComponentRole;
@@ -56,6 +58,16 @@ public interface AttachmentContentStore<T>
      */
     TransactionRunnable<T> getAttachmentContentLoadRunnable(final XWikiAttachment attachment);
 
+    /**
+     * Load the content of a number of attachments at once.
+     * Content will be placed in each attachment object.
+     * The attachments must be attached to documents.
+     *
+     * @param attachments a list of attachments, each must be attached to a document.
+     * @return a new TransactionRunnable to load the content for all of the given attachments.
+     */
+    TransactionRunnable<T> getAttachmentsContentLoadRunnable(final List<XWikiAttachment> attachments);
+
     /**
      * Delete the content of an attachment.
      * Metadata will not be deleted, only the content.
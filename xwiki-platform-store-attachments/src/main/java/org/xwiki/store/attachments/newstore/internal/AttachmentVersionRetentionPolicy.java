@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.attachments.newstore.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * A rule for which versions of an attachment to keep in the archive.
+ * A version is expired if there are more than a given number of newer versions, if it is older
+ * than a given age or if it is older than the thinning age and another version was made within
+ * the same thinning interval. The newest version is never expired.
+ * Each limit which is 0 or less is not applied.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class AttachmentVersionRetentionPolicy
+{
+    /** A policy which keeps every version forever. */
+    public static final AttachmentVersionRetentionPolicy KEEP_ALL =
+        new AttachmentVersionRetentionPolicy(0, 0, 0, 0);
+
+    /** The name of the system property for the greatest number of versions to keep. */
+    public static final String MAX_VERSIONS_PROPERTY =
+        "xwiki.store.attachments.versionRetention.maxVersions";
+
+    /** The name of the system property for the number of days to keep versions. */
+    public static final String MAX_AGE_DAYS_PROPERTY =
+        "xwiki.store.attachments.versionRetention.maxAgeDays";
+
+    /** The name of the system property for the age in days after which versions are thinned. */
+    public static final String THIN_AFTER_DAYS_PROPERTY =
+        "xwiki.store.attachments.versionRetention.thinAfterDays";
+
+    /** The name of the system property for the number of days of which one version is kept. */
+    public static final String THIN_INTERVAL_DAYS_PROPERTY =
+        "xwiki.store.attachments.versionRetention.thinIntervalDays";
+
+    /** The number of milliseconds in a day. */
+    private static final long ONE_DAY = 24L * 60 * 60 * 1000;
+
+    /** The greatest number of versions to keep. */
+    private final int maxVersions;
+
+    /** Versions older than this number of milliseconds are expired. */
+    private final long maxAge;
+
+    /** Versions older than this number of milliseconds are thinned. */
+    private final long thinAfter;
+
+    /** Of the thinned versions, only the newest one in each interval of this many milliseconds is kept. */
+    private final long thinInterval;
+
+    /**
+     * The Constructor.
+     *
+     * @param maxVersions the greatest number of versions to keep.
+     * @param maxAge versions older than this number of milliseconds are expired.
+     * @param thinAfter versions older than this number of milliseconds are thinned.
+     * @param thinInterval of the thinned versions, only the newest one made in each interval of this
+     *                     many milliseconds is kept, if 0 or less then one day is used.
+     */
+    public AttachmentVersionRetentionPolicy(final int maxVersions,
+                                            final long maxAge,
+                                            final long thinAfter,
+                                            final long thinInterval)
+    {
+        this.maxVersions = maxVersions;
+        this.maxAge = maxAge;
+        this.thinAfter = thinAfter;
+        this.thinInterval = (thinInterval > 0) ? thinInterval : ONE_DAY;
+    }
+
+    /**
+     * @return the policy which is configured by system properties,
+     *         if none are set then this keeps every version forever.
+     */
+    public static AttachmentVersionRetentionPolicy fromSystemProperties()
+    {
+        return new AttachmentVersionRetentionPolicy(
+            Integer.getInteger(MAX_VERSIONS_PROPERTY, 0),
+            Long.getLong(MAX_AGE_DAYS_PROPERTY, 0L) * ONE_DAY,
+            Long.getLong(THIN_AFTER_DAYS_PROPERTY, 0L) * ONE_DAY,
+            Long.getLong(THIN_INTERVAL_DAYS_PROPERTY, 1L) * ONE_DAY);
+    }
+
+    /**
+     * @return true if this policy might expire any version.
+     */
+    public boolean isEnabled()
+    {
+        return this.maxVersions > 0 || this.maxAge > 0 || this.thinAfter > 0;
+    }
+
+    /**
+     * Find the versions of an attachment which should be removed from the archive.
+     *
+     * @param versions every version of the attachment, in no specific order.
+     * @param now the current time in milliseconds, ages are counted from this.
+     * @return the versions which are expired, ordered by version number ascending.
+     */
+    public List<XWikiAttachment> getExpiredVersions(final List<XWikiAttachment> versions,
+                                                    final long now)
+    {
+        final List<XWikiAttachment> expired = new ArrayList<XWikiAttachment>();
+        if (!this.isEnabled() || versions.size() < 2) {
+            return expired;
+        }
+
+        final List<XWikiAttachment> newestFirst = new ArrayList<XWikiAttachment>(versions);
+        Collections.sort(newestFirst, new Comparator<XWikiAttachment>()
+        {
+            @Override
+            public int compare(final XWikiAttachment a, final XWikiAttachment b)
+            {
+                return b.getRCSVersion().compareTo(a.getRCSVersion());
+            }
+        });
+
+        long lastThinnedBucket = Long.MIN_VALUE;
+        for (int i = 1; i < newestFirst.size(); i++) {
+            final XWikiAttachment ver = newestFirst.get(i);
+            final long age = (ver.getDate() != null) ? now - ver.getDate().getTime() : 0;
+            if ((this.maxVersions > 0 && i >= this.maxVersions)
+                || (this.maxAge > 0 && age > this.maxAge))
+            {
+                expired.add(ver);
+            } else if (this.thinAfter > 0 && age > this.thinAfter) {
+                final long bucket = ver.getDate().getTime() / this.thinInterval;
+                if (bucket == lastThinnedBucket) {
+                    expired.add(ver);
+                } else {
+                    lastThinnedBucket = bucket;
+                }
+            }
+        }
+
+        Collections.reverse(expired);
+        return expired;
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.attachments.newstore.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.store.attachments.adapter.internal.AttachmentTools;
+import org.xwiki.store.attachments.legacy.doc.internal.CachedAttachmentContent;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.TransactionRunnable;
+
+/**
+ * An AttachmentContentStore which keeps the content of small attachments in memory.
+ * Content is kept in direct buffers outside of the heap, it is keyed by attachment reference and
+ * version and the least recently used content is dropped when the total size is exceeded.
+ * The cache is looked at when a load is run, loads which miss the cache go to the underlying store
+ * and fill the cache when they commit, saves and deletes drop every version of the attachment from
+ * the cache when they commit.
+ *
+ * @version $Id$
+ * @param <T> The type of storage engine which must be available, the same as the underlying store.
+ * @since TODO
+ */
+public class CachingAttachmentContentStore<T> implements AttachmentContentStore<T>
+{
+    /** Garbage spewer. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingAttachmentContentStore.class);
+
+    /** The store which content is loaded from on a miss. */
+    private final AttachmentContentStore<T> store;
+
+    /** The greatest total number of bytes of content to keep. */
+    private final long maxSize;
+
+    /** Attachments larger than this many bytes are never cached. */
+    private final int maxEntrySize;
+
+    /** The cached content in least recently used order, guarded by this. */
+    private final Map<Key, ByteBuffer> cache = new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true);
+
+    /** The total size of the cached content, guarded by this. */
+    private long size;
+
+    /**
+     * Incremented by each invalidation, guarded by this.
+     * A load will only fill the cache if nothing was invalidated since it began because
+     * otherwise it might have read content which was saved under a different version.
+     */
+    private long generation;
+
+    /**
+     * The Constructor.
+     *
+     * @param store the store to cache the content of.
+     * @param maxSize the greatest total number of bytes to cache.
+     * @param maxEntrySize attachments larger than this many bytes will not be cached.
+     */
+    public CachingAttachmentContentStore(final AttachmentContentStore<T> store,
+                                         final long maxSize,
+                                         final int maxEntrySize)
+    {
+        this.store = store;
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    @Override
+    public TransactionRunnable<T> getAttachmentContentSaveRunnable(final XWikiAttachmentContent content)
+    {
+        return this.invalidateOnCommit(AttachmentTools.referenceForAttachment(content.getAttachment()),
+                                       this.store.getAttachmentContentSaveRunnable(content));
+    }
+
+    @Override
+    public TransactionRunnable<T> getAttachmentContentLoadRunnable(final XWikiAttachment attachment)
+    {
+        final List<XWikiAttachment> attachments = new ArrayList<XWikiAttachment>(1);
+        attachments.add(attachment);
+        return new LoadRunnable(attachments, false);
+    }
+
+    @Override
+    public TransactionRunnable<T> getAttachmentsContentLoadRunnable(final List<XWikiAttachment> attachments)
+    {
+        return new LoadRunnable(attachments, true);
+    }
+
+    @Override
+    public TransactionRunnable<T> getAttachmentContentDeleteRunnable(final XWikiAttachment attachment)
+    {
+        return this.invalidateOnCommit(AttachmentTools.referenceForAttachment(attachment),
+                                       this.store.getAttachmentContentDeleteRunnable(attachment));
+    }
+
+    /**
+     * Drop every cached version of an attachment.
+     *
+     * @param reference the attachment to forget about.
+     */
+    public synchronized void invalidate(final AttachmentReference reference)
+    {
+        this.generation++;
+        // Saves are far less common than loads so a walk of the cache is acceptable.
+        final Iterator<Map.Entry<Key, ByteBuffer>> it = this.cache.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, ByteBuffer> entry = it.next();
+            if (entry.getKey().reference.equals(reference)) {
+                this.size -= entry.getValue().capacity();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Wrap a runnable from the underlying store in one which invalidates an attachment
+     * once the underlying runnable has committed.
+     *
+     * @param reference the attachment to invalidate.
+     * @param runnable the runnable which alters the attachment.
+     * @return a runnable which runs the given runnable then invalidates the attachment.
+     */
+    private TransactionRunnable<T> invalidateOnCommit(final AttachmentReference reference,
+                                                      final TransactionRunnable<T> runnable)
+    {
+        final TransactionRunnable<T> out = new TransactionRunnable<T>() {
+            @Override
+            protected void onCommit()
+            {
+                invalidate(reference);
+            }
+        };
+        runnable.runIn(out);
+        return out;
+    }
+
+    /**
+     * @param key the attachment and version to get.
+     * @return the cached content or null if it is not cached.
+     */
+    private synchronized ByteBuffer get(final Key key)
+    {
+        return this.cache.get(key);
+    }
+
+    /** @return the current invalidation generation. */
+    private synchronized long getGeneration()
+    {
+        return this.generation;
+    }
+
+    /**
+     * Put the content of a freshly loaded attachment in the cache if it is small enough.
+     * Failure to read the content is logged and otherwise ignored since the load itself succeeded.
+     *
+     * @param key the attachment and version which was loaded.
+     * @param attachment the attachment, the content must be loaded.
+     * @param startGeneration the generation when the load began.
+     */
+    private void fill(final Key key, final XWikiAttachment attachment, final long startGeneration)
+    {
+        final XWikiAttachmentContent content = attachment.getAttachment_content();
+        if (content == null || attachment.getFilesize() > this.maxEntrySize) {
+            return;
+        }
+
+        final byte[] bytes;
+        InputStream is = null;
+        try {
+            is = content.getContentInputStream();
+            bytes = readAtMost(is, this.maxEntrySize);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to cache content of attachment [{}]", key.reference, e);
+            return;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        if (bytes == null) {
+            return;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        this.put(key, buffer, startGeneration);
+    }
+
+    /**
+     * Add content to the cache and drop the least recently used content until it fits.
+     *
+     * @param key the attachment and version.
+     * @param buffer the content.
+     * @param startGeneration the generation when the content began to be loaded.
+     */
+    private synchronized void put(final Key key, final ByteBuffer buffer, final long startGeneration)
+    {
+        if (startGeneration != this.generation || buffer.capacity() > this.maxSize) {
+            return;
+        }
+        final ByteBuffer old = this.cache.put(key, buffer);
+        if (old != null) {
+            this.size -= old.capacity();
+        }
+        this.size += buffer.capacity();
+
+        final Iterator<ByteBuffer> it = this.cache.values().iterator();
+        while (this.size > this.maxSize) {
+            this.size -= it.next().capacity();
+            it.remove();
+        }
+    }
+
+    /**
+     * Read a whole stream unless it is longer than a limit.
+     *
+     * @param is the stream to read.
+     * @param limit the greatest number of bytes to read.
+     * @return the content of the stream or null if it is longer than the limit.
+     * @throws IOException if reading the stream fails.
+     */
+    private static byte[] readAtMost(final InputStream is, final int limit) throws IOException
+    {
+        final byte[] buffer = new byte[limit + 1];
+        int total = 0;
+        int count;
+        while (total < buffer.length && (count = is.read(buffer, total, buffer.length - total)) != -1) {
+            total += count;
+        }
+        if (total > limit) {
+            return null;
+        }
+        final byte[] out = new byte[total];
+        System.arraycopy(buffer, 0, out, 0, total);
+        return out;
+    }
+
+    /**
+     * Loads the content of attachments, from the cache where possible.
+     * The cache is looked at when this is run rather than when it is created so content which was
+     * invalidated in between is never used. Misses are loaded from the underlying store in a
+     * transaction nested inside of this one which is given the same context, the content which
+     * they load is put in the cache when this transaction commits.
+     */
+    private class LoadRunnable extends TransactionRunnable<T>
+    {
+        /** The attachments to load the content of. */
+        private final List<XWikiAttachment> attachments;
+
+        /** True if the misses should be loaded with the underlying store's batch load. */
+        private final boolean batch;
+
+        /** The attachments which were not found in the cache. */
+        private final List<XWikiAttachment> misses = new ArrayList<XWikiAttachment>();
+
+        /** The keys of the attachments which were not found in the cache. */
+        private final List<Key> missKeys = new ArrayList<Key>();
+
+        /** The generation when the cache was looked at. */
+        private long startGeneration;
+
+        /**
+         * The Constructor.
+         *
+         * @param attachments the attachments to load the content of.
+         * @param batch true to load misses using the underlying store's batch load.
+         */
+        LoadRunnable(final List<XWikiAttachment> attachments, final boolean batch)
+        {
+            this.attachments = attachments;
+            this.batch = batch;
+        }
+
+        @Override
+        protected void onRun() throws Exception
+        {
+            this.startGeneration = getGeneration();
+            for (final XWikiAttachment attachment : this.attachments) {
+                final Key key = new Key(attachment);
+                final ByteBuffer cached = get(key);
+                if (cached != null) {
+                    attachment.setAttachment_content(new CachedAttachmentContent(cached, attachment));
+                } else {
+                    this.misses.add(attachment);
+                    this.missKeys.add(key);
+                }
+            }
+            if (this.misses.size() == 0) {
+                return;
+            }
+
+            final T context = this.getContext();
+            final StartableTransactionRunnable<T> load = new StartableTransactionRunnable<T>() {
+                @Override
+                protected T getProvidedContext()
+                {
+                    return context;
+                }
+            };
+            if (this.batch) {
+                store.getAttachmentsContentLoadRunnable(this.misses).runIn(load);
+            } else {
+                store.getAttachmentContentLoadRunnable(this.misses.get(0)).runIn(load);
+            }
+            load.start();
+        }
+
+        @Override
+        protected void onCommit()
+        {
+            // The underlying store has loaded the content into the attachments.
+            for (int i = 0; i < this.misses.size(); i++) {
+                fill(this.missKeys.get(i), this.misses.get(i), this.startGeneration);
+            }
+        }
+    }
+
+    /**
+     * The key for a version of an attachment.
+     */
+    private static final class Key
+    {
+        /** The attachment. */
+        private final AttachmentReference reference;
+
+        /** The version of the attachment. */
+        private final String version;
+
+        /**
+         * The Constructor.
+         *
+         * @param attachment the attachment to make the key for, it must be attached to a document.
+         */
+        Key(final XWikiAttachment attachment)
+        {
+            this.reference = AttachmentTools.referenceForAttachment(attachment);
+            this.version = attachment.getVersion();
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return this.reference.equals(other.reference)
+                && (this.version == null ? other.version == null : this.version.equals(other.version));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.reference.hashCode() * 31 + (this.version == null ? 0 : this.version.hashCode());
+        }
+    }
+}
@@ -19,9 +19,11 @@
  */
 package org.xwiki.store.attachments.newstore.internal;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
+import com.xpn.xwiki.doc.DeletedAttachment;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import org.xwiki.component.annotation.ComponentRole;
 import org.xwiki.model.reference.AttachmentReference;
@@ -82,6 +84,78 @@ public interface DeletedAttachmentStore<T>
         final DocumentReference reference,
         final List<ExternalContentDeletedAttachment> output);
 
+    /**
+     * Load the metadata of one page of the deleted attachments for a document.
+     * Deleted attachments are listed newest first and deleted attachments which were deleted at the
+     * same moment are ordered by id, highest first, so that the order is stable.
+     * Instead of an offset, each page starts after the last deleted attachment of the previous
+     * page so the cost of loading a page does not grow with the number of pages before it.
+     * These DeletedAttachments will NOT be attached to any document, attaching them is the
+     * responsibility of the caller.
+     *
+     * @param reference a reference to a document to get deleted attachments for.
+     * @param after the last deleted attachment of the previous page, only its date and id are used,
+     *              if null then the first page will be loaded.
+     * @param limit the greatest number of deleted attachments to load.
+     * @param output an empty list to be populated with the deleted attachments for this document.
+     * @return a TransactionRunnable which will load the deleted attachments and populate the list.
+     * @since TODO
+     */
+    TransactionRunnable<T> getDeletedAttachmentPageLoadRunnable(
+        final DocumentReference reference,
+        final DeletedAttachment after,
+        final int limit,
+        final List<ExternalContentDeletedAttachment> output);
+
+    /**
+     * Load the metadata of the oldest deleted attachments in the store, those deleted before a
+     * given date, oldest first. This is used for purging deleted attachments which have been in
+     * the recycle bin for too long so the deleted attachments from all documents are listed.
+     * Like {@link #getDeletedAttachmentPageLoadRunnable(DocumentReference, DeletedAttachment,
+     * int, List)} the listing is in pages and each page starts after the last deleted attachment
+     * of the previous page.
+     *
+     * @param deletedBefore only deleted attachments which were deleted before this are loaded.
+     * @param after the last deleted attachment of the previous page, only its date and id are used,
+     *              if null then the first page will be loaded.
+     * @param limit the greatest number of deleted attachments to load.
+     * @param output an empty list to be populated with the expired deleted attachments.
+     * @return a TransactionRunnable which will load the deleted attachments and populate the list.
+     * @since TODO
+     */
+    TransactionRunnable<T> getExpiredDeletedAttachmentLoadRunnable(
+        final Date deletedBefore,
+        final DeletedAttachment after,
+        final int limit,
+        final List<ExternalContentDeletedAttachment> output);
+
+    /**
+     * Load the metadata of the deleted attachments with the given ids.
+     * This is used for finding out which attachment a deleted attachment id refers to so the ids
+     * should be looked up together in as few queries as possible.
+     * These DeletedAttachments will NOT be attached to any document, attaching them is the
+     * responsibility of the caller.
+     *
+     * @param ids the ids of the deleted attachments to load, see {@link DeletedAttachment#getId()}.
+     * @param output an empty list to be populated with the deleted attachments which were found,
+     *               ids which are not in the store are left out.
+     * @return a TransactionRunnable which will load the deleted attachments and populate the list.
+     * @since TODO
+     */
+    TransactionRunnable<T> getDeletedAttachmentsByIdLoadRunnable(
+        final Collection<Long> ids,
+        final List<ExternalContentDeletedAttachment> output);
+
+    /**
+     * Get a runnable to purge many deleted attachments from the deleted attachment store at once.
+     * Only the deleted attachment metadata such as who deleted it and when will be purged.
+     *
+     * @param ids the ids of the deleted attachments to purge, see {@link DeletedAttachment#getId()}.
+     * @return a TransactionRunnable which will remove the deleted attachments from the store.
+     * @since TODO
+     */
+    TransactionRunnable<T> getDeletedAttachmentsPurgeRunnable(final Collection<Long> ids);
+
     /**
      * Get a runnable to purge the deleted attachment from the deleted attachment store.
      * Only the deleted attachment metadata such as who deleted it and when will be purged.
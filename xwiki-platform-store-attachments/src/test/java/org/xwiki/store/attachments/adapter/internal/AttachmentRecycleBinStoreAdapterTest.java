@@ -20,12 +20,17 @@
 package org.xwiki.store.attachments.adapter.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.xpn.xwiki.doc.DeletedAttachment;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.XWikiContext;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -259,6 +264,193 @@ public class AttachmentRecycleBinStoreAdapterTest
                           attachContentPurgeTr.numberOfTimesCalled == 1);
     }
 
+    @Test
+    public void resolveIdsOnceTest() throws Exception
+    {
+        final List<Collection<Long>> lookups = new ArrayList<Collection<Long>>();
+        final TestingAttachmentRecycleBinStoreAdapter store =
+            new TestingAttachmentRecycleBinStoreAdapter(this.mockTrashContentStore,
+                                                        this.mockTrashMetaStore,
+                                                        this.mockResolver)
+        {
+            @Override
+            protected Map<Long, AttachmentReference> resolveAttachmentReferences(
+                final Collection<Long> ids)
+            {
+                lookups.add(new ArrayList<Long>(ids));
+                final Map<Long, AttachmentReference> out = new HashMap<Long, AttachmentReference>();
+                for (final Long id : ids) {
+                    if (id.longValue() < 10) {
+                        out.put(id, new AttachmentReference("file" + id + ".txt",
+                                                            attachRef.getDocumentReference()));
+                    }
+                }
+                return out;
+            }
+        };
+
+        final Map<Long, AttachmentReference> first =
+            store.getAttachmentReferencesForIds(Arrays.asList(1L, 2L, 20L));
+        Assert.assertEquals(2, first.size());
+        Assert.assertEquals("file2.txt", first.get(2L).getName());
+        Assert.assertNull(first.get(20L));
+        Assert.assertEquals("All ids should be resolved in a single lookup.", 1, lookups.size());
+
+        final Map<Long, AttachmentReference> second =
+            store.getAttachmentReferencesForIds(Arrays.asList(1L, 2L, 3L));
+        Assert.assertEquals(3, second.size());
+        Assert.assertEquals("Only the unknown id should be looked up.", 2, lookups.size());
+        Assert.assertEquals(Arrays.asList(3L), lookups.get(1));
+    }
+
+    @Test
+    public void resolveIdsFromMetaStoreTest() throws Exception
+    {
+        final ListPopulatingTransactionRunnable byIdLoadTr =
+            new ListPopulatingTransactionRunnable(new ArrayList(1) {{ add(mockDeletedAttach); }});
+
+        this.jmockContext.checking(new Expectations() {{
+            allowing(mockDeletedAttach).getDocName(); will(returnValue("Main.WebHome"));
+            allowing(mockResolver).resolve("Main.WebHome", EntityType.DOCUMENT);
+                will(returnValue(attachRef.getDocumentReference()));
+
+            oneOf(mockTrashMetaStore).getDeletedAttachmentsByIdLoadRunnable(
+                with(equal(Arrays.asList(1L, 20L))), with(any(List.class)));
+                will(new CustomAction("Return a TR which will populate the list with the "
+                                      + "deleted attachment which has id 1.")
+                {
+                    public Object invoke(final Invocation invoc)
+                    {
+                        byIdLoadTr.list = (List) invoc.getParameter(1);
+                        return byIdLoadTr;
+                    }
+                });
+        }});
+
+        final Map<Long, AttachmentReference> refs =
+            this.trashStore.getAttachmentReferencesForIds(Arrays.asList(1L, 20L));
+        Assert.assertEquals(1, refs.size());
+        Assert.assertEquals(this.attachRef, refs.get(1L));
+
+        // Now it is remembered.
+        Assert.assertEquals(this.attachRef,
+                            this.trashStore.getAttachmentReferencesForIds(Arrays.asList(1L)).get(1L));
+        Assert.assertEquals(1, byIdLoadTr.numberOfTimesCalled);
+    }
+
+    @Test
+    public void getDeletedAttachmentsPageLoadsContentOnDemandTest() throws Exception
+    {
+        final XWikiDocument mockDoc = this.jmockContext.mock(XWikiDocument.class);
+        final ListPopulatingTransactionRunnable pageLoadTr = new ListPopulatingTransactionRunnable(
+            new ArrayList(1) {{ add(new ExternalContentDeletedAttachment(mockDeletedAttach)); }});
+        final ListPopulatingTransactionRunnable attachContentLoadTr =
+            new ListPopulatingTransactionRunnable(new ArrayList(1) {{ add(mockAttach); }});
+        final States content = this.jmockContext.states("content").startsAs("unrequested");
+
+        this.jmockContext.checking(new Expectations() {{
+            allowing(mockDoc).getDocumentReference();
+                will(returnValue(attachRef.getDocumentReference()));
+            allowing(mockDeletedAttach).getDocId(); will(returnValue(2L));
+            allowing(mockDeletedAttach).getDocName(); will(returnValue("Main.WebHome"));
+            allowing(mockDeletedAttach).getDeleter(); will(returnValue("XWiki.User"));
+
+            oneOf(mockTrashMetaStore).getDeletedAttachmentPageLoadRunnable(
+                with(equal(attachRef.getDocumentReference())),
+                with(mockDeletedAttach),
+                with(equal(10)),
+                with(any(List.class)));
+                will(new CustomAction("Return a TR which will populate the list with one page.")
+                {
+                    public Object invoke(final Invocation invoc)
+                    {
+                        pageLoadTr.list = (List) invoc.getParameter(3);
+                        return pageLoadTr;
+                    }
+                });
+
+            oneOf(mockTrashContentStore)
+                .getDeletedAttachmentContentLoadRunnable(with(equal(attachRef)),
+                                                         with(now),
+                                                         with(any(List.class)));
+                when(content.is("requested"));
+                will(new CustomAction("Return a TR which will populate the output list "
+                                      + "with the versions of the deleted attachment.")
+                {
+                    public Object invoke(final Invocation invoc)
+                    {
+                        attachContentLoadTr.list = (List) invoc.getParameter(2);
+                        return attachContentLoadTr;
+                    }
+                });
+        }});
+
+        final List<DeletedAttachment> page =
+            this.trashStore.getDeletedAttachments(mockDoc, this.mockDeletedAttach, 10, null);
+
+        Assert.assertEquals("Wrong number of deleted attachments.", 1, page.size());
+        final ExternalContentDeletedAttachment delAttach =
+            (ExternalContentDeletedAttachment) page.get(0);
+        Assert.assertFalse("Content was loaded eagerly.", delAttach.isAttachmentLoaded());
+
+        content.become("requested");
+        Assert.assertEquals("Wrong attachment loaded.", this.mockAttach, delAttach.getAttachment());
+        Assert.assertTrue("Content was not loaded.", delAttach.isAttachmentLoaded());
+        delAttach.getAttachment();
+        Assert.assertEquals("Content should only be loaded once.",
+                            1, attachContentLoadTr.numberOfTimesCalled);
+    }
+
+    @Test
+    public void purgeDeletedAttachmentsTest() throws Exception
+    {
+        final Date cutoff = new Date(this.now.getTime() + 1);
+        final ListPopulatingTransactionRunnable expiredLoadTr =
+            new ListPopulatingTransactionRunnable(new ArrayList(1) {{ add(mockDeletedAttach); }});
+        final TestingTransactionRunnable metaPurgeTr = new TestingTransactionRunnable();
+        final TestingTransactionRunnable contentPurgeTr = new TestingTransactionRunnable();
+
+        final TestingAttachmentRecycleBinStoreAdapter store =
+            new TestingAttachmentRecycleBinStoreAdapter(this.mockTrashContentStore,
+                                                        this.mockTrashMetaStore,
+                                                        this.mockResolver)
+        {
+            @Override
+            protected Map<Long, AttachmentReference> resolveAttachmentReferences(
+                final Collection<Long> ids)
+            {
+                final Map<Long, AttachmentReference> out = new HashMap<Long, AttachmentReference>();
+                out.put(1L, attachRef);
+                return out;
+            }
+        };
+
+        this.jmockContext.checking(new Expectations() {{
+            oneOf(mockTrashMetaStore).getExpiredDeletedAttachmentLoadRunnable(
+                with(cutoff), with(aNull(DeletedAttachment.class)), with(equal(10)),
+                with(any(List.class)));
+                will(new CustomAction("Return a TR which will populate the list with the "
+                                      + "expired deleted attachment.")
+                {
+                    public Object invoke(final Invocation invoc)
+                    {
+                        expiredLoadTr.list = (List) invoc.getParameter(3);
+                        return expiredLoadTr;
+                    }
+                });
+            oneOf(mockTrashMetaStore).getDeletedAttachmentsPurgeRunnable(
+                with(equal(Arrays.asList(1L))));
+                will(returnValue(metaPurgeTr));
+            oneOf(mockTrashContentStore)
+               .getDeletedAttachmentContentPurgeRunnable(with(equal(attachRef)), with(now));
+                will(returnValue(contentPurgeTr));
+        }});
+
+        Assert.assertEquals(1, store.purgeDeletedAttachments(cutoff, 10));
+        Assert.assertEquals(1, metaPurgeTr.numberOfTimesCalled);
+        Assert.assertEquals(1, contentPurgeTr.numberOfTimesCalled);
+    }
+
     /* -------------------- Helpers -------------------- */
 
     private static class ListPopulatingTransactionRunnable extends TransactionRunnable
@@ -219,6 +219,31 @@ public class AttachmentStoreAdapterTest
                           attachLoadTr.numberOfTimesCalled == 1);
     }
 
+    @Test
+    public void loadContentsTest() throws Exception
+    {
+        final TestingTransactionRunnable attachLoadTr = new TestingTransactionRunnable();
+        final List<XWikiAttachment> attachments = new ArrayList<XWikiAttachment>();
+        attachments.add(this.mockAttach);
+
+        this.jmockContext.checking(new Expectations() {{
+            oneOf(mockContentStore).getAttachmentsContentLoadRunnable(attachments);
+                will(returnValue(attachLoadTr));
+        }});
+
+        this.attachStore.loadAttachmentsContent(attachments, this.mockContext, false);
+
+        Assert.assertTrue("The attachments content load TR wasn't called.",
+                          attachLoadTr.numberOfTimesCalled == 1);
+    }
+
+    @Test
+    public void loadNoContentsTest() throws Exception
+    {
+        // No expectations, an empty list must not touch the content store.
+        this.attachStore.loadAttachmentsContent(new ArrayList<XWikiAttachment>(), this.mockContext, false);
+    }
+
     @Test
     public void deleteAttachmentTest() throws Exception
     {
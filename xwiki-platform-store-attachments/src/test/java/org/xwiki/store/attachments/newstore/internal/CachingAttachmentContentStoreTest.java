@@ -0,0 +1,235 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.attachments.newstore.internal;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
+import org.apache.commons.io.IOUtils;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.TransactionRunnable;
+import org.xwiki.store.attachments.legacy.doc.internal.CachedAttachmentContent;
+
+/**
+ * Tests for CachingAttachmentContentStore.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+@RunWith(JMock.class)
+public class CachingAttachmentContentStoreTest
+{
+    private static final byte[] CONTENT = "Hello World".getBytes();
+
+    private final Mockery jmockContext = new JUnit4Mockery() {{
+        setImposteriser(ClassImposteriser.INSTANCE);
+    }};
+
+    private final XWikiAttachment mockAttach = this.jmockContext.mock(XWikiAttachment.class);
+
+    private final XWikiAttachmentContent mockContent =
+        this.jmockContext.mock(XWikiAttachmentContent.class);
+
+    private final AttachmentContentStore mockStore =
+        this.jmockContext.mock(AttachmentContentStore.class);
+
+    /** The content which was last set in the attachment. */
+    private final List<XWikiAttachmentContent> setContent = new ArrayList<XWikiAttachmentContent>();
+
+    private CachingAttachmentContentStore store;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final ComponentManager cm = this.jmockContext.mock(ComponentManager.class);
+        Utils.setComponentManager(cm);
+        final XWikiDocument mockDocument = this.jmockContext.mock(XWikiDocument.class);
+
+        this.jmockContext.checking(new Expectations() {{
+            allowing(cm).getInstanceList(with(any(Class.class)));
+                will(returnValue(new ArrayList()));
+            allowing(cm).getInstance(with(any(Class.class)));
+                will(returnValue(null));
+            allowing(cm).getInstance(with(any(Class.class)), with(any(String.class)));
+                will(returnValue(null));
+            allowing(cm).getInstance(with(any(DefaultParameterizedType.class)), with(any(String.class)));
+                will(returnValue(null));
+
+            allowing(mockDocument).getDocumentReference();
+                will(returnValue(new DocumentReference("xwiki", "Main", "WebHome")));
+            allowing(mockAttach).getDoc(); will(returnValue(mockDocument));
+            allowing(mockAttach).getFilename(); will(returnValue("file.name"));
+            allowing(mockAttach).getVersion(); will(returnValue("1.1"));
+            allowing(mockAttach).getFilesize(); will(returnValue(CONTENT.length));
+            allowing(mockAttach).getAttachment_content(); will(returnValue(mockContent));
+            allowing(mockAttach).setAttachment_content(with(any(XWikiAttachmentContent.class)));
+                will(new CustomAction("Record the content.")
+                {
+                    public Object invoke(final Invocation invoc)
+                    {
+                        setContent.add((XWikiAttachmentContent) invoc.getParameter(0));
+                        return null;
+                    }
+                });
+            allowing(mockContent).getAttachment(); will(returnValue(mockAttach));
+            allowing(mockContent).getContentInputStream();
+                will(new CustomAction("Get a new stream.")
+                {
+                    public Object invoke(final Invocation invoc)
+                    {
+                        return new ByteArrayInputStream(CONTENT);
+                    }
+                });
+        }});
+
+        this.store = new CachingAttachmentContentStore(this.mockStore, 1024, 64);
+    }
+
+    @Test
+    public void loadFromCacheTest() throws Exception
+    {
+        this.jmockContext.checking(new Expectations() {{
+            oneOf(mockStore).getAttachmentContentLoadRunnable(mockAttach);
+                will(returnValue(new TransactionRunnable()));
+        }});
+
+        this.start(this.store.getAttachmentContentLoadRunnable(this.mockAttach));
+        Assert.assertTrue("The first load should not come from the cache.", this.setContent.isEmpty());
+
+        // The underlying store must not be asked this time.
+        this.start(this.store.getAttachmentContentLoadRunnable(this.mockAttach));
+        Assert.assertEquals("The content was not set from the cache.", 1, this.setContent.size());
+        final XWikiAttachmentContent cached = this.setContent.get(0);
+        Assert.assertTrue("Wrong type of content.", cached instanceof CachedAttachmentContent);
+        Assert.assertEquals(new String(CONTENT), IOUtils.toString(cached.getContentInputStream()));
+        Assert.assertEquals(CONTENT.length, cached.getSize());
+    }
+
+    @Test
+    public void loadManyFromCacheTest() throws Exception
+    {
+        final List<XWikiAttachment> attachments = new ArrayList<XWikiAttachment>();
+        attachments.add(this.mockAttach);
+
+        this.jmockContext.checking(new Expectations() {{
+            oneOf(mockStore).getAttachmentsContentLoadRunnable(attachments);
+                will(returnValue(new TransactionRunnable()));
+        }});
+
+        this.start(this.store.getAttachmentsContentLoadRunnable(attachments));
+        this.start(this.store.getAttachmentsContentLoadRunnable(attachments));
+        Assert.assertEquals("The content was not set from the cache.", 1, this.setContent.size());
+    }
+
+    @Test
+    public void saveInvalidatesTest() throws Exception
+    {
+        this.jmockContext.checking(new Expectations() {{
+            exactly(2).of(mockStore).getAttachmentContentLoadRunnable(mockAttach);
+                will(returnValue(new TransactionRunnable()));
+            oneOf(mockStore).getAttachmentContentSaveRunnable(mockContent);
+                will(returnValue(new TransactionRunnable()));
+        }});
+
+        this.start(this.store.getAttachmentContentLoadRunnable(this.mockAttach));
+        this.start(this.store.getAttachmentContentSaveRunnable(this.mockContent));
+        this.start(this.store.getAttachmentContentLoadRunnable(this.mockAttach));
+        Assert.assertTrue("Content was loaded from the cache after a save.", this.setContent.isEmpty());
+    }
+
+    /**
+     * A load runnable which was created while the content was cached must not use the cache if the
+     * content was invalidated before it was run.
+     */
+    @Test
+    public void lookupWhenRunTest() throws Exception
+    {
+        this.jmockContext.checking(new Expectations() {{
+            exactly(2).of(mockStore).getAttachmentContentLoadRunnable(mockAttach);
+                will(returnValue(new TransactionRunnable()));
+            oneOf(mockStore).getAttachmentContentSaveRunnable(mockContent);
+                will(returnValue(new TransactionRunnable()));
+        }});
+
+        this.start(this.store.getAttachmentContentLoadRunnable(this.mockAttach));
+        final TransactionRunnable load = this.store.getAttachmentContentLoadRunnable(this.mockAttach);
+        this.start(this.store.getAttachmentContentSaveRunnable(this.mockContent));
+        this.start(load);
+        Assert.assertTrue("Content invalidated after the load was created came from the cache.",
+                          this.setContent.isEmpty());
+    }
+
+    @Test
+    public void deleteInvalidatesTest() throws Exception
+    {
+        this.jmockContext.checking(new Expectations() {{
+            exactly(2).of(mockStore).getAttachmentContentLoadRunnable(mockAttach);
+                will(returnValue(new TransactionRunnable()));
+            oneOf(mockStore).getAttachmentContentDeleteRunnable(mockAttach);
+                will(returnValue(new TransactionRunnable()));
+        }});
+
+        this.start(this.store.getAttachmentContentLoadRunnable(this.mockAttach));
+        this.start(this.store.getAttachmentContentDeleteRunnable(this.mockAttach));
+        this.start(this.store.getAttachmentContentLoadRunnable(this.mockAttach));
+        Assert.assertTrue("Content was loaded from the cache after a delete.", this.setContent.isEmpty());
+    }
+
+    @Test
+    public void tooLargeTest() throws Exception
+    {
+        this.store = new CachingAttachmentContentStore(this.mockStore, 1024, CONTENT.length - 1);
+
+        this.jmockContext.checking(new Expectations() {{
+            exactly(2).of(mockStore).getAttachmentContentLoadRunnable(mockAttach);
+                will(returnValue(new TransactionRunnable()));
+        }});
+
+        this.start(this.store.getAttachmentContentLoadRunnable(this.mockAttach));
+        this.start(this.store.getAttachmentContentLoadRunnable(this.mockAttach));
+        Assert.assertTrue("Content larger than the limit was cached.", this.setContent.isEmpty());
+    }
+
+    private void start(final TransactionRunnable runnable) throws Exception
+    {
+        final StartableTransactionRunnable transaction = new StartableTransactionRunnable();
+        runnable.runIn(transaction);
+        transaction.start();
+    }
+}
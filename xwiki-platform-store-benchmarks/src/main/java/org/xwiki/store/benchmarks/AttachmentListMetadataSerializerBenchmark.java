@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xwiki.store.serialization.Serializer;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Benchmarks for AttachmentListMetadataSerializer and BinaryAttachmentListMetadataSerializer, each
+ * operation handles a list with the given number of attachment versions.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AttachmentListMetadataSerializerBenchmark
+{
+    /** The number of attachment versions in the list. */
+    @Param({ "1", "100", "10000" })
+    private int entries;
+
+    /** The format to serialize in, "xml" or "binary". */
+    @Param({ "xml", "binary" })
+    private String format;
+
+    /** The serializer under test. */
+    private Serializer<List<XWikiAttachment>, List<XWikiAttachment>> serializer;
+
+    /** The versions to serialize. */
+    private List<XWikiAttachment> attachments;
+
+    /** The versions in serialized form. */
+    private byte[] serialized;
+
+    /**
+     * Create the test data.
+     *
+     * @throws IOException if serializing fails.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        if ("binary".equals(this.format)) {
+            this.serializer = BenchmarkData.binaryAttachmentListSerializer();
+        } else {
+            this.serializer = BenchmarkData.attachmentListSerializer();
+        }
+        this.attachments = BenchmarkData.attachments(this.entries);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        this.serializer.serialize(this.attachments, baos);
+        this.serialized = baos.toByteArray();
+    }
+
+    /**
+     * @throws IOException if serializing fails.
+     */
+    @Benchmark
+    public void serialize() throws IOException
+    {
+        this.serializer.serialize(this.attachments, NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+
+    /**
+     * @return the parsed list.
+     * @throws IOException if parsing fails.
+     */
+    @Benchmark
+    public List<XWikiAttachment> parse() throws IOException
+    {
+        return this.serializer.parse(new ByteArrayInputStream(this.serialized));
+    }
+}
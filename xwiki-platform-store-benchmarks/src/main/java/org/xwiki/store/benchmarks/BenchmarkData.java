@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.store.attachments.legacy.doc.internal.DeletedFilesystemAttachment;
+import org.xwiki.store.serialization.binary.internal.BinaryAttachmentListMetadataSerializer;
+import org.xwiki.store.serialization.xml.internal.AttachmentListMetadataSerializer;
+import org.xwiki.store.serialization.xml.internal.AttachmentMetadataSerializer;
+import org.xwiki.store.serialization.xml.internal.DeletedAttachmentIdMappingSerializer;
+import org.xwiki.store.serialization.xml.internal.DeletedAttachmentMetadataSerializer;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Test data and serializers shared by the benchmarks.
+ * Every benchmark is parameterized by the number of entries (1, 100 and 10000) and measures
+ * throughput, run with <code>java -jar target/benchmarks.jar -prof gc</code> to also get the
+ * allocation rate.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+final class BenchmarkData
+{
+    /** Used for the dates of attachments, milliseconds are dropped by XWikiAttachment. */
+    private static final long START_DATE = 1293045632000L;
+
+    /** The number of bytes in a kilobyte, benchmarks which move content are parameterized in kilobytes. */
+    static final int KILOBYTE = 1024;
+
+    /** The number of distinct users which the generated entries are attributed to. */
+    private static final int USERS = 10;
+
+    /** The number of milliseconds between the dates of consecutive generated entries. */
+    private static final long INTERVAL = 1000L;
+
+    /** Utility class. */
+    private BenchmarkData()
+    {
+    }
+
+    /** @return a serializer for single attachments. */
+    static AttachmentMetadataSerializer attachmentSerializer()
+    {
+        return new AttachmentMetadataSerializer();
+    }
+
+    /** @return a serializer for lists of attachments. */
+    static AttachmentListMetadataSerializer attachmentListSerializer()
+    {
+        return new AttachmentListMetadataSerializer(attachmentSerializer());
+    }
+
+    /** @return a binary serializer for lists of attachments which falls back to the XML one. */
+    static BinaryAttachmentListMetadataSerializer binaryAttachmentListSerializer()
+    {
+        return new BinaryAttachmentListMetadataSerializer(attachmentListSerializer());
+    }
+
+    /** @return a serializer for deleted attachments. */
+    static DeletedAttachmentMetadataSerializer deletedAttachmentSerializer()
+    {
+        return new DeletedAttachmentMetadataSerializer(attachmentSerializer());
+    }
+
+    /** @return a serializer for deleted attachment id mappings. */
+    static DeletedAttachmentIdMappingSerializer idMappingSerializer()
+    {
+        return new DeletedAttachmentIdMappingSerializer();
+    }
+
+    /**
+     * @param count the number of versions to create.
+     * @return a list of versions of an attachment which look like what a real wiki would store.
+     */
+    static List<XWikiAttachment> attachments(final int count)
+    {
+        final List<XWikiAttachment> out = new ArrayList<XWikiAttachment>(count);
+        for (int i = 0; i < count; i++) {
+            final XWikiAttachment attach = new XWikiAttachment();
+            attach.setFilename("some-image-file.png");
+            attach.setFilesize(KILOBYTE * (i + 1));
+            attach.setAuthor("XWiki.SomeUser" + (i % USERS));
+            attach.setVersion("1." + (i + 1));
+            attach.setComment("Uploaded a new version of the image, revision number " + i);
+            attach.setDate(new Date(START_DATE + i * INTERVAL));
+            out.add(attach);
+        }
+        return out;
+    }
+
+    /**
+     * @param count the number of deleted attachments to create.
+     * @return a list of deleted attachments.
+     */
+    static List<DeletedFilesystemAttachment> deletedAttachments(final int count)
+    {
+        final List<DeletedFilesystemAttachment> out = new ArrayList<DeletedFilesystemAttachment>(count);
+        int i = 0;
+        for (XWikiAttachment attach : attachments(count)) {
+            out.add(new DeletedFilesystemAttachment(attach, "XWiki.Deleter" + (i % USERS),
+                new Date(START_DATE + 2 * i * INTERVAL)));
+            i++;
+        }
+        return out;
+    }
+
+    /**
+     * @param count the number of mappings to create.
+     * @return a map of deleted attachment ids to storage paths.
+     */
+    static Map<Long, String> idMappings(final int count)
+    {
+        final Map<Long, String> out = new HashMap<Long, String>();
+        for (int i = 0; i < count; i++) {
+            out.put(Long.valueOf(START_DATE + i),
+                "xwiki/Sandbox/WebHome/~this/deleted-attachments/file" + i + ".txt-" + (START_DATE + i));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xwiki.store.serialization.xml.internal.DeletedAttachmentIdMappingSerializer;
+
+/**
+ * Benchmarks for DeletedAttachmentIdMappingSerializer, each operation handles a map with the given
+ * number of deleted attachment ids.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DeletedAttachmentIdMappingSerializerBenchmark
+{
+    /** The number of ids in the map. */
+    @Param({ "1", "100", "10000" })
+    private int entries;
+
+    /** The serializer under test. */
+    private DeletedAttachmentIdMappingSerializer serializer;
+
+    /** The mappings to serialize. */
+    private Map<Long, String> mappings;
+
+    /** The mappings in serialized form. */
+    private byte[] serialized;
+
+    /**
+     * Create the test data.
+     *
+     * @throws IOException if serializing fails.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        this.serializer = BenchmarkData.idMappingSerializer();
+        this.mappings = BenchmarkData.idMappings(this.entries);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        this.serializer.serialize(this.mappings, baos);
+        this.serialized = baos.toByteArray();
+    }
+
+    /**
+     * @throws IOException if serializing fails.
+     */
+    @Benchmark
+    public void serialize() throws IOException
+    {
+        this.serializer.serialize(this.mappings, NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+
+    /**
+     * @return the parsed map.
+     * @throws IOException if parsing fails.
+     */
+    @Benchmark
+    public Map<Long, String> parse() throws IOException
+    {
+        return this.serializer.parse(new ByteArrayInputStream(this.serialized));
+    }
+}
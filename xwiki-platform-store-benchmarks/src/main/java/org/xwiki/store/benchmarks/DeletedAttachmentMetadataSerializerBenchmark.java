@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xwiki.store.attachments.legacy.doc.internal.DeletedFilesystemAttachment;
+import org.xwiki.store.serialization.xml.internal.DeletedAttachmentMetadataSerializer;
+
+/**
+ * Benchmarks for DeletedAttachmentMetadataSerializer, each operation handles the given number of
+ * deleted attachments one at a time.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DeletedAttachmentMetadataSerializerBenchmark
+{
+    /** The number of deleted attachments handled in each operation. */
+    @Param({ "1", "100", "10000" })
+    private int entries;
+
+    /** The serializer under test. */
+    private DeletedAttachmentMetadataSerializer serializer;
+
+    /** The deleted attachments to serialize. */
+    private List<DeletedFilesystemAttachment> attachments;
+
+    /** The deleted attachments in serialized form. */
+    private byte[][] serialized;
+
+    /**
+     * Create the test data.
+     *
+     * @throws IOException if serializing fails.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        this.serializer = BenchmarkData.deletedAttachmentSerializer();
+        this.attachments = BenchmarkData.deletedAttachments(this.entries);
+        this.serialized = new byte[this.entries][];
+        for (int i = 0; i < this.entries; i++) {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            this.serializer.serialize(this.attachments.get(i), baos);
+            this.serialized[i] = baos.toByteArray();
+        }
+    }
+
+    /**
+     * @throws IOException if serializing fails.
+     */
+    @Benchmark
+    public void serialize() throws IOException
+    {
+        for (DeletedFilesystemAttachment attach : this.attachments) {
+            this.serializer.serialize(attach, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+    }
+
+    /**
+     * @param bh consumes the parsed deleted attachments.
+     * @throws IOException if parsing fails.
+     */
+    @Benchmark
+    public void parse(final Blackhole bh) throws IOException
+    {
+        for (byte[] data : this.serialized) {
+            bh.consume(this.serializer.parse(new ByteArrayInputStream(data)));
+        }
+    }
+}
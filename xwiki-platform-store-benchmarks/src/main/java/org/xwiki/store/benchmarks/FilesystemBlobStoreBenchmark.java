@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.TransactionRunnable;
+import org.xwiki.store.blob.filesystem.internal.FilesystemBlobStore;
+import org.xwiki.store.locks.preemptive.internal.PreemptiveLockProvider;
+
+/**
+ * Benchmarks for the BlobStore API using FilesystemBlobStore, each operation saves or loads a blob
+ * of the given number of kilobytes.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FilesystemBlobStoreBenchmark
+{
+    /** The id of the blob which is saved and loaded. */
+    private static final String BLOB_ID = "benchmark";
+
+    /** The number of kilobytes of content in the blob. */
+    @Param({ "1", "100", "10000" })
+    private int kilobytes;
+
+    /** The directory which the store keeps its files in. */
+    private File storageDir;
+
+    /** The store under test. */
+    private FilesystemBlobStore store;
+
+    /** The content of the blob. */
+    private byte[] content;
+
+    /**
+     * Create the store and save the blob which is loaded.
+     *
+     * @throws Exception if saving fails.
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.storageDir = File.createTempFile("blobstore", "");
+        this.storageDir.delete();
+        this.store = new FilesystemBlobStore(this.storageDir, new PreemptiveLockProvider());
+        this.content = new byte[this.kilobytes * BenchmarkData.KILOBYTE];
+        new Random(this.kilobytes).nextBytes(this.content);
+        this.save();
+    }
+
+    /**
+     * Remove the files of the store.
+     *
+     * @throws IOException if deleting fails.
+     */
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        FileUtils.deleteDirectory(this.storageDir);
+    }
+
+    /**
+     * @throws Exception if saving fails.
+     */
+    @Benchmark
+    public void save() throws Exception
+    {
+        this.run(this.store.getSaveRunnable(BLOB_ID, new ByteArrayInputStream(this.content)));
+    }
+
+    /**
+     * @throws Exception if loading fails.
+     */
+    @Benchmark
+    public void load() throws Exception
+    {
+        this.run(this.store.getLoadRunnable(BLOB_ID, NullOutputStream.NULL_OUTPUT_STREAM));
+    }
+
+    /**
+     * Load the second half of the blob.
+     *
+     * @throws Exception if loading fails.
+     */
+    @Benchmark
+    public void loadRange() throws Exception
+    {
+        this.run(this.store.getLoadRunnable(BLOB_ID, this.content.length / 2, this.content.length,
+                                            NullOutputStream.NULL_OUTPUT_STREAM));
+    }
+
+    /**
+     * Run a TransactionRunnable in a transaction of its own.
+     *
+     * @param runnable the runnable to run.
+     * @throws Exception if the transaction fails.
+     */
+    private void run(final TransactionRunnable<TransactionRunnable> runnable) throws Exception
+    {
+        final StartableTransactionRunnable transaction = new StartableTransactionRunnable();
+        runnable.runIn(transaction);
+        transaction.start();
+    }
+}
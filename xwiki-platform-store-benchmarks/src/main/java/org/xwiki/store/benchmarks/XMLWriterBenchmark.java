@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.dom4j.dom.DOMElement;
+import org.dom4j.io.OutputFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xwiki.store.serialization.xml.internal.XMLWriter;
+
+/**
+ * Benchmarks for XMLWriter#writeBase64, each operation writes an element containing the given
+ * number of kilobytes of binary content.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class XMLWriterBenchmark
+{
+    /** The number of kilobytes of content to write. */
+    @Param({ "1", "100", "10000" })
+    private int entries;
+
+    /** The binary content which will be base64 encoded. */
+    private byte[] content;
+
+    /** Create the test data. */
+    @Setup
+    public void setUp()
+    {
+        this.content = new byte[this.entries * BenchmarkData.KILOBYTE];
+        new Random(this.entries).nextBytes(this.content);
+    }
+
+    /**
+     * @throws Exception if writing fails.
+     */
+    @Benchmark
+    public void writeBase64() throws Exception
+    {
+        final XMLWriter writer =
+            new XMLWriter(NullOutputStream.NULL_OUTPUT_STREAM, new OutputFormat(" ", true, "UTF-8"));
+        writer.startDocument();
+        writer.writeBase64(new DOMElement("content"), new ByteArrayInputStream(this.content));
+        writer.endDocument();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob;
+
+import java.util.Date;
+
+/**
+ * What is known about a stored blob without reading its content.
+ * Stores which did not record a value for a blob, for example because it was saved by an older
+ * version, report -1 for the numbers and null for the others.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BlobStat
+{
+    /** The identifier of the blob. */
+    private final String id;
+
+    /** The number of bytes in the blob. */
+    private final long length;
+
+    /** The number of chunks which the blob is stored in. */
+    private final int chunkCount;
+
+    /** The hex encoded SHA-256 digest of the content. */
+    private final String digest;
+
+    /** When the blob was last saved. */
+    private final Date lastModified;
+
+    /**
+     * The Constructor.
+     *
+     * @param id the identifier of the blob.
+     * @param length the number of bytes in the blob or -1 if it is not known.
+     * @param chunkCount the number of chunks which the blob is stored in or -1 if it is not known.
+     * @param digest the hex encoded SHA-256 digest of the content or null if it is not known.
+     * @param lastModified when the blob was last saved or null if it is not known.
+     */
+    public BlobStat(final String id,
+                    final long length,
+                    final int chunkCount,
+                    final String digest,
+                    final Date lastModified)
+    {
+        this.id = id;
+        this.length = length;
+        this.chunkCount = chunkCount;
+        this.digest = digest;
+        this.lastModified = (lastModified != null) ? new Date(lastModified.getTime()) : null;
+    }
+
+    /** @return the identifier of the blob. */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /** @return the number of bytes in the blob or -1 if it is not known. */
+    public long getLength()
+    {
+        return this.length;
+    }
+
+    /** @return the number of chunks which the blob is stored in or -1 if it is not known. */
+    public int getChunkCount()
+    {
+        return this.chunkCount;
+    }
+
+    /** @return the hex encoded SHA-256 digest of the content, suitable for an ETag, or null if it is not known. */
+    public String getDigest()
+    {
+        return this.digest;
+    }
+
+    /** @return when the blob was last saved or null if it is not known. */
+    public Date getLastModified()
+    {
+        return (this.lastModified != null) ? new Date(this.lastModified.getTime()) : null;
+    }
+}
@@ -54,6 +54,33 @@ public interface BlobStore<T>
      */
     TransactionRunnable<T> getLoadRunnable(final String id, final OutputStream writeTo);
 
+    /**
+     * Get a TransactionRunnable for loading part of a blob.
+     * If the blob ends before the range does then only the bytes up to the end of the blob are written.
+     *
+     * @param id the identifier for the blob.
+     * @param offset the position in the blob of the first byte to write.
+     * @param length the most bytes to write.
+     * @param writeTo the OutputStream to write the part of the blob content to.
+     * @return a new TransactionRunnable.
+     * @since TODO
+     */
+    TransactionRunnable<T> getLoadRunnable(final String id,
+                                           final long offset,
+                                           final long length,
+                                           final OutputStream writeTo);
+
+    /**
+     * Get a TransactionRunnable for finding out about a blob without reading its content.
+     *
+     * @param id the identifier for the blob.
+     * @param output a list which the stat of the blob will be added to, nothing is added if there is
+     *               no such blob.
+     * @return a new TransactionRunnable.
+     * @since TODO
+     */
+    TransactionRunnable<T> getStatRunnable(final String id, final List<BlobStat> output);
+
     /**
      * Get a TransactionRunnable for removing a blob from the blob store.
      *
@@ -64,9 +91,27 @@ public interface BlobStore<T>
 
     /**
      * Get a TransactionRunnable for listing all blobs in the blob store.
+     * Every id is loaded at once, stores with many blobs should be listed a page at a time
+     * with {@link #getListRunnable(String, String, int, List)}.
      *
      * @param populateList an empty list which will be populated with the ids of all entries.
      * @return a TransactionRunnable which will populate the list when run.
      */
     TransactionRunnable<T> getListAllRunnable(final List<String> populateList);
+
+    /**
+     * Get a TransactionRunnable for listing one page of the blobs whose ids begin with a prefix.
+     * Ids are listed in ascending order, to get the next page pass the last id of this page as after.
+     *
+     * @param prefix only list blobs whose ids begin with this, the empty string or null lists all blobs.
+     * @param after only list blobs whose ids come after this one, null to begin at the first.
+     * @param limit the most ids to list.
+     * @param populateList a list which will be populated with the ids.
+     * @return a TransactionRunnable which will populate the list when run.
+     * @since TODO
+     */
+    TransactionRunnable<T> getListRunnable(final String prefix,
+                                           final String after,
+                                           final int limit,
+                                           final List<String> populateList);
 }
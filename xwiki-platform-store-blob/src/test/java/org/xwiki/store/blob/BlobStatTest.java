@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for BlobStat.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BlobStatTest
+{
+    @Test
+    public void valuesTest()
+    {
+        final BlobStat stat = new BlobStat("blob", 1234L, 2, "abcd", new Date(1000L));
+        Assert.assertEquals("blob", stat.getId());
+        Assert.assertEquals(1234L, stat.getLength());
+        Assert.assertEquals(2, stat.getChunkCount());
+        Assert.assertEquals("abcd", stat.getDigest());
+        Assert.assertEquals(new Date(1000L), stat.getLastModified());
+    }
+
+    @Test
+    public void unknownValuesTest()
+    {
+        final BlobStat stat = new BlobStat("blob", -1, -1, null, null);
+        Assert.assertEquals(-1L, stat.getLength());
+        Assert.assertEquals(-1, stat.getChunkCount());
+        Assert.assertNull(stat.getDigest());
+        Assert.assertNull(stat.getLastModified());
+    }
+
+    /**
+     * The date is copied in and out so the stat cannot be changed through it.
+     */
+    @Test
+    public void lastModifiedCopiedTest()
+    {
+        final Date date = new Date(1000L);
+        final BlobStat stat = new BlobStat("blob", 0, 0, null, date);
+        date.setTime(2000L);
+        Assert.assertEquals(1000L, stat.getLastModified().getTime());
+        stat.getLastModified().setTime(3000L);
+        Assert.assertEquals(1000L, stat.getLastModified().getTime());
+    }
+}
@@ -92,6 +92,17 @@ public class DataNucleusAttachmentStoreAdapter extends AbstractAttachmentStoreAd
         return this.metaStore;
     }
 
+    /**
+     * {@inheritDoc}
+     * The content cache is never used because the content is shared by every node using the same
+     * DataNucleus store and the cache would not be invalidated when another node changes it.
+     */
+    @Override
+    protected long getContentCacheSize()
+    {
+        return 0;
+    }
+
     @Override
     protected StartableTransactionRunnable<PersistenceManager> getTransaction()
     {
@@ -19,6 +19,8 @@
  */
 package org.xwiki.store.attachments.datanucleus.internal;
 
+import java.util.List;
+
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentContent;
 
@@ -31,6 +33,7 @@ import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.store.attachments.newstore.internal.AttachmentContentStore;
 import org.xwiki.store.TransactionRunnable;
+import org.xwiki.store.blob.BlobStat;
 import org.xwiki.store.blob.BlobStore;
 
 /**
@@ -77,6 +80,33 @@ public class DataNucleusAttachmentContentStore implements AttachmentContentStore
         return tr;
     }
 
+    @Override
+    public TransactionRunnable<PersistenceManager> getAttachmentsContentLoadRunnable(
+            final List<XWikiAttachment> attachments)
+    {
+        final TransactionRunnable<PersistenceManager> out = new TransactionRunnable<PersistenceManager>();
+        for (final XWikiAttachment attachment : attachments) {
+            this.getAttachmentContentLoadRunnable(attachment).runIn(out);
+        }
+        return out;
+    }
+
+    /**
+     * Find out the size and digest of the content of an attachment without loading it.
+     * The digest is suitable for use as an ETag.
+     *
+     * @param attachment the attachment, it must be attached to a document.
+     * @param output a list which the stat of the content will be added to, nothing is added if the
+     *               attachment has no stored content.
+     * @return a new TransactionRunnable to get the stat of the content.
+     */
+    public TransactionRunnable<PersistenceManager> getAttachmentContentStatRunnable(
+            final XWikiAttachment attachment,
+            final List<BlobStat> output)
+    {
+        return this.blobStore.getStatRunnable(this.idForAttach(attachment), output);
+    }
+
     @Override
     public TransactionRunnable<PersistenceManager> getAttachmentContentDeleteRunnable(final XWikiAttachment attachment)
     {
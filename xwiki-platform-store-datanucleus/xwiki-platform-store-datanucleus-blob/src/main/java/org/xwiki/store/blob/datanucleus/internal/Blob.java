@@ -34,6 +34,33 @@ class Blob
      */
     private long activeVersion;
 
+    /**
+     * The number of chunks in the active version.
+     * Null for blobs which were saved before this was recorded, those are read until a chunk is missing.
+     */
+    private Integer chunkCount;
+
+    /** The total number of bytes in the active version, null if it was not recorded. */
+    private Long length;
+
+    /**
+     * The size of the largest chunk in the active version, no chunk is larger than this.
+     * Null for blobs which were saved before chunk sizes were configurable, those chunks are at most 1MB.
+     */
+    private Integer chunkSize;
+
+    /**
+     * The hashes of the content addressed chunks of the active version, comma separated and in order.
+     * Null if the chunks are stored as {@link BlobChunk}s under the id and version of this blob.
+     */
+    private String manifest;
+
+    /** The hex encoded SHA-256 digest of the content of the active version, null if it was not recorded. */
+    private String digest;
+
+    /** When the active version was saved in milliseconds since the epoch, null if it was not recorded. */
+    private Long lastModified;
+
     public Blob(final String id, final long activeVersion)
     {
         this.id = id;
@@ -61,4 +88,76 @@ class Blob
     {
         return id;
     }
+
+    /** @return the number of chunks in the active version or null if it is not known. */
+    public Integer getChunkCount()
+    {
+        return this.chunkCount;
+    }
+
+    /** @param chunkCount the number of chunks in the active version. */
+    public void setChunkCount(final int chunkCount)
+    {
+        this.chunkCount = chunkCount;
+    }
+
+    /** @return the total number of bytes in the active version or null if it is not known. */
+    public Long getLength()
+    {
+        return this.length;
+    }
+
+    /** @param length the total number of bytes in the active version. */
+    public void setLength(final long length)
+    {
+        this.length = length;
+    }
+
+    /** @return the size of the largest chunk in the active version or null if it is not known. */
+    public Integer getChunkSize()
+    {
+        return this.chunkSize;
+    }
+
+    /** @param chunkSize the size of the largest chunk in the active version. */
+    public void setChunkSize(final int chunkSize)
+    {
+        this.chunkSize = chunkSize;
+    }
+
+    /** @return the manifest of content addressed chunks or null if the chunks are not content addressed. */
+    public String getManifest()
+    {
+        return this.manifest;
+    }
+
+    /** @param manifest the manifest of content addressed chunks of the active version. */
+    public void setManifest(final String manifest)
+    {
+        this.manifest = manifest;
+    }
+
+    /** @return the hex encoded SHA-256 digest of the content or null if it is not known. */
+    public String getDigest()
+    {
+        return this.digest;
+    }
+
+    /** @param digest the hex encoded SHA-256 digest of the content of the active version. */
+    public void setDigest(final String digest)
+    {
+        this.digest = digest;
+    }
+
+    /** @return when the active version was saved in milliseconds since the epoch or null if it is not known. */
+    public Long getLastModified()
+    {
+        return this.lastModified;
+    }
+
+    /** @param lastModified when the active version was saved in milliseconds since the epoch. */
+    public void setLastModified(final long lastModified)
+    {
+        this.lastModified = lastModified;
+    }
 }
@@ -24,7 +24,7 @@ import javax.jdo.annotations.PrimaryKey;
 import javax.jdo.annotations.PersistenceCapable;
 
 @PersistenceCapable(table = "BlobChunk")
-class BlobChunk
+class BlobChunk implements ChunkContent
 {
     /**
      * The primary key.
@@ -42,6 +42,15 @@ class BlobChunk
     /** The content of the blob chunk. */
     private byte[] content;
 
+    /** The checksum of the content, see {@link ChunkChecksums}. */
+    private Long checksum;
+
+    /**
+     * When the chunk was written, in milliseconds since the epoch.
+     * Used to tell chunks of a failed save from those of a save which is still running.
+     */
+    private Long created;
+
     public BlobChunk(final String blobId,
                      final long version,
                      final int chunkIndex)
@@ -49,16 +58,30 @@ class BlobChunk
         this.id = makeId(blobId, version, chunkIndex);
         this.blobId = blobId;
         this.version = version;
+        this.created = System.currentTimeMillis();
     }
 
+    @Override
     public byte[] getContent()
     {
         return this.content;
     }
 
+    @Override
+    public Long getChecksum()
+    {
+        return this.checksum;
+    }
+
+    /**
+     * Set the content and its checksum.
+     *
+     * @param content the content of the chunk.
+     */
     public void setContent(final byte[] content)
     {
         this.content = content;
+        this.checksum = ChunkChecksums.compute(content);
     }
 
     public static String makeId(final String blobId,
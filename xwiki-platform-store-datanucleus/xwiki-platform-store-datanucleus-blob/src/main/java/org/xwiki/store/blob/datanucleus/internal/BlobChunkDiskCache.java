@@ -0,0 +1,229 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of blob chunks in files on local disk, the least recently used chunks are removed when the
+ * total size of the cached chunks exceeds the limit.
+ * Versioned chunks are keyed by the id of the chunk which contains the blob id, version and chunk index
+ * so a new active version is never served chunks of the old one, they are also invalidated when the
+ * blob is saved or deleted so they do not take up space until they age out. Content addressed chunks
+ * are keyed by their hash and are never stale.
+ * The index is only kept in memory so the cache keeps its files in a subdirectory of its own which is
+ * emptied when the cache is created, nothing else in the configured directory is touched.
+ */
+class BlobChunkDiskCache
+{
+    /** Garbage spewer. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlobChunkDiskCache.class);
+
+    /** The name of the subdirectory of the configured directory which the cache owns. */
+    private static final String SUBDIRECTORY = "blob-chunk-cache";
+
+    /** Appended to the name of a file while it is being written. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** The directory which the chunks are stored in, owned by the cache. */
+    private final File directory;
+
+    /** The most bytes of chunks to keep. */
+    private final long maxBytes;
+
+    /** The cached chunks by key, in order of least to most recently used. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** The total size of the cached chunks. */
+    private long totalBytes;
+
+    /** The number of files written, used to make unique file names. */
+    private long fileCounter;
+
+    /**
+     * The Constructor.
+     *
+     * @param parent the directory to cache chunks in, the cache creates a subdirectory of its own.
+     * @param maxBytes the most bytes of chunks to keep.
+     * @throws IOException if the subdirectory cannot be created or emptied.
+     */
+    public BlobChunkDiskCache(final File parent, final long maxBytes) throws IOException
+    {
+        this.directory = new File(parent, SUBDIRECTORY);
+        this.maxBytes = maxBytes;
+        if (this.directory.exists()) {
+            FileUtils.cleanDirectory(this.directory);
+        } else {
+            FileUtils.forceMkdir(this.directory);
+        }
+    }
+
+    /** @return the directory which the chunks are stored in, owned by the cache. */
+    File getDirectory()
+    {
+        return this.directory;
+    }
+
+    /**
+     * @param key the key of a chunk.
+     * @return the content of the chunk or null if it is not cached.
+     */
+    public byte[] get(final String key)
+    {
+        final Entry e;
+        synchronized (this) {
+            e = this.entries.get(key);
+        }
+        if (e == null) {
+            return null;
+        }
+        try {
+            final byte[] content = FileUtils.readFileToByteArray(e.file);
+            if (content.length == e.size && ChunkChecksums.compute(content) == e.checksum) {
+                return content;
+            }
+        } catch (IOException ex) {
+            // Evicted while it was being read, it is a miss.
+        }
+        this.remove(key, e);
+        return null;
+    }
+
+    /**
+     * Cache a chunk.
+     *
+     * @param key the key of the chunk.
+     * @param blobId the id of the blob which the chunk must be invalidated with, null if it never needs to be.
+     * @param content the content of the chunk.
+     */
+    public void put(final String key, final String blobId, final byte[] content)
+    {
+        if (content.length > this.maxBytes) {
+            return;
+        }
+        final File file;
+        synchronized (this) {
+            if (this.entries.containsKey(key)) {
+                return;
+            }
+            file = new File(this.directory, Long.toString(this.fileCounter++));
+        }
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(content);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename [" + temp + "] to [" + file + "]");
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Failed to cache blob chunk [{}]", key, e);
+            IOUtils.closeQuietly(out);
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            final Entry old = this.entries.put(key,
+                new Entry(file, content.length, ChunkChecksums.compute(content), blobId));
+            if (old != null) {
+                this.totalBytes -= old.size;
+                old.file.delete();
+            }
+            this.totalBytes += content.length;
+            final Iterator<Entry> it = this.entries.values().iterator();
+            while (this.totalBytes > this.maxBytes && it.hasNext()) {
+                final Entry eldest = it.next();
+                it.remove();
+                this.totalBytes -= eldest.size;
+                eldest.file.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove every chunk of a blob.
+     *
+     * @param blobId the id of the blob.
+     */
+    public synchronized void invalidate(final String blobId)
+    {
+        final Iterator<Entry> it = this.entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry e = it.next();
+            if (blobId.equals(e.blobId)) {
+                it.remove();
+                this.totalBytes -= e.size;
+                e.file.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove an entry if it has not already been replaced.
+     *
+     * @param key the key of the entry.
+     * @param e the entry.
+     */
+    private synchronized void remove(final String key, final Entry e)
+    {
+        if (this.entries.get(key) == e) {
+            this.entries.remove(key);
+            this.totalBytes -= e.size;
+            e.file.delete();
+        }
+    }
+
+    /** A cached chunk. */
+    private static final class Entry
+    {
+        /** The file which holds the content. */
+        private final File file;
+
+        /** The size of the content. */
+        private final int size;
+
+        /** The checksum of the content, so that a damaged file is a miss. */
+        private final long checksum;
+
+        /** The id of the blob which the chunk is invalidated with, may be null. */
+        private final String blobId;
+
+        Entry(final File file, final int size, final long checksum, final String blobId)
+        {
+            this.file = file;
+            this.size = size;
+            this.checksum = checksum;
+            this.blobId = blobId;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes chunks of a blob to an OutputStream on another thread.
+ * The PersistenceManager must only be used by the thread which owns the transaction so chunks are
+ * fetched on that thread and handed to this pipe, which writes them out while the next chunks are
+ * being fetched. At most depth chunks are queued, when the queue is full, write() blocks.
+ */
+class BlobChunkPipe
+{
+    /** Put in the queue after the last chunk. */
+    private static final byte[] END = new byte[0];
+
+    /** How long to wait on a full queue before checking whether the writer has died. */
+    private static final long POLL_MILLISECONDS = 100;
+
+    /** Threads which write chunks, they are only alive while a blob is being loaded. */
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(final Runnable r)
+        {
+            final Thread t = new Thread(r, "BlobChunkWriter");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** Chunks which have been fetched and not yet written. */
+    private final BlockingQueue<byte[]> queue;
+
+    /** The writer, completes when END is taken from the queue or when writing fails. */
+    private final Future<Void> writer;
+
+    public BlobChunkPipe(final OutputStream writeTo, final int depth)
+    {
+        final BlockingQueue<byte[]> q = new ArrayBlockingQueue<byte[]>(depth);
+        this.queue = q;
+        this.writer = WRITERS.submit(new Callable<Void>() {
+            public Void call() throws IOException, InterruptedException
+            {
+                for (;;) {
+                    final byte[] chunk = q.take();
+                    if (chunk == END) {
+                        return null;
+                    }
+                    writeTo.write(chunk);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue a chunk to be written.
+     *
+     * @param chunk the content of the chunk.
+     * @throws IOException if writing an earlier chunk failed.
+     */
+    public void write(final byte[] chunk) throws IOException
+    {
+        if (!this.offer(chunk)) {
+            this.finish();
+            throw new IOException("Blob chunk writer stopped before all chunks were written.");
+        }
+    }
+
+    /**
+     * Wait for all queued chunks to be written.
+     *
+     * @throws IOException if writing any chunk failed.
+     */
+    public void finish() throws IOException
+    {
+        this.offer(END);
+        try {
+            this.writer.get();
+        } catch (InterruptedException e) {
+            this.abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing blob chunks.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to write blob chunks.", e.getCause());
+        }
+    }
+
+    /** Stop writing, used when fetching chunks fails. */
+    public void abort()
+    {
+        this.writer.cancel(true);
+    }
+
+    /**
+     * @param chunk the chunk to put in the queue.
+     * @return false if the writer is no longer running so the chunk will never be taken.
+     * @throws IOException if the thread is interrupted while waiting for room in the queue.
+     */
+    private boolean offer(final byte[] chunk) throws IOException
+    {
+        try {
+            while (!this.queue.offer(chunk, POLL_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                if (this.writer.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            this.abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing blob chunks.");
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads chunks of a blob from an InputStream on another thread.
+ * While the thread which owns the transaction is storing chunks, the next ones are read into
+ * buffers. Memory is bounded by bytes rather than by a number of chunks since chunks grow, the
+ * reader allocates buffers until they add up to the limit, or to two buffers if chunks are larger
+ * so that one can be read into while the other is stored. Full size buffers are handed back with
+ * release() once the chunk they hold has been flushed and the reader waits for one when they are
+ * all in use. When the chunk size grows, buffers of the old size are dropped as they are released
+ * so while the size changes, the buffers of both sizes may be in memory.
+ */
+class BlobChunkReadAhead
+{
+    /** Put in the queue after the last chunk. */
+    private static final byte[] END = new byte[0];
+
+    /** How long to wait on an empty queue before checking whether the reader has died. */
+    private static final long POLL_MILLISECONDS = 100;
+
+    /** Threads which read chunks, they are only alive while a blob is being saved. */
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(final Runnable r)
+        {
+            final Thread t = new Thread(r, "BlobChunkReader");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** The size of a full chunk at the moment, released buffers of any other size are dropped. */
+    private volatile int currentSize;
+
+    /** Chunks which have been read and not yet taken, bounded by the number of buffers. */
+    private final BlockingQueue<byte[]> filled = new LinkedBlockingQueue<byte[]>();
+
+    /** Buffers which have been released and can be read into again. */
+    private final BlockingQueue<byte[]> free = new LinkedBlockingQueue<byte[]>();
+
+    /** The reader allocates no more buffers once they add up to this many bytes. */
+    private final long maxBytes;
+
+    /** The bytes in buffers of the current size which the reader has allocated, only touched by the reader. */
+    private long allocated;
+
+    /** The reader, completes after the last chunk is queued or when reading fails. */
+    private final Future<Void> reader;
+
+    /**
+     * The Constructor.
+     *
+     * @param in the stream to read, reading begins immediately.
+     * @param chunkSizes the size of each chunk, the last chunk is shorter.
+     * @param firstIndex the index of the first chunk which will be read from the stream.
+     * @param maxBytes the size of the buffers which may be read ahead and held by the caller before
+     *                 they are released, the last buffer may go past the limit and two buffers are
+     *                 always allowed.
+     */
+    public BlobChunkReadAhead(final InputStream in,
+                              final BlobChunkSizePolicy chunkSizes,
+                              final int firstIndex,
+                              final long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        this.reader = READERS.submit(new Callable<Void>() {
+            public Void call() throws IOException, InterruptedException
+            {
+                for (int i = firstIndex;; i++) {
+                    final int chunkSize = chunkSizes.getChunkSize(i);
+                    final byte[] buffer = acquire(chunkSize);
+                    final int length = IOUtils.read(in, buffer);
+                    if (length == chunkSize) {
+                        filled.put(buffer);
+                        continue;
+                    }
+                    if (length > 0) {
+                        // The last (incomplete) chunk needs to have a shorter array.
+                        filled.put(Arrays.copyOf(buffer, length));
+                    }
+                    filled.put(END);
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Take the next chunk.
+     *
+     * @return the content of the next chunk or null if there are no more.
+     * @throws IOException if reading the stream failed.
+     */
+    public byte[] next() throws IOException
+    {
+        try {
+            for (;;) {
+                final byte[] chunk = this.filled.poll(POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    return (chunk == END) ? null : chunk;
+                }
+                if (this.reader.isDone()) {
+                    // Throws if the reader failed, otherwise END is in the queue.
+                    this.reader.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            this.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading blob chunks.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to read blob chunks.", e.getCause());
+        }
+    }
+
+    /**
+     * Hand back a chunk which was returned by next() so its buffer can be read into again.
+     * The content must not be used by the caller after this.
+     *
+     * @param chunk the content of a chunk which has been stored.
+     */
+    public void release(final byte[] chunk)
+    {
+        if (chunk.length == this.currentSize) {
+            this.free.offer(chunk);
+        }
+    }
+
+    /** Stop reading, this has no effect once the last chunk was read. */
+    public void close()
+    {
+        this.reader.cancel(true);
+    }
+
+    /**
+     * Get a buffer to read into, called by the reader.
+     *
+     * @param size the size of buffer needed.
+     * @return a buffer which is size bytes long.
+     * @throws InterruptedException if the reader is cancelled while waiting for a buffer.
+     */
+    private byte[] acquire(final int size) throws InterruptedException
+    {
+        if (size != this.currentSize) {
+            this.currentSize = size;
+            this.free.clear();
+            this.allocated = 0;
+        }
+        for (;;) {
+            byte[] buffer = this.free.poll();
+            if (buffer == null) {
+                if (this.allocated < Math.max(this.maxBytes, 2L * size)) {
+                    this.allocated += size;
+                    return new byte[size];
+                }
+                buffer = this.free.take();
+            }
+            // A buffer of the old size may have been released just as the size changed.
+            if (buffer.length == size) {
+                return buffer;
+            }
+        }
+    }
+}
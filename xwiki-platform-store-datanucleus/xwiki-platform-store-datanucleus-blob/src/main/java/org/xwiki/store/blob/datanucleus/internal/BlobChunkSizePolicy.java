@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+/**
+ * Decides how large each chunk of a blob is.
+ * Chunks begin at the base size and double after every GROWTH_INTERVAL chunks until they reach the
+ * maximum size so a big stream is stored in far fewer rows than if every chunk were the base size.
+ * A blob which is smaller than the base size is stored in one chunk which is exactly its size.
+ */
+class BlobChunkSizePolicy
+{
+    /** The number of chunks of each size before the size doubles. */
+    private static final int GROWTH_INTERVAL = 8;
+
+    /** The size of the first chunks. */
+    private final int baseSize;
+
+    /** Chunks never grow beyond this size. */
+    private final int maxSize;
+
+    /**
+     * The Constructor.
+     *
+     * @param baseSize the size of the first chunks.
+     * @param maxSize chunks never grow beyond this size, if it is not larger than baseSize then
+     *                every chunk is baseSize.
+     */
+    public BlobChunkSizePolicy(final int baseSize, final int maxSize)
+    {
+        if (baseSize < 1) {
+            throw new IllegalArgumentException("Blob chunk size must be positive, got [" + baseSize + "]");
+        }
+        this.baseSize = baseSize;
+        this.maxSize = Math.max(baseSize, maxSize);
+    }
+
+    /**
+     * @param chunkIndex the index of a chunk in the blob.
+     * @return the size of that chunk if it is not the last chunk.
+     */
+    public int getChunkSize(final int chunkIndex)
+    {
+        long size = this.baseSize;
+        for (int i = GROWTH_INTERVAL; i <= chunkIndex && size < this.maxSize; i += GROWTH_INTERVAL) {
+            size <<= 1;
+        }
+        return (int) Math.min(size, this.maxSize);
+    }
+}
@@ -35,6 +35,7 @@ class BlobDeleteTransactionRunnable extends TransactionRunnable<PersistenceManag
     protected void onRun()
     {
         final PersistenceManager pm = this.getContext();
+        // References to content addressed chunks are left for the BlobGarbageCollector.
         pm.newQuery(BlobChunk.class, "WHERE blobId == ?").deletePersistentAll(new Object[] { this.blobId });
         pm.newQuery(Blob.class, "WHERE id == ?").deletePersistentAll(new Object[] { this.blobId });
     }
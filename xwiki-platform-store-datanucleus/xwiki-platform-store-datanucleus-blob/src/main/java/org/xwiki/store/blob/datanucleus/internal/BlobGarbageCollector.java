@@ -0,0 +1,381 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.TransactionProvider;
+import org.xwiki.store.TransactionRunnable;
+
+/**
+ * Reclaims chunks which no blob refers to.
+ * Saving a blob writes the chunks of the new version and leaves those of the version it replaces,
+ * this removes them later so that the save does not have to. It also removes the chunks left by
+ * saves which failed. Content addressed chunks are shared so a save only writes references to them,
+ * the references of versions which are no longer active are removed here and then the chunks which
+ * nothing refers to.
+ * Chunks are scanned in batches, each in its own transaction. A chunk which is newer than the active
+ * version, or belongs to a blob which does not exist, may be part of a save which is still running
+ * so it is only removed once it is older than the grace period. A chunk of a version which was
+ * replaced may still be read by a load which began before, so it is only removed once the grace
+ * period has passed since it was replaced. That is when the active version was saved, which is
+ * recorded as the last modified time of the blob in the same write which made it active.
+ */
+class BlobGarbageCollector
+{
+    /** Garbage spewer. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlobGarbageCollector.class);
+
+    /** The means of getting a transaction to run each batch in. */
+    private final TransactionProvider<PersistenceManager> provider;
+
+    /** The number of chunks to look at in each transaction. */
+    private final int batchSize;
+
+    /**
+     * Chunks which might be used by a save or a load are kept for this many milliseconds after they
+     * were created or replaced.
+     */
+    private final long gracePeriod;
+
+    public BlobGarbageCollector(final TransactionProvider<PersistenceManager> provider,
+                                final int batchSize,
+                                final long gracePeriod)
+    {
+        this.provider = provider;
+        this.batchSize = Math.max(1, batchSize);
+        this.gracePeriod = gracePeriod;
+    }
+
+    /**
+     * Sweep all chunks once.
+     *
+     * @return the number of chunks which were removed.
+     */
+    public int collect()
+    {
+        final long before = System.currentTimeMillis() - this.gracePeriod;
+        int removed = 0;
+        final String[] after = new String[] { "" };
+        final int[] counts = new int[2];
+        do {
+            this.runBatch(new TransactionRunnable<PersistenceManager>() {
+                @Override
+                protected void onRun()
+                {
+                    collectBlobChunks(this.getContext(), after, before, counts);
+                }
+            }, counts);
+            removed += counts[1];
+        } while (counts[0] == this.batchSize);
+
+        after[0] = "";
+        do {
+            this.runBatch(new TransactionRunnable<PersistenceManager>() {
+                @Override
+                protected void onRun()
+                {
+                    collectReferences(this.getContext(), after, before, counts);
+                }
+            }, counts);
+        } while (counts[0] == this.batchSize);
+
+        after[0] = "";
+        do {
+            this.runBatch(new TransactionRunnable<PersistenceManager>() {
+                @Override
+                protected void onRun()
+                {
+                    collectContentChunks(this.getContext(), after, before, counts);
+                }
+            }, counts);
+            removed += counts[1];
+        } while (counts[0] == this.batchSize);
+        return removed;
+    }
+
+    /**
+     * Look at one batch of versioned chunks and remove those which are garbage.
+     *
+     * @param pm the PersistenceManager of the transaction.
+     * @param after the id of the last chunk looked at, it is updated to the last one in this batch.
+     * @param before chunks which are not active and were created or replaced before this time are garbage.
+     * @param counts set to the number of chunks looked at and the number removed.
+     */
+    private void collectBlobChunks(final PersistenceManager pm,
+                                   final String[] after,
+                                   final long before,
+                                   final int[] counts)
+    {
+        final Query q = pm.newQuery(BlobChunk.class, "id > :after");
+        q.setResult("id, blobId, version, created");
+        q.setOrdering("id ascending");
+        q.setRange(0, this.batchSize);
+        final Collection<Object[]> rows = (Collection<Object[]>) q.execute(after[0]);
+
+        final List<String> garbage = selectGarbage(rows, getActiveVersions(pm, rows), before);
+        if (garbage.size() > 0) {
+            pm.newQuery(BlobChunk.class, ":ids.contains(id)").deletePersistentAll(new Object[] { garbage });
+        }
+        if (rows.size() > 0) {
+            after[0] = lastId(rows);
+        }
+        counts[0] = rows.size();
+        counts[1] = garbage.size();
+    }
+
+    /**
+     * Look at one batch of references to content addressed chunks and remove those which are garbage,
+     * they are kept and removed just like versioned chunks.
+     *
+     * @param pm the PersistenceManager of the transaction.
+     * @param after the id of the last reference looked at, it is updated to the last one in this batch.
+     * @param before references which are not active and were created or replaced before this time
+     *               are garbage.
+     * @param counts set to the number of references looked at and the number removed.
+     */
+    private void collectReferences(final PersistenceManager pm,
+                                   final String[] after,
+                                   final long before,
+                                   final int[] counts)
+    {
+        final Query q = pm.newQuery(ContentChunkReference.class, "id > :after");
+        q.setResult("id, blobId, version, created");
+        q.setOrdering("id ascending");
+        q.setRange(0, this.batchSize);
+        final Collection<Object[]> rows = (Collection<Object[]>) q.execute(after[0]);
+
+        final List<String> garbage = selectGarbage(rows, getActiveVersions(pm, rows), before);
+        if (garbage.size() > 0) {
+            pm.newQuery(ContentChunkReference.class, ":ids.contains(id)")
+                .deletePersistentAll(new Object[] { garbage });
+        }
+        if (rows.size() > 0) {
+            after[0] = lastId(rows);
+        }
+        counts[0] = rows.size();
+        counts[1] = garbage.size();
+    }
+
+    /**
+     * Look at one batch of content addressed chunks and remove those which nothing refers to.
+     * References are written by the save which writes or adopts the chunk so a chunk without one is
+     * only garbage once it is old. The references are checked just before the delete, in the same
+     * transaction, and the delete is limited to chunks which are still old so that a chunk which a
+     * save adopted meanwhile is kept.
+     *
+     * @param pm the PersistenceManager of the transaction.
+     * @param after the id of the last chunk looked at, it is updated to the last one in this batch.
+     * @param createdBefore chunks without a reference which were created before this time are garbage.
+     * @param counts set to the number of chunks looked at and the number removed.
+     */
+    private void collectContentChunks(final PersistenceManager pm,
+                                      final String[] after,
+                                      final long createdBefore,
+                                      final int[] counts)
+    {
+        final Query q = pm.newQuery(ContentChunk.class, "id > :after");
+        q.setResult("id, created");
+        q.setOrdering("id ascending");
+        q.setRange(0, this.batchSize);
+        final Collection<Object[]> rows = (Collection<Object[]>) q.execute(after[0]);
+
+        final List<String> old = selectUnreferenced(rows, Collections.<String>emptySet(), createdBefore);
+        final List<String> garbage =
+            (old.size() > 0) ? selectUnreferenced(rows, getReferenced(pm, old), createdBefore) : old;
+        if (rows.size() > 0) {
+            after[0] = lastId(rows);
+        }
+        long removed = 0;
+        if (garbage.size() > 0) {
+            removed = pm.newQuery(ContentChunk.class, ":ids.contains(id) && (created == null || created < :before)")
+                .deletePersistentAll(new Object[] { garbage, createdBefore });
+        }
+        counts[0] = rows.size();
+        counts[1] = (int) removed;
+    }
+
+    /**
+     * Run one batch in a new transaction.
+     * If it fails, the failure is logged and the counts are zeroed so the sweep ends, it will be
+     * tried again in the next sweep.
+     *
+     * @param r the work to do.
+     * @param counts the number of chunks looked at and the number removed, set by the batch.
+     */
+    private void runBatch(final TransactionRunnable<PersistenceManager> r, final int[] counts)
+    {
+        counts[0] = 0;
+        counts[1] = 0;
+        final StartableTransactionRunnable<PersistenceManager> transaction = this.provider.get();
+        r.runIn(transaction);
+        try {
+            transaction.start();
+        } catch (Exception e) {
+            LOGGER.warn("Blob garbage collection batch failed.", e);
+            counts[0] = 0;
+            counts[1] = 0;
+        }
+    }
+
+    /**
+     * Decide which of a batch of versioned chunks, or references to content addressed chunks, are garbage.
+     * The active version is kept. A version which is lower than the active one was replaced and is
+     * garbage once it was replaced before the given time, so that a load which began reading it
+     * before it was replaced can finish. Any other version may belong to a save which is still
+     * running so it is garbage once it was created before the given time.
+     *
+     * @param rows the id, blob id, version and creation time of each chunk or reference.
+     * @param active the active version of each blob, blobs which do not exist are missing.
+     * @param before chunks which were created or replaced before this time may be garbage.
+     * @return the ids of the chunks or references which are garbage.
+     */
+    static List<String> selectGarbage(final Collection<Object[]> rows,
+                                      final Map<String, ActiveVersion> active,
+                                      final long before)
+    {
+        final List<String> garbage = new ArrayList<String>();
+        for (final Object[] row : rows) {
+            final long version = ((Number) row[2]).longValue();
+            final Long created = (Long) row[3];
+            final ActiveVersion activeVersion = active.get((String) row[1]);
+            final boolean isGarbage;
+            if (activeVersion != null && version == activeVersion.version) {
+                isGarbage = false;
+            } else if (activeVersion != null && version < activeVersion.version) {
+                // Blobs saved before the time was recorded were replaced before this was running.
+                isGarbage = activeVersion.since == null || activeVersion.since < before;
+            } else {
+                isGarbage = created == null || created < before;
+            }
+            if (isGarbage) {
+                garbage.add((String) row[0]);
+            }
+        }
+        return garbage;
+    }
+
+    /**
+     * Decide which of a batch of content addressed chunks are garbage, those which are old and
+     * which nothing refers to.
+     *
+     * @param rows the id and creation time of each chunk.
+     * @param referenced the ids of chunks which some version of a blob refers to.
+     * @param createdBefore chunks which were created before this time may be garbage.
+     * @return the ids of the chunks which are garbage.
+     */
+    static List<String> selectUnreferenced(final Collection<Object[]> rows,
+                                           final Set<String> referenced,
+                                           final long createdBefore)
+    {
+        final List<String> garbage = new ArrayList<String>();
+        for (final Object[] row : rows) {
+            final Long created = (Long) row[1];
+            if ((created == null || created < createdBefore) && !referenced.contains(row[0])) {
+                garbage.add((String) row[0]);
+            }
+        }
+        return garbage;
+    }
+
+    /**
+     * @param rows rows whose first column is the id, in order.
+     * @return the id in the last row.
+     */
+    private static String lastId(final Collection<Object[]> rows)
+    {
+        String last = null;
+        for (final Object[] row : rows) {
+            last = (String) row[0];
+        }
+        return last;
+    }
+
+    /**
+     * @param pm the PersistenceManager to look with.
+     * @param rows rows whose second column is the id of a blob.
+     * @return the active version of each of the blobs which exists.
+     */
+    private static Map<String, ActiveVersion> getActiveVersions(final PersistenceManager pm,
+                                                                final Collection<Object[]> rows)
+    {
+        final Map<String, ActiveVersion> active = new HashMap<String, ActiveVersion>();
+        final Set<String> looked = new HashSet<String>();
+        for (final Object[] row : rows) {
+            final String blobId = (String) row[1];
+            if (!looked.add(blobId)) {
+                continue;
+            }
+            try {
+                final Blob b = pm.getObjectById(Blob.class, blobId);
+                active.put(blobId, new ActiveVersion(b.getActiveVersion(), b.getLastModified()));
+                pm.evict(b);
+            } catch (JDOObjectNotFoundException e) {
+                // No such blob, all of its chunks are orphans.
+            }
+        }
+        return active;
+    }
+
+    /**
+     * @param pm the PersistenceManager to look with.
+     * @param hashes the ids of some content addressed chunks.
+     * @return those of the ids which some version of a blob refers to.
+     */
+    private static Set<String> getReferenced(final PersistenceManager pm, final List<String> hashes)
+    {
+        final Query q = pm.newQuery(ContentChunkReference.class, ":hashes.contains(hash)");
+        q.setResult("distinct hash");
+        return new HashSet<String>((Collection<String>) q.execute(hashes));
+    }
+
+    /** The active version of a blob and when it became active. */
+    static final class ActiveVersion
+    {
+        /** The active version. */
+        private final long version;
+
+        /** When the active version was saved and so when the one before it was replaced, null if not recorded. */
+        private final Long since;
+
+        /**
+         * @param version the active version.
+         * @param since when the active version was saved, null if it was not recorded.
+         */
+        ActiveVersion(final long version, final Long since)
+        {
+            this.version = version;
+            this.since = since;
+        }
+    }
+}
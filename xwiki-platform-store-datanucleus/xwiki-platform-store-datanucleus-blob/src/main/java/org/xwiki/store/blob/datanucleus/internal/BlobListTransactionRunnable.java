@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import org.xwiki.store.TransactionRunnable;
+
+/**
+ * Lists one page of blob ids which begin with a prefix.
+ * The prefix is turned into a range of ids so the query is a range scan, only the ids are fetched.
+ */
+class BlobListTransactionRunnable extends TransactionRunnable<PersistenceManager>
+{
+    private final String prefix;
+
+    private final String after;
+
+    private final int limit;
+
+    private final List<String> output;
+
+    public BlobListTransactionRunnable(final String prefix,
+                                       final String after,
+                                       final int limit,
+                                       final List<String> output)
+    {
+        this.prefix = (prefix != null) ? prefix : "";
+        this.after = after;
+        this.limit = limit;
+        this.output = output;
+    }
+
+    @Override
+    protected void onRun()
+    {
+        final Map<String, Object> params = new HashMap<String, Object>();
+        final StringBuilder filter = new StringBuilder();
+        if (this.after != null && this.after.compareTo(this.prefix) >= 0) {
+            filter.append("id > :from");
+            params.put("from", this.after);
+        } else {
+            filter.append("id >= :from");
+            params.put("from", this.prefix);
+        }
+        final String end = rangeEnd(this.prefix);
+        if (end != null) {
+            filter.append(" && id < :to");
+            params.put("to", end);
+        }
+
+        final Query q = this.getContext().newQuery(Blob.class, filter.toString());
+        q.setResult("id");
+        q.setOrdering("id ascending");
+        q.setRange(0, this.limit);
+        for (final Object id : (Collection<Object>) q.executeWithMap(params)) {
+            this.output.add((String) id);
+        }
+    }
+
+    /**
+     * @param prefix a prefix.
+     * @return the lowest string which is greater than every string beginning with the prefix or null
+     *         if there is no such string, as for the empty prefix.
+     */
+    static String rangeEnd(final String prefix)
+    {
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        if (last < 0) {
+            return null;
+        }
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+}
@@ -19,14 +19,15 @@
  */
 package org.xwiki.store.blob.datanucleus.internal;
 
-import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 
-import javax.jdo.annotations.Index;
 import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
-import javax.jdo.Query;
 import org.apache.commons.io.IOUtils;
 import org.xwiki.store.TransactionRunnable;
 
@@ -35,10 +36,64 @@ class BlobLoadTransactionRunnable extends TransactionRunnable<PersistenceManager
     private final String blobId;
     private final OutputStream writeTo;
 
-    public BlobLoadTransactionRunnable(final String blobId, final OutputStream writeTo)
+    /** The size of chunks of a blob which does not record it, chunks were at most 1MB before it was recorded. */
+    private static final int UNRECORDED_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The number of bytes to fetch in each round trip, as many more may be waiting to be written
+     * so a load holds about twice this plus one chunk.
+     */
+    private final long prefetchBytes;
+
+    /** The local cache of chunks, null if there is none. */
+    private final BlobChunkDiskCache cache;
+
+    /** The position in the blob of the first byte to write. */
+    private final long offset;
+
+    /** The position in the blob after the last byte to write. */
+    private final long end;
+
+    /** The position in the blob of the start of the next chunk. */
+    private long position;
+
+    public BlobLoadTransactionRunnable(final String blobId,
+                                       final OutputStream writeTo,
+                                       final long prefetchBytes,
+                                       final BlobChunkDiskCache cache)
     {
+        this(blobId, 0, Long.MAX_VALUE, writeTo, prefetchBytes, cache);
+    }
+
+    /**
+     * Load only part of a blob.
+     * Chunks before the range must still be fetched to find where it begins but no chunks are
+     * fetched once the end of the range is reached.
+     *
+     * @param blobId the id of the blob to load.
+     * @param offset the position of the first byte to write.
+     * @param length the most bytes to write.
+     * @param writeTo the stream to write the bytes to.
+     * @param prefetchBytes the number of bytes to fetch in each round trip, at least one chunk is fetched.
+     * @param cache the local cache of chunks, null if there is none.
+     */
+    public BlobLoadTransactionRunnable(final String blobId,
+                                       final long offset,
+                                       final long length,
+                                       final OutputStream writeTo,
+                                       final long prefetchBytes,
+                                       final BlobChunkDiskCache cache)
+    {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset [" + offset + "] and length [" + length
+                                               + "] must not be negative");
+        }
         this.blobId = blobId;
         this.writeTo = writeTo;
+        this.prefetchBytes = prefetchBytes;
+        this.cache = cache;
+        this.offset = offset;
+        this.end = (length > Long.MAX_VALUE - offset) ? Long.MAX_VALUE : offset + length;
     }
 
     @Override
@@ -47,16 +102,190 @@ class BlobLoadTransactionRunnable extends TransactionRunnable<PersistenceManager
         final PersistenceManager pm = this.getContext();
         final Blob b = pm.getObjectById(Blob.class, this.blobId);
         long version = b.getActiveVersion();
+        if (b.getChunkCount() == null) {
+            this.loadUnknownLength(pm, version);
+        } else if (b.getChunkCount() <= 1) {
+            this.loadChunks(pm, version, b, 1, null);
+        } else {
+            // Counted by the largest chunk since chunks of large blobs grow.
+            final int largestChunk = (b.getChunkSize() != null) ? b.getChunkSize() : UNRECORDED_CHUNK_SIZE;
+            final int batchSize = (int) Math.max(1, Math.min(b.getChunkCount(), this.prefetchBytes / largestChunk));
+            final BlobChunkPipe pipe = new BlobChunkPipe(this.writeTo, batchSize);
+            boolean finished = false;
+            try {
+                this.loadChunks(pm, version, b, batchSize, pipe);
+                pipe.finish();
+                finished = true;
+            } finally {
+                if (!finished) {
+                    pipe.abort();
+                }
+            }
+        }
+        writeTo.close();
+    }
+
+    /**
+     * Fetch the chunks in batches, each batch in one call to the data store.
+     * While each batch is being fetched, the chunks of the last one are written by the pipe.
+     * If the blob has a manifest then the chunks are the content addressed chunks which it lists.
+     * Chunks which are in the local cache are not fetched and those which are fetched are cached.
+     * Each chunk is checked against its checksum as it arrives so nothing corrupt is written or cached.
+     *
+     * @param pm the PersistenceManager to fetch with.
+     * @param version the version of the blob to load.
+     * @param b the blob, its chunk count must be known.
+     * @param batchSize the number of chunks to fetch in each batch.
+     * @param pipe the pipe to write the chunks to, if null they are written directly.
+     * @throws IOException if writing fails or the chunks do not add up to the length of the blob.
+     */
+    private void loadChunks(final PersistenceManager pm,
+                            final long version,
+                            final Blob b,
+                            final int batchSize,
+                            final BlobChunkPipe pipe) throws IOException
+    {
+        final int chunkCount = b.getChunkCount();
+        final List<String> hashes =
+            (b.getManifest() != null) ? ContentChunkReferences.fromManifest(b.getManifest()) : null;
+        if (hashes != null && hashes.size() != chunkCount) {
+            throw new IOException("Blob [" + this.blobId + "] has a manifest of [" + hashes.size()
+                                  + "] chunks but should have [" + chunkCount + "]");
+        }
+        for (int i = 0; i < chunkCount && this.position < this.end; i += batchSize) {
+            final int end = Math.min(chunkCount, i + batchSize);
+            final byte[][] contents = new byte[end - i][];
+            final List<String> keys = new ArrayList<String>(end - i);
+            final List<Object> oids = new ArrayList<Object>(end - i);
+            for (int j = i; j < end; j++) {
+                final String key = (hashes != null) ? hashes.get(j) : BlobChunk.makeId(this.blobId, version, j);
+                keys.add(key);
+                if (this.cache != null) {
+                    contents[j - i] = this.cache.get(key);
+                }
+                if (contents[j - i] != null) {
+                    continue;
+                }
+                if (hashes != null) {
+                    oids.add(pm.newObjectIdInstance(ContentChunk.class, key));
+                } else {
+                    oids.add(pm.newObjectIdInstance(BlobChunk.class, key));
+                }
+            }
+            if (!oids.isEmpty()) {
+                this.fetchChunks(pm, version, oids, keys, (hashes != null) ? null : this.blobId, contents);
+            }
+            for (final byte[] content : contents) {
+                if (!this.write(content, pipe)) {
+                    break;
+                }
+            }
+        }
+        // If the end of the range was reached then not every chunk was necessarily fetched.
+        if (this.position < this.end && b.getLength() != null && b.getLength() != this.position) {
+            throw new IOException("Blob [" + this.blobId + "] should be [" + b.getLength()
+                                  + "] bytes long but the chunks add up to [" + this.position + "]");
+        }
+    }
+
+    /**
+     * Fetch the chunks which were not found in the cache, check them and cache them.
+     *
+     * @param pm the PersistenceManager to fetch with.
+     * @param version the version of the blob which is being loaded.
+     * @param oids the object ids of the chunks to fetch, in order.
+     * @param keys the cache keys of all chunks of the batch.
+     * @param cacheBlobId the blob id to cache the chunks under, null for content addressed chunks.
+     * @param contents the content of each chunk of the batch, the empty places are filled in order.
+     * @throws IOException if any chunk is missing or does not match its checksum.
+     */
+    private void fetchChunks(final PersistenceManager pm,
+                             final long version,
+                             final List<Object> oids,
+                             final List<String> keys,
+                             final String cacheBlobId,
+                             final byte[][] contents) throws IOException
+    {
+        final Collection<ChunkContent> chunks;
+        try {
+            chunks = (Collection<ChunkContent>) pm.getObjectsById(oids);
+        } catch (JDOObjectNotFoundException e) {
+            throw new IOException("Blob [" + this.blobId + "] is missing chunks of version ["
+                                  + version + "]", e);
+        }
+        int k = 0;
+        for (final ChunkContent bc : chunks) {
+            while (contents[k] != null) {
+                k++;
+            }
+            this.verify(bc, keys.get(k));
+            contents[k] = bc.getContent();
+            if (this.cache != null) {
+                this.cache.put(keys.get(k), cacheBlobId, contents[k]);
+            }
+            pm.evict(bc);
+        }
+    }
+
+    /**
+     * Load a blob which was saved before the number of chunks was recorded.
+     * Chunks are fetched one at a time until one is missing.
+     *
+     * @param pm the PersistenceManager to fetch with.
+     * @param version the version of the blob to load.
+     * @throws IOException if writing fails or a chunk does not match its checksum.
+     */
+    private void loadUnknownLength(final PersistenceManager pm, final long version) throws IOException
+    {
         try {
-            for (int i = 0;; i++) {
+            for (int i = 0; this.position < this.end; i++) {
                 final Object chunkId = BlobChunk.makeId(this.blobId, version, i);
                 final BlobChunk bc = pm.getObjectById(BlobChunk.class, chunkId);
-                IOUtils.write(bc.getContent(), this.writeTo);
+                this.verify(bc, chunkId);
+                this.write(bc.getContent(), null);
                 pm.evict(bc);
             }
         } catch (JDOObjectNotFoundException e) {
             // No more chunks to get.
         }
-        writeTo.close();
+    }
+
+    /**
+     * @param chunk a chunk which was fetched.
+     * @param chunkId the id of the chunk, for the error message.
+     * @throws IOException if the content of the chunk does not match its checksum.
+     */
+    private void verify(final ChunkContent chunk, final Object chunkId) throws IOException
+    {
+        if (!ChunkChecksums.matches(chunk)) {
+            throw new IOException("Chunk [" + chunkId + "] of blob [" + this.blobId
+                                  + "] does not match its checksum, it is corrupt");
+        }
+    }
+
+    /**
+     * Write the part of the next chunk which is in the range being loaded.
+     *
+     * @param content the content of the chunk.
+     * @param pipe the pipe to write to, if null the part is written directly.
+     * @return false if the end of the range has been reached so no more chunks are needed.
+     * @throws IOException if writing fails.
+     */
+    boolean write(final byte[] content, final BlobChunkPipe pipe) throws IOException
+    {
+        final long start = this.position;
+        this.position += content.length;
+        if (this.position > this.offset && start < this.end) {
+            final int from = (int) (Math.max(this.offset, start) - start);
+            final int to = (int) (Math.min(this.end, this.position) - start);
+            final byte[] part =
+                (from == 0 && to == content.length) ? content : Arrays.copyOfRange(content, from, to);
+            if (pipe != null) {
+                pipe.write(part);
+            } else {
+                IOUtils.write(part, this.writeTo);
+            }
+        }
+        return this.position < this.end;
     }
 }
@@ -21,19 +21,26 @@ package org.xwiki.store.blob.datanucleus.internal;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
-import javax.jdo.Query;
 import org.apache.commons.io.IOUtils;
 import org.xwiki.store.TransactionRunnable;
 
 
 class BlobSaveTransactionRunnable extends TransactionRunnable<PersistenceManager>
 {
-    /** The number of bytes in each chunk of the blob, 1<<20 == 1 megabyte. */
-    private static final int CHUNK_SIZE = 1<<20;
+    /** The size of the buffer which the first chunk is read into, it is grown as needed. */
+    private static final int INITIAL_BUFFER_SIZE = 1 << 13;
 
     /** The key to save under. */
     private final String key;
@@ -44,68 +51,192 @@ class BlobSaveTransactionRunnable extends TransactionRunnable<PersistenceManager
     /** A java.util.Random used to increment the version. */
     private final Random random;
 
+    /**
+     * A batch of chunks is flushed once it adds up to this many bytes, as many more are read ahead
+     * meanwhile so the read buffers add up to about twice this plus one chunk.
+     */
+    private final long writeBehindBytes;
+
+    /** The size of each chunk. */
+    private final BlobChunkSizePolicy chunkSizes;
+
+    /** If true then chunks are stored once by the hash of their content and the blob gets a manifest. */
+    private final boolean dedup;
+
+    /** The hashes of the chunks which have been stored so far, only used with dedup. */
+    private final List<String> hashes = new ArrayList<String>();
+
+    /** The distinct hashes in the list of hashes. */
+    private final Set<String> distinctHashes = new HashSet<String>();
+
     /** The blob metadata which will be saved after all blob chunks are saved. */
     private Blob blob;
 
     public BlobSaveTransactionRunnable(final String key,
                                        final InputStream copyFrom,
-                                       final Random random)
+                                       final Random random,
+                                       final long writeBehindBytes,
+                                       final BlobChunkSizePolicy chunkSizes,
+                                       final boolean dedup)
     {
         this.key = key;
         this.copyFrom = copyFrom;
         this.random = random;
+        this.writeBehindBytes = Math.max(1, writeBehindBytes);
+        this.chunkSizes = chunkSizes;
+        this.dedup = dedup;
     }
 
     @Override
     protected void onPreRun()
     {
-        final PersistenceManager pm = this.getContext();
         final long versionNumber = this.getNextVersionNumber();
-        this.deleteOldEntries(versionNumber);
         this.blob = new Blob(this.key, versionNumber);
     }
 
     @Override
     protected void onRun() throws IOException
     {
-        final long version = this.blob.getActiveVersion();
         final PersistenceManager pm = this.getContext();
-        final byte[] chunkBuff = new byte[CHUNK_SIZE];
+        final List<byte[]> batch = new ArrayList<byte[]>();
+        long batchLength = 0;
         long totalLength = 0;
-        for (int i = 0;; i++) {
-            int length = IOUtils.read(this.copyFrom, chunkBuff);
-            final BlobChunk bc = new BlobChunk(this.key, version, i);
-            if (length > 0) {
-                totalLength += length;
-                if (length < CHUNK_SIZE) {
-                    // The last (incomplete) chunk needs to have a shorter array.
-                    byte[] smallBuff = new byte[length];
-                    System.arraycopy(chunkBuff, 0, smallBuff, 0, length);
-                    bc.setContent(smallBuff);
-                } else {
-                    bc.setContent(chunkBuff);
+        int chunkCount = 0;
+        int largestChunk = 0;
+        // The whole content is digested as it passes through so that a stat can report it.
+        final MessageDigest digest = ContentChunkReferences.newMessageDigest();
+
+        // The first chunk is read here so that a blob which fits in one chunk needs no reader thread.
+        final int firstSize = this.chunkSizes.getChunkSize(0);
+        byte[] content = this.readFirstChunk(firstSize);
+        final BlobChunkReadAhead readAhead = (content != null && content.length == firstSize)
+            ? new BlobChunkReadAhead(this.copyFrom, this.chunkSizes, 1, 2 * this.writeBehindBytes) : null;
+        try {
+            while (content != null) {
+                batch.add(content);
+                digest.update(content);
+                batchLength += content.length;
+                totalLength += content.length;
+                largestChunk = Math.max(largestChunk, content.length);
+                chunkCount++;
+                if (batchLength >= this.writeBehindBytes) {
+                    this.storeChunks(batch, chunkCount - batch.size(), readAhead);
+                    batchLength = 0;
                 }
-                pm.makePersistent(bc);
-                pm.flush();
+                content = (readAhead != null) ? readAhead.next() : null;
             }
-            if (length < CHUNK_SIZE) {
-                break;
+            this.storeChunks(batch, chunkCount - batch.size(), readAhead);
+        } finally {
+            if (readAhead != null) {
+                readAhead.close();
             }
         }
+        this.blob.setChunkCount(chunkCount);
+        this.blob.setChunkSize(largestChunk);
+        this.blob.setLength(totalLength);
+        this.blob.setDigest(ContentChunkReferences.toHex(digest.digest()));
+        this.blob.setLastModified(System.currentTimeMillis());
+        if (this.dedup) {
+            this.blob.setManifest(ContentChunkReferences.toManifest(this.hashes));
+        }
+        // The chunks and references of the version this replaces are left for the BlobGarbageCollector,
+        // nothing is released until this version is committed and the older one is no longer active.
+        // The last modified time tells the collector when the older one was replaced.
         pm.makePersistent(this.blob);
-        this.deleteOldEntries(version);
     }
 
     /**
-     * Delete all entries with versions lower than the given version.
+     * Read the first chunk, the buffer begins small and is doubled until it is full size so that a
+     * small blob does not cost a full size allocation.
+     *
+     * @param size the size of the first chunk.
+     * @return the content of the first chunk, shorter than size only if the stream ended, or null
+     *         if the stream is empty.
+     * @throws IOException if reading the stream fails.
+     */
+    private byte[] readFirstChunk(final int size) throws IOException
+    {
+        byte[] buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, size)];
+        int length = 0;
+        for (;;) {
+            length += IOUtils.read(this.copyFrom, buffer, length, buffer.length - length);
+            if (length < buffer.length || buffer.length == size) {
+                break;
+            }
+            buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length << 1, size));
+        }
+        if (length == 0) {
+            return null;
+        }
+        return (length < buffer.length) ? Arrays.copyOf(buffer, length) : buffer;
+    }
+
+    /**
+     * Store a batch of chunks in one flush.
+     * Once they are flushed, the buffers are handed back to the read ahead to be filled again.
+     * The chunks are persistent-new so the PersistenceManager keeps them, and their content, until
+     * the transaction ends, so when there is a read ahead each chunk is given a copy of its buffer.
+     * With dedup, the references to the chunks are written first and chunks whose content is
+     * already stored are not written again, they are adopted so the garbage collector keeps them.
      *
-     * @param deleteBeforeVersion delete versions of the attachment lower than this.
+     * @param batch the content of the chunks to store, the list is cleared.
+     * @param firstIndex the index in the blob of the first chunk in the batch.
+     * @param readAhead the read ahead which the content came from, null if there is none.
+     */
+    private void storeChunks(final List<byte[]> batch,
+                             final int firstIndex,
+                             final BlobChunkReadAhead readAhead)
+    {
+        if (batch.size() == 0) {
+            return;
+        }
+        final PersistenceManager pm = this.getContext();
+        final long version = this.blob.getActiveVersion();
+        final List<Object> toStore = new ArrayList<Object>(batch.size());
+        if (this.dedup) {
+            // The chunks which are new to this save.
+            final Map<String, byte[]> fresh = new LinkedHashMap<String, byte[]>();
+            for (final byte[] content : batch) {
+                final String hash = ContentChunkReferences.hash(content);
+                if (this.distinctHashes.add(hash)) {
+                    fresh.put(hash, content);
+                }
+                this.hashes.add(hash);
+            }
+            ContentChunkReferences.addReferences(pm, fresh.keySet(), this.key, version);
+            pm.flush();
+            for (final Map.Entry<String, byte[]> e : fresh.entrySet()) {
+                if (!ContentChunkReferences.adopt(pm, e.getKey())) {
+                    toStore.add(new ContentChunk(e.getKey(), ownCopy(e.getValue(), readAhead)));
+                }
+            }
+        } else {
+            for (int i = 0; i < batch.size(); i++) {
+                final BlobChunk bc = new BlobChunk(this.key, version, firstIndex + i);
+                bc.setContent(ownCopy(batch.get(i), readAhead));
+                toStore.add(bc);
+            }
+        }
+        if (toStore.size() > 0) {
+            pm.makePersistentAll(toStore);
+            pm.flush();
+        }
+        if (readAhead != null) {
+            for (final byte[] content : batch) {
+                readAhead.release(content);
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * @param content the content of a chunk.
+     * @param readAhead the read ahead which the content came from, null if there is none.
+     * @return the content if it will not be handed back to a read ahead, otherwise a copy of it.
      */
-    private void deleteOldEntries(final long deleteBeforeVersion)
+    private static byte[] ownCopy(final byte[] content, final BlobChunkReadAhead readAhead)
     {
-        final Query q =
-            this.getContext().newQuery(BlobChunk.class, "blobId == :id && version < :ver");
-        q.deletePersistentAll(new Object[] { this.key, deleteBeforeVersion });
+        return (readAhead == null) ? content : content.clone();
     }
 
     /**
@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.util.Collection;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.TransactionProvider;
+import org.xwiki.store.TransactionRunnable;
+
+/**
+ * Reads every stored chunk and checks it against its checksum so that corruption is found before a user
+ * loads it. Each corrupt chunk is logged as an error.
+ * Chunks are read in batches, each in its own transaction, and the scrubber sleeps between batches
+ * so that it reads no more than the given number of bytes per second on average.
+ * A batch which fails is logged and the sweep goes on after the last chunk which that batch reached,
+ * so a chunk which cannot be read at all is reported and skipped rather than ending the sweep.
+ */
+class BlobScrubber
+{
+    /** Garbage spewer. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlobScrubber.class);
+
+    /** The means of getting a transaction to run each batch in. */
+    private final TransactionProvider<PersistenceManager> provider;
+
+    /** The number of chunks to read in each transaction. */
+    private final int batchSize;
+
+    /** The most bytes to read each second on average. */
+    private final long bytesPerSecond;
+
+    public BlobScrubber(final TransactionProvider<PersistenceManager> provider,
+                        final int batchSize,
+                        final long bytesPerSecond)
+    {
+        this.provider = provider;
+        this.batchSize = Math.max(1, batchSize);
+        this.bytesPerSecond = Math.max(1, bytesPerSecond);
+    }
+
+    /**
+     * Check all chunks once.
+     *
+     * @return the number of corrupt chunks which were found.
+     * @throws InterruptedException if the thread is interrupted while waiting to read the next batch.
+     */
+    public int scrub() throws InterruptedException
+    {
+        final long start = System.currentTimeMillis();
+        // Chunks looked at in the last batch, bytes read and corrupt chunks found in total.
+        final long[] counts = new long[3];
+        this.scrub(BlobChunk.class, start, counts);
+        this.scrub(ContentChunk.class, start, counts);
+        return (int) counts[2];
+    }
+
+    /**
+     * Check all chunks of one type.
+     *
+     * @param type the type of chunk to check.
+     * @param start when the sweep began, for working out how long to sleep.
+     * @param counts the number of chunks looked at in the last batch, bytes read and corrupt chunks found.
+     * @throws InterruptedException if the thread is interrupted while sleeping.
+     */
+    private void scrub(final Class<? extends ChunkContent> type, final long start, final long[] counts)
+        throws InterruptedException
+    {
+        final String[] after = new String[] { "" };
+        do {
+            counts[0] = 0;
+            final String before = after[0];
+            final StartableTransactionRunnable<PersistenceManager> transaction = this.provider.get();
+            new TransactionRunnable<PersistenceManager>() {
+                @Override
+                protected void onRun()
+                {
+                    scrubBatch(this.getContext(), type, after, counts);
+                }
+            }.runIn(transaction);
+            try {
+                transaction.start();
+            } catch (Exception e) {
+                if (after[0].equals(before)) {
+                    // Listing the ids failed so there is no way past this batch until the next sweep.
+                    LOGGER.warn("Blob scrub of [{}] failed after [{}], the rest is left for the next sweep.",
+                                type.getSimpleName(), before, e);
+                    return;
+                }
+                LOGGER.error("Blob chunk [{}] of type [{}] could not be checked, continuing after it.",
+                             after[0], type.getSimpleName(), e);
+                counts[0] = this.batchSize;
+            }
+
+            final long sleep = start + counts[1] * 1000 / this.bytesPerSecond - System.currentTimeMillis();
+            if (sleep > 0) {
+                Thread.sleep(sleep);
+            }
+        } while (counts[0] == this.batchSize);
+    }
+
+    /**
+     * Check one batch of chunks.
+     *
+     * @param pm the PersistenceManager of the transaction.
+     * @param type the type of chunk to check.
+     * @param after the id of the last chunk checked, it is updated to the last one in this batch.
+     * @param counts the number of chunks looked at is set, the bytes read and corrupt chunks are added to.
+     */
+    private void scrubBatch(final PersistenceManager pm,
+                            final Class<? extends ChunkContent> type,
+                            final String[] after,
+                            final long[] counts)
+    {
+        final Query q = pm.newQuery(type, "id > :after");
+        q.setResult("id");
+        q.setOrdering("id ascending");
+        q.setRange(0, this.batchSize);
+        final Collection<String> ids = (Collection<String>) q.execute(after[0]);
+        for (final String id : ids) {
+            after[0] = id;
+            final ChunkContent chunk;
+            try {
+                chunk = pm.getObjectById(type, id);
+            } catch (JDOObjectNotFoundException e) {
+                // Removed by the garbage collector since the ids were listed.
+                continue;
+            }
+            if (chunk.getContent() != null) {
+                counts[1] += chunk.getContent().length;
+            }
+            if (!ChunkChecksums.matches(chunk)) {
+                counts[2]++;
+                LOGGER.error("Blob chunk [{}] of type [{}] does not match its checksum, it is corrupt.",
+                             id, type.getSimpleName());
+            }
+            pm.evict(chunk);
+        }
+        counts[0] = ids.size();
+    }
+}
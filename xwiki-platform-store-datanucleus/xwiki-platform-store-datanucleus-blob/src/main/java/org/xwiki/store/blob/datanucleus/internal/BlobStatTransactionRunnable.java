@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import org.xwiki.store.TransactionRunnable;
+import org.xwiki.store.blob.BlobStat;
+
+/**
+ * Reads what is known about a blob from its Blob row, no chunks are read.
+ */
+class BlobStatTransactionRunnable extends TransactionRunnable<PersistenceManager>
+{
+    private final String blobId;
+
+    private final List<BlobStat> output;
+
+    public BlobStatTransactionRunnable(final String blobId, final List<BlobStat> output)
+    {
+        this.blobId = blobId;
+        this.output = output;
+    }
+
+    @Override
+    protected void onRun()
+    {
+        final PersistenceManager pm = this.getContext();
+        final Blob b;
+        try {
+            b = pm.getObjectById(Blob.class, this.blobId);
+        } catch (JDOObjectNotFoundException e) {
+            return;
+        }
+        this.output.add(new BlobStat(this.blobId,
+                                     (b.getLength() != null) ? b.getLength() : -1,
+                                     (b.getChunkCount() != null) ? b.getChunkCount() : -1,
+                                     b.getDigest(),
+                                     (b.getLastModified() != null) ? new Date(b.getLastModified()) : null));
+    }
+}
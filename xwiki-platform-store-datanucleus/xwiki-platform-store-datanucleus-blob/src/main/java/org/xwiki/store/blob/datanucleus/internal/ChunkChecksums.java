@@ -0,0 +1,56 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.util.zip.CRC32;
+
+/**
+ * Checksums which are stored with each chunk so that corrupt or torn chunks are found when they are
+ * read rather than served.
+ */
+final class ChunkChecksums
+{
+    private ChunkChecksums()
+    {
+        // Static tools.
+    }
+
+    /**
+     * @param content the content of a chunk.
+     * @return the CRC32 of the content.
+     */
+    public static long compute(final byte[] content)
+    {
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return crc.getValue();
+    }
+
+    /**
+     * @param chunk a chunk which was read from the store.
+     * @return false if the content does not match the checksum, true if it does or if the chunk was
+     *         saved before checksums were recorded.
+     */
+    public static boolean matches(final ChunkContent chunk)
+    {
+        return chunk.getChecksum() == null
+            || (chunk.getContent() != null && chunk.getChecksum() == compute(chunk.getContent()));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import javax.jdo.annotations.PrimaryKey;
+import javax.jdo.annotations.PersistenceCapable;
+
+/**
+ * A chunk of blob content which is keyed by the hash of the content so that it is stored once no matter
+ * how many blobs contain it. The content is never modified once it is written, each version of a blob
+ * which contains one refers to it with a {@link ContentChunkReference}.
+ */
+@PersistenceCapable(table = "BlobContentChunk")
+class ContentChunk implements ChunkContent
+{
+    /** The hex encoded hash of the content. */
+    @PrimaryKey
+    private String id;
+
+    /** The content of the chunk. */
+    private byte[] content;
+
+    /** The checksum of the content, see {@link ChunkChecksums}. */
+    private Long checksum;
+
+    /**
+     * When the chunk was written, in milliseconds since the epoch.
+     * Used to tell chunks of a failed save from those of a save which is still running.
+     */
+    private Long created;
+
+    public ContentChunk(final String id, final byte[] content)
+    {
+        this.id = id;
+        this.content = content;
+        this.checksum = ChunkChecksums.compute(content);
+        this.created = System.currentTimeMillis();
+    }
+
+    /** Mark the chunk as in use by a save which is running now, see {@link ContentChunkReferences#adopt}. */
+    public void touch()
+    {
+        this.created = System.currentTimeMillis();
+    }
+
+    /** @return the hex encoded hash of the content. */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    @Override
+    public byte[] getContent()
+    {
+        return this.content;
+    }
+
+    @Override
+    public Long getChecksum()
+    {
+        return this.checksum;
+    }
+}
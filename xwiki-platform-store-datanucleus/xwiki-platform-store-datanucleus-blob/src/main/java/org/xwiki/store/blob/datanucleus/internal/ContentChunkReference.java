@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import javax.jdo.annotations.Index;
+import javax.jdo.annotations.PrimaryKey;
+import javax.jdo.annotations.PersistenceCapable;
+
+/**
+ * A reference to a {@link ContentChunk} from one version of a blob.
+ * There is one for each distinct chunk in the manifest of each version which was saved, the id is
+ * made of the hash, the blob id and the version so writing or deleting one twice has no further
+ * effect. They are never counted up or down, the {@link BlobGarbageCollector} removes those of
+ * versions which are no longer active and then the chunks which nothing refers to.
+ */
+@PersistenceCapable(table = "BlobContentChunkReference")
+class ContentChunkReference
+{
+    /** The primary key, the hash followed by the blob id then the version, comma separated. */
+    @PrimaryKey
+    private String id;
+
+    /** The hex encoded hash of the content, the same as the id of the chunk. */
+    @Index
+    private String hash;
+
+    @Index
+    private String blobId;
+
+    private long version;
+
+    /**
+     * When the reference was written, in milliseconds since the epoch.
+     * Used to tell references of a failed save from those of a save which is still running.
+     */
+    private Long created;
+
+    public ContentChunkReference(final String hash,
+                                 final String blobId,
+                                 final long version)
+    {
+        this.id = makeId(hash, blobId, version);
+        this.hash = hash;
+        this.blobId = blobId;
+        this.version = version;
+        this.created = System.currentTimeMillis();
+    }
+
+    public static String makeId(final String hash,
+                                final String blobId,
+                                final long version)
+    {
+        return hash + "," + blobId + "," + version;
+    }
+}
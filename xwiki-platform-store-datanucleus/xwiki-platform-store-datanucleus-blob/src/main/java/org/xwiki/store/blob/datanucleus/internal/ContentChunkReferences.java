@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+
+/**
+ * Tools for content addressed chunks, hashing them and writing the references to them from the
+ * manifests of blobs. A manifest is the comma separated list of the hashes of the chunks of a blob.
+ */
+final class ContentChunkReferences
+{
+    /** The algorithm used to hash chunks. */
+    private static final String ALGORITHM = "SHA-256";
+
+    /** Separates the hashes in a manifest. */
+    private static final String SEPARATOR = ",";
+
+    /** For hex encoding. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentChunkReferences()
+    {
+        // Static tools.
+    }
+
+    /**
+     * @param content the content of a chunk.
+     * @return the hex encoded hash of the content, this is the id of the chunk.
+     */
+    public static String hash(final byte[] content)
+    {
+        return toHex(newMessageDigest().digest(content));
+    }
+
+    /**
+     * @return a new MessageDigest for the algorithm which chunks and whole blobs are hashed with.
+     */
+    public static MessageDigest newMessageDigest()
+    {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("No " + ALGORITHM + ", this Java VM is not standards compliant!", e);
+        }
+    }
+
+    /**
+     * @param digest the output of a MessageDigest.
+     * @return the digest hex encoded.
+     */
+    public static String toHex(final byte[] digest)
+    {
+        final char[] out = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            out[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            out[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    /**
+     * @param hashes the hashes of the chunks of a blob in order.
+     * @return the manifest.
+     */
+    public static String toManifest(final List<String> hashes)
+    {
+        final StringBuilder sb = new StringBuilder(hashes.size() * 65);
+        for (final String hash : hashes) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(hash);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param manifest a manifest.
+     * @return the hashes of the chunks of the blob in order.
+     */
+    public static List<String> fromManifest(final String manifest)
+    {
+        return Arrays.asList(manifest.split(SEPARATOR));
+    }
+
+    /**
+     * Adopt a chunk if it is already stored, its created time is refreshed so that the garbage
+     * collector, which only deletes chunks created before the grace period, keeps it while the save
+     * which refers to it is running. This locks the row so a collection which is deleting it at the
+     * same time either finishes first, in which case the chunk must be stored again, or leaves it.
+     * A chunk which nothing refers to is also adopted since a save which failed may have left it behind.
+     * The content is not in the default fetch group so it is not loaded.
+     *
+     * @param pm the PersistenceManager to look with.
+     * @param hash the hash of the chunk.
+     * @return true if the chunk exists and was adopted, false if it must be stored.
+     */
+    public static boolean adopt(final PersistenceManager pm, final String hash)
+    {
+        try {
+            final ContentChunk chunk = pm.getObjectById(ContentChunk.class, hash);
+            chunk.touch();
+            return true;
+        } catch (JDOObjectNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write a reference from a version of a blob to each of a set of chunks.
+     *
+     * @param pm the PersistenceManager to write with.
+     * @param hashes the distinct hashes of the chunks of the version.
+     * @param blobId the id of the blob.
+     * @param version the version which refers to the chunks.
+     */
+    public static void addReferences(final PersistenceManager pm,
+                                     final Collection<String> hashes,
+                                     final String blobId,
+                                     final long version)
+    {
+        final List<ContentChunkReference> references = new ArrayList<ContentChunkReference>(hashes.size());
+        for (final String hash : hashes) {
+            references.add(new ContentChunkReference(hash, blobId, version));
+        }
+        pm.makePersistentAll(references);
+    }
+}
@@ -19,39 +19,259 @@
  */
 package org.xwiki.store.blob.datanucleus.internal;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Singleton;
 import javax.jdo.PersistenceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.store.blob.BlobStat;
 import org.xwiki.store.blob.BlobStore;
+import org.xwiki.store.TransactionProvider;
 import org.xwiki.store.TransactionRunnable;
 
 @Component
 @Named("datanucleus")
-public class DataNucleusBlobStore implements BlobStore<PersistenceManager>
+@Singleton
+public class DataNucleusBlobStore implements BlobStore<PersistenceManager>, Initializable
 {
+    /** The name of the system property for the number of bytes of chunks to fetch ahead when loading. */
+    public static final String PREFETCH_PROPERTY = "xwiki.store.blob.prefetchBytes";
+
+    /** The name of the system property for the size of the first chunks of a blob in bytes. */
+    public static final String CHUNK_SIZE_PROPERTY = "xwiki.store.blob.chunkSize";
+
+    /** The name of the system property for the size in bytes which chunks of large blobs grow to. */
+    public static final String MAX_CHUNK_SIZE_PROPERTY = "xwiki.store.blob.maxChunkSize";
+
+    /** The name of the system property which if true makes saves store each distinct chunk only once. */
+    public static final String DEDUP_PROPERTY = "xwiki.store.blob.dedup";
+
+    /** The name of the system property for the number of bytes of chunks to store in each flush when saving. */
+    public static final String WRITE_BEHIND_PROPERTY = "xwiki.store.blob.writeBehindBytes";
+
+    /** The name of the system property for the number of minutes between garbage collection sweeps. */
+    public static final String GC_INTERVAL_PROPERTY = "xwiki.store.blob.gc.intervalMinutes";
+
+    /**
+     * The name of the system property for the number of minutes to keep chunks which might be in use by a save,
+     * or by a load of a version which was replaced.
+     */
+    public static final String GC_GRACE_PROPERTY = "xwiki.store.blob.gc.graceMinutes";
+
+    /** The name of the system property for the number of chunks to look at in each garbage collection batch. */
+    public static final String GC_BATCH_SIZE_PROPERTY = "xwiki.store.blob.gc.batchSize";
+
+    /**
+     * The name of the system property for the most bytes per second to read when scrubbing, 0 disables it.
+     * Every node which enables scrubbing reads every chunk so it should be enabled on one node of a cluster.
+     */
+    public static final String SCRUB_RATE_PROPERTY = "xwiki.store.blob.scrub.bytesPerSecond";
+
+    /** The name of the system property for the number of hours between the starts of scrubbing sweeps. */
+    public static final String SCRUB_INTERVAL_PROPERTY = "xwiki.store.blob.scrub.intervalHours";
+
+    /** The name of the system property for the number of chunks to read in each scrubbing batch. */
+    public static final String SCRUB_BATCH_SIZE_PROPERTY = "xwiki.store.blob.scrub.batchSize";
+
+    /**
+     * The name of the system property for the directory to cache chunks in, chunks are not cached if unset.
+     * The cache keeps its files in a subdirectory which it empties on startup.
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY = "xwiki.store.blob.cache.directory";
+
+    /** The name of the system property for the most megabytes of chunks to keep in the cache. */
+    public static final String CACHE_SIZE_PROPERTY = "xwiki.store.blob.cache.maxMegabytes";
+
+    /** Garbage spewer. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataNucleusBlobStore.class);
+
+    /** By default sweep hourly. */
+    private static final long DEFAULT_GC_INTERVAL = 60;
+
+    /** By default a chunk must be a day old before it is taken to be left behind by a failed save. */
+    private static final long DEFAULT_GC_GRACE = 24 * 60;
+
+    /** By default look at 500 chunks in each batch. */
+    private static final int DEFAULT_GC_BATCH_SIZE = 500;
+
+    /** By default the first chunks are 1MB. */
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /** By default chunks of large blobs grow up to 8MB. */
+    private static final int DEFAULT_MAX_CHUNK_SIZE = 1 << 23;
+
+    /**
+     * By default fetch 8MB of chunks at a time, at least one chunk, while the last 8MB are written.
+     * A load holds up to about 16MB plus one chunk, with 8MB chunks that is 24MB.
+     */
+    private static final long DEFAULT_PREFETCH = 8 << 20;
+
+    /**
+     * By default store 4MB of chunks at a time while reading up to 4MB more.
+     * There are always at least two buffers so one can be read while the other is stored, with
+     * 8MB chunks a save holds 16MB, and up to 24MB while the chunk size grows since buffers of
+     * the old size are held until they are stored.
+     */
+    private static final long DEFAULT_WRITE_BEHIND = 4 << 20;
+
+    /** By default do not scrub, 1MB per second (about 86GB per day) is a reasonable rate to enable it with. */
+    private static final long DEFAULT_SCRUB_RATE = 0;
+
+    /** By default begin a scrubbing sweep daily, or as soon as the last one finishes if it took longer. */
+    private static final long DEFAULT_SCRUB_INTERVAL = 24;
+
+    /** By default read 16 chunks in each scrubbing batch. */
+    private static final int DEFAULT_SCRUB_BATCH_SIZE = 16;
+
+    /** By default cache up to 1GB of chunks. */
+    private static final long DEFAULT_CACHE_SIZE = 1024;
+
     private final Random random = new Random();
 
+    /** A means of getting transactions for the garbage collector. */
+    @Inject
+    @Named("datanucleus")
+    private TransactionProvider<PersistenceManager> provider;
+
+    /** The size of each chunk when saving. */
+    private final BlobChunkSizePolicy chunkSizes = new BlobChunkSizePolicy(
+        Integer.getInteger(CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE),
+        Integer.getInteger(MAX_CHUNK_SIZE_PROPERTY, DEFAULT_MAX_CHUNK_SIZE));
+
+    /** True if chunks are stored by the hash of their content and shared between blobs. */
+    private final boolean dedup = Boolean.getBoolean(DEDUP_PROPERTY);
+
+    /** The number of bytes of chunks to store in each flush when saving. */
+    private final long writeBehindBytes = Long.getLong(WRITE_BEHIND_PROPERTY, DEFAULT_WRITE_BEHIND);
+
+    /** The number of bytes of chunks to fetch in each round trip when loading. */
+    private final long prefetchBytes = Long.getLong(PREFETCH_PROPERTY, DEFAULT_PREFETCH);
+
+    /** The local cache of chunks, null if caching is not configured. */
+    private BlobChunkDiskCache cache;
+
+    /**
+     * {@inheritDoc}
+     * Start collecting the chunks of superseded versions and failed saves and checking chunks against
+     * their checksums in the background and create the chunk cache if one is configured.
+     */
+    @Override
+    public void initialize()
+    {
+        final String cacheDir = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (cacheDir != null) {
+            try {
+                this.cache = new BlobChunkDiskCache(new File(cacheDir),
+                    Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE) << 20);
+            } catch (IOException e) {
+                LOGGER.warn("Could not create blob chunk cache in [{}], chunks will not be cached.", cacheDir, e);
+            }
+        }
+
+        final BlobGarbageCollector collector = new BlobGarbageCollector(
+            this.provider,
+            Integer.getInteger(GC_BATCH_SIZE_PROPERTY, DEFAULT_GC_BATCH_SIZE),
+            TimeUnit.MINUTES.toMillis(Long.getLong(GC_GRACE_PROPERTY, DEFAULT_GC_GRACE)));
+        final long interval = Long.getLong(GC_INTERVAL_PROPERTY, DEFAULT_GC_INTERVAL);
+        newDaemonExecutor("BlobGarbageCollector").scheduleWithFixedDelay(new Runnable() {
+            public void run()
+            {
+                try {
+                    LOGGER.debug("Blob garbage collection removed [{}] chunks.", collector.collect());
+                } catch (Exception e) {
+                    LOGGER.warn("Blob garbage collection failed.", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MINUTES);
+
+        final long scrubRate = Long.getLong(SCRUB_RATE_PROPERTY, DEFAULT_SCRUB_RATE);
+        if (scrubRate > 0) {
+            final BlobScrubber scrubber = new BlobScrubber(
+                this.provider,
+                Integer.getInteger(SCRUB_BATCH_SIZE_PROPERTY, DEFAULT_SCRUB_BATCH_SIZE),
+                scrubRate);
+            final long scrubInterval = Long.getLong(SCRUB_INTERVAL_PROPERTY, DEFAULT_SCRUB_INTERVAL);
+            newDaemonExecutor("BlobScrubber").scheduleAtFixedRate(new Runnable() {
+                public void run()
+                {
+                    try {
+                        final int corrupt = scrubber.scrub();
+                        if (corrupt > 0) {
+                            LOGGER.error("Blob scrubbing found [{}] corrupt chunks.", corrupt);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        LOGGER.warn("Blob scrubbing failed.", e);
+                    }
+                }
+            }, scrubInterval, scrubInterval, TimeUnit.HOURS);
+        }
+    }
+
+    /**
+     * @param name the name of the thread.
+     * @return an executor with a single low priority daemon thread.
+     */
+    private static ScheduledExecutorService newDaemonExecutor(final String name)
+    {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r)
+            {
+                final Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
     @Override
     public TransactionRunnable<PersistenceManager> getSaveRunnable(final String id, final InputStream readFrom)
     {
-        return new BlobSaveTransactionRunnable(id, readFrom, this.random);
+        return this.invalidateOnCommit(id, new BlobSaveTransactionRunnable(id, readFrom, this.random,
+            this.writeBehindBytes, this.chunkSizes, this.dedup));
     }
 
     @Override
     public TransactionRunnable<PersistenceManager> getLoadRunnable(final String id, final OutputStream writeTo)
     {
-        return new BlobLoadTransactionRunnable(id, writeTo);
+        return new BlobLoadTransactionRunnable(id, writeTo, this.prefetchBytes, this.cache);
+    }
+
+    @Override
+    public TransactionRunnable<PersistenceManager> getLoadRunnable(final String id,
+                                                                   final long offset,
+                                                                   final long length,
+                                                                   final OutputStream writeTo)
+    {
+        return new BlobLoadTransactionRunnable(id, offset, length, writeTo, this.prefetchBytes, this.cache);
+    }
+
+    @Override
+    public TransactionRunnable<PersistenceManager> getStatRunnable(final String id, final List<BlobStat> output)
+    {
+        return new BlobStatTransactionRunnable(id, output);
     }
 
     @Override
     public TransactionRunnable<PersistenceManager> getDeleteRunnable(final String id)
     {
-        return new BlobDeleteTransactionRunnable(id);
+        return this.invalidateOnCommit(id, new BlobDeleteTransactionRunnable(id));
     }
 
     @Override
@@ -59,4 +279,37 @@ public class DataNucleusBlobStore implements BlobStore<PersistenceManager>
     {
         return new BlobListAllTransactionRunnable(outputList);
     }
+
+    @Override
+    public TransactionRunnable<PersistenceManager> getListRunnable(final String prefix,
+                                                                   final String after,
+                                                                   final int limit,
+                                                                   final List<String> outputList)
+    {
+        return new BlobListTransactionRunnable(prefix, after, limit, outputList);
+    }
+
+    /**
+     * Drop the cached chunks of a blob once a change to it is committed.
+     * Cached chunks are keyed by version so they would never be served for the new version,
+     * this only frees the space they take up.
+     *
+     * @param id the id of the blob which is being changed.
+     * @param change the runnable which changes the blob.
+     * @return the runnable which changes the blob.
+     */
+    private TransactionRunnable<PersistenceManager> invalidateOnCommit(final String id,
+        final TransactionRunnable<PersistenceManager> change)
+    {
+        final BlobChunkDiskCache localCache = this.cache;
+        if (localCache != null) {
+            new TransactionRunnable<PersistenceManager>() {
+                protected void onCommit()
+                {
+                    localCache.invalidate(id);
+                }
+            }.runIn(change);
+        }
+        return change;
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for BlobChunkDiskCache.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BlobChunkDiskCacheTest
+{
+    private File storageLocation;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        this.storageLocation = new File(tmpDir, "test-blob-cache" + System.identityHashCode(this.getClass()));
+        FileUtils.forceMkdir(this.storageLocation);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.storageLocation);
+    }
+
+    @Test
+    public void putGetTest() throws Exception
+    {
+        final BlobChunkDiskCache cache = new BlobChunkDiskCache(this.storageLocation, 100);
+        Assert.assertNull(cache.get("a"));
+        cache.put("a", "blob", "content".getBytes());
+        Assert.assertEquals("content", new String(cache.get("a")));
+    }
+
+    /**
+     * Only the subdirectory which the cache owns is emptied, not the configured directory.
+     */
+    @Test
+    public void onlyOwnDirectoryCleanedTest() throws Exception
+    {
+        final File other = new File(this.storageLocation, "other");
+        FileUtils.writeStringToFile(other, "keep me");
+        BlobChunkDiskCache cache = new BlobChunkDiskCache(this.storageLocation, 100);
+        cache.put("a", null, "content".getBytes());
+        Assert.assertEquals(1, cache.getDirectory().list().length);
+
+        cache = new BlobChunkDiskCache(this.storageLocation, 100);
+        Assert.assertTrue(other.exists());
+        Assert.assertEquals(0, cache.getDirectory().list().length);
+        Assert.assertNull(cache.get("a"));
+    }
+
+    /**
+     * The least recently used chunks are evicted once the total size is over the limit.
+     */
+    @Test
+    public void evictByBytesTest() throws Exception
+    {
+        final BlobChunkDiskCache cache = new BlobChunkDiskCache(this.storageLocation, 10);
+        cache.put("a", null, "aaaa".getBytes());
+        cache.put("b", null, "bbbb".getBytes());
+        // Use a so that b is the least recently used.
+        Assert.assertNotNull(cache.get("a"));
+        cache.put("c", null, "cccc".getBytes());
+
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+        Assert.assertEquals(2, cache.getDirectory().list().length);
+    }
+
+    @Test
+    public void tooLargeNotCachedTest() throws Exception
+    {
+        final BlobChunkDiskCache cache = new BlobChunkDiskCache(this.storageLocation, 4);
+        cache.put("a", null, "aaaaa".getBytes());
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.getDirectory().list().length);
+    }
+
+    @Test
+    public void invalidateTest() throws Exception
+    {
+        final BlobChunkDiskCache cache = new BlobChunkDiskCache(this.storageLocation, 100);
+        cache.put("a,1,0", "a", "a0".getBytes());
+        cache.put("a,1,1", "a", "a1".getBytes());
+        cache.put("b,1,0", "b", "b0".getBytes());
+        cache.put("hash", null, "shared".getBytes());
+
+        cache.invalidate("a");
+
+        Assert.assertNull(cache.get("a,1,0"));
+        Assert.assertNull(cache.get("a,1,1"));
+        Assert.assertEquals("b0", new String(cache.get("b,1,0")));
+        Assert.assertEquals("shared", new String(cache.get("hash")));
+        Assert.assertEquals(2, cache.getDirectory().list().length);
+    }
+
+    /**
+     * A file which was changed or truncated on disk does not match its checksum so it is a miss and is removed.
+     */
+    @Test
+    public void damagedFileMissTest() throws Exception
+    {
+        final BlobChunkDiskCache cache = new BlobChunkDiskCache(this.storageLocation, 100);
+        cache.put("a", null, "content".getBytes());
+        cache.put("b", null, "content".getBytes());
+        final File[] files = cache.getDirectory().listFiles();
+        Assert.assertEquals(2, files.length);
+        for (final File file : files) {
+            final String damaged = FileUtils.readFileToString(file).replace('t', 'T');
+            FileUtils.writeStringToFile(file, file.getName().equals("0") ? damaged : "con");
+        }
+
+        Assert.assertNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(0, cache.getDirectory().list().length);
+
+        // Once removed it can be cached again.
+        cache.put("a", null, "content".getBytes());
+        Assert.assertEquals("content", new String(cache.get("a")));
+    }
+
+    @Test
+    public void missingFileMissTest() throws Exception
+    {
+        final BlobChunkDiskCache cache = new BlobChunkDiskCache(this.storageLocation, 100);
+        cache.put("a", null, "content".getBytes());
+        FileUtils.cleanDirectory(cache.getDirectory());
+        Assert.assertNull(cache.get("a"));
+    }
+}
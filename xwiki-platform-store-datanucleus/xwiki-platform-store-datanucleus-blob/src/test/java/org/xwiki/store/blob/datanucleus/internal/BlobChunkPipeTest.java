@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for BlobChunkPipe.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BlobChunkPipeTest
+{
+    @Test
+    public void writeInOrderTest() throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BlobChunkPipe pipe = new BlobChunkPipe(out, 2);
+        for (int i = 0; i < 10; i++) {
+            pipe.write(("chunk" + i + ",").getBytes());
+        }
+        pipe.finish();
+
+        Assert.assertEquals("chunk0,chunk1,chunk2,chunk3,chunk4,chunk5,chunk6,chunk7,chunk8,chunk9,",
+                            new String(out.toByteArray()));
+    }
+
+    @Test
+    public void finishWithNothingWrittenTest() throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BlobChunkPipe(out, 1).finish();
+        Assert.assertEquals(0, out.size());
+    }
+
+    /**
+     * A failure to write must reach the thread which is fetching chunks rather than block it.
+     */
+    @Test(expected = IOException.class)
+    public void writeFailureTest() throws Exception
+    {
+        final OutputStream failing = new OutputStream()
+        {
+            public void write(final int b) throws IOException
+            {
+                throw new IOException("disk full");
+            }
+        };
+        final BlobChunkPipe pipe = new BlobChunkPipe(failing, 1);
+        // More chunks than fit in the queue so write() notices that the writer died.
+        for (int i = 0; i < 10; i++) {
+            pipe.write(new byte[] { 1 });
+        }
+        pipe.finish();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for BlobChunkReadAhead.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BlobChunkReadAheadTest
+{
+    private static final byte[] CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz0123".getBytes();
+
+    @Test
+    public void readAllChunksTest() throws Exception
+    {
+        final BlobChunkReadAhead readAhead =
+            new BlobChunkReadAhead(new ByteArrayInputStream(CONTENT, 0, 38), new BlobChunkSizePolicy(4, 4), 0, 8);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = 0;
+        byte[] last = null;
+        for (byte[] chunk = readAhead.next(); chunk != null; chunk = readAhead.next()) {
+            out.write(chunk);
+            last = chunk;
+            readAhead.release(chunk);
+            count++;
+        }
+        readAhead.close();
+
+        Assert.assertEquals(new String(CONTENT, 0, 38), new String(out.toByteArray()));
+        Assert.assertEquals(10, count);
+        Assert.assertEquals("The last chunk should be only as long as what is left.", 2, last.length);
+    }
+
+    @Test
+    public void emptyStreamTest() throws Exception
+    {
+        final BlobChunkReadAhead readAhead =
+            new BlobChunkReadAhead(new ByteArrayInputStream(new byte[0]), new BlobChunkSizePolicy(4, 4), 0, 8);
+        Assert.assertNull(readAhead.next());
+    }
+
+    /**
+     * Released buffers are read into again so no more than maxBytes of them are ever allocated.
+     */
+    @Test
+    public void buffersReusedTest() throws Exception
+    {
+        Assert.assertTrue(this.countBuffers(12) <= 3);
+    }
+
+    /**
+     * Chunks larger than the limit still get two buffers so one can be read while the other is stored.
+     */
+    @Test
+    public void twoBuffersBelowOneChunkTest() throws Exception
+    {
+        Assert.assertEquals(2, this.countBuffers(1));
+    }
+
+    private int countBuffers(final long maxBytes) throws Exception
+    {
+        final BlobChunkReadAhead readAhead =
+            new BlobChunkReadAhead(new ByteArrayInputStream(CONTENT), new BlobChunkSizePolicy(4, 4), 0, maxBytes);
+        final Map<byte[], Boolean> seen = new IdentityHashMap<byte[], Boolean>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] chunk = readAhead.next(); chunk != null; chunk = readAhead.next()) {
+            seen.put(chunk, Boolean.TRUE);
+            out.write(chunk);
+            // Give the reader time to fill every buffer it is allowed.
+            Thread.sleep(5);
+            readAhead.release(chunk);
+        }
+
+        Assert.assertEquals(new String(CONTENT), new String(out.toByteArray()));
+        return seen.size();
+    }
+
+    @Test
+    public void growingChunksTest() throws Exception
+    {
+        // 8 chunks of 2 bytes then chunks of 4 bytes.
+        final BlobChunkReadAhead readAhead =
+            new BlobChunkReadAhead(new ByteArrayInputStream(CONTENT, 0, 24), new BlobChunkSizePolicy(2, 4), 0, 8);
+        final StringBuilder sizes = new StringBuilder();
+        for (byte[] chunk = readAhead.next(); chunk != null; chunk = readAhead.next()) {
+            sizes.append(chunk.length);
+            readAhead.release(chunk);
+        }
+        Assert.assertEquals("2222222244", sizes.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void readFailureTest() throws Exception
+    {
+        final InputStream failing = new InputStream()
+        {
+            public int read() throws IOException
+            {
+                throw new IOException("connection reset");
+            }
+        };
+        final BlobChunkReadAhead readAhead =
+            new BlobChunkReadAhead(failing, new BlobChunkSizePolicy(4, 4), 0, 8);
+        readAhead.next();
+    }
+}
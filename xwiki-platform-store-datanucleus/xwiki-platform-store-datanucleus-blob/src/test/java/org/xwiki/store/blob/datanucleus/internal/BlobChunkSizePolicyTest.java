@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for BlobChunkSizePolicy.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BlobChunkSizePolicyTest
+{
+    @Test
+    public void growthTest()
+    {
+        final BlobChunkSizePolicy policy = new BlobChunkSizePolicy(1024, 1 << 20);
+        Assert.assertEquals(1024, policy.getChunkSize(0));
+        Assert.assertEquals(1024, policy.getChunkSize(7));
+        Assert.assertEquals(2048, policy.getChunkSize(8));
+        Assert.assertEquals(2048, policy.getChunkSize(15));
+        Assert.assertEquals(4096, policy.getChunkSize(16));
+    }
+
+    @Test
+    public void capTest()
+    {
+        final BlobChunkSizePolicy policy = new BlobChunkSizePolicy(1024, 3000);
+        Assert.assertEquals(2048, policy.getChunkSize(8));
+        Assert.assertEquals(3000, policy.getChunkSize(16));
+        Assert.assertEquals(3000, policy.getChunkSize(1000));
+    }
+
+    @Test
+    public void maxBelowBaseTest()
+    {
+        final BlobChunkSizePolicy policy = new BlobChunkSizePolicy(1024, 10);
+        Assert.assertEquals(1024, policy.getChunkSize(0));
+        Assert.assertEquals(1024, policy.getChunkSize(100));
+    }
+
+    @Test
+    public void hugeIndexTest()
+    {
+        final BlobChunkSizePolicy policy = new BlobChunkSizePolicy(1, Integer.MAX_VALUE);
+        Assert.assertEquals(Integer.MAX_VALUE, policy.getChunkSize(Integer.MAX_VALUE));
+        Assert.assertEquals(1 << 23, new BlobChunkSizePolicy(1 << 20, 1 << 23).getChunkSize(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveBaseTest()
+    {
+        new BlobChunkSizePolicy(0, 1024);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for how BlobGarbageCollector decides which chunks and references are garbage.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BlobGarbageCollectorTest
+{
+    /** The time before which chunks and replaced versions are past the grace period. */
+    private static final long BEFORE = 1000000L;
+
+    private static final Long OLD = Long.valueOf(BEFORE - 1);
+
+    private static final Long RECENT = Long.valueOf(BEFORE + 1);
+
+    @Test
+    public void activeVersionKeptTest()
+    {
+        final Map<String, BlobGarbageCollector.ActiveVersion> active = active("blob", 10, OLD);
+        Assert.assertEquals(Collections.emptyList(),
+            BlobGarbageCollector.selectGarbage(rows(row("a", "blob", 10, OLD)), active, BEFORE));
+    }
+
+    /**
+     * A chunk of a replaced version is kept while a load which began before it was replaced may
+     * still be reading it, however old the chunk itself is.
+     */
+    @Test
+    public void supersededVersionTest()
+    {
+        final List<Object[]> rows = rows(row("a", "blob", 5, OLD));
+        Assert.assertEquals(Collections.emptyList(),
+            BlobGarbageCollector.selectGarbage(rows, active("blob", 10, RECENT), BEFORE));
+        Assert.assertEquals(Arrays.asList("a"),
+            BlobGarbageCollector.selectGarbage(rows, active("blob", 10, OLD), BEFORE));
+    }
+
+    /** Blobs which were saved before the time was recorded were replaced long ago. */
+    @Test
+    public void supersededUnrecordedTimeTest()
+    {
+        Assert.assertEquals(Arrays.asList("a"), BlobGarbageCollector.selectGarbage(
+            rows(row("a", "blob", 5, RECENT)), active("blob", 10, null), BEFORE));
+    }
+
+    @Test
+    public void orphanedTest()
+    {
+        final Map<String, BlobGarbageCollector.ActiveVersion> none =
+            new HashMap<String, BlobGarbageCollector.ActiveVersion>();
+        Assert.assertEquals(Arrays.asList("a", "c"), BlobGarbageCollector.selectGarbage(
+            rows(row("a", "gone", 5, OLD), row("b", "gone", 5, RECENT), row("c", "gone", 6, null)),
+            none, BEFORE));
+    }
+
+    /** A version newer than the active one may be a save which is still running. */
+    @Test
+    public void inGraceTest()
+    {
+        final Map<String, BlobGarbageCollector.ActiveVersion> active = active("blob", 10, OLD);
+        Assert.assertEquals(Collections.emptyList(), BlobGarbageCollector.selectGarbage(
+            rows(row("a", "blob", 15, RECENT)), active, BEFORE));
+        Assert.assertEquals(Arrays.asList("a"), BlobGarbageCollector.selectGarbage(
+            rows(row("a", "blob", 15, OLD)), active, BEFORE));
+    }
+
+    /**
+     * A content addressed chunk which a replaced version shares with the active version of another
+     * blob loses one reference and is kept for the other.
+     */
+    @Test
+    public void sharedChunkTest()
+    {
+        final Map<String, BlobGarbageCollector.ActiveVersion> active = active("one", 10, OLD);
+        active.putAll(active("two", 3, OLD));
+        final List<Object[]> references = rows(
+            row(ContentChunkReference.makeId("shared", "one", 5), "one", 5, OLD),
+            row(ContentChunkReference.makeId("shared", "two", 3), "two", 3, OLD),
+            row(ContentChunkReference.makeId("alone", "one", 5), "one", 5, OLD));
+        final List<String> garbage = BlobGarbageCollector.selectGarbage(references, active, BEFORE);
+        Assert.assertEquals(Arrays.asList(ContentChunkReference.makeId("shared", "one", 5),
+                                          ContentChunkReference.makeId("alone", "one", 5)), garbage);
+
+        final Set<String> referenced = new HashSet<String>();
+        for (final Object[] reference : references) {
+            if (!garbage.contains(reference[0])) {
+                referenced.add(((String) reference[0]).split(",")[0]);
+            }
+        }
+        final List<Object[]> chunks = rows(new Object[] { "shared", OLD },
+                                           new Object[] { "alone", OLD },
+                                           new Object[] { "new", RECENT });
+        Assert.assertEquals(Arrays.asList("alone"),
+            BlobGarbageCollector.selectUnreferenced(chunks, referenced, BEFORE));
+    }
+
+    private static Object[] row(final String id, final String blobId, final long version, final Long created)
+    {
+        return new Object[] { id, blobId, Long.valueOf(version), created };
+    }
+
+    private static List<Object[]> rows(final Object[]... rows)
+    {
+        return Arrays.asList(rows);
+    }
+
+    private static Map<String, BlobGarbageCollector.ActiveVersion> active(final String blobId,
+                                                                          final long version,
+                                                                          final Long since)
+    {
+        final Map<String, BlobGarbageCollector.ActiveVersion> out =
+            new HashMap<String, BlobGarbageCollector.ActiveVersion>();
+        out.put(blobId, new BlobGarbageCollector.ActiveVersion(version, since));
+        return out;
+    }
+}
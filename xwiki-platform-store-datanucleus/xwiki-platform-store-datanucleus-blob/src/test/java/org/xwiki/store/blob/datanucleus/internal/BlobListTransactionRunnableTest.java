@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the range of ids which BlobListTransactionRunnable turns a prefix into.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BlobListTransactionRunnableTest
+{
+    @Test
+    public void rangeEndTest()
+    {
+        Assert.assertEquals("abd", BlobListTransactionRunnable.rangeEnd("abc"));
+        Assert.assertEquals("b", BlobListTransactionRunnable.rangeEnd("a"));
+    }
+
+    @Test
+    public void rangeEndCoversPrefixTest()
+    {
+        final String prefix = "attachments/doc";
+        final String end = BlobListTransactionRunnable.rangeEnd(prefix);
+        for (final String id : new String[] { prefix, prefix + "/a", prefix + Character.MAX_VALUE }) {
+            Assert.assertTrue(id, id.compareTo(prefix) >= 0 && id.compareTo(end) < 0);
+        }
+        Assert.assertTrue(end.compareTo("attachments/doc") > 0);
+        Assert.assertTrue("attachments/dod".compareTo(end) >= 0);
+    }
+
+    @Test
+    public void emptyPrefixHasNoEndTest()
+    {
+        Assert.assertNull(BlobListTransactionRunnable.rangeEnd(""));
+    }
+
+    /**
+     * A last character which cannot be incremented is dropped and the one before it is incremented.
+     */
+    @Test
+    public void maxCharacterTest()
+    {
+        Assert.assertEquals("b", BlobListTransactionRunnable.rangeEnd("a" + Character.MAX_VALUE));
+        Assert.assertEquals("b", BlobListTransactionRunnable.rangeEnd("a" + Character.MAX_VALUE + Character.MAX_VALUE));
+        Assert.assertNull(BlobListTransactionRunnable.rangeEnd(String.valueOf(Character.MAX_VALUE)));
+    }
+}
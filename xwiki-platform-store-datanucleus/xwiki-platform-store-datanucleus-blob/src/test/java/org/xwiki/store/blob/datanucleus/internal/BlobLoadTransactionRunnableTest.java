@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for how BlobLoadTransactionRunnable writes the part of each chunk which is in the range being loaded.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BlobLoadTransactionRunnableTest
+{
+    private static final String[] CHUNKS = { "0123", "4567", "89" };
+
+    @Test
+    public void wholeBlobTest() throws Exception
+    {
+        Assert.assertEquals("0123456789", this.load(0, Long.MAX_VALUE, 3));
+    }
+
+    @Test
+    public void rangeWithinOneChunkTest() throws Exception
+    {
+        Assert.assertEquals("12", this.load(1, 2, 1));
+    }
+
+    /**
+     * A range which spans chunks begins part way into one and ends part way into another, no more
+     * chunks are asked for once the end is reached.
+     */
+    @Test
+    public void rangeAcrossChunksTest() throws Exception
+    {
+        Assert.assertEquals("3456", this.load(3, 4, 2));
+    }
+
+    @Test
+    public void rangeOnChunkBoundariesTest() throws Exception
+    {
+        Assert.assertEquals("4567", this.load(4, 4, 2));
+    }
+
+    @Test
+    public void rangePastEndTest() throws Exception
+    {
+        Assert.assertEquals("789", this.load(7, 100, 3));
+        Assert.assertEquals("", this.load(10, 5, 3));
+        Assert.assertEquals("", this.load(100, 5, 3));
+    }
+
+    @Test
+    public void emptyRangeTest() throws Exception
+    {
+        Assert.assertEquals("", this.load(2, 0, 1));
+    }
+
+    /**
+     * The same range is written when the chunks go through a pipe.
+     */
+    @Test
+    public void rangeThroughPipeTest() throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BlobLoadTransactionRunnable runnable = new BlobLoadTransactionRunnable("blob", 3, 4, out, 1, null);
+        final BlobChunkPipe pipe = new BlobChunkPipe(out, 1);
+        for (final String chunk : CHUNKS) {
+            if (!runnable.write(chunk.getBytes(), pipe)) {
+                break;
+            }
+        }
+        pipe.finish();
+        Assert.assertEquals("3456", new String(out.toByteArray()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeOffsetTest()
+    {
+        new BlobLoadTransactionRunnable("blob", -1, 1, new ByteArrayOutputStream(), 1, null);
+    }
+
+    /**
+     * @param offset the position of the first byte to write.
+     * @param length the most bytes to write.
+     * @param expectedChunks the number of chunks which should be written before the end of the range is reached.
+     * @return what was written.
+     */
+    private String load(final long offset, final long length, final int expectedChunks) throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BlobLoadTransactionRunnable runnable =
+            new BlobLoadTransactionRunnable("blob", offset, length, out, 1, null);
+        int written = 0;
+        for (final String chunk : CHUNKS) {
+            written++;
+            if (!runnable.write(chunk.getBytes(), null)) {
+                break;
+            }
+        }
+        Assert.assertEquals(expectedChunks, written);
+        return new String(out.toByteArray());
+    }
+}
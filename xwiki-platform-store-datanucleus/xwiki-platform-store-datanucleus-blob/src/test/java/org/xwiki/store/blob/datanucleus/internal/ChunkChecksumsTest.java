@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ChunkChecksums.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class ChunkChecksumsTest
+{
+    private static final byte[] CONTENT = "123456789".getBytes();
+
+    /** The CRC32 of CONTENT. */
+    private static final long CHECKSUM = 0xCBF43926L;
+
+    @Test
+    public void computeTest()
+    {
+        Assert.assertEquals(CHECKSUM, ChunkChecksums.compute(CONTENT));
+        Assert.assertEquals(0L, ChunkChecksums.compute(new byte[0]));
+    }
+
+    @Test
+    public void matchesTest()
+    {
+        Assert.assertTrue(ChunkChecksums.matches(new TestChunk(CONTENT, CHECKSUM)));
+    }
+
+    /**
+     * A single changed byte or a torn chunk does not match.
+     */
+    @Test
+    public void corruptTest()
+    {
+        final byte[] flipped = CONTENT.clone();
+        flipped[4] ^= 1;
+        Assert.assertFalse(ChunkChecksums.matches(new TestChunk(flipped, CHECKSUM)));
+        Assert.assertFalse(ChunkChecksums.matches(new TestChunk("1234".getBytes(), CHECKSUM)));
+        Assert.assertFalse(ChunkChecksums.matches(new TestChunk(null, CHECKSUM)));
+    }
+
+    /**
+     * Chunks saved before checksums were recorded are taken to be fine.
+     */
+    @Test
+    public void noChecksumTest()
+    {
+        Assert.assertTrue(ChunkChecksums.matches(new TestChunk(CONTENT, null)));
+        Assert.assertTrue(ChunkChecksums.matches(new TestChunk(null, null)));
+    }
+
+    private static final class TestChunk implements ChunkContent
+    {
+        private final byte[] content;
+
+        private final Long checksum;
+
+        TestChunk(final byte[] content, final Long checksum)
+        {
+            this.content = content;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public byte[] getContent()
+        {
+            return this.content;
+        }
+
+        @Override
+        public Long getChecksum()
+        {
+            return this.checksum;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.datanucleus.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ContentChunkReferences and ContentChunkReference.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class ContentChunkReferencesTest
+{
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Test
+    public void hashTest()
+    {
+        Assert.assertEquals(ABC_SHA256, ContentChunkReferences.hash("abc".getBytes()));
+    }
+
+    @Test
+    public void toHexTest()
+    {
+        Assert.assertEquals("00ff7f80", ContentChunkReferences.toHex(new byte[] { 0, -1, 127, -128 }));
+    }
+
+    @Test
+    public void manifestRoundTripTest()
+    {
+        final List<String> hashes = Arrays.asList("aa", "bb", "aa");
+        final String manifest = ContentChunkReferences.toManifest(hashes);
+        Assert.assertEquals("aa,bb,aa", manifest);
+        Assert.assertEquals(hashes, ContentChunkReferences.fromManifest(manifest));
+    }
+
+    /**
+     * The same chunk of the same version always has the same reference so writing it is idempotent,
+     * another version or blob has a reference of its own.
+     */
+    @Test
+    public void referenceIdTest()
+    {
+        final String id = ContentChunkReference.makeId(ABC_SHA256, "blob", 42L);
+        Assert.assertEquals(ABC_SHA256 + ",blob,42", id);
+        Assert.assertEquals(id, ContentChunkReference.makeId(ABC_SHA256, "blob", 42L));
+        Assert.assertFalse(id.equals(ContentChunkReference.makeId(ABC_SHA256, "blob", 43L)));
+        Assert.assertFalse(id.equals(ContentChunkReference.makeId(ABC_SHA256, "other", 42L)));
+    }
+}
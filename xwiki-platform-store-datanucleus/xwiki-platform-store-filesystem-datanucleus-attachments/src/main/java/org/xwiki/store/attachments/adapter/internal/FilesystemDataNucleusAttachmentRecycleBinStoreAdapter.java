@@ -26,7 +26,6 @@ import javax.inject.Singleton;
 import javax.jdo.PersistenceManager;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
-import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.store.attachments.newstore.internal.DeletedAttachmentContentStore;
@@ -94,9 +93,9 @@ public class FilesystemDataNucleusAttachmentRecycleBinStoreAdapter
     }
 
     @Override
-    protected AttachmentReference getAttachmentReferenceForId(final long id)
+    protected String getCurrentWikiName()
     {
-        throw new RuntimeException("Not Implemented.");
+        return this.getWikiRef().getName();
     }
 
     /**
@@ -19,26 +19,46 @@
  */
 package org.xwiki.store.attachments.newstore.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.store.attachments.adapter.internal.AttachmentTools;
 import org.xwiki.store.attachments.util.internal.AttachmentContentStreamProvider;
 import org.xwiki.store.attachments.util.internal.AttachmentFileProvider;
+import org.xwiki.store.attachments.util.internal.DigestedAttachmentList;
+import org.xwiki.store.attachments.util.internal.DigestingStreamProvider;
 import org.xwiki.store.attachments.util.internal.FilesystemStoreTools;
 import org.xwiki.store.attachments.legacy.doc.internal.FilesystemAttachmentContent;
 import org.xwiki.store.serialization.SerializationStreamProvider;
 import org.xwiki.store.serialization.Serializer;
+import org.xwiki.store.RecordAppendTransactionRunnable;
+import org.xwiki.store.StartableTransactionRunnable;
 import org.xwiki.store.StreamProvider;
 import org.xwiki.store.TransactionRunnable;
 
@@ -51,19 +71,44 @@ import org.xwiki.store.TransactionRunnable;
 @Component
 @Named("file")
 @Singleton
-public class FilesystemAttachmentArchiveStore implements AttachmentArchiveStore
+public class FilesystemAttachmentArchiveStore implements AttachmentArchiveStore, Initializable
 {
+    /** The name of the system property for the number of hours between retention sweeps. */
+    public static final String RETENTION_SWEEP_INTERVAL_PROPERTY =
+        "xwiki.store.attachments.versionRetention.sweepIntervalHours";
+
+    /** Garbage spewer. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FilesystemAttachmentArchiveStore.class);
+
+    /** The default number of hours between retention sweeps. */
+    private static final long DEFAULT_RETENTION_SWEEP_INTERVAL = 24;
+
+    /**
+     * Once the journal grows larger than this number of bytes, the next save will fold it
+     * back into the metadata file rather than appending to it.
+     */
+    private static final long MAX_JOURNAL_SIZE = 1 << 16;
+
     /** Tools for getting files to store given content in. */
     @Inject
     private FilesystemStoreTools fileTools;
 
     /** A serializer for the list of attachment metdata. */
     @Inject
-    @Named("attachment-list-meta/1.0")
+    @Named("attachment-list-meta/2.0-bin")
     private Serializer<List<XWikiAttachment>, List<XWikiAttachment>> metaSerializer;
 
+    /** A serializer for appending metadata of new versions without rewriting the metadata file. */
+    @Inject
+    @Named("attachment-list-journal/1.0")
+    private Serializer<List<XWikiAttachment>, List<XWikiAttachment>> journalSerializer;
+
+    /** Which versions to keep, versions which this expires are removed when the archive is saved. */
+    private AttachmentVersionRetentionPolicy retention = AttachmentVersionRetentionPolicy.KEEP_ALL;
+
     /**
      * Testing Constructor.
+     * With no journal serializer, the metadata file is rewritten in full every time.
      *
      * @param fileTools the means of getting files for the attachments.
      * @param metaSerializer serializer for attachment metadata.
@@ -71,9 +116,45 @@ public class FilesystemAttachmentArchiveStore implements AttachmentArchiveStore
     public FilesystemAttachmentArchiveStore(final FilesystemStoreTools fileTools,
                                             final Serializer<List<XWikiAttachment>,
                                                              List<XWikiAttachment>> metaSerializer)
+    {
+        this(fileTools, metaSerializer, null);
+    }
+
+    /**
+     * Testing Constructor.
+     *
+     * @param fileTools the means of getting files for the attachments.
+     * @param metaSerializer serializer for attachment metadata.
+     * @param journalSerializer serializer for appending metadata of new versions.
+     */
+    public FilesystemAttachmentArchiveStore(final FilesystemStoreTools fileTools,
+                                            final Serializer<List<XWikiAttachment>,
+                                                             List<XWikiAttachment>> metaSerializer,
+                                            final Serializer<List<XWikiAttachment>,
+                                                             List<XWikiAttachment>> journalSerializer)
+    {
+        this(fileTools, metaSerializer, journalSerializer, AttachmentVersionRetentionPolicy.KEEP_ALL);
+    }
+
+    /**
+     * Testing Constructor.
+     *
+     * @param fileTools the means of getting files for the attachments.
+     * @param metaSerializer serializer for attachment metadata.
+     * @param journalSerializer serializer for appending metadata of new versions.
+     * @param retention which versions to keep.
+     */
+    public FilesystemAttachmentArchiveStore(final FilesystemStoreTools fileTools,
+                                            final Serializer<List<XWikiAttachment>,
+                                                             List<XWikiAttachment>> metaSerializer,
+                                            final Serializer<List<XWikiAttachment>,
+                                                             List<XWikiAttachment>> journalSerializer,
+                                            final AttachmentVersionRetentionPolicy retention)
     {
         this.fileTools = fileTools;
         this.metaSerializer = metaSerializer;
+        this.journalSerializer = journalSerializer;
+        this.retention = retention;
     }
 
     /**
@@ -84,39 +165,321 @@ public class FilesystemAttachmentArchiveStore implements AttachmentArchiveStore
         // The fields will be filled in by reflection.
     }
 
+    /**
+     * {@inheritDoc}
+     * Read the retention policy from the system properties and if there is one, start sweeping
+     * the whole store in the background so that attachments which are not saved again are
+     * also trimmed.
+     */
+    @Override
+    public void initialize()
+    {
+        this.retention = AttachmentVersionRetentionPolicy.fromSystemProperties();
+        if (!this.retention.isEnabled()) {
+            return;
+        }
+        final long interval =
+            Long.getLong(RETENTION_SWEEP_INTERVAL_PROPERTY, DEFAULT_RETENTION_SWEEP_INTERVAL);
+        final ScheduledExecutorService sweeper =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread t = new Thread(r, "AttachmentVersionRetention");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            public void run()
+            {
+                try {
+                    LOGGER.debug("Attachment version retention removed [{}] versions.",
+                                 applyRetention());
+                } catch (Exception e) {
+                    LOGGER.warn("Attachment version retention sweep failed.", e);
+                }
+            }
+        }, interval, interval, TimeUnit.HOURS);
+    }
+
+    /**
+     * Apply the retention policy to every attachment in the store.
+     * Each attachment which has expired versions is trimmed in its own transaction.
+     *
+     * @return the number of versions which were removed.
+     */
+    public int applyRetention()
+    {
+        int removed = 0;
+        final long now = System.currentTimeMillis();
+        final Iterator<AttachmentFileProvider> providers = this.fileTools.getAllAttachmentFileProviders();
+        while (providers.hasNext()) {
+            final AttachmentFileProvider provider = providers.next();
+            try {
+                removed += this.applyRetention(provider, now);
+            } catch (Exception e) {
+                LOGGER.warn("Failed to apply version retention to attachment in [{}]",
+                            provider.getAttachmentVersioningMetaFile().getParent(), e);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Apply the retention policy to one attachment.
+     * The versions are read once without locking to find out if anything is expired and if so,
+     * read again while holding the lock on the metadata file so that a concurrent save is not lost.
+     *
+     * @param provider the file provider for the attachment.
+     * @param now the time to count the age of the versions from.
+     * @return the number of versions which were removed.
+     * @throws Exception if reading or rewriting the metadata fails.
+     */
+    private int applyRetention(final AttachmentFileProvider provider, final long now)
+        throws Exception
+    {
+        final File metaFile = provider.getAttachmentVersioningMetaFile();
+        if (!metaFile.exists()) {
+            return 0;
+        }
+        final Serializer<List<XWikiAttachment>,
+                         List<XWikiAttachment>> mSerializer = this.metaSerializer;
+        final Serializer<List<XWikiAttachment>,
+                         List<XWikiAttachment>> jSerializer = this.journalSerializer;
+        if (this.retention.getExpiredVersions(readVersions(provider, mSerializer, jSerializer), now)
+            .size() == 0)
+        {
+            return 0;
+        }
+
+        final AttachmentVersionRetentionPolicy policy = this.retention;
+        final DigestedAttachmentList kept = new DigestedAttachmentList();
+        final List<XWikiAttachment> expired = new ArrayList<XWikiAttachment>();
+        final StartableTransactionRunnable transaction = new StartableTransactionRunnable();
+
+        // Runs after the saver below has taken the lock on the metadata file in onPreRun.
+        (new TransactionRunnable() {
+            @Override
+            protected void onRun() throws IOException
+            {
+                final DigestedAttachmentList versions = readVersions(provider, mSerializer, jSerializer);
+                expired.addAll(policy.getExpiredVersions(versions, now));
+                kept.addAll(withoutVersions(versions, expired));
+                kept.getDigests().putAll(versions.getDigests());
+            }
+
+            @Override
+            protected void onCommit()
+            {
+                for (final XWikiAttachment ver : expired) {
+                    provider.getAttachmentVersionContentFile(ver.getVersion()).delete();
+                }
+            }
+        }).runIn(transaction);
+
+        this.fileTools.getSaver(
+            new SerializationStreamProvider<List<XWikiAttachment>>(mSerializer, kept), metaFile
+        ).runIn(transaction);
+        this.fileTools.getDeleter(provider.getAttachmentVersioningJournalFile()).runIn(transaction);
+        // The next save of the attachment finds no head and rewrites the metadata in full.
+        this.fileTools.getDeleter(provider.getAttachmentVersioningHeadFile()).runIn(transaction);
+
+        transaction.start();
+        return expired.size();
+    }
+
     @Override
     public TransactionRunnable getAttachmentArchiveSaveRunnable(final List versionList)
     {
         // For some reason this is required even though the interface specifies a
         // List<XWikiAttachment>, this appears to be a bug in javac.
-        final List<XWikiAttachment> versions = (List<XWikiAttachment>) versionList;
+        final List<XWikiAttachment> allVersions = (List<XWikiAttachment>) versionList;
 
         final TransactionRunnable out = new TransactionRunnable();
 
-        if (versions.size() == 0) {
+        if (allVersions.size() == 0) {
             return out;
         }
 
-        final AttachmentReference ref = AttachmentTools.referenceForAttachment(versions.get(0));
+        final AttachmentReference ref = AttachmentTools.referenceForAttachment(allVersions.get(0));
         final AttachmentFileProvider provider = this.fileTools.getAttachmentFileProvider(ref);
 
+        // Drop the versions which the retention policy expires, they are not written and if
+        // they were stored before then they are deleted.
+        final List<XWikiAttachment> expired =
+            this.retention.getExpiredVersions(allVersions, System.currentTimeMillis());
+        final List<XWikiAttachment> versions = withoutVersions(allVersions, expired);
+        for (final XWikiAttachment attachVer : expired) {
+            final File verFile = provider.getAttachmentVersionContentFile(attachVer.getVersion());
+            if (verFile.exists()) {
+                this.fileTools.getDeleter(verFile).runIn(out);
+            }
+        }
+
+        final List<XWikiAttachment> newVersions = new ArrayList<XWikiAttachment>();
+        final List<XWikiAttachment> existingVersions = new ArrayList<XWikiAttachment>();
+        final Set<String> newVersionNumbers = new HashSet<String>();
+        boolean dirtyExisting = false;
+        for (final XWikiAttachment attachVer : versions) {
+            if (!provider.getAttachmentVersionContentFile(attachVer.getVersion()).exists()) {
+                newVersions.add(attachVer);
+                newVersionNumbers.add(attachVer.getVersion());
+            } else {
+                existingVersions.add(attachVer);
+                dirtyExisting |= attachVer.isContentDirty();
+            }
+        }
+
+        final File metaFile = provider.getAttachmentVersioningMetaFile();
+        final File journalFile = provider.getAttachmentVersioningJournalFile();
+        final File headFile = provider.getAttachmentVersioningHeadFile();
+
+        // The journal can only add versions, if any stored version was removed or changed then
+        // the whole metadata file must be rewritten. A version whose content is rewritten gets a
+        // new digest which must be recorded too. Whether the versions which are not new are
+        // exactly the stored ones is told by the digest of their metadata which is kept in the
+        // head file, so the stored metadata is only read when it is going to be rewritten.
+        final boolean useJournal = this.journalSerializer != null
+            && !dirtyExisting
+            && expired.size() == 0
+            && newVersions.size() > 0
+            && existingVersions.size() > 0
+            && journalFile.length() < MAX_JOURNAL_SIZE
+            && DigestedAttachmentList.getMetadataDigest(existingVersions).equals(readHead(headFile));
+
+        // The digest of the content of each version by version number. When rewriting, the stored
+        // digests are carried over, those of the content which is written are filled in as it is
+        // written.
+        final Map<String, String> digests = new HashMap<String, String>();
+        if (!useJournal && metaFile.exists()) {
+            final DigestedAttachmentList stored = this.readStoredVersions(provider);
+            if (stored != null) {
+                digests.putAll(stored.getDigests());
+            }
+        }
+
         for (final XWikiAttachment attachVer : versions) {
-            final String verName = attachVer.getVersion();
+            final String version = attachVer.getVersion();
+            final File verFile = provider.getAttachmentVersionContentFile(version);
+            final StreamProvider content =
+                new AttachmentContentStreamProvider(attachVer.getAttachment_content());
             // If the content is not dirty and the file was already saved then we will not update.
-            if (attachVer.isContentDirty()
-                || !provider.getAttachmentVersionContentFile(verName).exists())
-            {
+            if (newVersionNumbers.contains(version)) {
                 this.fileTools.getSaver(
-                    new AttachmentContentStreamProvider(attachVer.getAttachment_content()),
-                    provider.getAttachmentVersionContentFile(verName)).runIn(out);
+                    new DigestingStreamProvider(content, version, digests), verFile).runIn(out);
+            } else if (attachVer.isContentDirty()) {
+                // Compared with the stored file first if it has the same length, it is kept if it matches.
+                this.fileTools.getSaverUnlessUnchanged(
+                    new DigestingStreamProvider(content, version, digests), verFile, attachVer.getFilesize()
+                ).runIn(out);
             }
         }
 
         // Then do the metadata.
-        final StreamProvider sp =
-            new SerializationStreamProvider<List<XWikiAttachment>>(this.metaSerializer, versions);
-        this.fileTools.getSaver(sp, provider.getAttachmentVersioningMetaFile()).runIn(out);
+        final List<XWikiAttachment> recorded;
+        if (useJournal) {
+            // Only the new versions need to be recorded, append them to the journal.
+            final StreamProvider sp = new SerializationStreamProvider<List<XWikiAttachment>>(
+                this.journalSerializer, new DigestedAttachmentList(newVersions, digests));
+            this.fileTools.getAppender(sp, journalFile).runIn(out);
+            // When loaded, the versions in the journal come after those which were stored before.
+            recorded = existingVersions;
+            recorded.addAll(newVersions);
+        } else {
+            // Rewrite the whole metadata file, folding in anything which was in the journal
+            // and upgrading it if it was saved in an older format.
+            final StreamProvider sp = new SerializationStreamProvider<List<XWikiAttachment>>(
+                this.metaSerializer, new DigestedAttachmentList(versions, digests));
+            this.fileTools.getSaver(sp, metaFile).runIn(out);
+            if (journalFile.exists()) {
+                this.fileTools.getDeleter(journalFile).runIn(out);
+            }
+            recorded = versions;
+        }
+        final byte[] head = DigestedAttachmentList.getMetadataDigest(recorded).getBytes();
+        this.fileTools.getSaver(new StreamProvider() {
+            public InputStream getStream()
+            {
+                return new ByteArrayInputStream(head);
+            }
+        }, headFile).runIn(out);
+
+        if (expired.size() > 0) {
+            // Once the expired versions are gone from storage, take them out of the archive
+            // they came from so that it does not offer versions which cannot be loaded.
+            (new TransactionRunnable() {
+                @Override
+                protected void onCommit()
+                {
+                    AttachmentTools.removeRevisionsFromArchives(expired);
+                }
+            }).runIn(out);
+        }
+
+        return out;
+    }
+
+    /**
+     * Read the stored versions of an attachment.
+     * Failing to read them is not fatal, the metadata is rewritten in full and without the stored
+     * digests every version is treated as changed.
+     *
+     * @param provider the means of getting the metadata and journal files for the attachment.
+     * @return the stored versions with their digests or null if they could not be read.
+     */
+    private DigestedAttachmentList readStoredVersions(final AttachmentFileProvider provider)
+    {
+        try {
+            return readVersions(provider, this.metaSerializer, this.journalSerializer);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read the stored versions of the attachment in [{}]",
+                        provider.getAttachmentVersioningMetaFile().getParent(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Read the digest of the metadata of the stored versions which the last save left.
+     *
+     * @param headFile the file where the digest is kept.
+     * @return the hex encoded digest or null if there is none or it cannot be read, in which case
+     *         the metadata is rewritten in full.
+     */
+    private static String readHead(final File headFile)
+    {
+        if (!headFile.exists()) {
+            return null;
+        }
+        try {
+            return FileUtils.readFileToString(headFile);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read [{}]", headFile, e);
+            return null;
+        }
+    }
 
+    /**
+     * @param versions a list of versions of an attachment.
+     * @param toRemove versions to leave out.
+     * @return a new list of the versions which are not in toRemove, compared by version number.
+     */
+    private static List<XWikiAttachment> withoutVersions(final List<XWikiAttachment> versions,
+                                                         final List<XWikiAttachment> toRemove)
+    {
+        if (toRemove.size() == 0) {
+            return versions;
+        }
+        final Set<String> removed = new HashSet<String>();
+        for (final XWikiAttachment ver : toRemove) {
+            removed.add(ver.getVersion());
+        }
+        final List<XWikiAttachment> out = new ArrayList<XWikiAttachment>(versions.size());
+        for (final XWikiAttachment ver : versions) {
+            if (!removed.contains(ver.getVersion())) {
+                out.add(ver);
+            }
+        }
         return out;
     }
 
@@ -135,15 +498,14 @@ public class FilesystemAttachmentArchiveStore implements AttachmentArchiveStore
 
         final Serializer<List<XWikiAttachment>,
                          List<XWikiAttachment>> mSerializer = this.metaSerializer;
+        final Serializer<List<XWikiAttachment>,
+                         List<XWikiAttachment>> jSerializer = this.journalSerializer;
 
         return new TransactionRunnable() {
             @Override
             protected void onRun() throws IOException
             {
-                final InputStream is = new FileInputStream(metaFile);
-                final List<XWikiAttachment> attachList = mSerializer.parse(is);
-                is.close();
-                for (XWikiAttachment attach : attachList) {
+                for (XWikiAttachment attach : readVersions(provider, mSerializer, jSerializer)) {
                     attach.setAttachment_content(
                         new FilesystemAttachmentContent(
                             provider.getAttachmentVersionContentFile(attach.getVersion()), attach));
@@ -165,30 +527,86 @@ public class FilesystemAttachmentArchiveStore implements AttachmentArchiveStore
 
         final Serializer<List<XWikiAttachment>,
                          List<XWikiAttachment>> mSerializer = this.metaSerializer;
+        final Serializer<List<XWikiAttachment>,
+                         List<XWikiAttachment>> jSerializer = this.journalSerializer;
 
         (new TransactionRunnable() {
             @Override
             protected void onRun() throws IOException
             {
                 if (archiveMeta.exists()) {
-                    InputStream is = null;
-                    try {
-                        is = new FileInputStream(archiveMeta);
-                        for (final XWikiAttachment ver : mSerializer.parse(is)) {
-                            provider.getAttachmentVersionContentFile(ver.getVersion()).delete();
-                        }
-                    } finally {
-                        IOUtils.closeQuietly(is);
+                    for (final XWikiAttachment ver : readVersions(provider, mSerializer, jSerializer)) {
+                        provider.getAttachmentVersionContentFile(ver.getVersion()).delete();
                     }
                 }
             }
         }).runIn(out);
 
         this.fileTools.getDeleter(provider.getAttachmentVersioningMetaFile()).runIn(out);
+        this.fileTools.getDeleter(provider.getAttachmentVersioningJournalFile()).runIn(out);
+        this.fileTools.getDeleter(provider.getAttachmentVersioningHeadFile()).runIn(out);
 
         return out;
     }
 
+    /**
+     * Read the metadata for each version of an attachment from the metadata file and the journal.
+     * If a version appears in both, the one from the journal is taken since it was written last.
+     *
+     * @param provider the means of getting the metadata and journal files for the attachment.
+     * @param metaSerializer the serializer for parsing the metadata file.
+     * @param journalSerializer the serializer for parsing the journal, if null the journal is ignored.
+     * @return a list of versions of the attachment, in the order which they were recorded,
+     *         along with the digests of their content where those are known.
+     * @throws IOException if reading or parsing either file fails.
+     */
+    private static DigestedAttachmentList readVersions(
+        final AttachmentFileProvider provider,
+        final Serializer<List<XWikiAttachment>, List<XWikiAttachment>> metaSerializer,
+        final Serializer<List<XWikiAttachment>, List<XWikiAttachment>> journalSerializer)
+        throws IOException
+    {
+        final Map<String, XWikiAttachment> versions = new LinkedHashMap<String, XWikiAttachment>();
+        final Map<String, String> digests = new HashMap<String, String>();
+        InputStream is = new FileInputStream(provider.getAttachmentVersioningMetaFile());
+        try {
+            addVersions(metaSerializer.parse(is), versions, digests);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        final File journalFile = provider.getAttachmentVersioningJournalFile();
+        if (journalSerializer != null) {
+            // Each save appended one record, a record which was cut short by a crash is not read
+            // and the versions in it are lost as if that save never happened.
+            for (final byte[] record : RecordAppendTransactionRunnable.readRecords(journalFile)) {
+                addVersions(journalSerializer.parse(new ByteArrayInputStream(record)), versions, digests);
+            }
+        }
+        return new DigestedAttachmentList(versions.values(), digests);
+    }
+
+    /**
+     * Add parsed versions and their digests, replacing any which were added before.
+     *
+     * @param parsed the versions which were parsed.
+     * @param versions the versions by version number.
+     * @param digests the hex encoded digests by version number.
+     */
+    private static void addVersions(final List<XWikiAttachment> parsed,
+                                    final Map<String, XWikiAttachment> versions,
+                                    final Map<String, String> digests)
+    {
+        for (final XWikiAttachment ver : parsed) {
+            versions.put(ver.getVersion(), ver);
+            // A version which is written again without a digest must not keep the old one.
+            digests.remove(ver.getVersion());
+        }
+        if (parsed instanceof DigestedAttachmentList) {
+            digests.putAll(((DigestedAttachmentList) parsed).getDigests());
+        }
+    }
+
     /**
      * Make sure the attachment is associated with a document.
      *
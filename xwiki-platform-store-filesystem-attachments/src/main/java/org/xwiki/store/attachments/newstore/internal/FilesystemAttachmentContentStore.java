@@ -20,6 +20,8 @@
 package org.xwiki.store.attachments.newstore.internal;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentContent;
@@ -104,6 +106,43 @@ public class FilesystemAttachmentContentStore implements AttachmentContentStore
         };
     }
 
+    /**
+     * {@inheritDoc}
+     * Each attachment's content lives alone in its own directory so the existence of each content
+     * file is checked exactly once, all inside of the one transaction.
+     *
+     * @see AttachmentContentStore#getAttachmentsContentLoadRunnable(List)
+     */
+    @Override
+    public TransactionRunnable getAttachmentsContentLoadRunnable(final List attachmentList)
+    {
+        final List<XWikiAttachment> attachments = (List<XWikiAttachment>) attachmentList;
+        final List<File> attachFiles = new ArrayList<File>(attachments.size());
+        for (final XWikiAttachment attachment : attachments) {
+            final AttachmentReference ref = AttachmentTools.referenceForAttachment(attachment);
+            attachFiles.add(this.fileTools.getAttachmentFileProvider(ref).getAttachmentContentFile());
+        }
+
+        return new TransactionRunnable() {
+            @Override
+            public void onRun()
+            {
+                for (int i = 0; i < attachments.size(); i++) {
+                    final XWikiAttachment attachment = attachments.get(i);
+                    final File attachFile = attachFiles.get(i);
+                    if (!attachFile.exists()) {
+                        throw new UnexpectedException("Failed to get attachment content for "
+                                                      + "attachment [" + attachment.getFilename()
+                                                      + "] attached to document ["
+                                                      + attachment.getDoc().getFullName() + "]");
+                    }
+                    attachment.setAttachment_content(
+                        new FilesystemAttachmentContent(attachFile, attachment));
+                }
+            }
+        };
+    }
+
     @Override
     public TransactionRunnable getAttachmentContentDeleteRunnable(final XWikiAttachment attachment)
     {
@@ -62,7 +62,7 @@ public class FilesystemDeletedAttachmentContentStore implements DeletedAttachmen
      * A serializer for the archive metadata.
      */
     @Inject
-    @Named("attachment-list-meta/1.0")
+    @Named("attachment-list-meta/2.0-bin")
     private Serializer<List<XWikiAttachment>, List<XWikiAttachment>> serializer;
 
     @Override
@@ -131,6 +131,11 @@ public class FilesystemDeletedAttachmentContentStore implements DeletedAttachmen
         };
     }
 
+    /**
+     * {@inheritDoc}
+     * The whole directory of the deleted attachment is moved to the trash in one operation,
+     * the files in it are removed in the background once the transaction is complete.
+     */
     @Override
     public TransactionRunnable getDeletedAttachmentContentPurgeRunnable(
         final AttachmentReference reference,
@@ -139,11 +144,6 @@ public class FilesystemDeletedAttachmentContentStore implements DeletedAttachmen
         final DeletedAttachmentFileProvider provider =
             this.fileTools.getDeletedAttachmentFileProvider(reference, dateOfDeletion);
         final File storeDir = provider.getAttachmentVersioningMetaFile().getParentFile();
-        final TransactionRunnable out = new TransactionRunnable();
-        for (final File f : storeDir.listFiles()) {
-            this.fileTools.getDeleter(f).runIn(out);
-        }
-        this.fileTools.getDeleter(storeDir).runIn(out);
-        return out;
+        return this.fileTools.getDirectoryDeleter(storeDir);
     }
 }
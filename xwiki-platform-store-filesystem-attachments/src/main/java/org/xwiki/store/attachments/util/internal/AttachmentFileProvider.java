@@ -42,6 +42,24 @@ public interface AttachmentFileProvider
      */
     File getAttachmentVersioningMetaFile();
 
+    /**
+     * Get the meta journal file for the attachment.
+     * The journal contains metadata for versions which were saved since the meta file was last
+     * rewritten, new versions are appended to it rather than rewriting the entire meta file.
+     *
+     * @return the File for appending meta data for new versions of an attachment.
+     */
+    File getAttachmentVersioningJournalFile();
+
+    /**
+     * Get the head file for the attachment.
+     * The head file holds a digest of the metadata of the versions which are stored so a save can
+     * tell whether it only adds versions without reading the meta file and the journal.
+     *
+     * @return the File for storing the digest of the stored meta data.
+     */
+    File getAttachmentVersioningHeadFile();
+
     /**
      * Get a uniquely named file for storing a perticular version of the attachment.
      *
@@ -36,6 +36,22 @@ public class DefaultAttachmentFileProvider implements AttachmentFileProvider
      */
     private static final String ATTACH_ARCHIVE_META_FILENAME = "~METADATA.xml";
 
+    /**
+     * This stores the attachment metadata for revisions which were appended since the
+     * metadata file was last rewritten.
+     *
+     * @see #getAttachmentVersioningJournalFile()
+     */
+    private static final String ATTACH_ARCHIVE_JOURNAL_FILENAME = "~METADATA_JOURNAL";
+
+    /**
+     * This stores a digest of the metadata of the revisions which are recorded in the metadata
+     * file and the journal.
+     *
+     * @see #getAttachmentVersioningHeadFile()
+     */
+    private static final String ATTACH_ARCHIVE_HEAD_FILENAME = "~METADATA_HEAD";
+
     /**
      * The directory where all information about this attachment resides.
      */
@@ -103,6 +119,28 @@ public class DefaultAttachmentFileProvider implements AttachmentFileProvider
         return new File(this.attachmentDir, ATTACH_ARCHIVE_META_FILENAME);
     }
 
+    /**
+     * {@inheritDoc}
+     * This will be a file named ~METADATA_JOURNAL which will reside in the attachment directory.
+     *
+     * @see AttachmentFileProvider#getAttachmentVersioningJournalFile()
+     */
+    public File getAttachmentVersioningJournalFile()
+    {
+        return new File(this.attachmentDir, ATTACH_ARCHIVE_JOURNAL_FILENAME);
+    }
+
+    /**
+     * {@inheritDoc}
+     * This will be a file named ~METADATA_HEAD which will reside in the attachment directory.
+     *
+     * @see AttachmentFileProvider#getAttachmentVersioningHeadFile()
+     */
+    public File getAttachmentVersioningHeadFile()
+    {
+        return new File(this.attachmentDir, ATTACH_ARCHIVE_HEAD_FILENAME);
+    }
+
     /**
      * {@inheritDoc}
      * Get a file corrisponding to this version of this attachment.
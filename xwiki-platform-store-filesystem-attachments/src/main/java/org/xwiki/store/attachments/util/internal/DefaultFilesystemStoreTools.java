@@ -22,7 +22,11 @@ package org.xwiki.store.attachments.util.internal;
 import java.io.File;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import javax.inject.Inject;
@@ -35,11 +39,14 @@ import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.environment.Environment;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.store.DirectoryTrashTransactionRunnable;
 import org.xwiki.store.FileDeleteTransactionRunnable;
 import org.xwiki.store.FileSaveTransactionRunnable;
 import org.xwiki.store.locks.LockProvider;
+import org.xwiki.store.RecordAppendTransactionRunnable;
 import org.xwiki.store.StreamProvider;
 import org.xwiki.store.TransactionRunnable;
+import org.xwiki.store.TrashReaper;
 
 
 /**
@@ -95,6 +102,19 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
      */
     private static final String TEMP_FILE_SUFFIX = "~tmp";
 
+    /**
+     * The directory in the storage directory where deleted directories are moved to before they
+     * are deleted in the background.
+     */
+    private static final String TRASH_DIR_NAME = "~TRASH";
+
+    /** The name of the property for the greatest number of trashed files to delete each second. */
+    private static final String MAX_TRASH_DELETES_PROPERTY =
+        "xwiki.store.attachments.trash.maxDeletesPerSecond";
+
+    /** Default greatest number of trashed files to delete each second. */
+    private static final int DEFAULT_MAX_TRASH_DELETES = 500;
+
     /**
      * Serializer used for obtaining a safe file path from a document reference.
      */
@@ -125,6 +145,10 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
      */
     private File storageDir;
 
+    /** Deletes trashed directories in the background without saturating the disk. */
+    private final TrashReaper reaper =
+        new TrashReaper(Integer.getInteger(MAX_TRASH_DELETES_PROPERTY, DEFAULT_MAX_TRASH_DELETES));
+
     /**
      * Testing Constructor.
      *
@@ -154,6 +178,7 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
     {
         this.storageDir = new File(this.environment.getPermanentDirectory(), STORAGE_DIR_NAME);
         deleteEmptyDirs(this.storageDir);
+        this.reaper.reapContentOf(new File(this.storageDir, TRASH_DIR_NAME));
     }
 
     /**
@@ -266,6 +291,77 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
         return new DefaultAttachmentFileProvider(this.getAttachmentDir(ref), ref.getName());
     }
 
+    @Override
+    public Iterator<AttachmentFileProvider> getAllAttachmentFileProviders()
+    {
+        final File root = this.storageDir;
+        return new Iterator<AttachmentFileProvider>() {
+            /** Directories which have yet to be searched for documents. */
+            private final LinkedList<File> toSearch = new LinkedList<File>() {
+                {
+                    add(root);
+                }
+            };
+
+            /** Attachment directories which have been found but not yet returned. */
+            private final LinkedList<File> found = new LinkedList<File>();
+
+            @Override
+            public boolean hasNext()
+            {
+                while (this.found.isEmpty() && !this.toSearch.isEmpty()) {
+                    final File dir = this.toSearch.removeFirst();
+                    if (DOCUMENT_DIR_NAME.equals(dir.getName())) {
+                        addDirectories(new File(dir, ATTACHMENT_DIR_NAME), this.found);
+                    } else {
+                        addDirectories(dir, this.toSearch);
+                    }
+                }
+                return !this.found.isEmpty();
+            }
+
+            @Override
+            public AttachmentFileProvider next()
+            {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final File attachDir = this.found.removeFirst();
+                return new DefaultAttachmentFileProvider(
+                    attachDir, GenericFileUtils.getURLDecoded(attachDir.getName()));
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Add each directory in a directory to a list.
+     * Directories whose names begin with ~ are internal to the store and are skipped,
+     * except for the document directory.
+     *
+     * @param parent the directory to list, if it does not exist then nothing is added.
+     * @param addTo the list to add the directories to.
+     */
+    private static void addDirectories(final File parent, final List<File> addTo)
+    {
+        final File[] children = parent.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (final File child : children) {
+            if (child.isDirectory()
+                && (!child.getName().startsWith("~") || DOCUMENT_DIR_NAME.equals(child.getName())))
+            {
+                addTo.add(child);
+            }
+        }
+    }
+
     @Override
     public TransactionRunnable getSaver(final StreamProvider provider, final File saveHere)
     {
@@ -276,6 +372,33 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
                                                provider);
     }
 
+    @Override
+    public TransactionRunnable getSaverUnlessUnchanged(final StreamProvider provider,
+                                                       final File saveHere,
+                                                       final long length)
+    {
+        return new FileSaveTransactionRunnable(saveHere,
+                                               getTempFile(saveHere),
+                                               getBackupFile(saveHere),
+                                               this.getLockForFile(saveHere),
+                                               provider)
+        {
+            @Override
+            protected boolean compareWithExisting()
+            {
+                return length >= 0 && saveHere.length() == length;
+            }
+        };
+    }
+
+    @Override
+    public TransactionRunnable getAppender(final StreamProvider provider, final File appendHere)
+    {
+        return new RecordAppendTransactionRunnable(appendHere,
+                                                   this.getLockForFile(appendHere),
+                                                   provider);
+    }
+
     @Override
     public TransactionRunnable getDeleter(final File toDelete)
     {
@@ -284,6 +407,15 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
                                                  this.getLockForFile(toDelete));
     }
 
+    @Override
+    public TransactionRunnable getDirectoryDeleter(final File toDelete)
+    {
+        return new DirectoryTrashTransactionRunnable(toDelete,
+                                                     new File(this.storageDir, TRASH_DIR_NAME),
+                                                     this.getLockForFile(toDelete),
+                                                     this.reaper);
+    }
+
     /**
      * Get a backup file which for a given storage file.
      * This file name will never collide with any other file gotten through this interface.
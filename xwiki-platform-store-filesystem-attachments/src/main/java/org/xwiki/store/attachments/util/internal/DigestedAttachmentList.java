@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.attachments.util.internal;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * A list of versions of an attachment along with the digest of the content of each version.
+ * XWikiAttachment has nowhere to keep a digest so the digests are kept by version number
+ * alongside the list, the metadata serializers write them if they are given a list of this type
+ * and return a list of this type when parsing.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class DigestedAttachmentList extends ArrayList<XWikiAttachment>
+{
+    /** The algorithm used to digest attachment content. */
+    public static final String ALGORITHM = "SHA-256";
+
+    /** The character set which metadata is encoded in before it is digested. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** For serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** Hex encoded digests of the content of the versions, by version number. */
+    private final Map<String, String> digests;
+
+    /**
+     * Create an empty list with no digests.
+     */
+    public DigestedAttachmentList()
+    {
+        this.digests = new HashMap<String, String>();
+    }
+
+    /**
+     * Create a list which shares its digests with another list.
+     * The digests are not copied so a digest set on one list will be seen by the other.
+     *
+     * @param versions the versions to put in the list.
+     * @param digests the hex encoded digests by version number.
+     */
+    public DigestedAttachmentList(final Collection<XWikiAttachment> versions,
+                                  final Map<String, String> digests)
+    {
+        super(versions);
+        this.digests = digests;
+    }
+
+    /**
+     * @param version the version number of an attachment.
+     * @return the hex encoded digest of the content of that version or null if it is not known.
+     */
+    public String getDigest(final String version)
+    {
+        return this.digests.get(version);
+    }
+
+    /**
+     * @param version the version number of an attachment.
+     * @param digest the hex encoded digest of the content of that version.
+     */
+    public void setDigest(final String version, final String digest)
+    {
+        this.digests.put(version, digest);
+    }
+
+    /**
+     * @return the hex encoded digests of the versions by version number, this map is live.
+     */
+    public Map<String, String> getDigests()
+    {
+        return this.digests;
+    }
+
+    /**
+     * @return a new MessageDigest for the algorithm which attachment content is digested with.
+     */
+    public static MessageDigest newMessageDigest()
+    {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("No " + ALGORITHM + ", this Java VM is not standards compliant!", e);
+        }
+    }
+
+    /**
+     * Digest the metadata which the metadata serializers store for a list of versions.
+     * Two lists have the same digest only if they have the same versions in the same order with the
+     * same metadata, the content of the versions is not considered.
+     *
+     * @param versions the versions of an attachment.
+     * @return the hex encoded digest of the metadata of the versions.
+     */
+    public static String getMetadataDigest(final List<XWikiAttachment> versions)
+    {
+        final MessageDigest md = newMessageDigest();
+        final StringBuilder sb = new StringBuilder();
+        for (final XWikiAttachment ver : versions) {
+            sb.setLength(0);
+            sb.append(ver.getVersion()).append('\0')
+                .append(ver.getFilename()).append('\0')
+                .append(ver.getFilesize()).append('\0')
+                .append(ver.getAuthor()).append('\0')
+                .append(ver.getComment()).append('\0')
+                // By time because the date of a loaded attachment may be a Timestamp.
+                .append((ver.getDate() == null) ? -1 : ver.getDate().getTime()).append('\n');
+            md.update(sb.toString().getBytes(UTF8));
+        }
+        return Hex.encodeHexString(md.digest());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.attachments.util.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.xwiki.store.StreamProvider;
+
+/**
+ * A StreamProvider which digests the content as it is read.
+ * Once the stream has been read to the end, the hex encoded digest is put in a map under a
+ * given key so the digest costs nothing more than the pass over the content which saving it
+ * takes anyway.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class DigestingStreamProvider implements StreamProvider
+{
+    /** The provider of the content to digest. */
+    private final StreamProvider provider;
+
+    /** The key to put the digest under. */
+    private final String key;
+
+    /** The map to put the digest in. */
+    private final Map<String, String> digests;
+
+    /** The digest of the last stream which was read to the end. */
+    private String digest;
+
+    /**
+     * The Constructor.
+     *
+     * @param provider the provider of the content to digest.
+     * @param key the key to put the digest under, for attachments this is the version number.
+     * @param digests the map to put the hex encoded digest in once the stream is read to the end.
+     */
+    public DigestingStreamProvider(final StreamProvider provider,
+                                   final String key,
+                                   final Map<String, String> digests)
+    {
+        this.provider = provider;
+        this.key = key;
+        this.digests = digests;
+    }
+
+    @Override
+    public InputStream getStream() throws Exception
+    {
+        final MessageDigest md = DigestedAttachmentList.newMessageDigest();
+        return new DigestInputStream(this.provider.getStream(), md) {
+            /** True after the digest has been recorded. */
+            private boolean done;
+
+            @Override
+            public int read() throws IOException
+            {
+                final int out = super.read();
+                if (out == -1) {
+                    this.finish();
+                }
+                return out;
+            }
+
+            @Override
+            public int read(final byte[] buffer, final int offset, final int length) throws IOException
+            {
+                final int out = super.read(buffer, offset, length);
+                if (out == -1) {
+                    this.finish();
+                }
+                return out;
+            }
+
+            /** Record the digest, only a stream which was read to the end is recorded. */
+            private void finish()
+            {
+                if (!this.done) {
+                    this.done = true;
+                    DigestingStreamProvider.this.digest = Hex.encodeHexString(md.digest());
+                    digests.put(key, DigestingStreamProvider.this.digest);
+                }
+            }
+        };
+    }
+
+    /** @return the hex encoded digest of the content once a stream was read to the end, otherwise null. */
+    public String getDigest()
+    {
+        return this.digest;
+    }
+}
@@ -21,6 +21,7 @@ package org.xwiki.store.attachments.util.internal;
 
 import java.io.File;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.xwiki.component.annotation.Role;
@@ -49,6 +50,16 @@ public interface FilesystemStoreTools
      */
     AttachmentFileProvider getAttachmentFileProvider(final AttachmentReference ref);
 
+    /**
+     * Get an AttachmentFileProvider for every attachment in the store.
+     * The store is walked lazily as the iterator is advanced so this is suitable for sweeping
+     * over very large stores.
+     *
+     * @return an iterator over the file providers of every attachment, in no specific order.
+     * @since TODO
+     */
+    Iterator<AttachmentFileProvider> getAllAttachmentFileProviders();
+
     /**
      * Get an instance of AttachmentFileProvider which will save everything to do with an attachment
      * in a separate location which is repeatable only with the same attachment name, containing document,
@@ -101,6 +112,35 @@ public interface FilesystemStoreTools
      */
     TransactionRunnable getSaver(final StreamProvider provider, final File saveHere);
 
+    /**
+     * Get a TR to save a file which leaves the existing file in place if it already holds the new
+     * content.
+     * If the existing file has the given length then the new content is compared with it before
+     * anything is written and the temporary file is only written if they differ, the new content
+     * is read only once either way. All of this happens while the lock on the file is held.
+     *
+     * @param provider the means to get the content to save.
+     * @param saveHere the location to save the data.
+     * @param length the length of the new content, -1 if not known.
+     * @return a TransactionRunnable to save the file.
+     * @since TODO
+     */
+    TransactionRunnable getSaverUnlessUnchanged(final StreamProvider provider,
+                                                final File saveHere,
+                                                final long length);
+
+    /**
+     * Get a TR to append to the end of a file without rewriting the existing content.
+     * The content is appended as one record which can be read back with
+     * {@link org.xwiki.store.RecordAppendTransactionRunnable#readRecords(File)}, a record which was
+     * cut short by a crash is ignored when reading and cut away by the next append.
+     *
+     * @param provider the means to get the content of the record.
+     * @param appendHere the file to append the data to, it will be created if it does not exist.
+     * @return a TransactionRunnable to append to the file.
+     */
+    TransactionRunnable getAppender(final StreamProvider provider, final File appendHere);
+
     /**
      * Get a TR to delete a file.
      *
@@ -108,4 +148,15 @@ public interface FilesystemStoreTools
      * @return a TransactionRunnable to delete the file.
      */
     TransactionRunnable getDeleter(final File toDelete);
+
+    /**
+     * Get a TR to delete a directory and everything in it.
+     * The directory is moved to a trash area in the transaction and the content is deleted
+     * in the background after the transaction is complete.
+     *
+     * @param toDelete the directory to delete.
+     * @return a TransactionRunnable to delete the directory.
+     * @since TODO
+     */
+    TransactionRunnable getDirectoryDeleter(final File toDelete);
 }
@@ -0,0 +1,258 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.serialization.binary.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.store.attachments.util.internal.DigestedAttachmentList;
+import org.xwiki.store.serialization.Serializer;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * A compact binary serializer for the metadata from a list of XWikiAttachments.
+ * All integers are big endian and all strings are a 4 byte length followed by that many bytes
+ * of UTF-8, a length of -1 denotes a null string. The format is:
+ * <pre>
+ * magic number: 0x89 'X' 'A' 'L'
+ * serializer name: string "attachment-list-meta/2.0-bin"
+ * number of attachments: int
+ * for each attachment:
+ *   filename: string
+ *   filesize: int
+ *   author: string
+ *   version: string
+ *   comment: string
+ *   date: long, milliseconds since the epoch or -1 if there is no date
+ * optionally, the digest section:
+ *   section marker: byte 'D'
+ *   for each attachment:
+ *     digest: string, the hex encoded digest of the content or null if it is not known
+ * </pre>
+ * The digest section is only written when the list is a {@link DigestedAttachmentList}, content
+ * written before it existed simply ends after the last attachment and has no digests.
+ * When parsing, content which does not begin with the magic number is handed to the
+ * attachment-list-meta/1.0 XML serializer so existing metadata is read transparently and
+ * is written in this format the next time it is saved.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+@Component
+@Named("attachment-list-meta/2.0-bin")
+@Singleton
+public class BinaryAttachmentListMetadataSerializer
+    implements Serializer<List<XWikiAttachment>, List<XWikiAttachment>>
+{
+    /**
+     * The first bytes of the output, the first byte cannot begin an XML document.
+     */
+    private static final byte[] MAGIC = { (byte) 0x89, 'X', 'A', 'L' };
+
+    /**
+     * Written after the magic number, must match in order to continue parsing.
+     */
+    private static final String THIS_SERIALIZER = "attachment-list-meta/2.0-bin";
+
+    /**
+     * No string in attachment metadata can reasonably be larger than this,
+     * anything larger indicates a corrupt file.
+     */
+    private static final int MAX_STRING_LENGTH = 1 << 24;
+
+    /**
+     * The encoding of all strings.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Marks the beginning of the digest section.
+     */
+    private static final int DIGEST_SECTION = 'D';
+
+    /**
+     * Used to parse metadata which was saved before this serializer was introduced.
+     */
+    @Inject
+    @Named("attachment-list-meta/1.0")
+    private Serializer<List<XWikiAttachment>, List<XWikiAttachment>> xmlSerializer;
+
+    /**
+     * Default constructor. For component manager.
+     */
+    public BinaryAttachmentListMetadataSerializer()
+    {
+        // Do nothing.
+    }
+
+    /**
+     * Testing Constructor.
+     * Dependencied specified.
+     *
+     * @param xmlSerializer the serializer used to parse metadata saved in XML format.
+     */
+    public BinaryAttachmentListMetadataSerializer(
+        final Serializer<List<XWikiAttachment>, List<XWikiAttachment>> xmlSerializer)
+    {
+        this.xmlSerializer = xmlSerializer;
+    }
+
+    @Override
+    public List<XWikiAttachment> parse(final InputStream stream) throws IOException
+    {
+        final BufferedInputStream bis = new BufferedInputStream(stream);
+        bis.mark(MAGIC.length);
+        final byte[] magic = new byte[MAGIC.length];
+        int read = 0;
+        while (read < magic.length) {
+            final int count = bis.read(magic, read, magic.length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        if (!Arrays.equals(MAGIC, magic)) {
+            bis.reset();
+            return this.xmlSerializer.parse(bis);
+        }
+
+        final DataInputStream in = new DataInputStream(bis);
+        if (!THIS_SERIALIZER.equals(readString(in))) {
+            throw new IOException("Cannot parse this attachment archive metadata, it was saved with a "
+                + "different serializer.");
+        }
+        final int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Attachment archive metadata is corrupt, negative number of versions.");
+        }
+        final DigestedAttachmentList attachments = new DigestedAttachmentList();
+        for (int i = 0; i < size; i++) {
+            final XWikiAttachment attach = new XWikiAttachment();
+            attach.setFilename(readString(in));
+            attach.setFilesize(in.readInt());
+            attach.setAuthor(readString(in));
+            attach.setVersion(readString(in));
+            attach.setComment(readString(in));
+            final long date = in.readLong();
+            if (date >= 0) {
+                attach.setDate(new Date(date));
+            }
+            attachments.add(attach);
+        }
+        if (in.read() == DIGEST_SECTION) {
+            for (final XWikiAttachment attach : attachments) {
+                final String digest = readString(in);
+                if (digest != null) {
+                    attachments.setDigest(attach.getVersion(), digest);
+                }
+            }
+        }
+        return attachments;
+    }
+
+    @Override
+    public InputStream serialize(final List<XWikiAttachment> attachments) throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        this.serialize(attachments, baos);
+        return new ByteArrayInputStream(baos.toByteArray());
+    }
+
+    @Override
+    public void serialize(final List<XWikiAttachment> attachments, final OutputStream writeTo)
+        throws IOException
+    {
+        final DataOutputStream out = new DataOutputStream(writeTo);
+        out.write(MAGIC);
+        writeString(out, THIS_SERIALIZER);
+        out.writeInt(attachments.size());
+        for (XWikiAttachment attach : attachments) {
+            writeString(out, attach.getFilename());
+            out.writeInt(attach.getFilesize());
+            writeString(out, attach.getAuthor());
+            writeString(out, attach.getVersion());
+            writeString(out, attach.getComment());
+            out.writeLong((attach.getDate() != null) ? attach.getDate().getTime() : -1);
+        }
+        if (attachments instanceof DigestedAttachmentList) {
+            final DigestedAttachmentList digested = (DigestedAttachmentList) attachments;
+            out.write(DIGEST_SECTION);
+            for (XWikiAttachment attach : attachments) {
+                writeString(out, digested.getDigest(attach.getVersion()));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Write a length prefixed string.
+     *
+     * @param out the stream to write to.
+     * @param str the string to write, may be null.
+     * @throws IOException if writing to the stream fails.
+     */
+    private static void writeString(final DataOutputStream out, final String str) throws IOException
+    {
+        if (str == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = str.getBytes(ENCODING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a length prefixed string.
+     *
+     * @param in the stream to read from.
+     * @return the string or null if a null string was written.
+     * @throws IOException if reading from the stream fails or the length is invalid.
+     */
+    private static String readString(final DataInputStream in) throws IOException
+    {
+        final int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < -1 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Attachment archive metadata is corrupt, invalid string length ["
+                + length + "]");
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.serialization.xml.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.dom4j.Element;
+import org.dom4j.dom.DOMElement;
+import org.dom4j.io.OutputFormat;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.store.attachments.util.internal.DigestedAttachmentList;
+import org.xwiki.store.serialization.xml.XMLSerializer;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * A serializer for an append-only journal of attachment metadata.
+ * Unlike attachment-list-meta/1.0, the output has no XML declaration and no root element so
+ * the output of serializing one or more attachments can be appended to the end of an existing
+ * journal without reading or rewriting what was already written.
+ * The format is:
+ *   &lt;attachment serializer="attachment-meta/1.0"&gt;
+ *     (XML formatted meta data of first version)
+ *   &lt;/attachment&gt;
+ *   &lt;attachment serializer="attachment-meta/1.0"&gt;
+ *     (XML formatted meta data of second version)
+ *   &lt;/attachment&gt;
+ *   &lt;digest version="(version of second attachment)"&gt;(hex digest)&lt;/digest&gt;
+ * A digest element follows an attachment if the list is a {@link DigestedAttachmentList}
+ * and the digest of the content of that version is known.
+ * When parsing, the content is wrapped in a synthetic
+ * &lt;attachment-journal serializer="attachment-list-journal/1.0"&gt; element.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+@Component
+@Named("attachment-list-journal/1.0")
+@Singleton
+public class AttachmentListJournalSerializer
+    extends AbstractXMLSerializer<List<XWikiAttachment>, List<XWikiAttachment>>
+{
+    /**
+     * The synthetic root element which the journal is wrapped in when parsing.
+     */
+    private static final String ROOT_ELEMENT_NAME = "attachment-journal";
+
+    /**
+     * Root node paramter which must be present in order to attempt parsing.
+     */
+    private static final String SERIALIZER_PARAM = "serializer";
+
+    /**
+     * Value of SERIALIZER_PARAM must be this in order to continue parsing.
+     */
+    private static final String THIS_SERIALIZER = "attachment-list-journal/1.0";
+
+    /**
+     * The element which holds the digest of the content of a version.
+     */
+    private static final String DIGEST = "digest";
+
+    /**
+     * The attribute of the digest element which says which version it is the digest of.
+     */
+    private static final String VERSION_PARAM = "version";
+
+    /**
+     * The opening tag which is placed before the journal content when parsing.
+     */
+    private static final byte[] ROOT_OPEN;
+
+    /**
+     * The closing tag which is placed after the journal content when parsing.
+     */
+    private static final byte[] ROOT_CLOSE;
+
+    /**
+     * Needed to serialize/parse the individual attachments.
+     */
+    @Inject
+    @Named("attachment-meta/1.0")
+    private XMLSerializer<XWikiAttachment, XWikiAttachment> attachSerializer;
+
+    /** Need to catch this exception so this has to be done in an initializer block. */
+    static {
+        try {
+            ROOT_OPEN = ("<" + ROOT_ELEMENT_NAME + " " + SERIALIZER_PARAM + "=\""
+                + THIS_SERIALIZER + "\">").getBytes("UTF-8");
+            ROOT_CLOSE = ("</" + ROOT_ELEMENT_NAME + ">").getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException("No UTF-8, this Java VM is not standards compliant!", e);
+        }
+    }
+
+    /**
+     * Default constructor. For component manager.
+     */
+    public AttachmentListJournalSerializer()
+    {
+        // Do nothing.
+    }
+
+    /**
+     * Testing Constructor.
+     * Dependencied specified.
+     *
+     * @param attachSerializer the serializer used to serialize/parse the individual attachments.
+     */
+    public AttachmentListJournalSerializer(
+        final XMLSerializer<XWikiAttachment, XWikiAttachment> attachSerializer)
+    {
+        this.attachSerializer = attachSerializer;
+    }
+
+    @Override
+    public List<XWikiAttachment> parse(final InputStream stream) throws IOException
+    {
+        final List<InputStream> parts = new ArrayList<InputStream>(3);
+        parts.add(new ByteArrayInputStream(ROOT_OPEN));
+        parts.add(stream);
+        parts.add(new ByteArrayInputStream(ROOT_CLOSE));
+        return super.parse(new SequenceInputStream(Collections.enumeration(parts)));
+    }
+
+    @Override
+    public List<XWikiAttachment> parse(final Element docel) throws IOException
+    {
+        if (!ROOT_ELEMENT_NAME.equals(docel.getName())) {
+            throw new IOException("XML not recognizable as attachment journal, "
+                + "expecting <attachment-journal> tag");
+        }
+        if (!THIS_SERIALIZER.equals(docel.attributeValue(SERIALIZER_PARAM))) {
+            throw new IOException("Cannot parse this attachment journal, it was saved with a "
+                + "different serializer.");
+        }
+        final DigestedAttachmentList attachments = new DigestedAttachmentList();
+        for (Element attach : ((List<Element>) docel.elements())) {
+            if (DIGEST.equals(attach.getName())) {
+                attachments.setDigest(attach.attributeValue(VERSION_PARAM), attach.getText());
+            } else {
+                attachments.add(this.attachSerializer.parse(attach));
+            }
+        }
+        return attachments;
+    }
+
+    @Override
+    protected List<XWikiAttachment> parseElement(final XMLStreamReader reader)
+        throws XMLStreamException, IOException
+    {
+        if (!ROOT_ELEMENT_NAME.equals(reader.getLocalName())) {
+            throw new IOException("XML not recognizable as attachment journal, "
+                + "expecting <attachment-journal> tag");
+        }
+        if (!THIS_SERIALIZER.equals(reader.getAttributeValue(null, SERIALIZER_PARAM))) {
+            throw new IOException("Cannot parse this attachment journal, it was saved with a "
+                + "different serializer.");
+        }
+        final DigestedAttachmentList attachments = new DigestedAttachmentList();
+        while (nextChild(reader)) {
+            if (DIGEST.equals(reader.getLocalName())) {
+                final String version = reader.getAttributeValue(null, VERSION_PARAM);
+                attachments.setDigest(version, reader.getElementText());
+            } else {
+                attachments.add(this.attachSerializer.parse(reader));
+            }
+        }
+        return attachments;
+    }
+
+    @Override
+    public void serialize(final List<XWikiAttachment> attachments,
+        final XMLWriter writer)
+        throws IOException
+    {
+        final DigestedAttachmentList digested = (attachments instanceof DigestedAttachmentList)
+            ? (DigestedAttachmentList) attachments : null;
+        for (XWikiAttachment attachment : attachments) {
+            this.attachSerializer.serialize(attachment, writer);
+            final String digest =
+                (digested != null) ? digested.getDigest(attachment.getVersion()) : null;
+            if (digest != null) {
+                writer.write(new DOMElement(DIGEST)
+                    .addAttribute(VERSION_PARAM, attachment.getVersion()).addText(digest));
+            }
+        }
+        // End with a newline so that the next record appended starts on a line of its own.
+        writer.println();
+    }
+
+    @Override
+    protected OutputFormat getOutputFormat()
+    {
+        final OutputFormat of = super.getOutputFormat();
+        // The XML declaration is only permitted at the beginning of a document.
+        of.setSuppressDeclaration(true);
+        return of;
+    }
+}
@@ -26,6 +26,8 @@ import java.util.List;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.dom4j.Element;
 import org.dom4j.dom.DOMElement;
@@ -114,6 +116,24 @@ public class AttachmentListMetadataSerializer
         return attachments;
     }
 
+    @Override
+    protected List<XWikiAttachment> parseElement(final XMLStreamReader reader)
+        throws XMLStreamException, IOException
+    {
+        if (!ROOT_ELEMENT_NAME.equals(reader.getLocalName())) {
+            throw new IOException("XML not recognizable as archive metadata, expecting <archive> tag");
+        }
+        if (!THIS_SERIALIZER.equals(reader.getAttributeValue(null, SERIALIZER_PARAM))) {
+            throw new IOException("Cannot parse this attachment archive metadata, it was saved with a "
+                + "different serializer.");
+        }
+        final List<XWikiAttachment> attachments = new ArrayList<XWikiAttachment>();
+        while (nextChild(reader)) {
+            attachments.add(this.attachSerializer.parse(reader));
+        }
+        return attachments;
+    }
+
     @Override
     public void serialize(final List<XWikiAttachment> attachments,
         final XMLWriter writer)
@@ -22,6 +22,9 @@ package org.xwiki.store.serialization.xml.internal;
 import java.io.IOException;
 import java.util.Date;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.dom4j.Element;
 import org.dom4j.dom.DOMElement;
 import org.xwiki.component.annotation.Component;
@@ -109,6 +112,41 @@ public class AttachmentMetadataSerializer extends AbstractXMLSerializer<XWikiAtt
         return out;
     }
 
+    @Override
+    protected XWikiAttachment parseElement(final XMLStreamReader reader)
+        throws XMLStreamException, IOException
+    {
+        if (!ROOT_ELEMENT_NAME.equals(reader.getLocalName())) {
+            throw new IOException("XML not recognizable as attachment metadata, expecting <attachment> tag");
+        }
+        if (!THIS_SERIALIZER.equals(reader.getAttributeValue(null, SERIALIZER_PARAM))) {
+            throw new IOException("Cannot parse this attachment metadata, it was saved with a different "
+                + "serializer.");
+        }
+        final XWikiAttachment out = new XWikiAttachment();
+
+        while (nextChild(reader)) {
+            final String name = reader.getLocalName();
+            if (FILENAME.equals(name)) {
+                out.setFilename(reader.getElementText());
+            } else if (FILESIZE.equals(name)) {
+                out.setFilesize(Integer.parseInt(reader.getElementText()));
+            } else if (AUTHOR.equals(name)) {
+                out.setAuthor(reader.getElementText());
+            } else if (VERSION.equals(name)) {
+                out.setVersion(reader.getElementText());
+            } else if (COMMENT.equals(name)) {
+                out.setComment(reader.getElementText());
+            } else if (DATE.equals(name)) {
+                out.setDate(new Date(Long.parseLong(reader.getElementText())));
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        return out;
+    }
+
     @Override
     public void serialize(final XWikiAttachment attach, final XMLWriter writer) throws IOException
     {
@@ -24,6 +24,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.dom4j.Element;
 import org.dom4j.dom.DOMElement;
 import org.xwiki.component.annotation.Component;
@@ -72,22 +75,82 @@ public class DeletedAttachmentIdMappingSerializer
     @Override
     public Map<Long, String> parse(final Element docel) throws IOException
     {
-        if (!ROOT_ELEMENT_NAME.equals(docel.getName())) {
+        checkRoot(docel.getName(), docel.attributeValue(SERIALIZER_PARAM));
+        final Map<Long, String> out = new HashMap<Long, String>();
+
+        for (Element entry : ((List<Element>) docel.elements(ENTRY))) {
+            putEntry(out, entry.elementText(ID), entry.elementText(PATH));
+        }
+        return out;
+    }
+
+    @Override
+    protected Map<Long, String> parseElement(final XMLStreamReader reader)
+        throws XMLStreamException, IOException
+    {
+        checkRoot(reader.getLocalName(), reader.getAttributeValue(null, SERIALIZER_PARAM));
+        final Map<Long, String> out = new HashMap<Long, String>();
+
+        while (nextChild(reader)) {
+            if (!ENTRY.equals(reader.getLocalName())) {
+                skipElement(reader);
+                continue;
+            }
+            String id = null;
+            String path = null;
+            while (nextChild(reader)) {
+                if (ID.equals(reader.getLocalName())) {
+                    id = reader.getElementText();
+                } else if (PATH.equals(reader.getLocalName())) {
+                    path = reader.getElementText();
+                } else {
+                    skipElement(reader);
+                }
+            }
+            putEntry(out, id, path);
+        }
+        return out;
+    }
+
+    /**
+     * Make sure the root element is one which this serializer wrote.
+     *
+     * @param name the name of the root element.
+     * @param serializer the value of the serializer attribute of the root element, null if there is none.
+     * @throws IOException if the root element was not written by this serializer.
+     */
+    private static void checkRoot(final String name, final String serializer) throws IOException
+    {
+        if (!ROOT_ELEMENT_NAME.equals(name)) {
             throw new IOException("XML not recognizable as attachment metadata, "
                 + "expecting <deletedattachmentids> tag");
         }
-        if (docel.attribute(SERIALIZER_PARAM) == null
-            || !THIS_SERIALIZER.equals(docel.attribute(SERIALIZER_PARAM).getValue()))
-        {
+        if (!THIS_SERIALIZER.equals(serializer)) {
             throw new IOException("Cannot parse this deleted attachment id mapping, "
                 + "it was saved with a different serializer.");
         }
-        final Map<Long, String> out = new HashMap<Long, String>();
+    }
 
-        for (Element entry : ((List<Element>) docel.elements(ENTRY))) {
-            out.put(Long.valueOf(entry.element(ID).getText()), entry.element(PATH).getText());
+    /**
+     * Add a parsed entry to the map.
+     *
+     * @param out the map to add to.
+     * @param id the text of the id element, null if it was missing.
+     * @param path the text of the path element, null if it was missing.
+     * @throws IOException if either element is missing or the id is not a number.
+     */
+    private static void putEntry(final Map<Long, String> out, final String id, final String path)
+        throws IOException
+    {
+        if (id == null || path == null) {
+            throw new IOException("Deleted attachment id mapping is corrupt, an entry is missing its "
+                + ((id == null) ? ID : PATH));
+        }
+        try {
+            out.put(Long.valueOf(id.trim()), path);
+        } catch (NumberFormatException e) {
+            throw new IOException("Deleted attachment id mapping is corrupt, [" + id + "] is not an id", e);
         }
-        return out;
     }
 
     @Override
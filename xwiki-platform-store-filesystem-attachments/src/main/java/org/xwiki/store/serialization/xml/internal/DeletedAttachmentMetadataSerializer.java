@@ -26,6 +26,8 @@ import com.xpn.xwiki.doc.XWikiAttachment;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.dom4j.Element;
 import org.dom4j.dom.DOMElement;
 import org.xwiki.component.annotation.Component;
@@ -82,6 +84,26 @@ public class DeletedAttachmentMetadataSerializer
     @Named("attachment-meta/1.0")
     private XMLSerializer<XWikiAttachment, XWikiAttachment> attachSerializer;
 
+    /**
+     * Default constructor. For component manager.
+     */
+    public DeletedAttachmentMetadataSerializer()
+    {
+        // Do nothing.
+    }
+
+    /**
+     * Testing Constructor.
+     * Dependencied specified.
+     *
+     * @param attachSerializer the serializer used to serialize/parse the attachment metadata.
+     */
+    public DeletedAttachmentMetadataSerializer(
+        final XMLSerializer<XWikiAttachment, XWikiAttachment> attachSerializer)
+    {
+        this.attachSerializer = attachSerializer;
+    }
+
     @Override
     public MutableDeletedFilesystemAttachment parse(final Element docel) throws IOException
     {
@@ -104,6 +126,36 @@ public class DeletedAttachmentMetadataSerializer
         return out;
     }
 
+    @Override
+    protected MutableDeletedFilesystemAttachment parseElement(final XMLStreamReader reader)
+        throws XMLStreamException, IOException
+    {
+        if (!ROOT_ELEMENT_NAME.equals(reader.getLocalName())) {
+            throw new IOException("XML not recognizable as deleted attachment metadata, "
+                + "expecting <deletedattachment> tag");
+        }
+        if (!THIS_SERIALIZER.equals(reader.getAttributeValue(null, SERIALIZER_PARAM))) {
+            throw new IOException("Cannot parse this deleted attachment metadata, "
+                + "it was saved with a different serializer.");
+        }
+        final MutableDeletedFilesystemAttachment out = new MutableDeletedFilesystemAttachment();
+
+        while (nextChild(reader)) {
+            final String name = reader.getLocalName();
+            if (DELETER.equals(name)) {
+                out.setDeleter(reader.getElementText());
+            } else if (DATE_DELETED.equals(name)) {
+                out.setDate(new Date(Long.parseLong(reader.getElementText())));
+            } else if (ATTACHMENT.equals(name)) {
+                out.setAttachment(this.attachSerializer.parse(reader), null);
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        return out;
+    }
+
     @Override
     public void serialize(final DeletedFilesystemAttachment delAttach, final XMLWriter writer)
         throws IOException
@@ -21,9 +21,13 @@ package org.xwiki.store.legacy.store.internal;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
@@ -37,17 +41,23 @@ import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.suigeneris.jrcs.rcs.Version;
 import org.xwiki.model.internal.reference.PathStringEntityReferenceSerializer;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.store.attachments.adapter.internal.FilesystemAttachmentVersioningStoreAdapter;
+import org.xwiki.store.attachments.legacy.doc.internal.LazyAttachmentArchive;
 import org.xwiki.store.attachments.legacy.doc.internal.ListAttachmentArchive;
+import org.xwiki.store.attachments.newstore.internal.AttachmentVersionRetentionPolicy;
 import org.xwiki.store.attachments.newstore.internal.FilesystemAttachmentArchiveStore;
 import org.xwiki.store.attachments.util.internal.AttachmentFileProvider;
 import org.xwiki.store.attachments.util.internal.DefaultFilesystemStoreTools;
 import org.xwiki.store.attachments.util.internal.FilesystemStoreTools;
+import org.xwiki.store.serialization.binary.internal.BinaryAttachmentListMetadataSerializer;
+import org.xwiki.store.serialization.xml.internal.AttachmentListJournalSerializer;
 import org.xwiki.store.serialization.xml.internal.AttachmentListMetadataSerializer;
 import org.xwiki.store.serialization.xml.internal.AttachmentMetadataSerializer;
+import org.xwiki.store.RecordAppendTransactionRunnable;
 import org.xwiki.store.StartableTransactionRunnable;
 import org.xwiki.test.AbstractMockingComponentTestCase;
 import org.xwiki.store.TransactionProvider;
@@ -183,6 +193,27 @@ public class FilesystemAttachmentVersioningStoreTest extends AbstractFilesystemA
         Assert.assertSame(version3.getDoc(), this.archive.getAttachment().getDoc());
     }
 
+    @Test
+    public void loadLazyArchiveTest() throws Exception
+    {
+        this.versionStore.saveArchive(this.archive, null, false);
+        final XWikiAttachmentArchive newArch =
+            this.versionStore.loadArchive(archive.getAttachment(), null, false);
+        Assert.assertTrue(newArch instanceof LazyAttachmentArchive);
+
+        final Version[] versions = newArch.getVersions();
+        Assert.assertEquals("1.3", versions[0].toString());
+        Assert.assertEquals("1.2", versions[1].toString());
+        Assert.assertEquals("1.1", versions[2].toString());
+
+        Assert.assertNull(newArch.getRevision(archive.getAttachment(), "1.4", null));
+
+        // Each call gets a copy so callers cannot alter the archive.
+        final XWikiAttachment version2 = newArch.getRevision(archive.getAttachment(), "1.2", null);
+        Assert.assertNotSame(version2, newArch.getRevision(archive.getAttachment(), "1.2", null));
+        Assert.assertEquals("I am version 1.2", IOUtils.toString(version2.getContentInputStream(null)));
+    }
+
     @Test
     public void deleteArchiveTest() throws Exception
     {
@@ -201,8 +232,246 @@ public class FilesystemAttachmentVersioningStoreTest extends AbstractFilesystemA
         Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.3").exists());
     }
 
+    @Test
+    public void saveArchiveWithRetentionTest() throws Exception
+    {
+        final AttachmentVersioningStore retainingStore = this.newRetainingStore();
+        retainingStore.saveArchive(this.archive, null, false);
+
+        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.1").exists());
+        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.2").exists());
+        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.3").exists());
+
+        // The archive in memory must agree with what is stored.
+        Assert.assertEquals(2, this.archive.getVersions().length);
+        Assert.assertNull(this.archive.getRevision(this.archive.getAttachment(), "1.1", null));
+
+        final XWikiAttachmentArchive newArch =
+            retainingStore.loadArchive(this.archive.getAttachment(), null, false);
+        final Version[] versions = newArch.getVersions();
+        Assert.assertEquals(2, versions.length);
+        Assert.assertEquals("1.3", versions[0].toString());
+        Assert.assertEquals("1.2", versions[1].toString());
+    }
+
+    @Test
+    public void retentionSweepTest() throws Exception
+    {
+        this.versionStore.saveArchive(this.archive, null, false);
+        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.1").exists());
+
+        final AttachmentListMetadataSerializer serializer =
+            new AttachmentListMetadataSerializer(new AttachmentMetadataSerializer());
+        final FilesystemAttachmentArchiveStore archiveStore =
+            new FilesystemAttachmentArchiveStore(this.fileTools, serializer, null,
+                                                 new AttachmentVersionRetentionPolicy(2, 0, 0, 0));
+        Assert.assertEquals(1, archiveStore.applyRetention());
+
+        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.1").exists());
+        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.2").exists());
+        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.3").exists());
+        Assert.assertEquals(2, this.versionStore.loadArchive(this.archive.getAttachment(), null, false)
+            .getVersions().length);
+
+        // Nothing left to remove.
+        Assert.assertEquals(0, archiveStore.applyRetention());
+    }
+
+    @Test
+    public void journalNotUsedWhenVersionRemovedOrChangedTest() throws Exception
+    {
+        final AttachmentVersioningStore journalingStore = this.newJournalingStore();
+        final XWikiDocument doc = this.archive.getAttachment().getDoc();
+        final XWikiAttachment version1 = newVersion(doc, "1.1");
+        final XWikiAttachment version2 = newVersion(doc, "1.2");
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(version1, version2))), null, false);
+
+        // 1.1 is gone, the metadata of 1.2 has changed and 1.3 is new.
+        final XWikiAttachment changed = newVersion(doc, "1.2");
+        changed.setComment("changed");
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(changed, newVersion(doc, "1.3")))), null, false);
+
+        final XWikiAttachmentArchive loaded =
+            journalingStore.loadArchive(this.archive.getAttachment(), null, false);
+        Assert.assertEquals(2, loaded.getVersions().length);
+        Assert.assertNull(loaded.getRevision(this.archive.getAttachment(), "1.1", null));
+        Assert.assertEquals("changed",
+                            loaded.getRevision(this.archive.getAttachment(), "1.2", null).getComment());
+        Assert.assertFalse(this.provider.getAttachmentVersioningJournalFile().exists());
+    }
+
+    @Test
+    public void journalUsedWhenOnlyAddingTest() throws Exception
+    {
+        final AttachmentVersioningStore journalingStore = this.newJournalingStore();
+        final XWikiDocument doc = this.archive.getAttachment().getDoc();
+        final XWikiAttachment version1 = newVersion(doc, "1.1");
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(version1))), null, false);
+
+        final XWikiAttachment stored = newVersion(doc, "1.1");
+        // Already stored and not changed.
+        stored.setAttachment_content(new StringAttachmentContent("I am version 1.1")
+        {
+            public boolean isContentDirty()
+            {
+                return false;
+            }
+        });
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(stored, newVersion(doc, "1.2")))), null, false);
+
+        Assert.assertTrue(this.provider.getAttachmentVersioningJournalFile().exists());
+        Assert.assertEquals(2, journalingStore.loadArchive(this.archive.getAttachment(), null, false)
+            .getVersions().length);
+    }
+
+    @Test
+    public void tornJournalRecordIgnoredTest() throws Exception
+    {
+        final AttachmentVersioningStore journalingStore = this.newJournalingStore();
+        final XWikiDocument doc = this.archive.getAttachment().getDoc();
+        final File journalFile = this.provider.getAttachmentVersioningJournalFile();
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(newVersion(doc, "1.1")))), null, false);
+        journalingStore.saveArchive(new ListAttachmentArchive(new ArrayList<XWikiAttachment>(
+            Arrays.asList(storedVersion(doc, "1.1"), newVersion(doc, "1.2")))), null, false);
+        journalingStore.saveArchive(new ListAttachmentArchive(new ArrayList<XWikiAttachment>(
+            Arrays.asList(storedVersion(doc, "1.1"), storedVersion(doc, "1.2"), newVersion(doc, "1.3")))),
+            null, false);
+
+        // A crash part way through appending the record for 1.3.
+        setLength(journalFile, journalFile.length() - 5);
+        XWikiAttachmentArchive loaded = journalingStore.loadArchive(this.archive.getAttachment(), null, false);
+        Assert.assertEquals(2, loaded.getVersions().length);
+        Assert.assertNull(loaded.getRevision(this.archive.getAttachment(), "1.3", null));
+
+        // The versions which were loaded are not the ones which were recorded last so the metadata
+        // is rewritten in full.
+        journalingStore.saveArchive(new ListAttachmentArchive(new ArrayList<XWikiAttachment>(
+            Arrays.asList(storedVersion(doc, "1.1"), storedVersion(doc, "1.2"), newVersion(doc, "1.4")))),
+            null, false);
+        Assert.assertFalse(journalFile.exists());
+        loaded = journalingStore.loadArchive(this.archive.getAttachment(), null, false);
+        Assert.assertEquals(3, loaded.getVersions().length);
+        Assert.assertNotNull(loaded.getRevision(this.archive.getAttachment(), "1.4", null));
+    }
+
+    @Test
+    public void tornJournalRecordCutAwayTest() throws Exception
+    {
+        final AttachmentVersioningStore journalingStore = this.newJournalingStore();
+        final XWikiDocument doc = this.archive.getAttachment().getDoc();
+        final File journalFile = this.provider.getAttachmentVersioningJournalFile();
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(newVersion(doc, "1.1")))), null, false);
+        journalingStore.saveArchive(new ListAttachmentArchive(new ArrayList<XWikiAttachment>(
+            Arrays.asList(storedVersion(doc, "1.1"), newVersion(doc, "1.2")))), null, false);
+
+        // A crash just after the next append began, cut off in the middle of the record header.
+        final long complete = journalFile.length();
+        setLength(journalFile, complete + 3);
+        Assert.assertEquals(2, journalingStore.loadArchive(this.archive.getAttachment(), null, false)
+            .getVersions().length);
+
+        // The next append goes right after the record for 1.2.
+        journalingStore.saveArchive(new ListAttachmentArchive(new ArrayList<XWikiAttachment>(
+            Arrays.asList(storedVersion(doc, "1.1"), storedVersion(doc, "1.2"), newVersion(doc, "1.3")))),
+            null, false);
+        Assert.assertEquals(2, RecordAppendTransactionRunnable.readRecords(journalFile).size());
+        Assert.assertEquals(3, journalingStore.loadArchive(this.archive.getAttachment(), null, false)
+            .getVersions().length);
+    }
+
+    @Test
+    public void unchangedContentNotRewrittenTest() throws Exception
+    {
+        final AttachmentVersioningStore journalingStore = this.newJournalingStore();
+        final XWikiDocument doc = this.archive.getAttachment().getDoc();
+        final File verFile = this.provider.getAttachmentVersionContentFile("1.1");
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(newVersion(doc, "1.1")))), null, false);
+
+        // Same content, the file is kept.
+        Assert.assertTrue(verFile.setLastModified(0));
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(newVersion(doc, "1.1")))), null, false);
+        Assert.assertEquals(0, verFile.lastModified());
+
+        // Different content of the same length, the file and its recorded digest are replaced.
+        final XWikiAttachment changed = newVersion(doc, "1.1");
+        changed.setAttachment_content(new StringAttachmentContent("I am version 9.9"));
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(changed))), null, false);
+        Assert.assertEquals("I am version 9.9", IOUtils.toString(new FileInputStream(verFile)));
+
+        // Back to the original content, this must not match a stale digest of the original.
+        journalingStore.saveArchive(new ListAttachmentArchive(
+            new ArrayList<XWikiAttachment>(Arrays.asList(newVersion(doc, "1.1")))), null, false);
+        Assert.assertEquals("I am version 1.1", IOUtils.toString(new FileInputStream(verFile)));
+    }
+
     /* -------------------- Helpers -------------------- */
 
+    private AttachmentVersioningStore newJournalingStore()
+    {
+        final FilesystemAttachmentArchiveStore archiveStore = new FilesystemAttachmentArchiveStore(
+            this.fileTools,
+            new BinaryAttachmentListMetadataSerializer(
+                new AttachmentListMetadataSerializer(new AttachmentMetadataSerializer())),
+            new AttachmentListJournalSerializer(new AttachmentMetadataSerializer()));
+        return new FilesystemAttachmentVersioningStoreAdapter(archiveStore,
+                                                              new DummyTransactionProvider());
+    }
+
+    private static XWikiAttachment newVersion(final XWikiDocument doc, final String version)
+    {
+        final XWikiAttachment attach = new XWikiAttachment();
+        attach.setVersion(version);
+        attach.setFilename("attachment.txt");
+        attach.setDoc(doc);
+        attach.setDate(new Date(1000));
+        attach.setAttachment_content(new StringAttachmentContent("I am version " + version));
+        return attach;
+    }
+
+    /** A version which was saved before, its content is not dirty. */
+    private static XWikiAttachment storedVersion(final XWikiDocument doc, final String version)
+    {
+        final XWikiAttachment attach = newVersion(doc, version);
+        attach.setAttachment_content(new StringAttachmentContent("I am version " + version)
+        {
+            public boolean isContentDirty()
+            {
+                return false;
+            }
+        });
+        return attach;
+    }
+
+    private static void setLength(final File file, final long length) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private AttachmentVersioningStore newRetainingStore()
+    {
+        final AttachmentListMetadataSerializer serializer =
+            new AttachmentListMetadataSerializer(new AttachmentMetadataSerializer());
+        final FilesystemAttachmentArchiveStore archiveStore =
+            new FilesystemAttachmentArchiveStore(this.fileTools, serializer, null,
+                                                 new AttachmentVersionRetentionPolicy(2, 0, 0, 0));
+        return new FilesystemAttachmentVersioningStoreAdapter(archiveStore,
+                                                              new DummyTransactionProvider());
+    }
+
     private static void resursiveDelete(final File toDelete) throws IOException
     {
         if (toDelete == null || !toDelete.exists()) {
@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.serialization.binary.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.store.attachments.util.internal.DigestedAttachmentList;
+import org.xwiki.store.serialization.xml.internal.AttachmentListMetadataSerializer;
+import org.xwiki.store.serialization.xml.internal.AttachmentMetadataSerializer;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Tests for BinaryAttachmentListMetadataSerializer
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class BinaryAttachmentListMetadataSerializerTest
+{
+    private static final String XML_CONTENT =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<attachment-list serializer=\"attachment-list-meta/1.0\">\n"
+      + " <attachment serializer=\"attachment-meta/1.0\">\n"
+      + "  <filename>file1</filename>\n"
+      + "  <filesize>10</filesize>\n"
+      + "  <author>me</author>\n"
+      + "  <version>1.1</version>\n"
+      + "  <comment>something whitty</comment>\n"
+      + "  <date>1293045632000</date>\n"
+      + " </attachment>\n"
+      + " <attachment serializer=\"attachment-meta/1.0\">\n"
+      + "  <filename>file1</filename>\n"
+      + "  <filesize>5</filesize>\n"
+      + "  <author>you</author>\n"
+      + "  <version>1.2</version>\n"
+      + "  <comment>a comment \u00e9</comment>\n"
+      + "  <date>1293789456000</date>\n"
+      + " </attachment>\n"
+      + "</attachment-list>";
+
+    private BinaryAttachmentListMetadataSerializer serializer;
+
+    @Before
+    public void setUp()
+    {
+        this.serializer = new BinaryAttachmentListMetadataSerializer(
+            new AttachmentListMetadataSerializer(new AttachmentMetadataSerializer()));
+    }
+
+    @Test
+    public void testParseXML() throws Exception
+    {
+        final List<XWikiAttachment> attachList =
+            this.serializer.parse(new ByteArrayInputStream(XML_CONTENT.getBytes("UTF-8")));
+        Assert.assertEquals("Attachment list was wrong size", 2, attachList.size());
+        Assert.assertEquals("Attachment2 had wrong version", "1.2", attachList.get(1).getVersion());
+        Assert.assertEquals("Attachment2 had wrong comment", "a comment \u00e9", attachList.get(1).getComment());
+    }
+
+    @Test
+    public void testSerializeParse() throws Exception
+    {
+        final List<XWikiAttachment> fromXML =
+            this.serializer.parse(new ByteArrayInputStream(XML_CONTENT.getBytes("UTF-8")));
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        IOUtils.copy(this.serializer.serialize(fromXML), baos);
+        Assert.assertFalse("Output should not be XML", baos.toByteArray()[0] == '<');
+
+        final List<XWikiAttachment> attachList =
+            this.serializer.parse(new ByteArrayInputStream(baos.toByteArray()));
+        Assert.assertEquals("Attachment list was wrong size", 2, attachList.size());
+        for (int i = 0; i < attachList.size(); i++) {
+            Assert.assertEquals(fromXML.get(i).getFilename(), attachList.get(i).getFilename());
+            Assert.assertEquals(fromXML.get(i).getFilesize(), attachList.get(i).getFilesize());
+            Assert.assertEquals(fromXML.get(i).getAuthor(), attachList.get(i).getAuthor());
+            Assert.assertEquals(fromXML.get(i).getVersion(), attachList.get(i).getVersion());
+            Assert.assertEquals(fromXML.get(i).getComment(), attachList.get(i).getComment());
+            Assert.assertEquals(fromXML.get(i).getDate(), attachList.get(i).getDate());
+        }
+    }
+
+    @Test
+    public void testSerializeParseDigests() throws Exception
+    {
+        final DigestedAttachmentList fromXML = new DigestedAttachmentList();
+        fromXML.addAll(this.serializer.parse(new ByteArrayInputStream(XML_CONTENT.getBytes("UTF-8"))));
+        fromXML.setDigest("1.2", "0123456789abcdef");
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        IOUtils.copy(this.serializer.serialize(fromXML), baos);
+        final DigestedAttachmentList attachList = (DigestedAttachmentList)
+            this.serializer.parse(new ByteArrayInputStream(baos.toByteArray()));
+        Assert.assertEquals("Attachment list was wrong size", 2, attachList.size());
+        Assert.assertNull("Attachment1 should have no digest", attachList.getDigest("1.1"));
+        Assert.assertEquals("Attachment2 had wrong digest", "0123456789abcdef", attachList.getDigest("1.2"));
+
+        // A list which is not digested is written without the digest section and still parses.
+        final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        IOUtils.copy(this.serializer.serialize(new ArrayList<XWikiAttachment>(fromXML)), plain);
+        Assert.assertTrue("Digest section should not be written",
+            plain.toByteArray().length < baos.toByteArray().length);
+        final DigestedAttachmentList noDigests = (DigestedAttachmentList)
+            this.serializer.parse(new ByteArrayInputStream(plain.toByteArray()));
+        Assert.assertEquals("Attachment list was wrong size", 2, noDigests.size());
+        Assert.assertTrue("There should be no digests", noDigests.getDigests().isEmpty());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.serialization.xml.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.store.attachments.util.internal.DigestedAttachmentList;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Tests for AttachmentListJournalSerializer
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class AttachmentListJournalSerializerTest
+{
+    private static final String TEST_CONTENT =
+        "<attachment serializer=\"attachment-meta/1.0\">\n"
+      + " <filename>file1</filename>\n"
+      + " <filesize>10</filesize>\n"
+      + " <author>me</author>\n"
+      + " <version>1.1</version>\n"
+      + " <comment>something whitty</comment>\n"
+      + " <date>1293045632000</date>\n"
+      + "</attachment>\n";
+
+    private static final String APPENDED_CONTENT =
+        "<attachment serializer=\"attachment-meta/1.0\">\n"
+      + " <filename>file1</filename>\n"
+      + " <filesize>5</filesize>\n"
+      + " <author>you</author>\n"
+      + " <version>1.2</version>\n"
+      + " <comment>a comment</comment>\n"
+      + " <date>1293789456000</date>\n"
+      + "</attachment>\n";
+
+    private AttachmentListJournalSerializer serializer;
+
+    @Before
+    public void setUp()
+    {
+        this.serializer = new AttachmentListJournalSerializer(new AttachmentMetadataSerializer());
+    }
+
+    @Test
+    public void testParseAppended() throws Exception
+    {
+        final ByteArrayInputStream bais =
+            new ByteArrayInputStream((TEST_CONTENT + APPENDED_CONTENT).getBytes("US-ASCII"));
+        final List<XWikiAttachment> attachList = this.serializer.parse(bais);
+        bais.close();
+        Assert.assertEquals("Attachment list was wrong size", 2, attachList.size());
+        Assert.assertEquals("Attachment1 had wrong version", "1.1", attachList.get(0).getVersion());
+        Assert.assertEquals("Attachment2 had wrong version", "1.2", attachList.get(1).getVersion());
+        Assert.assertEquals("Attachment2 had wrong author", "you", attachList.get(1).getAuthor());
+    }
+
+    @Test
+    public void testSerializeAppend() throws Exception
+    {
+        final ByteArrayInputStream bais = new ByteArrayInputStream(APPENDED_CONTENT.getBytes("US-ASCII"));
+        final List<XWikiAttachment> appended = this.serializer.parse(bais);
+        bais.close();
+
+        // Serializing must produce a fragment which can be placed after existing content.
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(TEST_CONTENT.getBytes("US-ASCII"));
+        IOUtils.copy(this.serializer.serialize(appended), baos);
+        final String test = new String(baos.toByteArray(), "US-ASCII");
+        Assert.assertEquals("Appending yields a different output.", TEST_CONTENT + APPENDED_CONTENT,
+            test.replaceAll("\r\n", "\n"));
+
+        final List<XWikiAttachment> all =
+            this.serializer.parse(new ByteArrayInputStream(baos.toByteArray()));
+        Assert.assertEquals("Attachment list was wrong size", 2, all.size());
+    }
+
+    @Test
+    public void testDigests() throws Exception
+    {
+        final ByteArrayInputStream bais = new ByteArrayInputStream(APPENDED_CONTENT.getBytes("US-ASCII"));
+        final DigestedAttachmentList appended = (DigestedAttachmentList) this.serializer.parse(bais);
+        bais.close();
+        appended.setDigest("1.2", "abcdef");
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(TEST_CONTENT.getBytes("US-ASCII"));
+        IOUtils.copy(this.serializer.serialize(appended), baos);
+
+        final DigestedAttachmentList all = (DigestedAttachmentList)
+            this.serializer.parse(new ByteArrayInputStream(baos.toByteArray()));
+        Assert.assertEquals("Attachment list was wrong size", 2, all.size());
+        Assert.assertNull("Attachment1 should have no digest", all.getDigest("1.1"));
+        Assert.assertEquals("Attachment2 had wrong digest", "abcdef", all.getDigest("1.2"));
+    }
+
+    @Test
+    public void testParseEmpty() throws Exception
+    {
+        Assert.assertEquals(new ArrayList<XWikiAttachment>(),
+            this.serializer.parse(new ByteArrayInputStream(new byte[0])));
+    }
+}
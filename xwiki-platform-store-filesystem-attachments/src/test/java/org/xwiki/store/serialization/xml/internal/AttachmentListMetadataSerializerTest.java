@@ -126,4 +126,17 @@ public class AttachmentListMetadataSerializerTest
         final String control = TEST_CONTENT.replaceAll("[0-9][0-9][0-9]</date>", "000</date>");
         Assert.assertEquals("Parsing and serializing yields a different output.", control, test);
     }
+
+    @Test
+    public void testParseSkipsUnknownElements() throws Exception
+    {
+        final String content = TEST_CONTENT
+            .replace("<filesize>10</filesize>", "<unknown><nested>x</nested></unknown><filesize>10</filesize>");
+        final ByteArrayInputStream bais = new ByteArrayInputStream(content.getBytes("US-ASCII"));
+        final List<XWikiAttachment> attachList = this.serializer.parse(bais);
+        bais.close();
+        Assert.assertEquals("Attachment list was wrong size", 3, attachList.size());
+        Assert.assertEquals("Attachment1 had wrong size", 10, attachList.get(0).getFilesize());
+        Assert.assertEquals("Attachment1 had wrong author", "me", attachList.get(0).getAuthor());
+    }
 }
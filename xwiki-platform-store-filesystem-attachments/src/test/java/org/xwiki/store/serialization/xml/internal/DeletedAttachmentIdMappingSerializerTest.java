@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.serialization.xml.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for DeletedAttachmentIdMappingSerializer
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class DeletedAttachmentIdMappingSerializerTest
+{
+    private static final String HEAD =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<deletedattachmentids serializer=\"deleted-attachment-id-mappings/1.0\">\n";
+
+    private static final String TAIL = "</deletedattachmentids>";
+
+    private DeletedAttachmentIdMappingSerializer serializer;
+
+    @Before
+    public void setUp()
+    {
+        this.serializer = new DeletedAttachmentIdMappingSerializer();
+    }
+
+    @Test
+    public void testParse() throws Exception
+    {
+        final Map<Long, String> map = this.parse(HEAD
+            + " <entry>\n  <id>12</id>\n  <path>a/b</path>\n </entry>\n"
+            + " <entry>\n  <id>-3</id>\n  <path>c</path>\n </entry>\n"
+            + TAIL);
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("a/b", map.get(12L));
+        Assert.assertEquals("c", map.get(-3L));
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseMissingId() throws Exception
+    {
+        this.parse(HEAD + " <entry>\n  <path>a/b</path>\n </entry>\n" + TAIL);
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseBadId() throws Exception
+    {
+        this.parse(HEAD + " <entry>\n  <id>twelve</id>\n  <path>a/b</path>\n </entry>\n" + TAIL);
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseOtherSerializer() throws Exception
+    {
+        this.parse("<deletedattachmentids serializer=\"other\">" + TAIL);
+    }
+
+    private Map<Long, String> parse(final String xml) throws Exception
+    {
+        final ByteArrayInputStream bais = new ByteArrayInputStream(xml.getBytes("UTF-8"));
+        try {
+            return this.serializer.parse(bais);
+        } finally {
+            bais.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.filesystem.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.xwiki.store.TransactionRunnable;
+
+/**
+ * A TransactionRunnable for loading all or part of a blob file.
+ * The read lock of the file is held from preRun until complete so a save or delete in another
+ * transaction cannot replace the file while it is being read.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+class FilesystemBlobLoadTransactionRunnable extends TransactionRunnable<TransactionRunnable>
+{
+    /** The size of the buffer to copy through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The file to read. */
+    private final File file;
+
+    /** The position in the file of the first byte to write. */
+    private final long offset;
+
+    /** The most bytes to write. */
+    private final long length;
+
+    /** The stream to write to, it is closed once the bytes are written. */
+    private final OutputStream writeTo;
+
+    /** The lock of the file. */
+    private final ReadWriteLock lock;
+
+    /** True once the read lock is held so it is only unlocked if it was locked. */
+    private boolean locked;
+
+    /**
+     * The Constructor.
+     *
+     * @param file the file to read.
+     * @param offset the position in the file of the first byte to write.
+     * @param length the most bytes to write.
+     * @param writeTo the stream to write to.
+     * @param lock the lock of the file.
+     */
+    FilesystemBlobLoadTransactionRunnable(final File file,
+                                          final long offset,
+                                          final long length,
+                                          final OutputStream writeTo,
+                                          final ReadWriteLock lock)
+    {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset [" + offset + "] and length [" + length
+                                               + "] must not be negative");
+        }
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.writeTo = writeTo;
+        this.lock = lock;
+    }
+
+    @Override
+    protected void onPreRun()
+    {
+        this.lock.readLock().lock();
+        this.locked = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Seek to the offset and copy until the length is reached or the file ends.
+     *
+     * @see TransactionRunnable#onRun()
+     */
+    @Override
+    protected void onRun() throws IOException
+    {
+        final FileInputStream in = new FileInputStream(this.file);
+        try {
+            in.getChannel().position(this.offset);
+            final byte[] buffer = new byte[(int) Math.max(1, Math.min(BUFFER_SIZE, this.length))];
+            long remaining = this.length;
+            int count;
+            while (remaining > 0
+                && (count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1)
+            {
+                this.writeTo.write(buffer, 0, count);
+                remaining -= count;
+            }
+        } finally {
+            in.close();
+        }
+        this.writeTo.close();
+    }
+
+    @Override
+    protected void onComplete()
+    {
+        if (this.locked) {
+            this.locked = false;
+            this.lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.filesystem.internal;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.environment.Environment;
+import org.xwiki.store.FileDeleteTransactionRunnable;
+import org.xwiki.store.FileSaveTransactionRunnable;
+import org.xwiki.store.StreamProvider;
+import org.xwiki.store.TransactionRunnable;
+import org.xwiki.store.blob.BlobStat;
+import org.xwiki.store.blob.BlobStore;
+import org.xwiki.store.locks.LockProvider;
+
+/**
+ * A blob store which keeps each blob in a single file, for single node installs and for benchmarking
+ * the blob abstraction without a database.
+ * Saves and deletes are done by {@link FileSaveTransactionRunnable} and {@link FileDeleteTransactionRunnable}
+ * so the current version of a blob is replaced only when the transaction commits and is put back if
+ * it rolls back. Loads hold the read lock of the file so they never see it between versions.
+ * The files are spread over 256 directories by the hash of the blob id, listing reads every directory
+ * so it is only meant for stores of moderate size.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+@Component
+@Named("file")
+@Singleton
+public class FilesystemBlobStore implements BlobStore<TransactionRunnable>, Initializable
+{
+    /** The name of the directory in the permanent directory where the blobs are stored. */
+    private static final String STORAGE_DIR_NAME = "blob-storage";
+
+    /** Appended to the name of a file while a new version of it is being saved. */
+    private static final String TEMP_FILE_SUFFIX = "~tmp";
+
+    /** Appended to the name of a file while it is being replaced or deleted. */
+    private static final String BACKUP_FILE_SUFFIX = "~bak";
+
+    /** Blob ids are URL encoded in this charset to make file names. */
+    private static final String FILE_NAME_CHARSET = "UTF-8";
+
+    /** Used for getting the permanent directory. */
+    @Inject
+    private Environment environment;
+
+    /** A means of getting a lock for each blob file. */
+    @Inject
+    private LockProvider lockProvider;
+
+    /** The directory where the blobs are stored. */
+    private File storageDir;
+
+    /**
+     * Testing Constructor.
+     *
+     * @param storageDir the directory to store the blobs in.
+     * @param lockProvider a means of getting locks for making sure only one thread changes a blob at a time.
+     */
+    public FilesystemBlobStore(final File storageDir, final LockProvider lockProvider)
+    {
+        this.storageDir = storageDir;
+        this.lockProvider = lockProvider;
+    }
+
+    /** Constructor for component manager. */
+    public FilesystemBlobStore()
+    {
+    }
+
+    @Override
+    public void initialize()
+    {
+        this.storageDir = new File(this.environment.getPermanentDirectory(), STORAGE_DIR_NAME);
+    }
+
+    @Override
+    public TransactionRunnable<TransactionRunnable> getSaveRunnable(final String id, final InputStream readFrom)
+    {
+        final File file = this.getFile(id);
+        return new FileSaveTransactionRunnable(file,
+                                               new File(file.getPath() + TEMP_FILE_SUFFIX),
+                                               new File(file.getPath() + BACKUP_FILE_SUFFIX),
+                                               this.lockProvider.getLock(file),
+                                               new StreamProvider() {
+                                                   public InputStream getStream()
+                                                   {
+                                                       return readFrom;
+                                                   }
+                                               });
+    }
+
+    @Override
+    public TransactionRunnable<TransactionRunnable> getLoadRunnable(final String id, final OutputStream writeTo)
+    {
+        return this.getLoadRunnable(id, 0, Long.MAX_VALUE, writeTo);
+    }
+
+    @Override
+    public TransactionRunnable<TransactionRunnable> getLoadRunnable(final String id,
+                                                                    final long offset,
+                                                                    final long length,
+                                                                    final OutputStream writeTo)
+    {
+        final File file = this.getFile(id);
+        return new FilesystemBlobLoadTransactionRunnable(file, offset, length, writeTo,
+                                                         this.lockProvider.getLock(file));
+    }
+
+    @Override
+    public TransactionRunnable<TransactionRunnable> getStatRunnable(final String id, final List<BlobStat> output)
+    {
+        final File file = this.getFile(id);
+        return new TransactionRunnable<TransactionRunnable>() {
+            @Override
+            protected void onRun()
+            {
+                final long lastModified = file.lastModified();
+                if (lastModified != 0) {
+                    output.add(new BlobStat(id, file.length(), 1, null, new Date(lastModified)));
+                }
+            }
+        };
+    }
+
+    @Override
+    public TransactionRunnable<TransactionRunnable> getDeleteRunnable(final String id)
+    {
+        final File file = this.getFile(id);
+        return new FileDeleteTransactionRunnable(file,
+                                                 new File(file.getPath() + BACKUP_FILE_SUFFIX),
+                                                 this.lockProvider.getLock(file));
+    }
+
+    @Override
+    public TransactionRunnable<TransactionRunnable> getListAllRunnable(final List<String> populateList)
+    {
+        return this.getListRunnable(null, null, Integer.MAX_VALUE, populateList);
+    }
+
+    @Override
+    public TransactionRunnable<TransactionRunnable> getListRunnable(final String prefix,
+                                                                    final String after,
+                                                                    final int limit,
+                                                                    final List<String> populateList)
+    {
+        return new TransactionRunnable<TransactionRunnable>() {
+            @Override
+            protected void onRun() throws UnsupportedEncodingException
+            {
+                final TreeSet<String> ids = new TreeSet<String>();
+                final File[] dirs = storageDir.listFiles();
+                if (dirs == null) {
+                    return;
+                }
+                for (final File dir : dirs) {
+                    final String[] names = dir.list();
+                    if (names == null) {
+                        continue;
+                    }
+                    for (final String name : names) {
+                        // Encoded ids never contain ~ so these are temporary and backup files.
+                        if (name.indexOf('~') != -1) {
+                            continue;
+                        }
+                        final String id = URLDecoder.decode(name, FILE_NAME_CHARSET);
+                        if ((prefix == null || id.startsWith(prefix))
+                            && (after == null || id.compareTo(after) > 0))
+                        {
+                            ids.add(id);
+                            // Only the first limit ids are needed so drop the greatest.
+                            if (ids.size() > limit) {
+                                ids.pollLast();
+                            }
+                        }
+                    }
+                }
+                final Iterator<String> it = ids.iterator();
+                while (it.hasNext()) {
+                    populateList.add(it.next());
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the file which a blob is stored in.
+     * The name is the URL encoded id with . and * also encoded so that no id makes a special file name,
+     * the directory is chosen by the hash of the id so that no directory gets too large.
+     *
+     * @param id the id of the blob.
+     * @return the file to store the blob in, it may not exist.
+     */
+    private File getFile(final String id)
+    {
+        final String name;
+        try {
+            name = URLEncoder.encode(id, FILE_NAME_CHARSET).replace(".", "%2E").replace("*", "%2A");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("No UTF-8, this Java VM is not standards compliant!", e);
+        }
+        final String dir = Integer.toHexString(0x100 | (id.hashCode() & 0xff)).substring(1);
+        return new File(new File(this.storageDir, dir), name);
+    }
+}
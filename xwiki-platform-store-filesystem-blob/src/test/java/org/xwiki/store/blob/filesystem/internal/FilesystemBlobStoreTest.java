@@ -0,0 +1,228 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.blob.filesystem.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.TransactionException;
+import org.xwiki.store.TransactionRunnable;
+import org.xwiki.store.blob.BlobStat;
+import org.xwiki.store.locks.preemptive.internal.PreemptiveLockProvider;
+
+/**
+ * Tests for FilesystemBlobStore.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class FilesystemBlobStoreTest
+{
+    private static final String BLOB_ID = "attachments/Main.WebHome/file.txt";
+
+    private File storageLocation;
+
+    private FilesystemBlobStore store;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        this.storageLocation = new File(tmpDir, "test-blob-storage" + System.identityHashCode(this.getClass()));
+        this.store = new FilesystemBlobStore(this.storageLocation, new PreemptiveLockProvider());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.storageLocation);
+    }
+
+    @Test
+    public void saveLoadTest() throws Exception
+    {
+        this.save(BLOB_ID, "Version1");
+        Assert.assertEquals("Version1", this.load(BLOB_ID));
+
+        this.save(BLOB_ID, "Version2");
+        Assert.assertEquals("Version2", this.load(BLOB_ID));
+    }
+
+    /**
+     * If the transaction fails after the save, the version which was replaced is restored from the backup.
+     */
+    @Test
+    public void rollbackRestoresBackupTest() throws Exception
+    {
+        this.save(BLOB_ID, "Version1");
+
+        final StartableTransactionRunnable transaction = new StartableTransactionRunnable();
+        this.store.getSaveRunnable(BLOB_ID, new ByteArrayInputStream("Version2".getBytes())).runIn(transaction);
+        new TransactionRunnable<TransactionRunnable>() {
+            @Override
+            protected void onRun() throws Exception
+            {
+                throw new Exception("Fail after the save so that it is rolled back.");
+            }
+        }.runIn(transaction);
+        try {
+            transaction.start();
+            Assert.fail("The transaction should have failed.");
+        } catch (TransactionException e) {
+            // Expected.
+        }
+
+        Assert.assertEquals("Version1", this.load(BLOB_ID));
+        Assert.assertEquals(Arrays.asList(BLOB_ID), this.list(null, null, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void deleteTest() throws Exception
+    {
+        this.save(BLOB_ID, "Version1");
+        this.save("other", "Other");
+        this.run(this.store.getDeleteRunnable(BLOB_ID));
+
+        Assert.assertEquals(Arrays.asList("other"), this.list(null, null, Integer.MAX_VALUE));
+        Assert.assertTrue(this.stat(BLOB_ID).isEmpty());
+        Assert.assertEquals("Other", this.load("other"));
+    }
+
+    @Test
+    public void statTest() throws Exception
+    {
+        Assert.assertTrue(this.stat(BLOB_ID).isEmpty());
+        this.save(BLOB_ID, "Version1");
+        final List<BlobStat> stats = this.stat(BLOB_ID);
+        Assert.assertEquals(1, stats.size());
+        Assert.assertEquals(BLOB_ID, stats.get(0).getId());
+        Assert.assertEquals(8L, stats.get(0).getLength());
+        Assert.assertNotNull(stats.get(0).getLastModified());
+    }
+
+    @Test
+    public void rangeTest() throws Exception
+    {
+        this.save(BLOB_ID, "0123456789");
+        Assert.assertEquals("234", this.load(BLOB_ID, 2, 3));
+        Assert.assertEquals("0123456789", this.load(BLOB_ID, 0, Long.MAX_VALUE));
+        Assert.assertEquals("", this.load(BLOB_ID, 2, 0));
+    }
+
+    /**
+     * A range which goes past the end of the blob is cut short, one which begins past it is empty.
+     */
+    @Test
+    public void rangePastEndTest() throws Exception
+    {
+        this.save(BLOB_ID, "0123456789");
+        Assert.assertEquals("789", this.load(BLOB_ID, 7, 100));
+        Assert.assertEquals("", this.load(BLOB_ID, 10, 5));
+        Assert.assertEquals("", this.load(BLOB_ID, 100, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeOffsetTest() throws Exception
+    {
+        this.store.getLoadRunnable(BLOB_ID, -1, 1, new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void listTest() throws Exception
+    {
+        for (final String id : new String[] { "a/1", "a/2", "a/3", "b/1", "a" }) {
+            this.save(id, id);
+        }
+        Assert.assertEquals(Arrays.asList("a", "a/1", "a/2", "a/3", "b/1"), this.list(null, null, Integer.MAX_VALUE));
+        Assert.assertEquals(Arrays.asList("a/1", "a/2", "a/3"), this.list("a/", null, Integer.MAX_VALUE));
+        Assert.assertEquals(Arrays.asList("a/3"), this.list("a/", "a/2", Integer.MAX_VALUE));
+        Assert.assertEquals(Arrays.asList("a/1", "a/2"), this.list("a/", null, 2));
+        Assert.assertEquals(Arrays.asList("a/3"), this.list("a/", "a/2", 2));
+        Assert.assertTrue(this.list("c", null, Integer.MAX_VALUE).isEmpty());
+    }
+
+    /**
+     * Ids with characters which are special in file names are stored and listed as they are.
+     */
+    @Test
+    public void specialCharactersTest() throws Exception
+    {
+        final String id = "../a b*~.txt";
+        this.save(id, "content");
+        Assert.assertEquals("content", this.load(id));
+        Assert.assertEquals(Arrays.asList(id), this.list(null, null, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void emptyStoreListTest() throws Exception
+    {
+        Assert.assertTrue(this.list(null, null, Integer.MAX_VALUE).isEmpty());
+    }
+
+    private void save(final String id, final String content) throws Exception
+    {
+        this.run(this.store.getSaveRunnable(id, new ByteArrayInputStream(content.getBytes())));
+    }
+
+    private String load(final String id) throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.run(this.store.getLoadRunnable(id, out));
+        return new String(out.toByteArray());
+    }
+
+    private String load(final String id, final long offset, final long length) throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.run(this.store.getLoadRunnable(id, offset, length, out));
+        return new String(out.toByteArray());
+    }
+
+    private List<BlobStat> stat(final String id) throws Exception
+    {
+        final List<BlobStat> out = new ArrayList<BlobStat>();
+        this.run(this.store.getStatRunnable(id, out));
+        return out;
+    }
+
+    private List<String> list(final String prefix, final String after, final int limit) throws Exception
+    {
+        final List<String> out = new ArrayList<String>();
+        this.run(this.store.getListRunnable(prefix, after, limit, out));
+        return out;
+    }
+
+    private void run(final TransactionRunnable<TransactionRunnable> runnable) throws Exception
+    {
+        final StartableTransactionRunnable transaction = new StartableTransactionRunnable();
+        runnable.runIn(transaction);
+        transaction.start();
+    }
+}
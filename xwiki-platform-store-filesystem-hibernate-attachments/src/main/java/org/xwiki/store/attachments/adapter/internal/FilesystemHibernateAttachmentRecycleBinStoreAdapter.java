@@ -19,13 +19,25 @@
  */
 package org.xwiki.store.attachments.adapter.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import org.hibernate.Session;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
 import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.DocumentReference;
@@ -50,7 +62,14 @@ import org.xwiki.store.UnexpectedException;
 @Singleton
 public class FilesystemHibernateAttachmentRecycleBinStoreAdapter
     extends AbstractAttachmentRecycleBinStoreAdapter<Session>
+    implements Initializable
 {
+    /** The key of the XWikiContext in the execution context. */
+    private static final String XWIKI_CONTEXT = "xwikicontext";
+
+    /** The greatest number of ids to put in a single query. */
+    private static final int RESOLVE_BATCH_SIZE = 500;
+
     /** The means of getting Hibernate transactions. */
     @Named("hibernate")
     @Inject
@@ -74,6 +93,25 @@ public class FilesystemHibernateAttachmentRecycleBinStoreAdapter
     @Inject
     private Execution execution;
 
+    /** The XWiki instance, taken from the first request which uses this store, null until then. */
+    private volatile XWiki xwiki;
+
+    /** The name of the main wiki, set along with {@link #xwiki}. */
+    private volatile String mainWiki;
+
+    /**
+     * {@inheritDoc}
+     * Start the retention sweeps of the recycle bin.
+     */
+    @Override
+    public void initialize()
+    {
+        if (this.execution.getContext() != null) {
+            this.getXWikiContext();
+        }
+        this.startRetentionSweeps();
+    }
+
     @Override
     protected StartableTransactionRunnable<Session> getTransaction()
     {
@@ -99,31 +137,25 @@ public class FilesystemHibernateAttachmentRecycleBinStoreAdapter
     }
 
     /**
-     * Map a long to an attachment reference.
-     * The legacy API allows the UI layer to access the database id of deleted attachments,
-     * in order to maintain backward compatability, this method must map the id over to
-     * an AttachmentReference for the attachment which was deleted.
-     * What is most important is that for any DeletedAttachment which is loaded, calling
-     * this method with the number given by getId() will return a reference to the attachment.
-     *
-     * @param id the opaque deleted attachment id number.
-     * @return a reference to the attachment which was deleted or null if it cannot be found.
+     * {@inheritDoc}
+     * The ids are looked up in the database in batches of {@value #RESOLVE_BATCH_SIZE}.
      */
-    protected AttachmentReference getAttachmentReferenceForId(final long id)
+    @Override
+    protected Map<Long, AttachmentReference> resolveAttachmentReferences(final Collection<Long> ids)
     {
+        final List<Long> idList = new ArrayList<Long>(ids);
+        final List<Object[]> rows = new ArrayList<Object[]>(idList.size());
         final StartableTransactionRunnable<Session> str = this.transactionProvider.get();
-        final String[] docNameAndFileName = new String[2];
         (new TransactionRunnable<Session>() {
             @Override
             protected void onRun()
             {
-                final Object[] result = (Object[]) this.getContext().createQuery(
-                    "SELECT attach.docName, attach.filename FROM DeletedAttachment as attach "
-                    + "WHERE attach.id = :id").setLong("id", id).uniqueResult();
-
-                if (result != null) {
-                    docNameAndFileName[0] = (String) result[0];
-                    docNameAndFileName[1] = (String) result[1];
+                for (int i = 0; i < idList.size(); i += RESOLVE_BATCH_SIZE) {
+                    final List<Long> batch =
+                        idList.subList(i, Math.min(i + RESOLVE_BATCH_SIZE, idList.size()));
+                    rows.addAll((List<Object[]>) this.getContext().createQuery(
+                        "SELECT attach.id, attach.docName, attach.filename FROM DeletedAttachment as attach "
+                        + "WHERE attach.id IN (:ids)").setParameterList("ids", batch).list());
                 }
             }
         }).runIn(str);
@@ -131,18 +163,75 @@ public class FilesystemHibernateAttachmentRecycleBinStoreAdapter
         try {
             str.start();
         } catch (TransactionException e) {
-            throw new UnexpectedException("Failed to get the name of the deleted attachment "
-                                          + "with id " + id, e);
+            throw new UnexpectedException("Failed to get the names of the deleted attachments "
+                                          + "with ids " + ids, e);
         }
 
-        if (docNameAndFileName[0] != null) {
+        final WikiReference wiki = this.getWikiRef();
+        final Map<Long, AttachmentReference> out = new HashMap<Long, AttachmentReference>();
+        for (final Object[] row : rows) {
             DocumentReference ref =
-                new DocumentReference(
-                    this.resolver.resolve(docNameAndFileName[0], EntityType.DOCUMENT));
-            ref = ref.replaceParent(ref.getWikiReference(), this.getWikiRef());
-            return new AttachmentReference(docNameAndFileName[1], ref);
+                new DocumentReference(this.resolver.resolve((String) row[1], EntityType.DOCUMENT));
+            ref = ref.replaceParent(ref.getWikiReference(), wiki);
+            out.put((Long) row[0], new AttachmentReference((String) row[2], ref));
         }
-        return null;
+        return out;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The retention period is set in days by the {@value #RETENTION_DAYS_PROPERTY} system property.
+     */
+    @Override
+    protected long getRetentionPeriod()
+    {
+        return Long.getLong(RETENTION_DAYS_PROPERTY, 0L) * ONE_DAY;
+    }
+
+    /**
+     * {@inheritDoc}
+     * These are the main wiki and every virtual wiki, nothing is swept until a request has used
+     * this store and made the XWiki instance known.
+     */
+    @Override
+    protected Collection<String> getWikisToSweep() throws XWikiException
+    {
+        final Set<String> wikis = new LinkedHashSet<String>();
+        if (this.xwiki != null) {
+            wikis.add(this.mainWiki);
+            wikis.addAll(this.xwiki.getVirtualWikisDatabaseNames(this.newXWikiContext(this.mainWiki)));
+        }
+        return wikis;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The task is run in a new execution context holding a new XWikiContext which knows only the
+     * XWiki instance and the wiki, so it opens its own database session.
+     */
+    @Override
+    protected Runnable inWiki(final String wiki, final Runnable task)
+    {
+        final Execution exec = this.execution;
+        return new Runnable() {
+            public void run()
+            {
+                final ExecutionContext ec = new ExecutionContext();
+                ec.setProperty(XWIKI_CONTEXT, newXWikiContext(wiki));
+                exec.setContext(ec);
+                try {
+                    task.run();
+                } finally {
+                    exec.removeContext();
+                }
+            }
+        };
+    }
+
+    @Override
+    protected String getCurrentWikiName()
+    {
+        return this.getWikiRef().getName();
     }
 
     /**
@@ -152,9 +241,37 @@ public class FilesystemHibernateAttachmentRecycleBinStoreAdapter
      * @return the current wiki reference.
      */
     private WikiReference getWikiRef()
+    {
+        return new WikiReference(this.getXWikiContext().getDatabase());
+    }
+
+    /**
+     * Get the XWikiContext of the current request and remember its XWiki instance so that
+     * retention sweeps can set up their own XWikiContexts.
+     *
+     * @return the XWikiContext of the current request.
+     */
+    private XWikiContext getXWikiContext()
     {
         final XWikiContext xc =
-            (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-        return new WikiReference(xc.getDatabase());
+            (XWikiContext) this.execution.getContext().getProperty(XWIKI_CONTEXT);
+        if (this.xwiki == null && xc != null && xc.getWiki() != null) {
+            this.mainWiki = xc.getMainXWiki();
+            this.xwiki = xc.getWiki();
+        }
+        return xc;
+    }
+
+    /**
+     * @param wiki the name of the wiki which the new context should point at.
+     * @return a new XWikiContext holding only the XWiki instance and the given wiki.
+     */
+    private XWikiContext newXWikiContext(final String wiki)
+    {
+        final XWikiContext xc = new XWikiContext();
+        xc.setWiki(this.xwiki);
+        xc.setMainXWiki(this.mainWiki);
+        xc.setDatabase(wiki);
+        return xc;
     }
 }
@@ -95,6 +95,28 @@ public class FilesystemHibernateAttachmentStoreAdapter
         return this.metaStore;
     }
 
+    /**
+     * {@inheritDoc}
+     * The filesystem content and archive stores do not use the transaction's context so attachments
+     * may be written concurrently, the number is set by the
+     * {@value #MAX_CONCURRENT_WRITES_PROPERTY} system property.
+     */
+    @Override
+    protected int getMaxConcurrentWrites()
+    {
+        return Integer.getInteger(MAX_CONCURRENT_WRITES_PROPERTY, DEFAULT_MAX_CONCURRENT_WRITES);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The cache size is set by the {@value #CONTENT_CACHE_SIZE_PROPERTY} system property.
+     */
+    @Override
+    protected long getContentCacheSize()
+    {
+        return Long.getLong(CONTENT_CACHE_SIZE_PROPERTY, DEFAULT_CONTENT_CACHE_SIZE);
+    }
+
     @Override
     protected StartableTransactionRunnable<Session> getTransaction()
     {
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * A TransactionRunnable for deleting a whole directory at once.
+ * Rather than deleting each file, the directory is renamed into a trash area, this is a single
+ * cheap operation no matter how many files the directory contains. If the transaction is rolled
+ * back then the directory is renamed back, once the transaction is complete, the directory is
+ * handed to a {@link TrashReaper} which deletes it in the background.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class DirectoryTrashTransactionRunnable
+    extends StartableTransactionRunnable<TransactionRunnable>
+{
+    /** Makes names in the trash unique even if the same directory is trashed twice in a millisecond. */
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    /** The directory to delete. */
+    private final File toDelete;
+
+    /** The directory to move it into. */
+    private final File trashDir;
+
+    /** A lock to hold while running this TransactionRunnable. */
+    private final ReadWriteLock lock;
+
+    /** The means of deleting the directory once it is in the trash. */
+    private final TrashReaper reaper;
+
+    /** Where the directory was moved to, null if it has not been moved. */
+    private File trashed;
+
+    /** True once the transaction has been committed. */
+    private boolean committed;
+
+    /** True once the lock has been taken. */
+    private boolean preRunComplete;
+
+    /**
+     * The Constructor.
+     *
+     * @param toDelete the directory to delete.
+     * @param trashDir the trash area to move it to, this must be on the same filesystem
+     *                 as the directory to delete so that moving it is only a rename.
+     * @param lock a ReadWriteLock whose writeLock will be locked as the beginning of the process
+     *             and unlocked when complete.
+     * @param reaper the means of deleting the directory once it is in the trash.
+     */
+    public DirectoryTrashTransactionRunnable(final File toDelete,
+        final File trashDir,
+        final ReadWriteLock lock,
+        final TrashReaper reaper)
+    {
+        this.toDelete = toDelete;
+        this.trashDir = trashDir;
+        this.lock = lock;
+        this.reaper = reaper;
+    }
+
+    @Override
+    protected void onPreRun()
+    {
+        this.lock.writeLock().lock();
+        this.preRunComplete = true;
+    }
+
+    @Override
+    protected void onRun() throws IOException
+    {
+        if (!this.toDelete.exists()) {
+            return;
+        }
+        this.trashDir.mkdirs();
+        final File target = new File(this.trashDir, this.toDelete.getName() + "-"
+            + System.currentTimeMillis() + "-" + COUNTER.incrementAndGet());
+        if (!this.toDelete.renameTo(target)) {
+            throw new IOException("Failed to move [" + this.toDelete.getAbsolutePath()
+                + "] to the trash at [" + target.getAbsolutePath() + "]");
+        }
+        this.trashed = target;
+    }
+
+    @Override
+    protected void onCommit()
+    {
+        this.committed = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Move the directory back from the trash.
+     *
+     * @see StartableTransactionRunnable#onRollback()
+     */
+    @Override
+    protected void onRollback()
+    {
+        if (this.trashed == null) {
+            return;
+        }
+        if (this.toDelete.exists()) {
+            throw new IllegalStateException("Tried to rollback the deletion of directory "
+                + this.toDelete.getAbsolutePath() + " but something has been put in its place.");
+        }
+        this.toDelete.getParentFile().mkdirs();
+        if (this.trashed.renameTo(this.toDelete)) {
+            this.trashed = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Hand the directory to the reaper if the transaction was committed and unlock the lock.
+     *
+     * @see StartableTransactionRunnable#onComplete()
+     */
+    @Override
+    protected void onComplete()
+    {
+        if (!this.preRunComplete) {
+            throw new IllegalStateException("Deleting directory: " + this.toDelete.getAbsolutePath()
+                + " onPreRun has not been called, maybe the class was extended "
+                + "and it was overridden?");
+        }
+        try {
+            if (this.committed && this.trashed != null) {
+                this.reaper.reap(this.trashed);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A TransactionRunnable for appending data to the end of a file safely.
+ * Unlike {@link FileSaveTransactionRunnable}, the existing content of the file is not copied,
+ * the new data is written directly after it and if the transaction fails, the file is truncated
+ * back to its original length.
+ * The operation can be rolled back even after the onCommit() function is called.
+ * It is only final when the onComplete function is called.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class FileAppendTransactionRunnable extends StartableTransactionRunnable<TransactionRunnable>
+{
+    /**
+     * The location of the file to append the content to.
+     */
+    private final File toAppendTo;
+
+    /**
+     * A lock to hold while running this TransactionRunnable.
+     */
+    private final ReadWriteLock lock;
+
+    /**
+     * The source of the data to append.
+     */
+    private final StreamProvider provider;
+
+    /**
+     * The length of the file before anything was appended to it, -1 if the file did not exist.
+     */
+    private long originalLength;
+
+    /**
+     * False until run() has begun. If false then we know there is nothing to rollback.
+     */
+    private boolean runStarted;
+
+    /**
+     * The Constructor.
+     *
+     * @param toAppendTo the file to append the content to, it will be created if it does not exist.
+     * @param lock a ReadWriteLock whose writeLock will be locked as the beginning of the process and
+     * unlocked when complete.
+     * @param provider a StreamProvider to get the data to append to the file.
+     */
+    public FileAppendTransactionRunnable(final File toAppendTo,
+        final ReadWriteLock lock,
+        final StreamProvider provider)
+    {
+        this.toAppendTo = toAppendTo;
+        this.lock = lock;
+        this.provider = provider;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Obtain the lock.
+     *
+     * @see TransactionRunnable#preRun()
+     */
+    protected void onPreRun()
+    {
+        this.lock.writeLock().lock();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Record the length of the file and write the data from the provider to the end of it.
+     *
+     * @see TransactionRunnable#run()
+     */
+    protected void onRun() throws Exception
+    {
+        if (!this.toAppendTo.getParentFile().exists() && !this.toAppendTo.getParentFile().mkdirs()) {
+            throw new IOException("Could not make directory tree to place file in. "
+                + "Do you have permission to write to ["
+                + this.toAppendTo.getAbsolutePath() + "] ?");
+        }
+
+        if (this.toAppendTo.exists()) {
+            // Anything after the valid length was left by an append which never finished, drop it
+            // so that the new data follows directly after the last complete write.
+            this.originalLength = this.getValidLength(this.toAppendTo);
+            if (this.originalLength < this.toAppendTo.length()) {
+                this.truncate(this.originalLength);
+            }
+        } else {
+            this.originalLength = -1;
+        }
+        this.runStarted = true;
+
+        final OutputStream out = new FileOutputStream(this.toAppendTo, true);
+        try {
+            this.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Find how much of an existing file was completely written.
+     * This implementation considers the whole file valid, subclasses which frame what they append
+     * may return less so that a torn write at the end of the file is cut away before appending.
+     *
+     * @param file the file which is about to be appended to, it exists.
+     * @return the number of bytes at the beginning of the file to keep.
+     * @throws IOException if the file cannot be read.
+     */
+    protected long getValidLength(final File file) throws IOException
+    {
+        return file.length();
+    }
+
+    /**
+     * Write the data from the provider to the end of the file.
+     *
+     * @param out a stream which appends to the file, it is closed by the caller.
+     * @throws Exception if getting or writing the data fails.
+     */
+    protected void writeTo(final OutputStream out) throws Exception
+    {
+        if (this.provider instanceof WritingStreamProvider) {
+            ((WritingStreamProvider) this.provider).writeTo(out);
+        } else {
+            final InputStream in = this.provider.getStream();
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Truncate the file back to the length it had before anything was appended to it or remove it
+     * if it did not exist.
+     *
+     * @see TransactionRunnable#onRollback()
+     */
+    protected void onRollback() throws IOException
+    {
+        // If this is false then we know run() has not yet happened and we know there is nothing to do.
+        if (!this.runStarted || !this.toAppendTo.exists()) {
+            return;
+        }
+        if (this.originalLength < 0) {
+            this.toAppendTo.delete();
+            return;
+        }
+        this.truncate(this.originalLength);
+    }
+
+    /**
+     * Cut the file off at a given length.
+     *
+     * @param length the number of bytes to keep.
+     * @throws IOException if the file cannot be written.
+     */
+    private void truncate(final long length) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile(this.toAppendTo, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Once this is called, there is no going back.
+     * Unlock the lock.
+     *
+     * @see TransactionRunnable#onComplete()
+     */
+    protected void onComplete()
+    {
+        this.lock.writeLock().unlock();
+    }
+}
@@ -20,6 +20,7 @@
 package org.xwiki.store;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,6 +39,9 @@ import org.apache.commons.io.IOUtils;
  */
 public class FileSaveTransactionRunnable extends StartableTransactionRunnable<TransactionRunnable>
 {
+    /** The number of bytes to compare at a time when comparing new content with the existing file. */
+    private static final int COMPARE_BUFFER_SIZE = 8192;
+
     /**
      * The location of the file to save the attachment content in.
      */
@@ -70,6 +74,12 @@ public class FileSaveTransactionRunnable extends StartableTransactionRunnable<Tr
      */
     private boolean runComplete;
 
+    /**
+     * True if the new content was found to be the same as the content of the existing file,
+     * in which case nothing was written and there is nothing to commit or roll back.
+     */
+    private boolean unchanged;
+
     /**
      * The Constructor.
      *
@@ -82,7 +92,8 @@ public class FileSaveTransactionRunnable extends StartableTransactionRunnable<Tr
      * was in the toSave file prior, just in case onRollback must be called.
      * @param lock a ReadWriteLock whose writeLock will be locked as the beginning of the process and
      * unlocked when complete.
-     * @param provider a StreamProvider to get the data to put into the file.
+     * @param provider a StreamProvider to get the data to put into the file, if it is a
+     * {@link WritingStreamProvider} then the data will be written directly to the temporary file.
      */
     public FileSaveTransactionRunnable(final File toSave,
         final File tempFile,
@@ -123,13 +134,32 @@ public class FileSaveTransactionRunnable extends StartableTransactionRunnable<Tr
                 + this.toSave.getAbsolutePath() + "] ?");
         }
 
-        final InputStream in = this.provider.getStream();
-        try {
-            final OutputStream out = new FileOutputStream(this.tempFile);
+        if (this.provider instanceof WritingStreamProvider) {
+            // Write straight into the temporary file rather than copying from a buffer.
             try {
-                IOUtils.copy(in, out);
+                final OutputStream out = new FileOutputStream(this.tempFile);
+                try {
+                    ((WritingStreamProvider) this.provider).writeTo(out);
+                } finally {
+                    out.close();
+                }
             } finally {
-                out.close();
+                this.runComplete = true;
+            }
+            return;
+        }
+
+        final InputStream in = this.provider.getStream();
+        try {
+            if (this.compareWithExisting() && this.toSave.exists()) {
+                this.unchanged = this.writeIfChanged(in);
+            } else {
+                final OutputStream out = new FileOutputStream(this.tempFile);
+                try {
+                    IOUtils.copy(in, out);
+                } finally {
+                    out.close();
+                }
             }
         } finally {
             this.runComplete = true;
@@ -146,12 +176,32 @@ public class FileSaveTransactionRunnable extends StartableTransactionRunnable<Tr
      */
     protected void onCommit()
     {
+        if (this.unchanged) {
+            return;
+        }
         if (this.toSave.exists()) {
             this.toSave.renameTo(this.backupFile);
         }
         this.tempFile.renameTo(this.toSave);
     }
 
+    /**
+     * Decide whether to compare the new content with the existing file before writing it.
+     * If the existing file already holds exactly the new content then no temporary file is written
+     * and the existing file is left in place. The comparison stops at the first difference and the
+     * new content is still read only once.
+     * This is called in onRun with the lock held and returns false, subclasses which expect the
+     * content to often be unchanged, for example because its length is the same as that of the
+     * existing file, may return true. It is not used with a {@link WritingStreamProvider}.
+     *
+     * @return true if the new content should be compared with the existing file.
+     * @since TODO
+     */
+    protected boolean compareWithExisting()
+    {
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -160,7 +210,7 @@ public class FileSaveTransactionRunnable extends StartableTransactionRunnable<Tr
     protected void onRollback()
     {
         // If this is false then we know run() has not yet happened and we know there is nothing to do.
-        if (this.runComplete) {
+        if (this.runComplete && !this.unchanged) {
             if (this.tempFile.exists()) {
                 this.onRollbackWithTempFile();
             } else {
@@ -276,6 +326,98 @@ public class FileSaveTransactionRunnable extends StartableTransactionRunnable<Tr
         }
     }
 
+    /**
+     * Compare the new content with the existing file and write it to the temporary file only if
+     * it is different. The part which was found to be the same is copied from the existing file
+     * so the new content is read only once.
+     *
+     * @param in the new content.
+     * @return true if the new content is the same as the existing file and nothing was written.
+     * @throws IOException if reading either content or writing the temporary file fails.
+     */
+    private boolean writeIfChanged(final InputStream in) throws IOException
+    {
+        final byte[] newBuffer = new byte[COMPARE_BUFFER_SIZE];
+        final byte[] oldBuffer = new byte[COMPARE_BUFFER_SIZE];
+        long same = 0;
+        int count;
+        final InputStream existing = new FileInputStream(this.toSave);
+        try {
+            for (;;) {
+                count = fill(in, newBuffer);
+                if (fill(existing, oldBuffer) != count || !startsEqual(newBuffer, oldBuffer, count)) {
+                    break;
+                }
+                if (count < COMPARE_BUFFER_SIZE) {
+                    return true;
+                }
+                same += count;
+            }
+        } finally {
+            existing.close();
+        }
+
+        final OutputStream out = new FileOutputStream(this.tempFile);
+        try {
+            final InputStream prefix = new FileInputStream(this.toSave);
+            try {
+                while (same > 0) {
+                    final int read = prefix.read(oldBuffer, 0, (int) Math.min(same, oldBuffer.length));
+                    if (read == -1) {
+                        throw new IOException("File [" + this.toSave.getAbsolutePath()
+                            + "] was cut short while it was being compared.");
+                    }
+                    out.write(oldBuffer, 0, read);
+                    same -= read;
+                }
+            } finally {
+                prefix.close();
+            }
+            out.write(newBuffer, 0, count);
+            IOUtils.copy(in, out);
+        } finally {
+            out.close();
+        }
+        return false;
+    }
+
+    /**
+     * Read from a stream until a buffer is full or the stream ends.
+     *
+     * @param in the stream to read.
+     * @param buffer the buffer to fill.
+     * @return the number of bytes read, less than the length of the buffer only at the end of the stream.
+     * @throws IOException if reading fails.
+     */
+    private static int fill(final InputStream in, final byte[] buffer) throws IOException
+    {
+        int count = 0;
+        while (count < buffer.length) {
+            final int read = in.read(buffer, count, buffer.length - count);
+            if (read == -1) {
+                break;
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    /**
+     * @param a one array.
+     * @param b another array.
+     * @param length the number of bytes to compare.
+     * @return true if the first length bytes of the arrays are the same.
+     */
+    private static boolean startsEqual(final byte[] a, final byte[] b, final int length)
+    {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Remove temporary and backup files.
      *
@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A FileAppendTransactionRunnable which appends the data as one self checking record.
+ * Each record is written as the length of the data, the CRC32 checksum of the data and then the
+ * data itself so that a record which was only partly written when the process died can be told
+ * apart from a complete one. Such a torn record can only be the last one in the file, it is
+ * skipped by {@link #readRecords(File)} and cut away by the next append.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class RecordAppendTransactionRunnable extends FileAppendTransactionRunnable
+{
+    /** The number of bytes which are written before the data of each record. */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * The Constructor.
+     *
+     * @param toAppendTo the file to append the record to, it will be created if it does not exist.
+     * @param lock a ReadWriteLock whose writeLock will be locked as the beginning of the process and
+     * unlocked when complete.
+     * @param provider a StreamProvider to get the data of the record.
+     */
+    public RecordAppendTransactionRunnable(final File toAppendTo,
+        final ReadWriteLock lock,
+        final StreamProvider provider)
+    {
+        super(toAppendTo, lock, provider);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The length of the complete records at the beginning of the file.
+     *
+     * @see FileAppendTransactionRunnable#getValidLength(File)
+     */
+    @Override
+    protected long getValidLength(final File file) throws IOException
+    {
+        return scan(file, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The data is collected first because its length and checksum are written before it.
+     *
+     * @see FileAppendTransactionRunnable#writeTo(OutputStream)
+     */
+    @Override
+    protected void writeTo(final OutputStream out) throws Exception
+    {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        super.writeTo(data);
+        final byte[] record = data.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+
+        final DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(record.length);
+        dos.writeInt((int) crc.getValue());
+        dos.write(record);
+        dos.flush();
+    }
+
+    /**
+     * Read the data of each complete record in a file.
+     * Reading stops at the first record which is cut short or does not match its checksum.
+     *
+     * @param file a file which records were appended to.
+     * @return the data of each complete record in the order they were appended, empty if the file
+     *         does not exist.
+     * @throws IOException if the file cannot be read.
+     */
+    public static List<byte[]> readRecords(final File file) throws IOException
+    {
+        final List<byte[]> out = new ArrayList<byte[]>();
+        if (file.exists()) {
+            scan(file, out);
+        }
+        return out;
+    }
+
+    /**
+     * Read the records in a file up to the first which is incomplete.
+     *
+     * @param file the file to read.
+     * @param records a list to add the data of each complete record to, may be null.
+     * @return the number of bytes taken by the complete records.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long scan(final File file, final List<byte[]> records) throws IOException
+    {
+        final long fileLength = file.length();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long valid = 0;
+        try {
+            final CRC32 crc = new CRC32();
+            while (fileLength - valid >= RECORD_HEADER_SIZE) {
+                final int length = in.readInt();
+                final int checksum = in.readInt();
+                if (length < 0 || length > fileLength - valid - RECORD_HEADER_SIZE) {
+                    break;
+                }
+                final byte[] record = new byte[length];
+                in.readFully(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                if (records != null) {
+                    records.add(record);
+                }
+                valid += RECORD_HEADER_SIZE + length;
+            }
+        } catch (EOFException e) {
+            // The file was cut short while it was being read, what was counted so far is complete.
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Deletes directories which have been moved to the trash, in the background.
+ * Removing a large directory tree file by file is slow and hammers the disk so instead of
+ * doing it in a transaction, the directory is renamed into a trash area and handed to this
+ * which removes it in a single low priority thread, never deleting more than a given number
+ * of files per second.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class TrashReaper
+{
+    /** The number of milliseconds in the period which the rate limit is counted over. */
+    private static final long ONE_SECOND = 1000;
+
+    /** The greatest number of files or directories to delete in one second. */
+    private final int maxDeletesPerSecond;
+
+    /** Directories which are waiting to be deleted. */
+    private final BlockingQueue<File> queue = new LinkedBlockingQueue<File>();
+
+    /** The number of directories which have been handed over and not yet completely deleted. */
+    private int pending;
+
+    /** The thread which deletes the directories, null until something is first handed over. */
+    private Thread thread;
+
+    /** The time when the current rate limit period started. */
+    private long periodStart;
+
+    /** The number of files deleted in the current rate limit period. */
+    private int deletedInPeriod;
+
+    /**
+     * The Constructor.
+     *
+     * @param maxDeletesPerSecond the greatest number of files or directories to delete in
+     *                            one second, if 0 or less then there is no limit.
+     */
+    public TrashReaper(final int maxDeletesPerSecond)
+    {
+        this.maxDeletesPerSecond = maxDeletesPerSecond;
+    }
+
+    /**
+     * Delete a directory and everything in it in the background.
+     * The directory must not be used by anyone else after it is handed over.
+     *
+     * @param trashed the directory to delete.
+     */
+    public synchronized void reap(final File trashed)
+    {
+        this.pending++;
+        this.queue.add(trashed);
+        if (this.thread == null) {
+            this.thread = new Thread(new Runnable() {
+                public void run()
+                {
+                    reapForever();
+                }
+            }, "TrashReaper");
+            this.thread.setDaemon(true);
+            this.thread.setPriority(Thread.MIN_PRIORITY);
+            this.thread.start();
+        }
+    }
+
+    /**
+     * Delete everything in a trash directory in the background.
+     * Used when starting up to remove anything which was left in the trash when the last run ended.
+     *
+     * @param trashDir the directory to empty.
+     */
+    public void reapContentOf(final File trashDir)
+    {
+        final File[] children = trashDir.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                this.reap(child);
+            }
+        }
+    }
+
+    /**
+     * Wait until everything which was handed over has been deleted.
+     *
+     * @param timeoutMillis the greatest number of milliseconds to wait.
+     * @return true if everything has been deleted, false if the time ran out first.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitEmpty(final long timeoutMillis) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (this.pending > 0 && remaining > 0) {
+            this.wait(remaining);
+            remaining = end - System.currentTimeMillis();
+        }
+        return this.pending == 0;
+    }
+
+    /** Take directories off the queue and delete them until the end of time. */
+    private void reapForever()
+    {
+        for (;;) {
+            final File trashed;
+            try {
+                trashed = this.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                this.delete(trashed);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                synchronized (this) {
+                    this.pending--;
+                    this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete a file or a directory and everything in it, obeying the rate limit.
+     * If something cannot be deleted it is left in place and will be retried next startup.
+     *
+     * @param toDelete the file or directory to delete.
+     * @throws InterruptedException if the thread is interrupted while waiting on the rate limit.
+     */
+    private void delete(final File toDelete) throws InterruptedException
+    {
+        if (toDelete.isDirectory()) {
+            final File[] children = toDelete.listFiles();
+            if (children != null) {
+                for (final File child : children) {
+                    this.delete(child);
+                }
+            }
+        }
+        this.throttle();
+        toDelete.delete();
+    }
+
+    /**
+     * Sleep if the greatest number of deletes for this second have already been done.
+     *
+     * @throws InterruptedException if the thread is interrupted while sleeping.
+     */
+    private void throttle() throws InterruptedException
+    {
+        if (this.maxDeletesPerSecond <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - this.periodStart >= ONE_SECOND) {
+            this.periodStart = now;
+            this.deletedInPeriod = 0;
+        } else if (this.deletedInPeriod >= this.maxDeletesPerSecond) {
+            Thread.sleep(ONE_SECOND - (now - this.periodStart));
+            this.periodStart = System.currentTimeMillis();
+            this.deletedInPeriod = 0;
+        }
+        this.deletedInPeriod++;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for DirectoryTrashTransactionRunnable
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class DirectoryTrashTransactionRunnableTest
+{
+    private File storageLocation;
+
+    private File toDelete;
+
+    private File trashDir;
+
+    private TrashReaper reaper;
+
+    private DirectoryTrashTransactionRunnable runnable;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        this.storageLocation =
+            new File(tmpDir, "test-storage" + System.identityHashCode(this.getClass()));
+
+        this.toDelete = new File(new File(this.storageLocation, "path"), "dir");
+        new File(this.toDelete, "sub").mkdirs();
+        IOUtils.write("Delete me!", new FileOutputStream(new File(this.toDelete, "file")));
+        IOUtils.write("And me!", new FileOutputStream(new File(this.toDelete, "sub/file")));
+        this.trashDir = new File(this.storageLocation, "~TRASH");
+
+        this.reaper = new TrashReaper(0);
+        this.runnable = new DirectoryTrashTransactionRunnable(this.toDelete,
+                                                              this.trashDir,
+                                                              new ReentrantReadWriteLock(),
+                                                              this.reaper);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        recursiveDelete(this.storageLocation);
+    }
+
+    @Test
+    public void simpleTest() throws Exception
+    {
+        this.runnable.start();
+        Assert.assertFalse(this.toDelete.exists());
+        Assert.assertTrue("Trash was not reaped.", this.reaper.awaitEmpty(10000));
+        Assert.assertEquals(0, this.trashDir.listFiles().length);
+    }
+
+    @Test
+    public void rollbackTest() throws Exception
+    {
+        final TransactionRunnable failRunnable = new TransactionRunnable()
+        {
+            public void onRun() throws Exception
+            {
+                Assert.assertFalse(toDelete.exists());
+                Assert.assertEquals(1, trashDir.listFiles().length);
+                throw new Exception("Simulate something going wrong.");
+            }
+        };
+        final StartableTransactionRunnable str = new StartableTransactionRunnable();
+        this.runnable.runIn(str);
+        failRunnable.runIn(str);
+        try {
+            str.start();
+            Assert.fail("StartableTransactionRunnable#start() did not throw the exception.");
+        } catch (Exception expected) {
+        }
+        Assert.assertTrue(new File(this.toDelete, "sub/file").exists());
+        Assert.assertEquals(0, this.trashDir.listFiles().length);
+    }
+
+    @Test
+    public void deleteNonexistantTest() throws Exception
+    {
+        recursiveDelete(this.toDelete);
+        this.runnable.start();
+        Assert.assertFalse(this.toDelete.exists());
+    }
+
+    @Test
+    public void rateLimitTest() throws Exception
+    {
+        // 4 files and directories at 2 per second takes at least one second.
+        final TrashReaper slowReaper = new TrashReaper(2);
+        final long start = System.currentTimeMillis();
+        new DirectoryTrashTransactionRunnable(this.toDelete,
+                                              this.trashDir,
+                                              new ReentrantReadWriteLock(),
+                                              slowReaper).start();
+        Assert.assertTrue("Trash was not reaped.", slowReaper.awaitEmpty(10000));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 1000);
+        Assert.assertEquals(0, this.trashDir.listFiles().length);
+    }
+
+    private static void recursiveDelete(final File toDelete) throws Exception
+    {
+        if (toDelete.isDirectory()) {
+            final File[] children = toDelete.listFiles();
+            for (int i = 0; i < children.length; i++) {
+                recursiveDelete(children[i]);
+            }
+        }
+        toDelete.delete();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for FileAppendTransactionRunnable
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class FileAppendTransactionRunnableTest
+{
+    private static final String[] FILE_PATH = { "path", "to", "file" };
+
+    private File storageLocation;
+
+    private File toAppendTo;
+
+    private ReadWriteLock lock;
+
+    private FileAppendTransactionRunnable runnable;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        this.storageLocation = new File(tmpDir, "test-storage" + System.identityHashCode(this.getClass()));
+
+        this.toAppendTo = this.storageLocation;
+        for (int i = 0; i < FILE_PATH.length; i++) {
+            this.toAppendTo = new File(this.toAppendTo, FILE_PATH[i]);
+        }
+
+        this.toAppendTo.getParentFile().mkdirs();
+        IOUtils.write("Record1", new FileOutputStream(this.toAppendTo));
+
+        this.lock = new ReentrantReadWriteLock();
+
+        this.runnable = new FileAppendTransactionRunnable(this.toAppendTo,
+            this.lock,
+            new StreamProvider()
+            {
+                public InputStream getStream()
+                {
+                    return new ByteArrayInputStream("Record2".getBytes());
+                }
+            });
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        recursiveDelete(this.storageLocation);
+    }
+
+    @Test
+    public void simpleTest() throws Exception
+    {
+        this.runnable.start();
+        Assert.assertEquals("Record1Record2", IOUtils.toString(new FileInputStream(this.toAppendTo)));
+    }
+
+    @Test
+    public void rollbackAfterRunTest() throws Exception
+    {
+        final TransactionRunnable failRunnable = new TransactionRunnable()
+        {
+            public void onRun() throws Exception
+            {
+                Assert.assertEquals("Record1Record2", IOUtils.toString(new FileInputStream(toAppendTo)));
+                throw new Exception("Simulate something going wrong.");
+            }
+        };
+        final StartableTransactionRunnable str = new StartableTransactionRunnable();
+        this.runnable.runIn(str);
+        failRunnable.runIn(str);
+        try {
+            str.start();
+            Assert.fail("TransactionRunnable#start() did not throw the exception thrown by run.");
+        } catch (Exception expected) {
+        }
+        Assert.assertEquals("Record1", IOUtils.toString(new FileInputStream(this.toAppendTo)));
+    }
+
+    @Test
+    public void rollbackWithNonexistantOriginalTest() throws Exception
+    {
+        this.toAppendTo.delete();
+
+        final TransactionRunnable failRunnable = new TransactionRunnable()
+        {
+            public void onRun() throws Exception
+            {
+                Assert.assertTrue(toAppendTo.exists());
+                throw new Exception("Simulate something going wrong.");
+            }
+        };
+        final StartableTransactionRunnable str = new StartableTransactionRunnable();
+        this.runnable.runIn(str);
+        failRunnable.runIn(str);
+        try {
+            str.start();
+            Assert.fail("TransactionRunnable#start() did not throw the exception thrown by run.");
+        } catch (Exception expected) {
+        }
+        Assert.assertFalse(this.toAppendTo.exists());
+    }
+
+    private static void recursiveDelete(final File toDelete) throws Exception
+    {
+        if (toDelete.isDirectory()) {
+            final File[] children = toDelete.listFiles();
+            for (int i = 0; i < children.length; i++) {
+                recursiveDelete(children[i]);
+            }
+        }
+        toDelete.delete();
+    }
+}
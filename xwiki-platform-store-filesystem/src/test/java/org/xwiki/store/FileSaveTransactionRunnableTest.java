@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -110,6 +111,121 @@ public class FileSaveTransactionRunnableTest
         Assert.assertEquals(IOUtils.toString(new FileInputStream(this.toSave)), "Version2");
     }
 
+    @Test
+    public void writingStreamProviderTest() throws Exception
+    {
+        final WritingStreamProvider writer = new WritingStreamProvider()
+        {
+            public InputStream getStream()
+            {
+                throw new RuntimeException("getStream() should not be used when writeTo() is available.");
+            }
+
+            public void writeTo(final OutputStream out) throws Exception
+            {
+                out.write("Version3".getBytes());
+            }
+        };
+        new FileSaveTransactionRunnable(this.toSave, this.temp, this.backup, this.lock, writer).start();
+
+        Assert.assertFalse(this.backup.exists());
+        Assert.assertFalse(this.temp.exists());
+        Assert.assertEquals(IOUtils.toString(new FileInputStream(this.toSave)), "Version3");
+    }
+
+    @Test
+    public void unchangedContentNotWrittenTest() throws Exception
+    {
+        final StreamProvider same = new StreamProvider()
+        {
+            public InputStream getStream()
+            {
+                return new ByteArrayInputStream("Version1".getBytes());
+            }
+        };
+        final StartableTransactionRunnable str = new StartableTransactionRunnable();
+        this.comparingRunnable(same).runIn(str);
+        new TransactionRunnable()
+        {
+            public void onRun() throws Exception
+            {
+                Assert.assertFalse("Unchanged content was written to the temp file.", temp.exists());
+            }
+        }.runIn(str);
+        str.start();
+
+        Assert.assertFalse(this.backup.exists());
+        Assert.assertFalse(this.temp.exists());
+        Assert.assertEquals(IOUtils.toString(new FileInputStream(this.toSave)), "Version1");
+    }
+
+    @Test
+    public void rollbackUnchangedContentTest() throws Exception
+    {
+        final StreamProvider same = new StreamProvider()
+        {
+            public InputStream getStream()
+            {
+                return new ByteArrayInputStream("Version1".getBytes());
+            }
+        };
+        final StartableTransactionRunnable str = new StartableTransactionRunnable();
+        this.comparingRunnable(same).runIn(str);
+        new TransactionRunnable()
+        {
+            public void onRun() throws Exception
+            {
+                throw new Exception("Simulate something going wrong.");
+            }
+        }.runIn(str);
+        this.validateRollback(str);
+    }
+
+    @Test
+    public void changedContentAfterComparingTest() throws Exception
+    {
+        // Longer than the comparison buffer so that the matching part is copied from the old file.
+        final byte[] old = new byte[20000];
+        for (int i = 0; i < old.length; i++) {
+            old[i] = (byte) i;
+        }
+        final OutputStream os = new FileOutputStream(this.toSave);
+        os.write(old);
+        os.close();
+
+        final byte[] changedAtEnd = old.clone();
+        changedAtEnd[changedAtEnd.length - 1]++;
+        final byte[] longer = new byte[old.length + 5];
+        System.arraycopy(old, 0, longer, 0, old.length);
+        final byte[] shorter = new byte[16384];
+        System.arraycopy(old, 0, shorter, 0, shorter.length);
+
+        for (final byte[] content : new byte[][] { changedAtEnd, longer, shorter, old }) {
+            this.comparingRunnable(new StreamProvider()
+            {
+                public InputStream getStream()
+                {
+                    return new ByteArrayInputStream(content);
+                }
+            }).start();
+
+            Assert.assertFalse(this.backup.exists());
+            Assert.assertFalse(this.temp.exists());
+            Assert.assertArrayEquals(content, IOUtils.toByteArray(new FileInputStream(this.toSave)));
+        }
+    }
+
+    private FileSaveTransactionRunnable comparingRunnable(final StreamProvider content)
+    {
+        return new FileSaveTransactionRunnable(this.toSave, this.temp, this.backup, this.lock, content)
+        {
+            protected boolean compareWithExisting()
+            {
+                return true;
+            }
+        };
+    }
+
     @Test
     public void rollbackAfterPreRunTest() throws Exception
     {
@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for RecordAppendTransactionRunnable
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class RecordAppendTransactionRunnableTest
+{
+    private File storageLocation;
+
+    private File toAppendTo;
+
+    private ReadWriteLock lock;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        this.storageLocation = new File(tmpDir, "test-storage" + System.identityHashCode(this.getClass()));
+        this.toAppendTo = new File(this.storageLocation, "journal");
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.storageLocation);
+    }
+
+    @Test
+    public void appendAndReadTest() throws Exception
+    {
+        this.append("Record1");
+        this.append("Record2");
+        final List<byte[]> records = RecordAppendTransactionRunnable.readRecords(this.toAppendTo);
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals("Record1", new String(records.get(0)));
+        Assert.assertEquals("Record2", new String(records.get(1)));
+    }
+
+    @Test
+    public void tornRecordIgnoredAndCutAwayTest() throws Exception
+    {
+        this.append("Record1");
+        final long complete = this.toAppendTo.length();
+        this.append("Record2");
+
+        // Simulate a crash in the middle of writing the second record.
+        this.setLength(this.toAppendTo.length() - 3);
+        List<byte[]> records = RecordAppendTransactionRunnable.readRecords(this.toAppendTo);
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals("Record1", new String(records.get(0)));
+
+        // Cut off inside the length and checksum.
+        this.setLength(complete + 5);
+        Assert.assertEquals(1, RecordAppendTransactionRunnable.readRecords(this.toAppendTo).size());
+
+        this.append("Record3");
+        records = RecordAppendTransactionRunnable.readRecords(this.toAppendTo);
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals("Record1", new String(records.get(0)));
+        Assert.assertEquals("Record3", new String(records.get(1)));
+    }
+
+    @Test
+    public void corruptRecordIgnoredTest() throws Exception
+    {
+        this.append("Record1");
+        this.append("Record2");
+
+        // The file was extended but the data never reached the disk.
+        final RandomAccessFile raf = new RandomAccessFile(this.toAppendTo, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            raf.write(0);
+        } finally {
+            raf.close();
+        }
+        Assert.assertEquals(1, RecordAppendTransactionRunnable.readRecords(this.toAppendTo).size());
+    }
+
+    @Test
+    public void rollbackKeepsCompleteRecordsTest() throws Exception
+    {
+        this.append("Record1");
+        this.append("Record2");
+        this.setLength(this.toAppendTo.length() - 1);
+
+        final StartableTransactionRunnable str = new StartableTransactionRunnable();
+        this.newAppender("Record3").runIn(str);
+        new TransactionRunnable()
+        {
+            public void onRun() throws Exception
+            {
+                throw new Exception("Simulate something going wrong.");
+            }
+        }.runIn(str);
+        try {
+            str.start();
+            Assert.fail("TransactionRunnable#start() did not throw the exception thrown by run.");
+        } catch (Exception expected) {
+        }
+        final List<byte[]> records = RecordAppendTransactionRunnable.readRecords(this.toAppendTo);
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals("Record1", new String(records.get(0)));
+    }
+
+    @Test
+    public void readMissingFileTest() throws Exception
+    {
+        Assert.assertEquals(0, RecordAppendTransactionRunnable.readRecords(this.toAppendTo).size());
+    }
+
+    private void append(final String record) throws Exception
+    {
+        this.newAppender(record).start();
+    }
+
+    private RecordAppendTransactionRunnable newAppender(final String record)
+    {
+        return new RecordAppendTransactionRunnable(this.toAppendTo, this.lock, new StreamProvider()
+        {
+            public InputStream getStream()
+            {
+                return new ByteArrayInputStream(record.getBytes());
+            }
+        });
+    }
+
+    private void setLength(final long length) throws Exception
+    {
+        final RandomAccessFile raf = new RandomAccessFile(this.toAppendTo, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.xwiki.store.attachments.newstore.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -56,6 +58,12 @@ public class HibernateDeletedAttachmentStore implements DeletedAttachmentStore<S
     /** An order object which will sort by a field called "date" in decending order. */
     private static final Order ORDER_DATE_DESCENDING = Order.desc(DATE);
 
+    /** The name of the field in DeletedAttachment for the deleted attachment id. */
+    private static final String DELETED_ATTACH_ID = "id";
+
+    /** An order object which will sort by id in decending order, used to break ties in date. */
+    private static final Order ORDER_ID_DESCENDING = Order.desc(DELETED_ATTACH_ID);
+
     /**
      * The name of the field in DeletedAttachment for the document id
      * which the attachment was associated with.
@@ -68,6 +76,9 @@ public class HibernateDeletedAttachmentStore implements DeletedAttachmentStore<S
     /** The exact time when the attachment was deleted. */
     private static final String DELETED_ATTACH_DATE = DATE;
 
+    /** The greatest number of ids to put in a single delete or load statement. */
+    private static final int ID_BATCH_SIZE = 500;
+
     /** This is a hack to get the database id from a DocumentReference, see: getDocId(). */
     private final XWikiDocument idTool = new XWikiDocument(null);
 
@@ -159,6 +170,115 @@ public class HibernateDeletedAttachmentStore implements DeletedAttachmentStore<S
         });
     }
 
+    @Override
+    public TransactionRunnable<Session> getDeletedAttachmentPageLoadRunnable(
+        final DocumentReference reference,
+        final DeletedAttachment after,
+        final int limit,
+        final List<ExternalContentDeletedAttachment> output)
+    {
+        if (reference == null) {
+            throw new NullPointerException("document reference was null");
+        }
+        final Long docId = Long.valueOf(this.getDocId(reference));
+        final Date afterDate = (after != null) ? after.getDate() : null;
+        final Long afterId = (after != null) ? Long.valueOf(after.getId()) : null;
+        return (new TransactionRunnable<Session>() {
+            @Override
+            protected void onRun()
+            {
+                final Criteria c = this.getContext().createCriteria(DeletedAttachment.class);
+                c.add(Restrictions.eq(DELETED_ATTACH_DOC_ID, docId));
+                if (afterDate != null) {
+                    c.add(Restrictions.or(
+                        Restrictions.lt(DELETED_ATTACH_DATE, afterDate),
+                        Restrictions.and(Restrictions.eq(DELETED_ATTACH_DATE, afterDate),
+                                         Restrictions.lt(DELETED_ATTACH_ID, afterId))));
+                }
+                c.addOrder(ORDER_DATE_DESCENDING).addOrder(ORDER_ID_DESCENDING);
+                c.setMaxResults(limit);
+                final List<DeletedAttachment> attachments = (List<DeletedAttachment>) c.list();
+
+                for (final DeletedAttachment delAttach : attachments) {
+                    output.add(new ExternalContentDeletedAttachment(delAttach));
+                }
+            }
+        });
+    }
+
+    @Override
+    public TransactionRunnable<Session> getExpiredDeletedAttachmentLoadRunnable(
+        final Date deletedBefore,
+        final DeletedAttachment after,
+        final int limit,
+        final List<ExternalContentDeletedAttachment> output)
+    {
+        final Date afterDate = (after != null) ? after.getDate() : null;
+        final Long afterId = (after != null) ? Long.valueOf(after.getId()) : null;
+        return (new TransactionRunnable<Session>() {
+            @Override
+            protected void onRun()
+            {
+                final Criteria c = this.getContext().createCriteria(DeletedAttachment.class);
+                c.add(Restrictions.lt(DELETED_ATTACH_DATE, deletedBefore));
+                if (afterDate != null) {
+                    c.add(Restrictions.or(
+                        Restrictions.gt(DELETED_ATTACH_DATE, afterDate),
+                        Restrictions.and(Restrictions.eq(DELETED_ATTACH_DATE, afterDate),
+                                         Restrictions.gt(DELETED_ATTACH_ID, afterId))));
+                }
+                c.addOrder(Order.asc(DELETED_ATTACH_DATE)).addOrder(Order.asc(DELETED_ATTACH_ID));
+                c.setMaxResults(limit);
+                final List<DeletedAttachment> attachments = (List<DeletedAttachment>) c.list();
+
+                for (final DeletedAttachment delAttach : attachments) {
+                    output.add(new ExternalContentDeletedAttachment(delAttach));
+                }
+            }
+        });
+    }
+
+    @Override
+    public TransactionRunnable<Session> getDeletedAttachmentsByIdLoadRunnable(
+        final Collection<Long> ids,
+        final List<ExternalContentDeletedAttachment> output)
+    {
+        final List<Long> idList = new ArrayList<Long>(ids);
+        return (new TransactionRunnable<Session>() {
+            @Override
+            protected void onRun()
+            {
+                for (int i = 0; i < idList.size(); i += ID_BATCH_SIZE) {
+                    final Criteria c = this.getContext().createCriteria(DeletedAttachment.class);
+                    c.add(Restrictions.in(DELETED_ATTACH_ID,
+                        idList.subList(i, Math.min(i + ID_BATCH_SIZE, idList.size()))));
+                    for (final DeletedAttachment delAttach : (List<DeletedAttachment>) c.list()) {
+                        output.add(new ExternalContentDeletedAttachment(delAttach));
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public TransactionRunnable<Session> getDeletedAttachmentsPurgeRunnable(final Collection<Long> ids)
+    {
+        final List<Long> idList = new ArrayList<Long>(ids);
+        return (new TransactionRunnable<Session>() {
+            @Override
+            protected void onRun()
+            {
+                for (int i = 0; i < idList.size(); i += ID_BATCH_SIZE) {
+                    this.getContext().createQuery(
+                        "DELETE FROM DeletedAttachment WHERE id IN (:ids)")
+                        .setParameterList("ids",
+                            idList.subList(i, Math.min(i + ID_BATCH_SIZE, idList.size())))
+                        .executeUpdate();
+                }
+            }
+        });
+    }
+
     @Override
     public TransactionRunnable<Session> getDeletedAttachmentPurgeRunnable(
         final AttachmentReference reference,
@@ -21,8 +21,9 @@ package org.xwiki.store.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
-import org.xwiki.store.StreamProvider;
+import org.xwiki.store.WritingStreamProvider;
 
 /**
  * A stream provider which provides a stream from serializing an object.
@@ -31,7 +32,7 @@ import org.xwiki.store.StreamProvider;
  * @version $Id$
  * @since 3.0M3
  */
-public class SerializationStreamProvider<R> implements StreamProvider
+public class SerializationStreamProvider<R> implements WritingStreamProvider
 {
     /**
      * The serializer for converting the list of attachments into a stream of metadata.
@@ -61,4 +62,10 @@ public class SerializationStreamProvider<R> implements StreamProvider
     {
         return this.serializer.serialize(this.toSerialize);
     }
+
+    @Override
+    public void writeTo(final OutputStream out) throws IOException
+    {
+        this.serializer.serialize(this.toSerialize, out);
+    }
 }
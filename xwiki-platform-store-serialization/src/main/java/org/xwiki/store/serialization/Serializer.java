@@ -21,6 +21,7 @@ package org.xwiki.store.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.xwiki.component.annotation.ComponentRole;
 
@@ -54,4 +55,16 @@ public interface Serializer<R, P extends R>
      * @throws IOException if something goes wrong while serializing.
      */
     InputStream serialize(R object) throws IOException;
+
+    /**
+     * Serialize the given object directly to an OutputStream.
+     * The stream is not closed.
+     *
+     * @param object the thing to serialize.
+     * @param writeTo the stream to write the serialized object to, the output can be used to create a
+     * new object using parse().
+     * @throws IOException if something goes wrong while serializing.
+     * @since TODO
+     */
+    void serialize(R object, OutputStream writeTo) throws IOException;
 }
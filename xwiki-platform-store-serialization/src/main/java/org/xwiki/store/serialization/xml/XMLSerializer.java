@@ -21,6 +21,8 @@ package org.xwiki.store.serialization.xml;
 
 import java.io.IOException;
 
+import javax.xml.stream.XMLStreamReader;
+
 import org.dom4j.Element;
 import org.xwiki.component.annotation.ComponentRole;
 import org.xwiki.store.serialization.Serializer;
@@ -46,6 +48,18 @@ public interface XMLSerializer<R, P extends R> extends Serializer<R, P>
      */
     P parse(final Element xmlElement) throws IOException;
 
+    /**
+     * Deserialize from a stream of XML events without building a document tree.
+     * The reader must be positioned on the start tag of the root element of the serialized object
+     * and when this returns it will be positioned on the matching end tag.
+     *
+     * @param xmlReader a reader positioned on the root element of a serialized object.
+     * @return a new object made by deserializing the XML.
+     * @throws IOException if something goes wrong.
+     * @since TODO
+     */
+    P parse(final XMLStreamReader xmlReader) throws IOException;
+
     /**
      * Serialize to an XMLWriter.
      *
@@ -23,11 +23,16 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
 import org.dom4j.io.OutputFormat;
-import org.dom4j.io.SAXReader;
 import org.xml.sax.SAXException;
 import org.xwiki.component.annotation.ComponentRole;
 import org.xwiki.store.serialization.xml.XMLSerializer;
@@ -43,19 +48,35 @@ import org.xwiki.store.serialization.xml.XMLSerializer;
 @ComponentRole()
 public abstract class AbstractXMLSerializer<R, P extends R> implements XMLSerializer<R, P>
 {
+    /** Creates readers for parsing, factories are threadsafe once they are configured. */
+    private static final XMLInputFactory INPUT_FACTORY;
+
+    /**
+     * Configure the factory, DTDs are never used by serializers so they are not supported.
+     * Text is not coalesced so that large content can be streamed with {@link Base64ElementInputStream}.
+     */
+    static {
+        INPUT_FACTORY = XMLInputFactory.newInstance();
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
     @Override
     public InputStream serialize(final R object) throws IOException
     {
-        // This puts everything on the heap for now.
-        // if size becomes a major problem, the alternitive is to fork over another thread
-        // and use a PipedInputStream.
+        // This puts everything on the heap, callers which have somewhere to put the output
+        // should use serialize(R, OutputStream) instead.
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        this.serialize(object, baos);
+        return new ByteArrayInputStream(baos.toByteArray());
+    }
 
+    @Override
+    public void serialize(final R object, final OutputStream out) throws IOException
+    {
         final XMLWriter writer;
         try {
-            // This should always be UTF-8 because it is a property of the serializer.
-            final OutputFormat of = new OutputFormat(" ", true, "UTF-8");
-            writer = new XMLWriter(baos, of);
+            writer = new XMLWriter(out, this.getOutputFormat());
             writer.startDocument();
         } catch (SAXException e) {
             throw new IOException("Could not open the XML writer.");
@@ -68,25 +89,139 @@ public abstract class AbstractXMLSerializer<R, P extends R> implements XMLSerial
         } catch (SAXException e) {
             throw new IOException("Could not close the XML writer.");
         }
+        writer.flush();
+    }
 
-        return new ByteArrayInputStream(baos.toByteArray());
+    /**
+     * Get the format to use when writing serialized objects.
+     * Override this to alter the output, for example to suppress the XML declaration.
+     *
+     * @return the OutputFormat which the XMLWriter will be given.
+     */
+    protected OutputFormat getOutputFormat()
+    {
+        // This should always be UTF-8 because it is a property of the serializer.
+        return new OutputFormat(" ", true, "UTF-8");
     }
 
     @Override
     public P parse(final InputStream stream) throws IOException
     {
-        final SAXReader reader = new SAXReader();
-
-        // Remove nodes generated by indentation.
-        reader.setStripWhitespaceText(true);
-        reader.setMergeAdjacentText(true);
+        try {
+            final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(stream);
+            try {
+                reader.nextTag();
+                return this.parse(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse XML, probably malformed input.", e);
+        }
+    }
 
-        final Document domdoc;
+    @Override
+    public P parse(final XMLStreamReader reader) throws IOException
+    {
         try {
-            domdoc = reader.read(stream);
-        } catch (DocumentException e) {
-            throw new IOException("Failed to parse XML, probably malformed input.");
+            return this.parseElement(reader);
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse XML, probably malformed input.", e);
+        }
+    }
+
+    /**
+     * Deserialize from a stream of XML events.
+     * Serializers should override this in order to read the content without allocating a
+     * document tree, by default the element is read into a dom4j Element and passed to
+     * {@link #parse(Element)}.
+     *
+     * @param reader a reader positioned on the root element of a serialized object,
+     * it must be left on the matching end tag.
+     * @return a new object made by deserializing the XML.
+     * @throws XMLStreamException if the XML is malformed.
+     * @throws IOException if the content cannot be understood by this serializer.
+     */
+    protected P parseElement(final XMLStreamReader reader) throws XMLStreamException, IOException
+    {
+        return this.parse(readElement(reader));
+    }
+
+    /**
+     * Move to the next child element of the current element.
+     *
+     * @param reader the reader which is inside of an element.
+     * @return true if the reader is on the start tag of the next child, false if it is on the
+     * end tag of the parent because there are no more children.
+     * @throws XMLStreamException if anything other than whitespace is found between elements.
+     */
+    protected static boolean nextChild(final XMLStreamReader reader) throws XMLStreamException
+    {
+        return reader.nextTag() == XMLStreamConstants.START_ELEMENT;
+    }
+
+    /**
+     * Skip over the current element and everything inside of it.
+     *
+     * @param reader a reader positioned on a start tag, it will be left on the matching end tag.
+     * @throws XMLStreamException if the XML is malformed.
+     */
+    protected static void skipElement(final XMLStreamReader reader) throws XMLStreamException
+    {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Read the current element into a dom4j Element.
+     * Text which is only whitespace is discarded, as with the SAXReader which was used before.
+     *
+     * @param reader a reader positioned on a start tag, it will be left on the matching end tag.
+     * @return the element and everything inside of it.
+     * @throws XMLStreamException if the XML is malformed.
+     */
+    private static Element readElement(final XMLStreamReader reader) throws XMLStreamException
+    {
+        final Element out = DocumentHelper.createElement(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            out.addAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        final StringBuilder text = new StringBuilder();
+        for (;;) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                text.append(reader.getText());
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+                continue;
+            }
+            addText(out, text);
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return out;
+            }
+            out.add(readElement(reader));
+        }
+    }
+
+    /**
+     * Add text to an element unless it is only whitespace, then clear the text.
+     *
+     * @param element the element to add the text to.
+     * @param text the text which was read since the last tag.
+     */
+    private static void addText(final Element element, final StringBuilder text)
+    {
+        if (text.toString().trim().length() > 0) {
+            element.addText(text.toString());
         }
-        return this.parse(domdoc.getRootElement());
+        text.setLength(0);
     }
 }
@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.serialization.xml.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.codec.binary.Base64InputStream;
+
+/**
+ * An InputStream which decodes the base64 content of an element while it is being parsed.
+ * This is the counterpart to {@link XMLWriter#writeBase64(org.dom4j.Element, InputStream)},
+ * the text of the element is pulled from the XMLStreamReader as it is needed so the content
+ * is never held in memory as a whole.
+ * <p>
+ * When the stream has been read to the end or closed, the reader is positioned on the end tag
+ * of the element so parsing can continue.
+ * </p>
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class Base64ElementInputStream extends InputStream
+{
+    /** The decoding stream which reads from the element text. */
+    private final InputStream decoder;
+
+    /**
+     * The Constructor.
+     *
+     * @param reader an XMLStreamReader which is positioned on the start tag of the element
+     * containing base64 content.
+     */
+    public Base64ElementInputStream(final XMLStreamReader reader)
+    {
+        this.decoder = new Base64InputStream(new ElementTextInputStream(reader), false);
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        return this.decoder.read();
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException
+    {
+        return this.decoder.read(buffer, offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Read past whatever content remains so that the reader is positioned on the end tag.
+     *
+     * @see java.io.InputStream#close()
+     */
+    @Override
+    public void close() throws IOException
+    {
+        final byte[] buffer = new byte[4096];
+        while (this.decoder.read(buffer, 0, buffer.length) != -1) {
+            // Discard.
+        }
+    }
+
+    /**
+     * A stream of the text content of an element, text is only ever taken from the reader
+     * in pieces no larger than the buffer which is passed to read().
+     */
+    private static class ElementTextInputStream extends InputStream
+    {
+        /** The source of the text. */
+        private final XMLStreamReader reader;
+
+        /** Characters are copied here from the reader, grown as needed. */
+        private char[] chars = new char[0];
+
+        /** The number of characters of the current text event which have been read. */
+        private int position;
+
+        /** The number of characters in the current text event, 0 if not on a text event. */
+        private int length;
+
+        /** True once the end tag of the element has been reached. */
+        private boolean finished;
+
+        /**
+         * The Constructor.
+         *
+         * @param reader the source of the text, positioned on the start tag of the element.
+         */
+        public ElementTextInputStream(final XMLStreamReader reader)
+        {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] one = new byte[1];
+            return (this.read(one, 0, 1) == -1) ? -1 : (one[0] & 0xff);
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int count) throws IOException
+        {
+            try {
+                while (this.position >= this.length) {
+                    if (this.finished || !this.nextText()) {
+                        return -1;
+                    }
+                }
+                final int toRead = Math.min(count, this.length - this.position);
+                if (this.chars.length < toRead) {
+                    this.chars = new char[toRead];
+                }
+                final int read = this.reader.getTextCharacters(this.position, this.chars, 0, toRead);
+                for (int i = 0; i < read; i++) {
+                    if (this.chars[i] > 0x7f) {
+                        throw new IOException("Element content is not base64, found character ["
+                            + this.chars[i] + "]");
+                    }
+                    buffer[offset + i] = (byte) this.chars[i];
+                }
+                this.position += read;
+                return read;
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to read element content, probably malformed input.", e);
+            }
+        }
+
+        /**
+         * Move to the next piece of text in the element.
+         *
+         * @return true if the reader is now on a text event, false if the end tag was reached.
+         * @throws XMLStreamException if the XML is malformed.
+         * @throws IOException if there is an element where there should be only text.
+         */
+        private boolean nextText() throws XMLStreamException, IOException
+        {
+            for (;;) {
+                final int event = this.reader.next();
+                switch (event) {
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        this.position = 0;
+                        this.length = this.reader.getTextLength();
+                        return true;
+                    case XMLStreamConstants.END_ELEMENT:
+                        this.position = 0;
+                        this.length = 0;
+                        this.finished = true;
+                        return false;
+                    case XMLStreamConstants.START_ELEMENT:
+                        throw new IOException("Unexpected element [" + this.reader.getLocalName()
+                            + "] found in base64 content.");
+                    default:
+                        // Comments and processing instructions are ignored.
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -61,6 +61,11 @@ public class XMLWriter extends org.dom4j.io.XMLWriter
      */
     private static final int BASE64_WIDTH = 80;
 
+    /**
+     * Size of the buffer used for copying content when none is provided.
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+
     /**
      * Platform dependent line seperator.
      */
@@ -227,6 +232,26 @@ public class XMLWriter extends org.dom4j.io.XMLWriter
      * @throws IOException a problem occurs during reading or writing.
      */
     public void writeBase64(final Element element, final InputStream is) throws IOException
+    {
+        this.writeBase64(element, is, new byte[DEFAULT_BUFFER_SIZE]);
+    }
+
+    /**
+     * Writes the <code>{@link Element}</code>, including its <code>{@link
+     * Attribute}</code>s, using the
+     * <code>{@link InputStream}</code> encoded in Base64 for its content.
+     * The content is copied through the given buffer, callers which write many large elements
+     * should pass the same large buffer each time rather than having one allocated per element.
+     *
+     * @param element <code>{@link Element}</code> to output.
+     * @param is <code>{@link InputStream}</code> that will be fully read and encoded
+     * in Base64 into the element content.
+     * @param buffer the buffer to copy the content through, its size is the size of each write.
+     * @throws IOException a problem occurs during reading or writing.
+     * @since TODO
+     */
+    public void writeBase64(final Element element, final InputStream is, final byte[] buffer)
+        throws IOException
     {
         this.writeOpen(element);
         super.writePrintln();
@@ -234,7 +259,10 @@ public class XMLWriter extends org.dom4j.io.XMLWriter
         super.flush();
         final Base64OutputStream base64 =
             new Base64OutputStream(new CloseShieldOutputStream(this.out), true, BASE64_WIDTH, NEWLINE);
-        IOUtils.copy(is, base64);
+        int count;
+        while ((count = is.read(buffer)) != -1) {
+            base64.write(buffer, 0, count);
+        }
         base64.close();
 
         // The last char written was a newline, not a > so it will not indent unless it is done manually.
@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.serialization.xml.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.dom4j.dom.DOMElement;
+import org.dom4j.io.OutputFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests Base64ElementInputStream
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class Base64ElementInputStreamTest
+{
+    @Test
+    public void testReadWrittenBase64() throws Exception
+    {
+        final byte[] content = new byte[100000];
+        new Random(1).nextBytes(content);
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final XMLWriter writer = new XMLWriter(baos, new OutputFormat(" ", true, "UTF-8"));
+        final byte[] buffer = new byte[1 << 16];
+        writer.startDocument();
+        writer.writeOpen(new DOMElement("root"));
+        writer.writeBase64(new DOMElement("content"), new ByteArrayInputStream(content), buffer);
+        writer.writeBase64(new DOMElement("more"), new ByteArrayInputStream(content), buffer);
+        writer.writeClose(new DOMElement("root"));
+        writer.endDocument();
+
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        final XMLStreamReader reader =
+            factory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray()));
+        reader.nextTag();
+        Assert.assertEquals("root", reader.getLocalName());
+
+        reader.nextTag();
+        Assert.assertEquals("content", reader.getLocalName());
+        final InputStream is = new Base64ElementInputStream(reader);
+        Assert.assertArrayEquals("Decoded content differs.", content, IOUtils.toByteArray(is));
+        Assert.assertEquals(XMLStreamConstants.END_ELEMENT, reader.getEventType());
+
+        // Closing without reading must leave the reader at the end of the element.
+        reader.nextTag();
+        Assert.assertEquals("more", reader.getLocalName());
+        new Base64ElementInputStream(reader).close();
+        Assert.assertEquals(XMLStreamConstants.END_ELEMENT, reader.getEventType());
+        Assert.assertEquals("more", reader.getLocalName());
+
+        reader.nextTag();
+        Assert.assertEquals("root", reader.getLocalName());
+    }
+}
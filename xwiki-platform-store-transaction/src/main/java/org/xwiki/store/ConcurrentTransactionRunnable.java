@@ -0,0 +1,271 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A TransactionRunnable which runs a number of independent branches at the same time.
+ * Each branch is obtained from {@link #newBranch()} and TransactionRunnables are runIn() it just as
+ * they would be runIn() any other runnable. Only onRun() is done concurrently, the branches are
+ * pre-run, committed, rolled back and completed one after another in the thread which started the
+ * transaction so that locks taken in onPreRun() are released by the same thread in onComplete().
+ * Since the branches are committed in onCommit() of this runnable, they commit or rollback together
+ * with whatever else is in the same transaction.
+ *
+ * Runnables in different branches must not depend on one another and whatever they get from
+ * {@link #getContext()} must be safe to use from more than one thread.
+ *
+ * The branches are run by an executor which is shared between transactions and owned by the caller,
+ * its size bounds the number of branches being run at once across all transactions. The thread which
+ * started the transaction also runs any branch which no thread of the executor has picked up so a
+ * transaction makes progress even when the executor is busy with other transactions.
+ *
+ * @param <T> see: {@link TransactionRunnable}
+ * @version $Id$
+ * @since TODO
+ */
+public class ConcurrentTransactionRunnable<T> extends TransactionRunnable<T>
+{
+    /** The executor which runs the branches, null if they are run in the calling thread. */
+    private final ExecutorService executor;
+
+    /** The branches in the order which they were created. */
+    private final List<Branch> branches = new ArrayList<Branch>();
+
+    /** True once this runnable has been pre-run, after this no more branches may be added. */
+    private boolean hasStarted;
+
+    /**
+     * The Constructor.
+     *
+     * @param executor the shared executor to run branches in, this runnable never shuts it down,
+     * if this is null then the branches will be run one after another in the calling thread.
+     */
+    public ConcurrentTransactionRunnable(final ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Get a new branch to run TransactionRunnables in.
+     * Everything run in the branch will be run in order but possibly at the same time as what is
+     * run in other branches.
+     *
+     * @return a new TransactionRunnable which may only be used as the parent of other runnables.
+     * @throws IllegalStateException if this runnable has already started.
+     */
+    public TransactionRunnable<T> newBranch()
+    {
+        if (this.hasStarted) {
+            throw new IllegalStateException("Cannot add a branch to a ConcurrentTransactionRunnable "
+                + "which has already started.");
+        }
+        final Branch branch = new Branch();
+        this.branches.add(branch);
+        return branch;
+    }
+
+    @Override
+    protected void onPreRun() throws Exception
+    {
+        this.hasStarted = true;
+        for (final Branch branch : this.branches) {
+            // If this fails, the branch will have completed whatever of it was pre-run.
+            branch.preRun();
+            branch.hasPreRun = true;
+        }
+    }
+
+    @Override
+    protected void onRun() throws Exception
+    {
+        if (this.executor == null || this.branches.size() < 2) {
+            for (final Branch branch : this.branches) {
+                branch.runAll();
+                if (branch.failure != null) {
+                    break;
+                }
+            }
+        } else {
+            final List<Future<?>> futures = new ArrayList<Future<?>>(this.branches.size());
+            for (final Branch branch : this.branches) {
+                futures.add(this.executor.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        branch.runOnce();
+                    }
+                }));
+            }
+            // Run whatever the executor has not gotten to yet, this also prevents a deadlock if
+            // every thread of the executor is waiting on a transaction which is waiting on it.
+            for (final Branch branch : this.branches) {
+                branch.runOnce();
+            }
+            // Every branch must be finished before this returns, even if this thread is interrupted,
+            // because the branches may still be writing what the rollback is about to undo.
+            boolean interrupted = false;
+            for (final Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            // A branch which this thread ran itself may have been interrupted too, whichever way
+            // the interrupt came, the transaction is given up once everything has stopped.
+            if (interrupted || Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedException("Interrupted while running concurrent branches");
+            }
+        }
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        for (final Branch branch : this.branches) {
+            if (branch.failure != null) {
+                failures.add(branch.failure);
+            }
+        }
+        if (failures.size() > 0) {
+            throw new TransactionException("Failure in onRun() of a concurrent branch", failures, false);
+        }
+    }
+
+    @Override
+    protected void onCommit() throws Exception
+    {
+        for (int i = this.branches.size() - 1; i >= 0; i--) {
+            final List<TransactionRunnable> ran = this.branches.get(i).ran;
+            for (int j = ran.size() - 1; j >= 0; j--) {
+                ran.get(j).onCommit();
+            }
+        }
+    }
+
+    @Override
+    protected void onRollback() throws Exception
+    {
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        for (int i = this.branches.size() - 1; i >= 0; i--) {
+            final List<TransactionRunnable> ran = this.branches.get(i).ran;
+            for (int j = ran.size() - 1; j >= 0; j--) {
+                try {
+                    ran.get(j).onRollback();
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        }
+        if (failures.size() > 0) {
+            throw new TransactionException("Failure in onRollback() of a concurrent branch, the storage "
+                + "engine might be in an inconsistent state", failures, true);
+        }
+    }
+
+    @Override
+    protected void onComplete() throws Exception
+    {
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        for (int i = this.branches.size() - 1; i >= 0; i--) {
+            final Branch branch = this.branches.get(i);
+            if (branch.hasPreRun) {
+                try {
+                    branch.complete();
+                } catch (TransactionException e) {
+                    failures.add(e);
+                }
+            }
+        }
+        if (failures.size() > 0) {
+            throw new TransactionException("Failure in onComplete() of a concurrent branch", failures, false);
+        }
+    }
+
+    /**
+     * A branch which runnables are run in.
+     * It takes it's context from the ConcurrentTransactionRunnable which created it.
+     */
+    private class Branch extends TransactionRunnable<T>
+    {
+        /** Every runnable in this branch which has had onRun() called, in the order they were run. */
+        private final List<TransactionRunnable> ran = new ArrayList<TransactionRunnable>();
+
+        /** True if every runnable in this branch was successfully pre-run. */
+        private boolean hasPreRun;
+
+        /** Whatever was thrown by onRun() of a runnable in this branch, null if nothing. */
+        private Throwable failure;
+
+        /** Set by the first thread to run this branch so that it is not run again by another. */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        /** Run this branch unless another thread already has or is running it. */
+        private void runOnce()
+        {
+            if (this.claimed.compareAndSet(false, true)) {
+                this.runAll();
+            }
+        }
+
+        /**
+         * Call onRun() on each runnable in this branch, stopping at the first failure.
+         * The failure is kept rather than thrown so that it can be reported from the calling thread.
+         */
+        private void runAll()
+        {
+            try {
+                for (final TransactionRunnable runnable : this.getRunPath()) {
+                    this.ran.add(runnable);
+                    runnable.onRun();
+                }
+            } catch (Throwable t) {
+                this.failure = t;
+            }
+        }
+
+        @Override
+        protected T getContext()
+        {
+            return ConcurrentTransactionRunnable.this.getContext();
+        }
+
+        /**
+         * {@inheritDoc}
+         * This implementation throws an exception because a branch is run by the
+         * ConcurrentTransactionRunnable which created it.
+         *
+         * @see TransactionRunnable#runIn(TransactionRunnable<U>)
+         */
+        @Override
+        public <U extends T> TransactionRunnable<U> runIn(final TransactionRunnable<U> parentRunnable)
+        {
+            throw new IllegalStateException("A branch of a ConcurrentTransactionRunnable cannot be "
+                + "runIn() any other TransactionRunnable.");
+        }
+    }
+}
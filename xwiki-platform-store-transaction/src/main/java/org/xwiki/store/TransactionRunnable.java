@@ -279,7 +279,7 @@ public class TransactionRunnable<T>
     /**
      * @return all TransactionRunnables under and including this one in the order they need to be run.
      */
-    private List<TransactionRunnable> getRunPath()
+    List<TransactionRunnable> getRunPath()
     {
         List<TransactionRunnable> runPath = new ArrayList<TransactionRunnable>();
         this.addAllToRunPath(runPath);
@@ -0,0 +1,320 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ConcurrentTransactionRunnable.
+ *
+ * @version $Id$
+ * @since TODO
+ */
+public class ConcurrentTransactionRunnableTest
+{
+    private final StartableTransactionRunnable transaction = new StartableTransactionRunnable();
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void runAllBranchesTest() throws Exception
+    {
+        final ConcurrentTransactionRunnable concurrent = new ConcurrentTransactionRunnable(this.executor);
+        concurrent.runIn(this.transaction);
+        new RecordingTransactionRunnable("a").runIn(concurrent.newBranch());
+        new RecordingTransactionRunnable("b").runIn(concurrent.newBranch());
+
+        this.transaction.start();
+
+        Assert.assertEquals("[preRun a, preRun b, commit b, commit a, complete b, complete a]",
+                            this.withoutRun().toString());
+        Assert.assertTrue("Branch a was not run.", this.events.contains("run a"));
+        Assert.assertTrue("Branch b was not run.", this.events.contains("run b"));
+    }
+
+    /**
+     * Both branches wait for each other in onRun() so this only passes if they are run at once.
+     */
+    @Test
+    public void runConcurrentlyTest() throws Exception
+    {
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final ConcurrentTransactionRunnable concurrent = new ConcurrentTransactionRunnable(this.executor);
+        concurrent.runIn(this.transaction);
+        for (int i = 0; i < 2; i++) {
+            new TransactionRunnable()
+            {
+                protected void onRun() throws Exception
+                {
+                    barrier.await(10, TimeUnit.SECONDS);
+                }
+            } .runIn(concurrent.newBranch());
+        }
+
+        this.transaction.start();
+    }
+
+    /**
+     * Every thread of the executor is busy so the branches must be run by the calling thread.
+     */
+    @Test
+    public void runWhenExecutorBusyTest() throws Exception
+    {
+        final CyclicBarrier release = new CyclicBarrier(3);
+        for (int i = 0; i < 2; i++) {
+            this.executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        // The test will fail on its own.
+                    }
+                }
+            });
+        }
+
+        final ConcurrentTransactionRunnable concurrent = new ConcurrentTransactionRunnable(this.executor);
+        concurrent.runIn(this.transaction);
+        new RecordingTransactionRunnable("a").runIn(concurrent.newBranch());
+        new RecordingTransactionRunnable("b")
+        {
+            protected void onRun() throws Exception
+            {
+                super.onRun();
+                // Free the executor once the branches have been run so the leftover tasks finish.
+                release.await(10, TimeUnit.SECONDS);
+            }
+        } .runIn(concurrent.newBranch());
+
+        this.transaction.start();
+
+        Assert.assertTrue("Branch a was not run.", this.events.contains("run a"));
+        Assert.assertTrue("Branch b was not run.", this.events.contains("run b"));
+    }
+
+    /**
+     * The thread which started the transaction is interrupted while the branches are running,
+     * it must wait for them to finish before it gives up.
+     */
+    @Test
+    public void interruptWaitsForBranchesTest() throws Exception
+    {
+        final CountDownLatch running = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ConcurrentTransactionRunnable concurrent = new ConcurrentTransactionRunnable(this.executor);
+        concurrent.runIn(this.transaction);
+        for (final String name : new String[] { "a", "b" }) {
+            new TransactionRunnable()
+            {
+                protected void onRun() throws Exception
+                {
+                    running.countDown();
+                    awaitUninterruptibly(release);
+                    events.add("finished " + name);
+                }
+            } .runIn(concurrent.newBranch());
+        }
+
+        final List<Object> result = Collections.synchronizedList(new ArrayList<Object>());
+        final Thread starter = new Thread()
+        {
+            public void run()
+            {
+                try {
+                    transaction.start();
+                } catch (Exception e) {
+                    result.add(e);
+                }
+                result.add(new ArrayList<String>(events));
+                result.add(Thread.currentThread().isInterrupted());
+            }
+        };
+        starter.start();
+        Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+
+        starter.interrupt();
+        starter.join(200);
+        Assert.assertTrue("Gave up before the branches finished.", starter.isAlive());
+
+        release.countDown();
+        starter.join(10000);
+        Assert.assertFalse(starter.isAlive());
+        Assert.assertEquals(3, result.size());
+        Assert.assertTrue(result.get(0) instanceof Exception);
+        Assert.assertTrue(((List) result.get(1)).contains("finished a"));
+        Assert.assertTrue(((List) result.get(1)).contains("finished b"));
+        Assert.assertEquals(Boolean.TRUE, result.get(2));
+    }
+
+    @Test
+    public void failureInBranchTest() throws Exception
+    {
+        final ConcurrentTransactionRunnable concurrent = new ConcurrentTransactionRunnable(null);
+        concurrent.runIn(this.transaction);
+        new RecordingTransactionRunnable("a").runIn(concurrent.newBranch());
+        new RecordingTransactionRunnable("b")
+        {
+            protected void onRun() throws Exception
+            {
+                super.onRun();
+                throw new Exception("b failed");
+            }
+        } .runIn(concurrent.newBranch());
+        new RecordingTransactionRunnable("c").runIn(concurrent.newBranch());
+
+        try {
+            this.transaction.start();
+            Assert.fail("exception was not thrown");
+        } catch (TransactionException e) {
+            // expected.
+        }
+
+        Assert.assertEquals("[preRun a, preRun b, preRun c, run a, run b, rollback b, rollback a, "
+                            + "complete c, complete b, complete a]",
+                            this.events.toString());
+    }
+
+    @Test
+    public void contextTest() throws Exception
+    {
+        final Object context = new Object();
+        final ProvidingTransactionRunnable<Object, Object> provider =
+            new ProvidingTransactionRunnable<Object, Object>()
+            {
+                protected Object getProvidedContext()
+                {
+                    return context;
+                }
+            };
+        provider.runIn(this.transaction);
+        final ConcurrentTransactionRunnable<Object> concurrent = new ConcurrentTransactionRunnable<Object>(this.executor);
+        concurrent.runIn(provider);
+        final List<Object> seen = new ArrayList<Object>();
+        new TransactionRunnable<Object>()
+        {
+            protected void onRun()
+            {
+                seen.add(this.getContext());
+            }
+        } .runIn(concurrent.newBranch());
+
+        this.transaction.start();
+
+        Assert.assertSame("The branch did not get the context.", context, seen.get(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void branchAfterStartTest() throws Exception
+    {
+        final ConcurrentTransactionRunnable concurrent = new ConcurrentTransactionRunnable(this.executor);
+        concurrent.runIn(this.transaction);
+        this.transaction.start();
+        concurrent.newBranch();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void branchRunInTest()
+    {
+        new ConcurrentTransactionRunnable(this.executor).newBranch().runIn(this.transaction);
+    }
+
+    private List<String> withoutRun()
+    {
+        final List<String> out = new ArrayList<String>();
+        for (final String event : this.events) {
+            if (!event.startsWith("run ")) {
+                out.add(event);
+            }
+        }
+        return out;
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch)
+    {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class RecordingTransactionRunnable extends TransactionRunnable
+    {
+        private final String name;
+
+        public RecordingTransactionRunnable(final String name)
+        {
+            this.name = name;
+        }
+
+        protected void onPreRun() throws Exception
+        {
+            events.add("preRun " + this.name);
+        }
+
+        protected void onRun() throws Exception
+        {
+            events.add("run " + this.name);
+        }
+
+        protected void onCommit() throws Exception
+        {
+            events.add("commit " + this.name);
+        }
+
+        protected void onRollback() throws Exception
+        {
+            events.add("rollback " + this.name);
+        }
+
+        protected void onComplete() throws Exception
+        {
+            events.add("complete " + this.name);
+        }
+    }
+}